@@ -0,0 +1,121 @@
+/**
+ * Copyright (C) 2011-2017 The PILE Developers <pile-dev@googlegroups.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pileproject.drivecommand.benchmark;
+
+import com.pileproject.drivecommand.machine.MachineBase;
+import com.pileproject.drivecommand.machine.device.input.LightSensor;
+import com.pileproject.drivecommand.machine.device.output.Motor;
+import com.pileproject.drivecommand.model.ev3.Ev3Constants;
+import com.pileproject.drivecommand.model.ev3.Ev3Machine;
+import com.pileproject.drivecommand.model.ev3.port.Ev3InputPort;
+import com.pileproject.drivecommand.model.ev3.port.Ev3OutputPort;
+import com.pileproject.drivecommand.model.nxt.NxtConstants;
+import com.pileproject.drivecommand.model.nxt.NxtMachine;
+import com.pileproject.drivecommand.model.nxt.port.NxtInputPort;
+import com.pileproject.drivecommand.model.nxt.port.NxtOutputPort;
+import com.pileproject.drivecommand.model.pile.PileConstants;
+import com.pileproject.drivecommand.model.pile.PileMachine;
+import com.pileproject.drivecommand.model.pile.port.PileInputPort;
+import com.pileproject.drivecommand.model.pile.port.PileOutputPort;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of device commands through each protocol.
+ * The communicator returns a canned reply of the light sensor without any delay,
+ * so only the request encoding, the reply decoding and the dispatch of the library are measured.
+ * {@link SimulatorDeviceBenchmark} measures them together with the simulators.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DeviceBenchmark {
+    @Param({ "EV3", "NXT", "PILE" })
+    public String machineType;
+
+    private MachineBase mMachine;
+    private Motor mMotor;
+    private LightSensor mLightSensor;
+
+    @Setup
+    public void setUp() throws IOException {
+        switch (machineType) {
+            case "EV3":
+                // a reply of a light sensor in percent (the value is 55) whose message counter is
+                // copied from each request: | length (2) | counter (2) | status (1) | value (1) |
+                byte[] ev3Reply = { 0x04, 0x00, 0x00, 0x00, Ev3Constants.DIRECT_COMMAND_SUCCESS, 0x37 };
+                mMachine = new Ev3Machine(new FixedReplyCommunicator(ev3Reply, 2, 2));
+                mMotor = mMachine.createMotor(Ev3OutputPort.PORT_A);
+                mLightSensor = mMachine.createLightSensor(Ev3InputPort.PORT_1);
+                break;
+            case "NXT":
+                // a reply of GET_INPUT_VALUES (a light sensor in percent mode, the scaled value is 55)
+                byte[] nxtReply = {
+                        NxtConstants.REPLY_COMMAND, NxtConstants.GET_INPUT_VALUES, 0x00, 0x00, 0x01, 0x00,
+                        NxtConstants.LIGHT_ACTIVE, NxtConstants.PCTFULLSCALEMODE,
+                        (byte) 0xCC, 0x01, (byte) 0xCC, 0x01, 0x37, 0x00, 0x37, 0x00
+                };
+                mMachine = new NxtMachine(new FixedReplyCommunicator(nxtReply));
+                mMotor = mMachine.createMotor(NxtOutputPort.PORT_A);
+                mLightSensor = mMachine.createLightSensor(NxtInputPort.PORT_1);
+                break;
+            case "PILE":
+                // an ACK which also carries the value of a light sensor (55):
+                // | length (1) | type (1) | value (1) | checksum (1) |
+                byte type = (byte) PileConstants.CommandTypes.LIGHTSENSOR.value();
+                byte[] pileReply = { 0x04, type, 0x37, (byte) (0x04 ^ type ^ 0x37) };
+                mMachine = new PileMachine(new FixedReplyCommunicator(pileReply));
+                mMotor = mMachine.createMotor(PileOutputPort.MOTOR_LEFT);
+                mLightSensor = mMachine.createLightSensor(PileInputPort.LIGHT_SENSOR_L);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown machine: " + machineType);
+        }
+        mMachine.connect();
+    }
+
+    @TearDown
+    public void tearDown() {
+        mMachine.disconnect();
+    }
+
+    @Benchmark
+    public void motorForward() {
+        mMotor.forward();
+    }
+
+    @Benchmark
+    public int lightSensorRead() {
+        return mLightSensor.getSensorValue();
+    }
+}
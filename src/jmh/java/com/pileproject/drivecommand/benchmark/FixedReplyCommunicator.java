@@ -0,0 +1,104 @@
+/**
+ * Copyright (C) 2011-2017 The PILE Developers <pile-dev@googlegroups.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pileproject.drivecommand.benchmark;
+
+import com.pileproject.drivecommand.model.com.IBufferedCommunicator;
+
+import java.util.Arrays;
+
+/**
+ * An in-memory communicator which discards requests and returns the same reply for every request,
+ * so only the cost of the library is measured.
+ * Each write starts the reply over, and reads continue from where the last read stopped,
+ * so a reply can be read at once or in parts (e.g., a length header and then the rest).
+ */
+public class FixedReplyCommunicator implements IBufferedCommunicator {
+    private final byte[] mReply;
+    private final int mEchoOffset;
+    private final int mEchoLength;
+    private int mPosition;
+    private long mWrittenBytes;
+
+    /**
+     * @param reply the reply returned for every request (may be empty for write-only benchmarks)
+     */
+    public FixedReplyCommunicator(byte[] reply) {
+        this(reply, 0, 0);
+    }
+
+    /**
+     * Creates a communicator which copies a part of each request into the reply,
+     * for protocols which match replies to requests by message counters.
+     *
+     * @param reply the reply returned for every request
+     * @param echoOffset the offset of the part in a request and in the reply
+     * @param echoLength the length of the part
+     */
+    public FixedReplyCommunicator(byte[] reply, int echoOffset, int echoLength) {
+        if (echoOffset < 0 || echoLength < 0 || echoOffset + echoLength > reply.length) {
+            throw new IllegalArgumentException("The echoed part is out of the reply");
+        }
+        mReply = Arrays.copyOf(reply, reply.length);
+        mEchoOffset = echoOffset;
+        mEchoLength = echoLength;
+    }
+
+    @Override
+    public void open() {
+    }
+
+    @Override
+    public void close() {
+    }
+
+    /**
+     * Gets the number of bytes which have been written.
+     *
+     * @return the number of bytes
+     */
+    public long getWrittenBytes() {
+        return mWrittenBytes;
+    }
+
+    @Override
+    public void write(byte[] data) {
+        write(data, 0, data.length);
+    }
+
+    @Override
+    public void write(byte[] data, int offset, int length) {
+        mWrittenBytes += length;
+        if (length >= mEchoOffset + mEchoLength) {
+            System.arraycopy(data, offset + mEchoOffset, mReply, mEchoOffset, mEchoLength);
+        }
+        mPosition = 0;
+    }
+
+    @Override
+    public byte[] read(int length) {
+        byte[] data = new byte[Math.min(length, mReply.length - mPosition)];
+        read(data, 0, data.length);
+        return data;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) {
+        int count = Math.min(length, mReply.length - mPosition);
+        System.arraycopy(mReply, mPosition, buffer, offset, count);
+        mPosition += count;
+        return count;
+    }
+}
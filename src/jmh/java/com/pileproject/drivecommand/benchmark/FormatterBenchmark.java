@@ -0,0 +1,130 @@
+/**
+ * Copyright (C) 2011-2017 The PILE Developers <pile-dev@googlegroups.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pileproject.drivecommand.benchmark;
+
+import com.pileproject.drivecommand.model.ev3.ByteCodeFormatter;
+import com.pileproject.drivecommand.model.ev3.CommandTemplates;
+import com.pileproject.drivecommand.model.pile.PileConstants;
+import com.pileproject.drivecommand.model.pile.PilePacketFormatter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.pileproject.drivecommand.model.ev3.Ev3Constants.DIRECT_COMMAND_REPLY;
+import static com.pileproject.drivecommand.model.ev3.Ev3Constants.EV3_GYRO;
+import static com.pileproject.drivecommand.model.ev3.Ev3Constants.GYRO_ANGLE;
+import static com.pileproject.drivecommand.model.ev3.Ev3Constants.INPUT_DEVICE;
+import static com.pileproject.drivecommand.model.ev3.Ev3Constants.LAYER_MASTER;
+import static com.pileproject.drivecommand.model.ev3.Ev3Constants.READY_SI;
+
+/**
+ * Benchmarks of encoding and decoding commands without communication.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FormatterBenchmark {
+    private final FixedReplyCommunicator mSink = new FixedReplyCommunicator(new byte[0]);
+    private final ByteCodeFormatter mFormatter = new ByteCodeFormatter();
+    private final CommandTemplates mTemplates = new CommandTemplates();
+    private byte[] mPilePacket;
+    private byte mPort;
+
+    @Setup
+    public void setUp() {
+        PilePacketFormatter packet = new PilePacketFormatter(PileConstants.CommandTypes.MOVE);
+        packet.setDataByte((byte) 0x05);
+        packet.setDataByte((byte) 50);
+        packet.calculateChecksum();
+        mPilePacket = packet.byteArray();
+    }
+
+    /**
+     * Encodes an input request with a reused {@link ByteCodeFormatter}.
+     */
+    @Benchmark
+    public long encodeByteCode() {
+        ByteCodeFormatter byteCode = mFormatter.reset();
+        byteCode.addOpCode(DIRECT_COMMAND_REPLY);
+        byteCode.addGlobalAndLocalBufferSize(4, 0);
+        byteCode.addOpCode(INPUT_DEVICE);
+        byteCode.addOpCode(READY_SI);
+        byteCode.addParameter(LAYER_MASTER);
+        byteCode.addParameter(nextPort());
+        byteCode.addParameter(EV3_GYRO);
+        byteCode.addParameter(GYRO_ANGLE);
+        byteCode.addParameter((byte) 1);
+        byteCode.addGlobalIndex((byte) 0);
+        byteCode.writeTo(mSink);
+        return mSink.getWrittenBytes();
+    }
+
+    /**
+     * Encodes the same input request by patching a {@link CommandTemplates} template.
+     */
+    @Benchmark
+    public long encodeByteCodeTemplate() {
+        mTemplates.readInput(true, nextPort(), EV3_GYRO, GYRO_ANGLE, 1).writeTo(mSink);
+        return mSink.getWrittenBytes();
+    }
+
+    /**
+     * Builds a MOVE packet with its checksum.
+     */
+    @Benchmark
+    public byte[] buildPilePacket() {
+        PilePacketFormatter packet = new PilePacketFormatter(PileConstants.CommandTypes.MOVE);
+        packet.setDataByte((byte) (nextPort() << 2 | PileConstants.MotorDir.FORWARD.value()));
+        packet.setDataByte((byte) 50);
+        packet.calculateChecksum();
+        return packet.byteArray();
+    }
+
+    /**
+     * Parses a received packet and extracts its data.
+     */
+    @Benchmark
+    public byte[] parsePilePacket() {
+        return new PilePacketFormatter(mPilePacket).data();
+    }
+
+    /**
+     * Checks the checksum of a received packet in place.
+     */
+    @Benchmark
+    public boolean checkPileChecksum() {
+        return PilePacketFormatter.hasValidChecksum(mPilePacket, mPilePacket.length);
+    }
+
+    // changes the port for every call, so the encoding is not folded into a constant
+    private byte nextPort() {
+        mPort = (byte) ((mPort + 1) & 0x03);
+        return mPort;
+    }
+}
@@ -0,0 +1,101 @@
+/**
+ * Copyright (C) 2011-2017 The PILE Developers <pile-dev@googlegroups.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pileproject.drivecommand.benchmark;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A recorder of the latencies of the commands executed by one task.
+ * This class is not thread-safe; the executions of a task must not overlap
+ * (e.g., a task scheduled at a fixed rate).
+ */
+public class LatencyRecorder {
+    private long[] mLatencies = new long[1024];
+    private int mCount;
+    private int mErrorCount;
+
+    /**
+     * Records the latency of a command which has succeeded.
+     *
+     * @param nanos the latency [nsec]
+     */
+    public void record(long nanos) {
+        if (mCount == mLatencies.length) {
+            mLatencies = Arrays.copyOf(mLatencies, mCount * 2);
+        }
+        mLatencies[mCount++] = nanos;
+    }
+
+    /**
+     * Records a command which has failed.
+     */
+    public void recordError() {
+        mErrorCount++;
+    }
+
+    /**
+     * Gets the number of commands which have succeeded.
+     *
+     * @return the number of commands
+     */
+    public int getCount() {
+        return mCount;
+    }
+
+    /**
+     * Gets the number of commands which have failed.
+     *
+     * @return the number of commands
+     */
+    public int getErrorCount() {
+        return mErrorCount;
+    }
+
+    /**
+     * Merges the latencies of recorders and sorts them.
+     *
+     * @param recorders the recorders to be merged
+     * @return the sorted latencies [nsec]
+     */
+    public static long[] mergeSorted(List<LatencyRecorder> recorders) {
+        int count = 0;
+        for (LatencyRecorder recorder : recorders) {
+            count += recorder.mCount;
+        }
+        long[] latencies = new long[count];
+        int position = 0;
+        for (LatencyRecorder recorder : recorders) {
+            System.arraycopy(recorder.mLatencies, 0, latencies, position, recorder.mCount);
+            position += recorder.mCount;
+        }
+        Arrays.sort(latencies);
+        return latencies;
+    }
+
+    /**
+     * Gets a percentile of sorted latencies (the nearest-rank method).
+     *
+     * @param sorted the sorted latencies
+     * @param quantile the quantile (e.g., 0.99 for p99)
+     * @return the percentile [nsec], or 0 if there is no latency
+     */
+    public static long percentile(long[] sorted, double quantile) {
+        if (sorted.length == 0) return 0;
+        int rank = (int) Math.ceil(quantile * sorted.length);
+        return sorted[Math.max(0, Math.min(sorted.length, rank) - 1)];
+    }
+}
@@ -0,0 +1,81 @@
+/**
+ * Copyright (C) 2011-2017 The PILE Developers <pile-dev@googlegroups.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pileproject.drivecommand.benchmark;
+
+import com.pileproject.drivecommand.command.TypedCommand;
+import com.pileproject.drivecommand.command.TypedResult;
+import com.pileproject.drivecommand.model.CommandType;
+import com.pileproject.drivecommand.model.nxt.NxtConstants;
+import com.pileproject.drivecommand.model.nxt.NxtProtocol;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A benchmark of parsing GET_INPUT_VALUES replies into {@link com.pileproject.drivecommand.model.nxt.InputValues}
+ * by {@link NxtProtocol}. The communicator returns the same reply without any delay,
+ * so the request encoding, the reply parsing and the dispatch are measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NxtReplyBenchmark {
+    private static final int PORT = 0;
+
+    private NxtProtocol mProtocol;
+    private final TypedCommand mCommand = new TypedCommand(CommandType.GET_LIGHT_VALUE, 0);
+    private final TypedResult mResult = new TypedResult();
+
+    @Setup
+    public void setUp() throws IOException {
+        // a reply of GET_INPUT_VALUES (a light sensor in percent mode, the scaled value is 55)
+        byte[] reply = {
+                NxtConstants.REPLY_COMMAND, NxtConstants.GET_INPUT_VALUES, 0x00, PORT, 0x01, 0x00,
+                NxtConstants.LIGHT_ACTIVE, NxtConstants.PCTFULLSCALEMODE,
+                (byte) 0xCC, 0x01, (byte) 0xCC, 0x01, 0x37, 0x00, 0x37, 0x00
+        };
+        mProtocol = new NxtProtocol(new FixedReplyCommunicator(reply));
+        mProtocol.open();
+        // the input mode is set only for the first time
+        mProtocol.exec(PORT, mCommand, mResult);
+    }
+
+    @TearDown
+    public void tearDown() {
+        mProtocol.close();
+    }
+
+    @Benchmark
+    public int readLightValue() {
+        mProtocol.exec(PORT, mCommand, mResult);
+        return mResult.getIntValue();
+    }
+}
@@ -0,0 +1,501 @@
+/**
+ * Copyright (C) 2011-2017 The PILE Developers <pile-dev@googlegroups.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pileproject.drivecommand.benchmark;
+
+import com.pileproject.drivecommand.machine.MachineBase;
+import com.pileproject.drivecommand.machine.device.input.LightSensor;
+import com.pileproject.drivecommand.machine.device.input.Rangefinder;
+import com.pileproject.drivecommand.machine.device.input.TouchSensor;
+import com.pileproject.drivecommand.machine.device.output.Motor;
+import com.pileproject.drivecommand.model.com.LinkModel;
+import com.pileproject.drivecommand.model.ev3.Ev3Machine;
+import com.pileproject.drivecommand.model.ev3.Ev3Simulator;
+import com.pileproject.drivecommand.model.ev3.port.Ev3InputPort;
+import com.pileproject.drivecommand.model.ev3.port.Ev3OutputPort;
+import com.pileproject.drivecommand.model.nxt.NxtMachine;
+import com.pileproject.drivecommand.model.nxt.NxtSimulator;
+import com.pileproject.drivecommand.model.nxt.port.NxtInputPort;
+import com.pileproject.drivecommand.model.nxt.port.NxtOutputPort;
+import com.pileproject.drivecommand.model.pile.PileMachine;
+import com.pileproject.drivecommand.model.pile.PileSimulator;
+import com.pileproject.drivecommand.model.pile.port.PileInputPort;
+import com.pileproject.drivecommand.model.pile.port.PileOutputPort;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A workload of robots which poll their sensors and send motor set-points at fixed rates
+ * through simulated machines over a {@link LinkModel}.
+ * {@link #run()} measures the latency of each command and the achieved sample rates,
+ * which tell how many robots a host and a link (e.g., a Bluetooth adapter) can serve.
+ *
+ * The latency of a command is measured from the time when it was scheduled to start, not when it started,
+ * so the time a command waits behind late ones (e.g., on a saturated link) is counted
+ * instead of being omitted. The delay of the start is reported separately as the schedule lag.
+ *
+ * <pre>
+ * Scenario.Result result = new Scenario(Scenario.MachineType.NXT)
+ *         .setRobots(4).setSensors(2, 20).setMotorRate(10)
+ *         .setLink(30, 5, 11520, true).run();
+ * </pre>
+ */
+public class Scenario {
+    /** The max number of sensors of a robot. */
+    public static final int MAX_SENSORS = 4;
+
+    /**
+     * The types of simulated machines.
+     */
+    public enum MachineType {
+        EV3, NXT, PILE
+    }
+
+    private final MachineType mMachineType;
+    private int mNumRobots = 1;
+    private int mNumSensors = 2;
+    private double mSensorRate = 20;
+    private double mMotorRate = 10;
+    private long mDurationMillis = 5000;
+    private long mRttMillis = 30;
+    private long mJitterMillis = 5;
+    private long mBytesPerSecond;
+    private boolean mIsLinkShared;
+    private int mNumThreads;
+
+    /**
+     * @param machineType the type of the simulated machines
+     */
+    public Scenario(MachineType machineType) {
+        mMachineType = machineType;
+    }
+
+    /**
+     * Sets the number of robots.
+     *
+     * @param robots the number of robots
+     * @return this scenario
+     */
+    public Scenario setRobots(int robots) {
+        if (robots < 1) throw new IllegalArgumentException("At least one robot is needed");
+        mNumRobots = robots;
+        return this;
+    }
+
+    /**
+     * Sets the number of sensors of each robot and their polling rate.
+     *
+     * @param sensors the number of sensors (0 ~ {@link #MAX_SENSORS})
+     * @param rate the polling rate of each sensor [Hz]
+     * @return this scenario
+     */
+    public Scenario setSensors(int sensors, double rate) {
+        if (sensors < 0 || sensors > MAX_SENSORS) {
+            throw new IllegalArgumentException("The number of sensors must be 0 ~ " + MAX_SENSORS);
+        }
+        if (rate <= 0) throw new IllegalArgumentException("The rate must be positive");
+        mNumSensors = sensors;
+        mSensorRate = rate;
+        return this;
+    }
+
+    /**
+     * Sets the rate of motor set-points of each robot.
+     *
+     * @param rate the rate [Hz], or 0 not to drive the motor
+     * @return this scenario
+     */
+    public Scenario setMotorRate(double rate) {
+        if (rate < 0) throw new IllegalArgumentException("The rate must not be negative");
+        mMotorRate = rate;
+        return this;
+    }
+
+    /**
+     * Sets the model of the link between the host and the robots.
+     *
+     * @param rttMillis the round-trip time without jitter [msec]
+     * @param jitterMillis the max jitter of each frame [msec]
+     * @param bytesPerSecond the bandwidth [byte/sec], or 0 if the bandwidth is unlimited
+     * @param shared all the robots share the bandwidth (<code>true</code>, e.g., one adapter)
+     * or each robot has its own link (<code>false</code>)
+     * @return this scenario
+     */
+    public Scenario setLink(long rttMillis, long jitterMillis, long bytesPerSecond, boolean shared) {
+        mRttMillis = rttMillis;
+        mJitterMillis = jitterMillis;
+        mBytesPerSecond = bytesPerSecond;
+        mIsLinkShared = shared;
+        return this;
+    }
+
+    /**
+     * Sets how long the workload runs.
+     *
+     * @param millis the duration [msec]
+     * @return this scenario
+     */
+    public Scenario setDuration(long millis) {
+        mDurationMillis = millis;
+        return this;
+    }
+
+    /**
+     * Sets the number of threads which execute the commands.
+     *
+     * @param threads the number of threads, or 0 to use one thread for each task
+     * @return this scenario
+     */
+    public Scenario setThreads(int threads) {
+        mNumThreads = threads;
+        return this;
+    }
+
+    /**
+     * Runs the workload and measures it.
+     *
+     * @return the result
+     * @throws IOException if failed to connect to a simulated machine
+     * @throws InterruptedException if interrupted while running
+     */
+    public Result run() throws IOException, InterruptedException {
+        // each frame has a half of the round-trip time as its one-way latency
+        LinkModel sharedLink = newLink(0);
+        List<Robot> robots = new ArrayList<>(mNumRobots);
+        for (int i = 0; i < mNumRobots; i++) {
+            Robot robot = new Robot(mIsLinkShared ? sharedLink : newLink(i));
+            robot.machine.connect();
+            robots.add(robot);
+        }
+
+        int numTasks = mNumRobots * (mNumSensors + (mMotorRate > 0 ? 1 : 0));
+        ScheduledThreadPoolExecutor executor =
+                new ScheduledThreadPoolExecutor(mNumThreads > 0 ? mNumThreads : Math.max(numTasks, 1));
+        List<MeasuredTask> sensorTasks = new ArrayList<>();
+        List<MeasuredTask> motorTasks = new ArrayList<>();
+        long sensorPeriod = (long) (TimeUnit.SECONDS.toNanos(1) / mSensorRate);
+        long motorPeriod = (mMotorRate > 0) ? (long) (TimeUnit.SECONDS.toNanos(1) / mMotorRate) : 0;
+
+        int index = 0;
+        for (Robot robot : robots) {
+            for (Runnable sensor : robot.sensors) {
+                // spread the first executions, so the tasks do not start at once
+                sensorTasks.add(schedule(executor, sensor, sensorPeriod * index++ / numTasks, sensorPeriod));
+            }
+            if (motorPeriod > 0) {
+                motorTasks.add(schedule(executor, robot.motorSetPoint, motorPeriod * index++ / numTasks, motorPeriod));
+            }
+        }
+
+        long start = System.nanoTime();
+        Thread.sleep(mDurationMillis);
+        // the periodic tasks are cancelled, and the running ones are completed
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        for (Robot robot : robots) {
+            robot.machine.disconnect();
+        }
+        return new Result(this, seconds, sensorTasks, motorTasks);
+    }
+
+    private static MeasuredTask schedule(ScheduledThreadPoolExecutor executor, Runnable command,
+                                         long initialDelay, long period) {
+        MeasuredTask task = new MeasuredTask(command, System.nanoTime() + initialDelay, period);
+        executor.scheduleAtFixedRate(task, initialDelay, period, TimeUnit.NANOSECONDS);
+        return task;
+    }
+
+    private LinkModel newLink(long seed) {
+        long rttNanos = TimeUnit.MILLISECONDS.toNanos(mRttMillis);
+        return new LinkModel(rttNanos / 2, TimeUnit.MILLISECONDS.toNanos(mJitterMillis), TimeUnit.NANOSECONDS,
+                mBytesPerSecond, seed);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%-4s robots=%d sensors=%d@%.0fHz motor@%.0fHz rtt=%dms jitter=%dms bandwidth=%s%s",
+                mMachineType, mNumRobots, mNumSensors, mSensorRate, mMotorRate, mRttMillis, mJitterMillis,
+                (mBytesPerSecond > 0) ? mBytesPerSecond + "B/s" : "unlimited", mIsLinkShared ? " (shared)" : "");
+    }
+
+    /**
+     * A simulated robot with its sensors and motor.
+     */
+    private class Robot {
+        final MachineBase machine;
+        final List<Runnable> sensors = new ArrayList<>();
+        final Runnable motorSetPoint;
+
+        Robot(LinkModel link) {
+            final Motor motor;
+            switch (mMachineType) {
+                case EV3: {
+                    machine = new Ev3Machine(new Ev3Simulator(link));
+                    Ev3InputPort[] ports = {
+                            Ev3InputPort.PORT_1, Ev3InputPort.PORT_2, Ev3InputPort.PORT_3, Ev3InputPort.PORT_4
+                    };
+                    for (int i = 0; i < mNumSensors; i++) {
+                        sensors.add(read(machine.createLightSensor(ports[i])));
+                    }
+                    motor = machine.createMotor(Ev3OutputPort.PORT_A);
+                    break;
+                }
+                case NXT: {
+                    machine = new NxtMachine(new NxtSimulator(link));
+                    NxtInputPort[] ports = {
+                            NxtInputPort.PORT_1, NxtInputPort.PORT_2, NxtInputPort.PORT_3, NxtInputPort.PORT_4
+                    };
+                    for (int i = 0; i < mNumSensors; i++) {
+                        sensors.add(read(machine.createLightSensor(ports[i])));
+                    }
+                    motor = machine.createMotor(NxtOutputPort.PORT_A);
+                    break;
+                }
+                case PILE: {
+                    machine = new PileMachine(new PileSimulator(link));
+                    // the sensors of a PILE machine have fixed ports
+                    List<Runnable> all = new ArrayList<>();
+                    all.add(read(machine.createLightSensor(PileInputPort.LIGHT_SENSOR_L)));
+                    all.add(read(machine.createLightSensor(PileInputPort.LIGHT_SENSOR_R)));
+                    all.add(read(machine.createTouchSensor(PileInputPort.TOUCH_SENSOR)));
+                    all.add(read(machine.createRangefinder(PileInputPort.RANGEFINDER)));
+                    sensors.addAll(all.subList(0, mNumSensors));
+                    motor = machine.createMotor(PileOutputPort.MOTOR_LEFT);
+                    break;
+                }
+                default:
+                    throw new IllegalArgumentException("Unknown machine: " + mMachineType);
+            }
+
+            final boolean isTransactional = (mMachineType == MachineType.PILE);
+            motorSetPoint = new Runnable() {
+                private int mCount;
+
+                @Override
+                public void run() {
+                    // change the set-point every time, so every command is sent
+                    motor.setSpeed(50 + (mCount++ & 0x0F));
+                    motor.forward();
+                    if (isTransactional) machine.apply();
+                }
+            };
+        }
+    }
+
+    private static Runnable read(final LightSensor sensor) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                sensor.getSensorValue();
+            }
+        };
+    }
+
+    private static Runnable read(final TouchSensor sensor) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                sensor.isTouched();
+            }
+        };
+    }
+
+    private static Runnable read(final Rangefinder sensor) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                sensor.getDistance();
+            }
+        };
+    }
+
+    /**
+     * A task which records the latency and the schedule lag of each execution.
+     * The n-th execution is intended to start at the first start time plus n periods.
+     */
+    private static class MeasuredTask implements Runnable {
+        private final Runnable mCommand;
+        private final long mPeriod;
+        private final LatencyRecorder mLatencies = new LatencyRecorder();
+        private final LatencyRecorder mLags = new LatencyRecorder();
+        private long mIntendedStart;
+
+        /**
+         * @param command a command to be measured
+         * @param firstStart the time when the first execution is scheduled [nsec]
+         * @param period the period of the executions [nsec]
+         */
+        MeasuredTask(Runnable command, long firstStart, long period) {
+            mCommand = command;
+            mIntendedStart = firstStart;
+            mPeriod = period;
+        }
+
+        @Override
+        public void run() {
+            long start = System.nanoTime();
+            // the executor may start a little earlier than the intended time
+            long intendedStart = Math.min(mIntendedStart, start);
+            mIntendedStart += mPeriod;
+            mLags.record(start - intendedStart);
+            try {
+                mCommand.run();
+            } catch (RuntimeException e) {
+                // a failure must not cancel the periodic task
+                mLatencies.recordError();
+                return;
+            }
+            mLatencies.record(System.nanoTime() - intendedStart);
+        }
+    }
+
+    /**
+     * The result of a scenario.
+     */
+    public static class Result {
+        private final Scenario mScenario;
+        private final double mSeconds;
+        private final long[] mSensorLatencies;
+        private final long[] mMotorLatencies;
+        private final long[] mSensorLags;
+        private final long[] mMotorLags;
+        private final int mNumSensorTasks;
+        private final int mNumMotorTasks;
+        private final int mErrorCount;
+
+        Result(Scenario scenario, double seconds, List<MeasuredTask> sensorTasks, List<MeasuredTask> motorTasks) {
+            mScenario = scenario;
+            mSeconds = seconds;
+            List<LatencyRecorder> sensorLatencies = new ArrayList<>();
+            List<LatencyRecorder> sensorLags = new ArrayList<>();
+            for (MeasuredTask task : sensorTasks) {
+                sensorLatencies.add(task.mLatencies);
+                sensorLags.add(task.mLags);
+            }
+            List<LatencyRecorder> motorLatencies = new ArrayList<>();
+            List<LatencyRecorder> motorLags = new ArrayList<>();
+            for (MeasuredTask task : motorTasks) {
+                motorLatencies.add(task.mLatencies);
+                motorLags.add(task.mLags);
+            }
+            mSensorLatencies = LatencyRecorder.mergeSorted(sensorLatencies);
+            mMotorLatencies = LatencyRecorder.mergeSorted(motorLatencies);
+            mSensorLags = LatencyRecorder.mergeSorted(sensorLags);
+            mMotorLags = LatencyRecorder.mergeSorted(motorLags);
+            mNumSensorTasks = sensorTasks.size();
+            mNumMotorTasks = motorTasks.size();
+            int errors = 0;
+            for (LatencyRecorder recorder : sensorLatencies) {
+                errors += recorder.getErrorCount();
+            }
+            for (LatencyRecorder recorder : motorLatencies) {
+                errors += recorder.getErrorCount();
+            }
+            mErrorCount = errors;
+        }
+
+        /**
+         * Gets a percentile of the latencies of sensor reads (from the scheduled start time).
+         *
+         * @param quantile the quantile (e.g., 0.99 for p99)
+         * @return the latency [nsec]
+         */
+        public long getSensorLatency(double quantile) {
+            return LatencyRecorder.percentile(mSensorLatencies, quantile);
+        }
+
+        /**
+         * Gets a percentile of the latencies of motor set-points (from the scheduled start time).
+         *
+         * @param quantile the quantile (e.g., 0.99 for p99)
+         * @return the latency [nsec]
+         */
+        public long getMotorLatency(double quantile) {
+            return LatencyRecorder.percentile(mMotorLatencies, quantile);
+        }
+
+        /**
+         * Gets a percentile of the delays from the scheduled start times to the actual ones of sensor reads.
+         *
+         * @param quantile the quantile (e.g., 0.99 for p99)
+         * @return the lag [nsec]
+         */
+        public long getSensorLag(double quantile) {
+            return LatencyRecorder.percentile(mSensorLags, quantile);
+        }
+
+        /**
+         * Gets a percentile of the delays from the scheduled start times to the actual ones of motor set-points.
+         *
+         * @param quantile the quantile (e.g., 0.99 for p99)
+         * @return the lag [nsec]
+         */
+        public long getMotorLag(double quantile) {
+            return LatencyRecorder.percentile(mMotorLags, quantile);
+        }
+
+        /**
+         * Gets the achieved sample rate of each sensor on average.
+         *
+         * @return the rate [Hz]
+         */
+        public double getSampleRate() {
+            return (mNumSensorTasks > 0) ? mSensorLatencies.length / mSeconds / mNumSensorTasks : 0;
+        }
+
+        /**
+         * Gets the achieved rate of motor set-points of each robot on average.
+         *
+         * @return the rate [Hz]
+         */
+        public double getMotorRate() {
+            return (mNumMotorTasks > 0) ? mMotorLatencies.length / mSeconds / mNumMotorTasks : 0;
+        }
+
+        /**
+         * Gets the number of commands which have failed.
+         *
+         * @return the number of commands
+         */
+        public int getErrorCount() {
+            return mErrorCount;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s%n"
+                            + "  sensor: p50=%.2fms p99=%.2fms p999=%.2fms (lag p99=%.2fms),"
+                            + " %.1f samples/s per sensor (%d samples)%n"
+                            + "  motor:  p50=%.2fms p99=%.2fms p999=%.2fms (lag p99=%.2fms),"
+                            + " %.1f set-points/s per robot%n"
+                            + "  errors: %d",
+                    mScenario,
+                    millis(getSensorLatency(0.5)), millis(getSensorLatency(0.99)), millis(getSensorLatency(0.999)),
+                    millis(getSensorLag(0.99)), getSampleRate(), mSensorLatencies.length,
+                    millis(getMotorLatency(0.5)), millis(getMotorLatency(0.99)), millis(getMotorLatency(0.999)),
+                    millis(getMotorLag(0.99)), getMotorRate(), mErrorCount);
+        }
+
+        private static double millis(long nanos) {
+            return nanos / 1e6;
+        }
+    }
+}
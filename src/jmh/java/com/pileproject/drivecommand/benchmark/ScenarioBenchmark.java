@@ -0,0 +1,112 @@
+/**
+ * Copyright (C) 2011-2017 The PILE Developers <pile-dev@googlegroups.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pileproject.drivecommand.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A command line runner of {@link Scenario}s.
+ * The arguments are pairs of a key and a value (e.g., <code>machine=NXT robots=4 rtt=40</code>):
+ *
+ * <ul>
+ *     <li>machine: EV3, NXT or PILE (all the types if omitted)</li>
+ *     <li>robots: the number of robots (default: 1)</li>
+ *     <li>sensors: the number of sensors of each robot (default: 2)</li>
+ *     <li>sensorRate: the polling rate of each sensor [Hz] (default: 20)</li>
+ *     <li>motorRate: the rate of motor set-points of each robot [Hz] (default: 10)</li>
+ *     <li>rtt: the round-trip time [msec] (default: 30)</li>
+ *     <li>jitter: the max jitter of each frame [msec] (default: 5)</li>
+ *     <li>bandwidth: the bandwidth [byte/sec], 0 for unlimited (default: 0)</li>
+ *     <li>shared: whether the robots share one link (default: false)</li>
+ *     <li>duration: the duration of each scenario [msec] (default: 5000)</li>
+ *     <li>threads: the number of threads, 0 for one thread per task (default: 0)</li>
+ * </ul>
+ */
+public class ScenarioBenchmark {
+    public static void main(String[] args) throws Exception {
+        List<Scenario.MachineType> types = new ArrayList<>();
+        int robots = 1;
+        int sensors = 2;
+        double sensorRate = 20;
+        double motorRate = 10;
+        long rtt = 30;
+        long jitter = 5;
+        long bandwidth = 0;
+        boolean shared = false;
+        long duration = 5000;
+        int threads = 0;
+
+        for (String arg : args) {
+            String[] pair = arg.split("=", 2);
+            if (pair.length != 2) throw new IllegalArgumentException("Expected key=value: " + arg);
+            String value = pair[1];
+            switch (pair[0]) {
+                case "machine":
+                    types.add(Scenario.MachineType.valueOf(value.toUpperCase()));
+                    break;
+                case "robots":
+                    robots = Integer.parseInt(value);
+                    break;
+                case "sensors":
+                    sensors = Integer.parseInt(value);
+                    break;
+                case "sensorRate":
+                    sensorRate = Double.parseDouble(value);
+                    break;
+                case "motorRate":
+                    motorRate = Double.parseDouble(value);
+                    break;
+                case "rtt":
+                    rtt = Long.parseLong(value);
+                    break;
+                case "jitter":
+                    jitter = Long.parseLong(value);
+                    break;
+                case "bandwidth":
+                    bandwidth = Long.parseLong(value);
+                    break;
+                case "shared":
+                    shared = Boolean.parseBoolean(value);
+                    break;
+                case "duration":
+                    duration = Long.parseLong(value);
+                    break;
+                case "threads":
+                    threads = Integer.parseInt(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown key: " + pair[0]);
+            }
+        }
+        if (types.isEmpty()) {
+            for (Scenario.MachineType type : Scenario.MachineType.values()) {
+                types.add(type);
+            }
+        }
+
+        for (Scenario.MachineType type : types) {
+            Scenario scenario = new Scenario(type)
+                    .setRobots(robots)
+                    .setSensors(sensors, sensorRate)
+                    .setMotorRate(motorRate)
+                    .setLink(rtt, jitter, bandwidth, shared)
+                    .setDuration(duration)
+                    .setThreads(threads);
+            System.out.println(scenario.run());
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/**
+ * Copyright (C) 2011-2017 The PILE Developers <pile-dev@googlegroups.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pileproject.drivecommand.benchmark;
+
+import com.pileproject.drivecommand.machine.MachineBase;
+import com.pileproject.drivecommand.machine.device.input.LightSensor;
+import com.pileproject.drivecommand.machine.device.output.Motor;
+import com.pileproject.drivecommand.model.ev3.Ev3Machine;
+import com.pileproject.drivecommand.model.ev3.Ev3Simulator;
+import com.pileproject.drivecommand.model.ev3.port.Ev3InputPort;
+import com.pileproject.drivecommand.model.ev3.port.Ev3OutputPort;
+import com.pileproject.drivecommand.model.nxt.NxtMachine;
+import com.pileproject.drivecommand.model.nxt.NxtSimulator;
+import com.pileproject.drivecommand.model.nxt.port.NxtInputPort;
+import com.pileproject.drivecommand.model.nxt.port.NxtOutputPort;
+import com.pileproject.drivecommand.model.pile.PileMachine;
+import com.pileproject.drivecommand.model.pile.PileSimulator;
+import com.pileproject.drivecommand.model.pile.port.PileInputPort;
+import com.pileproject.drivecommand.model.pile.port.PileOutputPort;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end benchmarks of device commands through each protocol against a simulated machine without link delay.
+ * The results include the cost of the simulators, which decode the requests and encode the replies.
+ * {@link DeviceBenchmark} measures only the library.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SimulatorDeviceBenchmark {
+    @Param({ "EV3", "NXT", "PILE" })
+    public String machineType;
+
+    private MachineBase mMachine;
+    private Motor mMotor;
+    private LightSensor mLightSensor;
+
+    @Setup
+    public void setUp() throws IOException {
+        switch (machineType) {
+            case "EV3":
+                mMachine = new Ev3Machine(new Ev3Simulator());
+                mMotor = mMachine.createMotor(Ev3OutputPort.PORT_A);
+                mLightSensor = mMachine.createLightSensor(Ev3InputPort.PORT_1);
+                break;
+            case "NXT":
+                mMachine = new NxtMachine(new NxtSimulator());
+                mMotor = mMachine.createMotor(NxtOutputPort.PORT_A);
+                mLightSensor = mMachine.createLightSensor(NxtInputPort.PORT_1);
+                break;
+            case "PILE":
+                mMachine = new PileMachine(new PileSimulator());
+                mMotor = mMachine.createMotor(PileOutputPort.MOTOR_LEFT);
+                mLightSensor = mMachine.createLightSensor(PileInputPort.LIGHT_SENSOR_L);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown machine: " + machineType);
+        }
+        mMachine.connect();
+    }
+
+    @TearDown
+    public void tearDown() {
+        mMachine.disconnect();
+    }
+
+    @Benchmark
+    public void motorForward() {
+        mMotor.forward();
+    }
+
+    @Benchmark
+    public int lightSensorRead() {
+        return mLightSensor.getSensorValue();
+    }
+}
@@ -0,0 +1,175 @@
+/**
+ * Copyright (C) 2011-2017 The PILE Developers <pile-dev@googlegroups.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pileproject.drivecommand.loom;
+
+import com.pileproject.drivecommand.command.TypedCommand;
+import com.pileproject.drivecommand.command.TypedResult;
+import com.pileproject.drivecommand.machine.MachineBase;
+import com.pileproject.drivecommand.machine.device.port.DevicePort;
+import com.pileproject.drivecommand.model.CommandType;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * A stream of commands of one machine which is executed by one (virtual) thread.
+ * Commands can be submitted from any thread without blocking. The thread takes all commands
+ * which are waiting and executes them with one
+ * {@link MachineBase#execAll(DevicePort[], TypedCommand[], TypedResult[])} call,
+ * so machines which can pack several commands into one request (e.g., EV3) need fewer round trips
+ * when many commands are submitted at once.
+ *
+ * Use {@link VirtualThreads#newCommandStream(MachineBase, String)} to start a stream.
+ */
+public class CommandStream {
+    private static final int MAX_BATCH_SIZE = 32;
+    // submitted to stop the stream
+    private static final Request CLOSE = new Request(null, null, 0);
+
+    private final MachineBase mMachine;
+    private final LinkedBlockingQueue<Request> mRequests = new LinkedBlockingQueue<>();
+    private volatile boolean mIsClosed;
+
+    // used only by the thread of this stream
+    private final List<Request> mBatch = new ArrayList<>(MAX_BATCH_SIZE);
+
+    CommandStream(MachineBase machine) {
+        mMachine = machine;
+    }
+
+    /**
+     * Submits a command.
+     *
+     * @param port a port to be used with the command
+     * @param type the type of the command
+     * @param arg the argument of the command (e.g., speed or angle)
+     * @return a future which is completed with the result of the command
+     */
+    public CompletableFuture<TypedResult> submit(DevicePort port, CommandType type, int arg) {
+        Request request = new Request(port, type, arg);
+        if (mIsClosed) {
+            request.mFuture.completeExceptionally(new IllegalStateException("The stream is closed"));
+            return request.mFuture;
+        }
+        mRequests.add(request);
+        // the stream may have been closed after the check, and the thread may have already stopped;
+        // if the thread has not taken the request, nobody will, so take it back and fail it here
+        if (mIsClosed && mRequests.remove(request)) {
+            request.mFuture.completeExceptionally(new IllegalStateException("The stream is closed"));
+        }
+        return request.mFuture;
+    }
+
+    /**
+     * Stops the thread of this stream after the submitted commands are executed.
+     * Commands submitted later fail with {@link IllegalStateException}.
+     */
+    public void close() {
+        if (mIsClosed) return;
+        mIsClosed = true;
+        mRequests.add(CLOSE);
+    }
+
+    /**
+     * Gets the number of commands which have not been executed yet.
+     *
+     * @return the number of waiting commands
+     */
+    public int getPendingCount() {
+        return mRequests.size();
+    }
+
+    void run() {
+        try {
+            while (true) {
+                mBatch.add(mRequests.take());
+                mRequests.drainTo(mBatch, MAX_BATCH_SIZE - 1);
+                if (!execBatch()) return;
+            }
+        } catch (InterruptedException e) {
+            mIsClosed = true;
+            failAll(e);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Executes the commands in the batch.
+     *
+     * @return continue (<code>true</code>) or stop (<code>false</code>) the stream
+     */
+    private boolean execBatch() {
+        int count = mBatch.indexOf(CLOSE);
+        boolean isClosing = count >= 0;
+        if (!isClosing) count = mBatch.size();
+
+        DevicePort[] ports = new DevicePort[count];
+        TypedCommand[] cmds = new TypedCommand[count];
+        TypedResult[] results = new TypedResult[count];
+        for (int i = 0; i < count; i++) {
+            Request request = mBatch.get(i);
+            ports[i] = request.mPort;
+            cmds[i] = new TypedCommand(request.mType, request.mArg);
+            results[i] = new TypedResult();
+        }
+
+        try {
+            if (count > 0) mMachine.execAll(ports, cmds, results);
+            for (int i = 0; i < count; i++) {
+                mBatch.get(i).mFuture.complete(results[i]);
+            }
+        } catch (RuntimeException e) {
+            for (int i = 0; i < count; i++) {
+                mBatch.get(i).mFuture.completeExceptionally(e);
+            }
+        }
+
+        if (!isClosing) {
+            mBatch.clear();
+            return true;
+        }
+        // fail the commands submitted after close() (including the ones in this batch)
+        mBatch.subList(0, count + 1).clear();
+        failAll(new IllegalStateException("The stream is closed"));
+        return false;
+    }
+
+    private void failAll(Throwable cause) {
+        mRequests.drainTo(mBatch);
+        for (Request request : mBatch) {
+            if (request != CLOSE) request.mFuture.completeExceptionally(cause);
+        }
+        mBatch.clear();
+    }
+
+    /**
+     * A command with its future.
+     */
+    private static class Request {
+        private final DevicePort mPort;
+        private final CommandType mType;
+        private final int mArg;
+        private final CompletableFuture<TypedResult> mFuture = new CompletableFuture<>();
+
+        Request(DevicePort port, CommandType type, int arg) {
+            mPort = port;
+            mType = type;
+            mArg = arg;
+        }
+    }
+}
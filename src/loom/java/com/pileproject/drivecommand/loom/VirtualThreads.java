@@ -0,0 +1,85 @@
+/**
+ * Copyright (C) 2011-2017 The PILE Developers <pile-dev@googlegroups.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pileproject.drivecommand.loom;
+
+import com.pileproject.drivecommand.machine.MachineBase;
+import com.pileproject.drivecommand.machine.MachineFleet;
+import com.pileproject.drivecommand.model.com.AsyncCommunicatorAdapter;
+import com.pileproject.drivecommand.model.com.IAsyncCommunicator;
+import com.pileproject.drivecommand.model.com.ICommunicator;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Factory methods which run blocking protocol calls on virtual threads (Java 21 or later).
+ * A virtual thread which blocks in {@link ICommunicator#read(int)} releases its carrier thread,
+ * so thousands of links can be served without a platform thread for each of them.
+ *
+ * The hot path of the library (serialization of commands, queues of the adapters and
+ * replies of EV3) uses {@link java.util.concurrent.locks.ReentrantLock} instead of monitors,
+ * so virtual threads are not pinned to their carriers while they wait there.
+ * Communicators should also avoid blocking inside <code>synchronized</code> blocks.
+ */
+public final class VirtualThreads {
+
+    private VirtualThreads() {
+    }
+
+    /**
+     * Creates an executor which starts a new virtual thread for each task.
+     *
+     * @param name a prefix of the names of the threads
+     * @return the executor
+     */
+    public static ExecutorService newExecutor(String name) {
+        return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(name + "-", 0).factory());
+    }
+
+    /**
+     * Creates a fleet whose machines are handled on virtual threads.
+     * The number of machines handled at once is not limited by a thread pool.
+     *
+     * @return the fleet
+     */
+    public static MachineFleet newFleet() {
+        return new MachineFleet(newExecutor("fleet"));
+    }
+
+    /**
+     * Makes an {@link IAsyncCommunicator} whose reads and writes block virtual threads.
+     *
+     * @param comm a blocking communicator
+     * @param name a prefix of the names of the threads
+     * @return the asynchronous communicator
+     */
+    public static IAsyncCommunicator newAsyncCommunicator(ICommunicator comm, String name) {
+        return new AsyncCommunicatorAdapter(comm, newExecutor(name));
+    }
+
+    /**
+     * Starts a {@link CommandStream} of a machine on a virtual thread.
+     *
+     * @param machine a machine which executes the commands
+     * @param name the name of the thread
+     * @return the started stream
+     */
+    public static CommandStream newCommandStream(MachineBase machine, String name) {
+        CommandStream stream = new CommandStream(machine);
+        Thread.ofVirtual().name(name).start(stream::run);
+        return stream;
+    }
+}
@@ -0,0 +1,162 @@
+/**
+ * Copyright (C) 2011-2017 The PILE Developers <pile-dev@googlegroups.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package unit.drivecommand.loom;
+
+import com.pileproject.drivecommand.command.TypedCommand;
+import com.pileproject.drivecommand.command.TypedResult;
+import com.pileproject.drivecommand.loom.CommandStream;
+import com.pileproject.drivecommand.loom.VirtualThreads;
+import com.pileproject.drivecommand.machine.MachineBase;
+import com.pileproject.drivecommand.machine.MachineStatus;
+import com.pileproject.drivecommand.machine.device.port.OutputPort;
+import com.pileproject.drivecommand.model.CommandType;
+import com.pileproject.drivecommand.model.ProtocolBase;
+
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class CommandStreamTest {
+    private final OutputPort PORT = new OutputPort() {
+        @Override
+        public int getRaw() {
+            return 1;
+        }
+    };
+
+    private MachineBase newMachineBase(ProtocolBase protocol) {
+        return new MachineBase(protocol) {
+            @Override
+            public MachineStatus fetchStatus() {
+                return null;
+            }
+        };
+    }
+
+    @Test
+    public void executeSubmittedCommands() throws Exception {
+        EchoProtocol protocol = new EchoProtocol();
+        CommandStream stream = VirtualThreads.newCommandStream(newMachineBase(protocol), "stream");
+
+        CompletableFuture<TypedResult> first = stream.submit(PORT, CommandType.SET_MOTOR_SPEED, 10);
+        CompletableFuture<TypedResult> second = stream.submit(PORT, CommandType.SET_MOTOR_SPEED, 20);
+
+        assertEquals(first.get(1, TimeUnit.SECONDS).getIntValue(), 10);
+        assertEquals(second.get(1, TimeUnit.SECONDS).getIntValue(), 20);
+        stream.close();
+    }
+
+    @Test
+    public void failCommandsSubmittedAfterClose() throws Exception {
+        CommandStream stream = VirtualThreads.newCommandStream(newMachineBase(new EchoProtocol()), "stream");
+        stream.close();
+
+        try {
+            stream.submit(PORT, CommandType.SET_MOTOR_SPEED, 10).get(1, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    @Test
+    public void completeEveryCommandSubmittedWhileClosing() throws Exception {
+        for (int i = 0; i < 500; i++) {
+            final CommandStream stream = VirtualThreads.newCommandStream(newMachineBase(new EchoProtocol()), "stream");
+            final CountDownLatch start = new CountDownLatch(1);
+            final List<CompletableFuture<TypedResult>> futures = new ArrayList<>();
+            List<Thread> submitters = new ArrayList<>();
+            for (int j = 0; j < 16; j++) {
+                submitters.add(Thread.ofPlatform().start(() -> {
+                    List<CompletableFuture<TypedResult>> submitted = new ArrayList<>();
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int k = 0; k < 100; k++) {
+                        submitted.add(stream.submit(PORT, CommandType.SET_MOTOR_SPEED, k));
+                    }
+                    synchronized (futures) {
+                        futures.addAll(submitted);
+                    }
+                }));
+            }
+            start.countDown();
+            stream.close();
+            for (Thread submitter : submitters) {
+                submitter.join();
+            }
+
+            // each command is either executed or failed, but never left incomplete
+            for (CompletableFuture<TypedResult> future : futures) {
+                try {
+                    future.get(1, TimeUnit.SECONDS);
+                } catch (ExecutionException e) {
+                    assertTrue(e.getCause() instanceof IllegalStateException);
+                }
+            }
+        }
+    }
+
+    /**
+     * A protocol which returns the argument of each command as its result.
+     */
+    private static class EchoProtocol extends ProtocolBase {
+
+        EchoProtocol() {
+            super(null);
+            register(CommandType.SET_MOTOR_SPEED, new CommandHandler() {
+                @Override
+                public void exec(int port, TypedCommand cmd, TypedResult result) {
+                    result.setIntValue(cmd.getArg());
+                }
+            });
+        }
+
+        @Override
+        public void open() {
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public boolean apply() {
+            return false;
+        }
+
+        @Override
+        public byte[] load(int key) {
+            return null;
+        }
+
+        @Override
+        public boolean store(int key, byte[] data) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/**
+ * Copyright (C) 2011-2017 The PILE Developers <pile-dev@googlegroups.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pileproject.drivecommand.command;
+
+import com.pileproject.drivecommand.machine.device.DeviceType;
+import com.pileproject.drivecommand.model.CommandType;
+
+import java.util.Map;
+
+/**
+ * A command which has its argument in a primitive field.
+ * Unlike {@link CommandBase}, an instance of this class can be reused for many commands,
+ * so executing commands with this class does not make garbage.
+ *
+ * @see TypedResult
+ */
+public class TypedCommand {
+    private static final String ARG_SPEED = "speed";
+    private static final String ARG_ANGLE = "angle";
+
+    private CommandType mType;
+    private int mArg;
+
+    public TypedCommand() {
+    }
+
+    public TypedCommand(CommandType type, int arg) {
+        set(type, arg);
+    }
+
+    /**
+     * Sets the type and the argument of this command.
+     *
+     * @param type a type of a command
+     * @param arg an argument of a command (e.g., speed or angle) or 0 if the command has no argument
+     * @return this command
+     */
+    public TypedCommand set(CommandType type, int arg) {
+        mType = type;
+        mArg = arg;
+        return this;
+    }
+
+    /**
+     * Sets the type and the argument of this command from a {@link CommandBase}.
+     *
+     * @param cmd a command to be copied
+     * @return this command
+     */
+    public TypedCommand set(CommandBase cmd) {
+        CommandType type = cmd.getCommandType();
+        Map<String, Object> args = cmd.getArgs();
+        Object arg = null;
+        if (args != null) {
+            switch (type) {
+                case SET_MOTOR_SPEED:
+                    arg = args.get(ARG_SPEED);
+                    break;
+                case SET_SERVO_ANGLE:
+                    arg = args.get(ARG_ANGLE);
+                    break;
+                default:
+                    break;
+            }
+        }
+        return set(type, (arg != null) ? (Integer) arg : 0);
+    }
+
+    /**
+     * Gets the type of this command.
+     *
+     * @return the {@link CommandType}
+     */
+    public CommandType getCommandType() {
+        return mType;
+    }
+
+    /**
+     * Gets the type of the device which is used with this command.
+     *
+     * @return the {@link DeviceType}
+     */
+    public DeviceType getDeviceType() {
+        return mType.getDeviceType();
+    }
+
+    /**
+     * Gets the argument of this command.
+     *
+     * @return the argument (e.g., speed or angle)
+     */
+    public int getArg() {
+        return mArg;
+    }
+}
@@ -0,0 +1,195 @@
+/**
+ * Copyright (C) 2011-2017 The PILE Developers <pile-dev@googlegroups.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pileproject.drivecommand.command;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A result of a {@link TypedCommand} which keeps its value in primitive fields.
+ * An instance of this class can be reused for many commands.
+ * A protocol clears it and sets one kind of value (see {@link ValueType}).
+ */
+public class TypedResult {
+    private static final String KEY_VALUE = "value";
+
+    private ValueType mValueType = ValueType.NONE;
+    private int mIntValue;
+    private boolean mBooleanValue;
+    private float[] mFloatValues = new float[0];
+    private int mFloatCount;
+    private boolean mIsRejected;
+
+    /**
+     * Clears the value of this result.
+     */
+    public void clear() {
+        mValueType = ValueType.NONE;
+        mIntValue = 0;
+        mBooleanValue = false;
+        mFloatCount = 0;
+        mIsRejected = false;
+    }
+
+    /**
+     * Marks that the machine did not acknowledge the command (e.g., it replied with a NAK).
+     * The value of this result is kept.
+     */
+    public void setRejected() {
+        mIsRejected = true;
+    }
+
+    /**
+     * Checks whether the machine did not acknowledge the command.
+     *
+     * @return rejected (<code>true</code>) or not (<code>false</code>)
+     */
+    public boolean isRejected() {
+        return mIsRejected;
+    }
+
+    /**
+     * Sets an <code>int</code> value.
+     *
+     * @param value a value to be set
+     */
+    public void setIntValue(int value) {
+        mValueType = ValueType.INT;
+        mIntValue = value;
+    }
+
+    /**
+     * Sets a <code>boolean</code> value.
+     *
+     * @param value a value to be set
+     */
+    public void setBooleanValue(boolean value) {
+        mValueType = ValueType.BOOLEAN;
+        mBooleanValue = value;
+    }
+
+    /**
+     * Sets <code>float</code> values. The values are copied to the buffer of this result.
+     *
+     * @param values values to be set
+     * @param count the number of values to be set
+     */
+    public void setFloatValues(float[] values, int count) {
+        if (mFloatValues.length < count) {
+            mFloatValues = new float[count];
+        }
+        System.arraycopy(values, 0, mFloatValues, 0, count);
+        mValueType = ValueType.FLOATS;
+        mFloatCount = count;
+    }
+
+    /**
+     * Sets the number of <code>float</code> values and returns the buffer of this result,
+     * so a protocol can decode values into it in place.
+     *
+     * @param count the number of values to be set
+     * @return the buffer whose first <code>count</code> values have to be set by the caller
+     */
+    public float[] setFloatCount(int count) {
+        if (mFloatValues.length < count) {
+            mFloatValues = new float[count];
+        }
+        mValueType = ValueType.FLOATS;
+        mFloatCount = count;
+        return mFloatValues;
+    }
+
+    /**
+     * Copies the value of another result. The buffer of this result is reused.
+     *
+     * @param other a result to be copied
+     */
+    public void set(TypedResult other) {
+        mValueType = other.mValueType;
+        mIntValue = other.mIntValue;
+        mBooleanValue = other.mBooleanValue;
+        mIsRejected = other.mIsRejected;
+        if (other.mValueType == ValueType.FLOATS) {
+            setFloatValues(other.mFloatValues, other.mFloatCount);
+        } else {
+            mFloatCount = 0;
+        }
+    }
+
+    /**
+     * Gets the type of the value of this result.
+     *
+     * @return the {@link ValueType}
+     */
+    public ValueType getValueType() {
+        return mValueType;
+    }
+
+    public int getIntValue() {
+        return mIntValue;
+    }
+
+    public boolean getBooleanValue() {
+        return mBooleanValue;
+    }
+
+    /**
+     * Gets the buffer of <code>float</code> values.
+     * Only the first {@link #getFloatCount()} values are valid.
+     * The buffer will be overwritten by the next command.
+     *
+     * @return the buffer of values
+     */
+    public float[] getFloatValues() {
+        return mFloatValues;
+    }
+
+    public int getFloatCount() {
+        return mFloatCount;
+    }
+
+    /**
+     * Converts this result to a map which is returned by
+     * {@link com.pileproject.drivecommand.model.ProtocolBase#exec(int, CommandBase)}.
+     *
+     * @return a map which has the value with the key "value" (an empty map if this result has no value)
+     */
+    public Map<String, Object> toMap() {
+        Map<String, Object> res = new HashMap<>();
+        switch (mValueType) {
+            case INT:
+                res.put(KEY_VALUE, mIntValue);
+                break;
+            case BOOLEAN:
+                res.put(KEY_VALUE, mBooleanValue);
+                break;
+            case FLOATS:
+                res.put(KEY_VALUE, Arrays.copyOf(mFloatValues, mFloatCount));
+                break;
+            default:
+                break;
+        }
+        return res;
+    }
+
+    /**
+     * An enum class which represents the types of values of results.
+     */
+    public enum ValueType {
+        NONE, INT, BOOLEAN, FLOATS
+    }
+}
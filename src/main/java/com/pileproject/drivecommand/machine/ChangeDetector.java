@@ -0,0 +1,171 @@
+/**
+ * Copyright (C) 2011-2017 The PILE Developers <pile-dev@googlegroups.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pileproject.drivecommand.machine;
+
+import com.pileproject.drivecommand.command.TypedResult;
+import com.pileproject.drivecommand.model.CommandType;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A detector which turns the samples of a {@link SensorScheduler.Channel} into change events
+ * (e.g., presses of a touch sensor or buttons of a remote controller).
+ *
+ * There are two kinds of channels:
+ * <ul>
+ *  <li>{@link CommandType#GET_TOUCH_CHANGES} (EV3): a machine counts presses and releases by itself,
+ *  so the channel can be sampled rarely without missing any edge.</li>
+ *  <li>Other commands (e.g., {@link CommandType#GET_TOUCH_TOUCHED}): the values are compared on the host.
+ *  A new value has to be stable for the debounce time before it is reported.</li>
+ * </ul>
+ *
+ * <pre>
+ * CommandType type = ChangeDetector.touchCommandFor(machine);
+ * SensorScheduler.Channel channel = scheduler.register(touchSensor, type, rate);
+ * new ChangeDetector(listener, 20, TimeUnit.MILLISECONDS).attachTo(channel);
+ * </pre>
+ *
+ * A detector keeps the state of one channel, so it should not be attached to several channels.
+ */
+public class ChangeDetector implements SampleListener {
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private final ChangeListener mListener;
+    private final long mDebounceNanos;
+
+    // used only by the thread which delivers samples
+    private boolean mHasValue;
+    private int mValue;
+    private int mCandidate;
+    private long mCandidateSince;
+
+    /**
+     * Creates a detector which reports every change without debouncing.
+     *
+     * @param listener a listener which receives the changes
+     */
+    public ChangeDetector(ChangeListener listener) {
+        this(listener, 0, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param listener a listener which receives the changes
+     * @param debounce the time for which a new value has to be stable (not used for counted changes)
+     * @param unit the unit of <code>debounce</code>
+     */
+    public ChangeDetector(ChangeListener listener, long debounce, TimeUnit unit) {
+        mListener = listener;
+        mDebounceNanos = unit.toNanos(debounce);
+    }
+
+    /**
+     * Chooses the command to detect changes of a touch sensor with a machine.
+     *
+     * @param machine a machine
+     * @return {@link CommandType#GET_TOUCH_CHANGES} if the machine counts changes,
+     * otherwise {@link CommandType#GET_TOUCH_TOUCHED}
+     */
+    public static CommandType touchCommandFor(MachineBase machine) {
+        return machine.supports(CommandType.GET_TOUCH_CHANGES)
+                ? CommandType.GET_TOUCH_CHANGES : CommandType.GET_TOUCH_TOUCHED;
+    }
+
+    /**
+     * Subscribes this detector to a channel. Samples are delivered on the sampling thread without conflation,
+     * so no counted change is lost and changes are reported as soon as they are sampled.
+     * The listener is also called on the sampling thread, so it should not block.
+     *
+     * @param channel a channel to be watched
+     * @return the subscription of this detector
+     */
+    public SensorScheduler.Subscription attachTo(SensorScheduler.Channel channel) {
+        return channel.subscribe(this, DIRECT);
+    }
+
+    @Override
+    public void onSample(SensorScheduler.Channel channel, TypedResult value, long timestamp) {
+        if (channel.getCommandType() == CommandType.GET_TOUCH_CHANGES) {
+            float[] changes = value.getFloatValues();
+            onCountedChanges(channel, (int) changes[0], (int) changes[1], timestamp);
+        } else if (value.getValueType() == TypedResult.ValueType.BOOLEAN) {
+            onValue(channel, value.getBooleanValue() ? 1 : 0, timestamp);
+        } else {
+            onValue(channel, value.getIntValue(), timestamp);
+        }
+    }
+
+    /**
+     * Gets the last reported value.
+     *
+     * @return the value (<code>0</code> before the first sample)
+     */
+    public int getValue() {
+        return mValue;
+    }
+
+    private void onValue(SensorScheduler.Channel channel, int value, long timestamp) {
+        if (!mHasValue) {
+            // the first value is the initial state, not a change
+            mHasValue = true;
+            mValue = value;
+            mCandidate = value;
+            return;
+        }
+        if (value == mValue) {
+            // a bounce has settled
+            mCandidate = value;
+            return;
+        }
+        if (value != mCandidate) {
+            mCandidate = value;
+            mCandidateSince = timestamp;
+        }
+        if (timestamp - mCandidateSince >= mDebounceNanos) {
+            fire(channel, value, timestamp);
+        }
+    }
+
+    private void onCountedChanges(SensorScheduler.Channel channel, int presses, int releases, long timestamp) {
+        mHasValue = true;
+        // the order of the changes is not known, so they alternate starting from the current state
+        while (presses > 0 || releases > 0) {
+            if (mValue == 0 && presses > 0) {
+                presses--;
+                fire(channel, 1, timestamp);
+            } else if (mValue == 1 && releases > 0) {
+                releases--;
+                fire(channel, 0, timestamp);
+            } else {
+                // out of sync (e.g., the sensor was pressed before the detector started),
+                // so the missing change is assumed to have happened before
+                mValue = 1 - mValue;
+            }
+        }
+    }
+
+    private void fire(SensorScheduler.Channel channel, int value, long timestamp) {
+        int oldValue = mValue;
+        mValue = value;
+        mCandidate = value;
+        mListener.onChange(channel.getPort(), channel.getCommandType(), oldValue, value, timestamp);
+    }
+}
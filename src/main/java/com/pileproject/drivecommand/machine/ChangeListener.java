@@ -0,0 +1,39 @@
+/**
+ * Copyright (C) 2011-2017 The PILE Developers <pile-dev@googlegroups.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pileproject.drivecommand.machine;
+
+import com.pileproject.drivecommand.machine.device.port.DevicePort;
+import com.pileproject.drivecommand.model.CommandType;
+
+/**
+ * An interface class of listeners which receive changes of sensor values
+ * (e.g., presses of a touch sensor or buttons of a remote controller).
+ *
+ * @see ChangeDetector
+ */
+public interface ChangeListener {
+    /**
+     * Called when the value of a sensor has changed.
+     * For touch sensors, <code>1</code> means pressed and <code>0</code> means released.
+     *
+     * @param port the port of the sensor
+     * @param type the type of a command which reads the sensor
+     * @param oldValue the value before the change
+     * @param newValue the value after the change
+     * @param timestamp the time when the change was detected [nsec]
+     */
+    void onChange(DevicePort port, CommandType type, int oldValue, int newValue, long timestamp);
+}
@@ -15,6 +15,9 @@
  */
 package com.pileproject.drivecommand.machine;
 
+import com.pileproject.drivecommand.command.CommandBase;
+import com.pileproject.drivecommand.command.TypedCommand;
+import com.pileproject.drivecommand.command.TypedResult;
 import com.pileproject.drivecommand.machine.device.input.ColorSensor;
 import com.pileproject.drivecommand.machine.device.input.GyroSensor;
 import com.pileproject.drivecommand.machine.device.input.LightSensor;
@@ -26,19 +29,30 @@ import com.pileproject.drivecommand.machine.device.output.Buzzer;
 import com.pileproject.drivecommand.machine.device.output.Led;
 import com.pileproject.drivecommand.machine.device.output.Motor;
 import com.pileproject.drivecommand.machine.device.output.Servomotor;
+import com.pileproject.drivecommand.machine.device.port.DevicePort;
 import com.pileproject.drivecommand.machine.device.port.InputPort;
 import com.pileproject.drivecommand.machine.device.port.OutputPort;
+import com.pileproject.drivecommand.model.CommandType;
+import com.pileproject.drivecommand.model.OutputQueue;
 import com.pileproject.drivecommand.model.ProtocolBase;
+import com.pileproject.drivecommand.model.ShadowState;
 
 import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
 
 /**
  * A base class for machines that specifies interfaces of a machine.
  * This class also be used as a factory class to generate sensors/motors.
+ *
+ * A machine and its devices can be shared by several threads (e.g., one for sensors and one for motors).
+ * Commands on one connection are serialized by the protocol.
  */
 public abstract class MachineBase {
     protected ProtocolBase mProtocol;
     protected MachineStatus mStatus;
+    private ShadowState mShadowState;
 
     public MachineBase(ProtocolBase protocol) {
         mProtocol = protocol;
@@ -51,6 +65,7 @@ public abstract class MachineBase {
      * @throws IOException if failed to open a connection
      */
     public void connect() throws IOException {
+        invalidateShadowState();
         mProtocol.open();
     }
 
@@ -59,6 +74,11 @@ public abstract class MachineBase {
      */
     public void disconnect() {
         mProtocol.close();
+        invalidateShadowState();
+    }
+
+    private void invalidateShadowState() {
+        if (mShadowState != null) mShadowState.invalidate();
     }
 
     /**
@@ -89,6 +109,125 @@ public abstract class MachineBase {
         throw new UnsupportedOperationException("This machine does not support 'store' command");
     }
 
+    /**
+     * Executes several commands at once.
+     * <code>ports[i]</code> is used with <code>cmds[i]</code>.
+     * Some machines (e.g., EV3) read several sensors in one round trip with this method,
+     * so it is faster than calling getters of devices one by one.
+     *
+     * @param ports ports of devices to be used with the commands
+     * @param cmds commands which are to be executed
+     * @return the results of the commands in the same order as <code>cmds</code>
+     */
+    public List<Map<String, Object>> execAll(DevicePort[] ports, CommandBase[] cmds) {
+        return mProtocol.execAll(toRawPorts(ports), cmds);
+    }
+
+    /**
+     * Executes several {@link TypedCommand}s at once.
+     * <code>ports[i]</code> is used with <code>cmds[i]</code> and the result is set to <code>results[i]</code>.
+     *
+     * @param ports ports of devices to be used with the commands
+     * @param cmds commands which are to be executed
+     * @param results results to which the results of the commands are set
+     * @see #execAll(DevicePort[], CommandBase[])
+     */
+    public void execAll(DevicePort[] ports, TypedCommand[] cmds, TypedResult[] results) {
+        mProtocol.execAll(toRawPorts(ports), cmds, results);
+    }
+
+    /**
+     * Executes the first <code>count</code> {@link TypedCommand}s at once with raw ports
+     * (see {@link DevicePort#getRaw()}).
+     * The ports are not converted and the arrays can be longer than <code>count</code>,
+     * so a caller which reuses its arrays (e.g., {@link SensorScheduler}) makes no garbage.
+     *
+     * @param rawPorts raw ports of devices to be used with the commands
+     * @param cmds commands which are to be executed
+     * @param results results to which the results of the commands are set
+     * @param count the number of the commands to be executed
+     * @see #execAll(DevicePort[], TypedCommand[], TypedResult[])
+     */
+    public void execAll(int[] rawPorts, TypedCommand[] cmds, TypedResult[] results, int count) {
+        mProtocol.execAll(rawPorts, cmds, results, count);
+    }
+
+    /**
+     * Executes a {@link TypedCommand} immediately, regardless of the suppression of redundant commands
+     * and bypassing the coalescing of output commands (e.g., to stop motors in an emergency).
+     *
+     * @param port a port of a device to be used with the command
+     * @param cmd a command which is to be executed
+     * @param result a result to which the result of the command is set
+     * @see ProtocolBase#execImmediately(int, TypedCommand, TypedResult)
+     */
+    public void execImmediately(DevicePort port, TypedCommand cmd, TypedResult result) {
+        mProtocol.execImmediately(port.getRaw(), cmd, result);
+    }
+
+    /**
+     * Enables coalescing of output commands (e.g., the speed of motors).
+     * Output commands return immediately and are sent on the executor; while a command waits,
+     * a newer command for the same port replaces it, so the latency of actuation does not grow
+     * when commands are issued faster than the link can carry them.
+     *
+     * @param executor an executor which sends the commands
+     * @return the {@link OutputQueue} of this machine
+     */
+    public OutputQueue enableOutputCoalescing(Executor executor) {
+        OutputQueue queue = new OutputQueue(mProtocol, executor);
+        mProtocol.setOutputQueue(queue);
+        return queue;
+    }
+
+    /**
+     * Disables coalescing of output commands. Commands which are waiting in the queue are still sent.
+     */
+    public void disableOutputCoalescing() {
+        mProtocol.setOutputQueue(null);
+    }
+
+    /**
+     * Enables suppression of redundant output commands. The last state of each actuator
+     * (e.g., the speed of a motor) is recorded, and commands which would not change it are not sent.
+     * The recorded states are forgotten when a command fails or the connection is opened / closed.
+     *
+     * @return the {@link ShadowState} of this machine
+     * @see com.pileproject.drivecommand.machine.device.DeviceBase#invalidateOutputState()
+     */
+    public ShadowState enableRedundantCommandSuppression() {
+        mShadowState = new ShadowState();
+        mProtocol.setShadowState(mShadowState);
+        return mShadowState;
+    }
+
+    /**
+     * Disables suppression of redundant output commands, so all commands are sent.
+     */
+    public void disableRedundantCommandSuppression() {
+        mShadowState = null;
+        mProtocol.setShadowState(null);
+    }
+
+    /**
+     * Checks whether this machine supports a command.
+     * Callers can check it up front instead of catching {@link UnsupportedOperationException}.
+     *
+     * @param type the type of a command
+     * @return supported (<code>true</code>) or not (<code>false</code>)
+     */
+    public boolean supports(CommandType type) {
+        return mProtocol.supports(type);
+    }
+
+    private static int[] toRawPorts(DevicePort[] ports) {
+        int[] rawPorts = new int[ports.length];
+        for (int i = 0; i < ports.length; i++) {
+            rawPorts[i] = ports[i].getRaw();
+        }
+        return rawPorts;
+    }
+
     /**
      * Fetches {@link MachineStatus} from this machine.
      * NOTE: before this command, makes connection
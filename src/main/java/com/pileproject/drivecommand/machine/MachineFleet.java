@@ -0,0 +1,410 @@
+/**
+ * Copyright (C) 2011-2017 The PILE Developers <pile-dev@googlegroups.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pileproject.drivecommand.machine;
+
+import com.pileproject.drivecommand.command.TypedCommand;
+import com.pileproject.drivecommand.command.TypedResult;
+import com.pileproject.drivecommand.machine.device.port.DevicePort;
+import com.pileproject.drivecommand.machine.device.port.OutputPort;
+import com.pileproject.drivecommand.model.CommandType;
+import com.pileproject.drivecommand.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * A class which manages many machines from one host.
+ * All machines share one bounded {@link ExecutorService}, so the number of threads does not grow
+ * with the number of machines. Fleet-wide operations (e.g., {@link #stopAllMotors()}) run one task
+ * for each machine on the executor, so the machines are handled concurrently.
+ *
+ * <pre>
+ * MachineFleet fleet = new MachineFleet(8);
+ * fleet.add("left", leftMachine).addMotor(leftMotorPort).addSensor(touchPort, CommandType.GET_TOUCH_TOUCHED);
+ * fleet.add("right", rightMachine).addMotor(rightMotorPort);
+ * fleet.connectAll();
+ * ...
+ * Map&lt;String, TypedResult[]&gt; values = fleet.snapshotAllSensors();
+ * fleet.stopAllMotors();
+ * fleet.shutdown();
+ * </pre>
+ *
+ * The operations wait for the tasks on the executor, so they must not be called from a task of the same executor.
+ */
+public class MachineFleet {
+    private static final String TAG = "MachineFleet";
+
+    private final ExecutorService mExecutor;
+    private final boolean mOwnsExecutor;
+    private final Map<String, Member> mMembers = new LinkedHashMap<>();
+
+    /**
+     * Creates a fleet with its own executor which has a fixed number of threads.
+     * The executor is shut down by {@link #shutdown()}.
+     *
+     * @param numThreads the number of threads for communicating with machines
+     */
+    public MachineFleet(int numThreads) {
+        this(Executors.newFixedThreadPool(numThreads), true);
+    }
+
+    /**
+     * Creates a fleet with an executor shared with others. The executor is not shut down by this fleet.
+     *
+     * @param executor an executor which communicates with machines (it should be bounded)
+     */
+    public MachineFleet(ExecutorService executor) {
+        this(executor, false);
+    }
+
+    private MachineFleet(ExecutorService executor, boolean ownsExecutor) {
+        mExecutor = executor;
+        mOwnsExecutor = ownsExecutor;
+    }
+
+    /**
+     * Adds a machine to this fleet.
+     *
+     * @param name a name of the machine which is unique in this fleet
+     * @param machine a machine to be added
+     * @return a {@link Member} to which motors and sensors of the machine can be added
+     * @throws IllegalArgumentException if the name is already used
+     */
+    public synchronized Member add(String name, MachineBase machine) {
+        if (mMembers.containsKey(name)) {
+            throw new IllegalArgumentException("The name is already used: " + name);
+        }
+        Member member = new Member(name, machine);
+        mMembers.put(name, member);
+        return member;
+    }
+
+    /**
+     * Removes a machine from this fleet. The machine is not disconnected.
+     *
+     * @param name the name of a machine
+     * @return the removed machine, or <code>null</code> if there is no machine with the name
+     */
+    public synchronized MachineBase remove(String name) {
+        Member member = mMembers.remove(name);
+        return (member == null) ? null : member.mMachine;
+    }
+
+    /**
+     * Gets a machine of this fleet.
+     *
+     * @param name the name of a machine
+     * @return the machine, or <code>null</code> if there is no machine with the name
+     */
+    public synchronized MachineBase get(String name) {
+        Member member = mMembers.get(name);
+        return (member == null) ? null : member.mMachine;
+    }
+
+    /**
+     * Gets the names of the machines in the order they were added.
+     *
+     * @return the names of the machines
+     */
+    public synchronized List<String> getNames() {
+        return new ArrayList<>(mMembers.keySet());
+    }
+
+    /**
+     * Gets the executor which communicates with machines.
+     * It can also be used for other work on the machines, e.g. with
+     * {@link MachineBase#enableOutputCoalescing(java.util.concurrent.Executor)}.
+     *
+     * @return the executor
+     */
+    public ExecutorService getExecutor() {
+        return mExecutor;
+    }
+
+    /**
+     * Runs a task for each machine concurrently and waits for all of them.
+     *
+     * @param task a task to be run
+     * @param <T> the type of the result of the task
+     * @return the finished futures of the tasks for each machine name
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public <T> Map<String, Future<T>> execute(final MachineTask<T> task) throws InterruptedException {
+        return invokeAll(new MemberTask<T>() {
+            @Override
+            public T run(Member member) throws Exception {
+                return task.run(member.mMachine);
+            }
+        });
+    }
+
+    private <T> Map<String, Future<T>> invokeAll(final MemberTask<T> task) throws InterruptedException {
+        List<Member> members = getMembers();
+        List<Callable<T>> callables = new ArrayList<>(members.size());
+        for (final Member member : members) {
+            callables.add(new Callable<T>() {
+                @Override
+                public T call() throws Exception {
+                    return task.run(member);
+                }
+            });
+        }
+
+        List<Future<T>> futures = mExecutor.invokeAll(callables);
+        Map<String, Future<T>> results = new LinkedHashMap<>();
+        for (int i = 0; i < members.size(); i++) {
+            results.put(members.get(i).mName, futures.get(i));
+        }
+        return results;
+    }
+
+    /**
+     * Connects to all machines concurrently.
+     *
+     * @return the failures for each machine name (empty if all machines are connected)
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public Map<String, Throwable> connectAll() throws InterruptedException {
+        return failuresOf(execute(new MachineTask<Void>() {
+            @Override
+            public Void run(MachineBase machine) throws Exception {
+                machine.connect();
+                return null;
+            }
+        }));
+    }
+
+    /**
+     * Disconnects from all machines concurrently.
+     *
+     * @return the failures for each machine name (empty if all machines are disconnected)
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public Map<String, Throwable> disconnectAll() throws InterruptedException {
+        return failuresOf(execute(new MachineTask<Void>() {
+            @Override
+            public Void run(MachineBase machine) throws Exception {
+                machine.disconnect();
+                return null;
+            }
+        }));
+    }
+
+    /**
+     * Stops the motors added by {@link Member#addMotor(OutputPort)} on all machines concurrently.
+     * The stops are sent with {@link MachineBase#execImmediately(DevicePort, TypedCommand, TypedResult)},
+     * so they have been sent when this method returns.
+     *
+     * @return the failures for each machine name (empty if all motors are stopped)
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public Map<String, Throwable> stopAllMotors() throws InterruptedException {
+        return failuresOf(invokeAll(new MemberTask<Void>() {
+            @Override
+            public Void run(Member member) {
+                member.stopMotors();
+                return null;
+            }
+        }));
+    }
+
+    /**
+     * Reads the sensors added by {@link Member#addSensor(DevicePort, CommandType)} on all machines
+     * concurrently. The sensors of each machine are read with one
+     * {@link MachineBase#execAll(DevicePort[], TypedCommand[], TypedResult[])} call.
+     * Machines which failed are logged and not contained in the returned map.
+     *
+     * @return the results for each machine name, in the order the sensors were added
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public Map<String, TypedResult[]> snapshotAllSensors() throws InterruptedException {
+        Map<String, Future<TypedResult[]>> futures = invokeAll(new MemberTask<TypedResult[]>() {
+            @Override
+            public TypedResult[] run(Member member) {
+                return member.readSensors();
+            }
+        });
+
+        Map<String, TypedResult[]> results = new LinkedHashMap<>();
+        for (Map.Entry<String, Future<TypedResult[]>> entry : futures.entrySet()) {
+            try {
+                results.put(entry.getKey(), entry.getValue().get());
+            } catch (ExecutionException e) {
+                Log.e(TAG, "Failed to read sensors of " + entry.getKey(), e.getCause());
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Disconnects from all machines and shuts down the executor if it was created by this fleet.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void shutdown() throws InterruptedException {
+        Map<String, Throwable> failures = disconnectAll();
+        for (Map.Entry<String, Throwable> entry : failures.entrySet()) {
+            Log.e(TAG, "Failed to disconnect " + entry.getKey(), entry.getValue());
+        }
+        if (mOwnsExecutor) mExecutor.shutdown();
+    }
+
+    private synchronized List<Member> getMembers() {
+        return new ArrayList<>(mMembers.values());
+    }
+
+    private static Map<String, Throwable> failuresOf(Map<String, ? extends Future<?>> futures)
+            throws InterruptedException {
+        Map<String, Throwable> failures = new LinkedHashMap<>();
+        for (Map.Entry<String, ? extends Future<?>> entry : futures.entrySet()) {
+            try {
+                entry.getValue().get();
+            } catch (ExecutionException e) {
+                failures.put(entry.getKey(), e.getCause());
+            }
+        }
+        return Collections.unmodifiableMap(failures);
+    }
+
+    /**
+     * An interface class of tasks which are run for each machine of a fleet.
+     *
+     * @param <T> the type of the result
+     */
+    public interface MachineTask<T> {
+        /**
+         * Runs this task for a machine.
+         *
+         * @param machine a machine of a fleet
+         * @return the result for the machine
+         * @throws Exception if failed
+         */
+        T run(MachineBase machine) throws Exception;
+    }
+
+    private interface MemberTask<T> {
+        T run(Member member) throws Exception;
+    }
+
+    /**
+     * A machine of a fleet with its motors and sensors.
+     */
+    public static class Member {
+        private final String mName;
+        private final MachineBase mMachine;
+        private final List<OutputPort> mMotorPorts = new ArrayList<>();
+        private final List<DevicePort> mSensorPorts = new ArrayList<>();
+        private final List<CommandType> mSensorCommands = new ArrayList<>();
+
+        private Member(String name, MachineBase machine) {
+            mName = name;
+            mMachine = machine;
+        }
+
+        /**
+         * Adds a motor which is stopped by {@link MachineFleet#stopAllMotors()}.
+         *
+         * @param port the port of a motor
+         * @return this member
+         */
+        public synchronized Member addMotor(OutputPort port) {
+            mMotorPorts.add(port);
+            return this;
+        }
+
+        /**
+         * Adds a sensor which is read by {@link MachineFleet#snapshotAllSensors()}.
+         *
+         * @param port the port of a sensor
+         * @param type the type of a command which reads the sensor
+         * @return this member
+         * @throws UnsupportedOperationException if the machine does not support the command
+         */
+        public synchronized Member addSensor(DevicePort port, CommandType type) {
+            if (!mMachine.supports(type)) {
+                throw new UnsupportedOperationException(type.name() + " is not supported by " + mName);
+            }
+            mSensorPorts.add(port);
+            mSensorCommands.add(type);
+            return this;
+        }
+
+        /**
+         * Gets the name of this member.
+         *
+         * @return the name
+         */
+        public String getName() {
+            return mName;
+        }
+
+        /**
+         * Gets the machine of this member.
+         *
+         * @return the machine
+         */
+        public MachineBase getMachine() {
+            return mMachine;
+        }
+
+        private void stopMotors() {
+            DevicePort[] ports;
+            synchronized (this) {
+                ports = mMotorPorts.toArray(new DevicePort[mMotorPorts.size()]);
+            }
+            // sent immediately and regardless of the recorded state, so neither a stale state
+            // nor the output queue can delay or suppress the stop
+            TypedCommand stop = new TypedCommand(CommandType.SET_MOTOR_SPEED, 0);
+            TypedResult result = new TypedResult();
+            RuntimeException failure = null;
+            for (DevicePort port : ports) {
+                try {
+                    mMachine.execImmediately(port, stop, result);
+                } catch (RuntimeException e) {
+                    // try to stop the other motors anyway
+                    if (failure == null) failure = e;
+                }
+            }
+            if (failure != null) throw failure;
+        }
+
+        private TypedResult[] readSensors() {
+            DevicePort[] ports;
+            TypedCommand[] cmds;
+            synchronized (this) {
+                ports = mSensorPorts.toArray(new DevicePort[mSensorPorts.size()]);
+                cmds = new TypedCommand[ports.length];
+                for (int i = 0; i < ports.length; i++) {
+                    cmds[i] = new TypedCommand(mSensorCommands.get(i), 0);
+                }
+            }
+            TypedResult[] results = new TypedResult[ports.length];
+            for (int i = 0; i < ports.length; i++) {
+                results[i] = new TypedResult();
+            }
+            if (ports.length > 0) mMachine.execAll(ports, cmds, results);
+            return results;
+        }
+    }
+}
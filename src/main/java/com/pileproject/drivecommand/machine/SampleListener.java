@@ -0,0 +1,36 @@
+/**
+ * Copyright (C) 2011-2017 The PILE Developers <pile-dev@googlegroups.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pileproject.drivecommand.machine;
+
+import com.pileproject.drivecommand.command.TypedResult;
+
+/**
+ * An interface class of listeners which receive samples of a {@link SensorScheduler.Channel}.
+ *
+ * @see SensorScheduler.Channel#subscribe(SampleListener, java.util.concurrent.Executor)
+ */
+public interface SampleListener {
+    /**
+     * Called when a new sample of a channel is delivered.
+     * If samples arrive faster than this method returns, the old ones are skipped
+     * and only the latest one is delivered.
+     *
+     * @param channel the channel which has been sampled
+     * @param value the sampled value (this object is reused for the next sample, so copy it to keep it)
+     * @param timestamp the time when the value was sampled [nsec]
+     */
+    void onSample(SensorScheduler.Channel channel, TypedResult value, long timestamp);
+}
@@ -0,0 +1,326 @@
+/**
+ * Copyright (C) 2011-2017 The PILE Developers <pile-dev@googlegroups.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pileproject.drivecommand.machine;
+
+import com.pileproject.drivecommand.command.TypedResult;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A fixed-capacity history of timestamped sensor values.
+ * Timestamps and values are kept in primitive arrays, so adding a sample does not make garbage.
+ * When the buffer is full, the oldest sample is overwritten.
+ *
+ * A buffer can be filled by any sampler with {@link #add(long, float)},
+ * or attached to a {@link SensorScheduler.Channel} to keep every sample of it:
+ * <pre>
+ * SampleRingBuffer history = new SampleRingBuffer(256);
+ * history.attachTo(channel);
+ * ...
+ * float mean = history.mean(100, TimeUnit.MILLISECONDS);
+ * </pre>
+ *
+ * A buffer can also be subscribed to a channel with another executor as a {@link SampleListener},
+ * but then the samples which arrive while the executor is busy are conflated, so the history has gaps.
+ *
+ * Values are kept as <code>float</code>, so integer values beyond 2^24 (e.g., large encoder counts)
+ * are rounded to the nearest representable value.
+ * Windows are measured back from the timestamp of the latest sample (in the clock of the sampler).
+ * This class is thread-safe, so one thread can add samples while others query them.
+ */
+public class SampleRingBuffer implements SampleListener {
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private final long[] mTimestamps;
+    private final float[] mValues;
+    private final int mComponent;
+    // a lock instead of a monitor, so virtual threads are not pinned while waiting for it
+    private final ReentrantLock mLock = new ReentrantLock();
+
+    // guarded by mLock
+    private int mHead; // the index where the next sample is written
+    private int mSize;
+
+    /**
+     * @param capacity the max number of samples
+     */
+    public SampleRingBuffer(int capacity) {
+        this(capacity, 0);
+    }
+
+    /**
+     * @param capacity the max number of samples
+     * @param component the index of a value to be kept when a sample has several values (e.g., 0 for red of RGB)
+     */
+    public SampleRingBuffer(int capacity, int component) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("The capacity must be positive");
+        }
+        mTimestamps = new long[capacity];
+        mValues = new float[capacity];
+        mComponent = component;
+    }
+
+    /**
+     * Adds a sample. The oldest sample is overwritten if this buffer is full.
+     *
+     * @param timestamp the time when the value was sampled [nsec]
+     * @param value the sampled value
+     */
+    public void add(long timestamp, float value) {
+        mLock.lock();
+        try {
+            mTimestamps[mHead] = timestamp;
+            mValues[mHead] = value;
+            mHead = (mHead + 1) % mTimestamps.length;
+            if (mSize < mTimestamps.length) mSize++;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Attaches this buffer to a channel. The samples are added on the thread which samples the channel,
+     * so no sample is conflated.
+     *
+     * @param channel a channel whose samples are kept
+     * @return a {@link SensorScheduler.Subscription} which can be cancelled to detach this buffer
+     */
+    public SensorScheduler.Subscription attachTo(SensorScheduler.Channel channel) {
+        return channel.subscribe(this, DIRECT);
+    }
+
+    /**
+     * Adds a sample of a channel. A <code>boolean</code> value is added as <code>1</code> or <code>0</code>,
+     * and an <code>int</code> value beyond 2^24 loses its lowest bits.
+     */
+    @Override
+    public void onSample(SensorScheduler.Channel channel, TypedResult value, long timestamp) {
+        switch (value.getValueType()) {
+            case BOOLEAN:
+                add(timestamp, value.getBooleanValue() ? 1 : 0);
+                break;
+            case INT:
+                add(timestamp, value.getIntValue());
+                break;
+            case FLOATS:
+                if (mComponent < value.getFloatCount()) add(timestamp, value.getFloatValues()[mComponent]);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Gets the max number of samples.
+     *
+     * @return the capacity
+     */
+    public int capacity() {
+        return mTimestamps.length;
+    }
+
+    /**
+     * Gets the number of samples in this buffer.
+     *
+     * @return the number of samples
+     */
+    public int size() {
+        mLock.lock();
+        try {
+            return mSize;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Removes all samples.
+     */
+    public void clear() {
+        mLock.lock();
+        try {
+            mHead = 0;
+            mSize = 0;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Gets the latest value.
+     *
+     * @return the value, or <code>NaN</code> if this buffer is empty
+     */
+    public float getLatestValue() {
+        mLock.lock();
+        try {
+            return (mSize == 0) ? Float.NaN : mValues[indexOf(0)];
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Gets the timestamp of the latest value.
+     *
+     * @return the timestamp [nsec], or <code>0</code> if this buffer is empty
+     */
+    public long getLatestTimestamp() {
+        mLock.lock();
+        try {
+            return (mSize == 0) ? 0 : mTimestamps[indexOf(0)];
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Copies the samples to arrays from the oldest one to the latest one.
+     * If the arrays are shorter than the number of samples, only the latest samples are copied.
+     *
+     * @param timestamps an array to which the timestamps are copied
+     * @param values an array to which the values are copied (the same length as <code>timestamps</code>)
+     * @return the number of copied samples
+     */
+    public int copyTo(long[] timestamps, float[] values) {
+        if (timestamps.length != values.length) {
+            throw new IllegalArgumentException("The lengths of the arrays must be the same");
+        }
+        mLock.lock();
+        try {
+            int count = Math.min(mSize, timestamps.length);
+            for (int i = 0; i < count; i++) {
+                int index = indexOf(count - 1 - i);
+                timestamps[i] = mTimestamps[index];
+                values[i] = mValues[index];
+            }
+            return count;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Counts the samples in a window.
+     *
+     * @param window the length of a window back from the latest sample
+     * @param unit the unit of <code>window</code>
+     * @return the number of samples in the window
+     */
+    public int count(long window, TimeUnit unit) {
+        mLock.lock();
+        try {
+            return countInWindow(unit.toNanos(window));
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Gets the minimum value in a window.
+     *
+     * @param window the length of a window back from the latest sample
+     * @param unit the unit of <code>window</code>
+     * @return the minimum value, or <code>NaN</code> if this buffer is empty
+     */
+    public float min(long window, TimeUnit unit) {
+        mLock.lock();
+        try {
+            int count = countInWindow(unit.toNanos(window));
+            if (count == 0) return Float.NaN;
+            float min = Float.POSITIVE_INFINITY;
+            for (int i = 0; i < count; i++) {
+                min = Math.min(min, mValues[indexOf(i)]);
+            }
+            return min;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Gets the maximum value in a window.
+     *
+     * @param window the length of a window back from the latest sample
+     * @param unit the unit of <code>window</code>
+     * @return the maximum value, or <code>NaN</code> if this buffer is empty
+     */
+    public float max(long window, TimeUnit unit) {
+        mLock.lock();
+        try {
+            int count = countInWindow(unit.toNanos(window));
+            if (count == 0) return Float.NaN;
+            float max = Float.NEGATIVE_INFINITY;
+            for (int i = 0; i < count; i++) {
+                max = Math.max(max, mValues[indexOf(i)]);
+            }
+            return max;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Gets the mean of the values in a window.
+     *
+     * @param window the length of a window back from the latest sample
+     * @param unit the unit of <code>window</code>
+     * @return the mean, or <code>NaN</code> if this buffer is empty
+     */
+    public float mean(long window, TimeUnit unit) {
+        mLock.lock();
+        try {
+            int count = countInWindow(unit.toNanos(window));
+            if (count == 0) return Float.NaN;
+            double sum = 0;
+            for (int i = 0; i < count; i++) {
+                sum += mValues[indexOf(i)];
+            }
+            return (float) (sum / count);
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Gets the index of the i-th latest sample (0 is the latest one).
+     */
+    private int indexOf(int i) {
+        int capacity = mTimestamps.length;
+        return (mHead - 1 - i + 2 * capacity) % capacity;
+    }
+
+    /**
+     * Counts the latest samples whose timestamps are within a window (must be called with the lock).
+     */
+    private int countInWindow(long windowNanos) {
+        if (mSize == 0) return 0;
+        long from = mTimestamps[indexOf(0)] - windowNanos;
+        int count = 0;
+        while (count < mSize && mTimestamps[indexOf(count)] - from >= 0) {
+            count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,573 @@
+/**
+ * Copyright (C) 2011-2017 The PILE Developers <pile-dev@googlegroups.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pileproject.drivecommand.machine;
+
+import com.pileproject.drivecommand.command.TypedCommand;
+import com.pileproject.drivecommand.command.TypedResult;
+import com.pileproject.drivecommand.machine.device.DeviceBase;
+import com.pileproject.drivecommand.machine.device.port.DevicePort;
+import com.pileproject.drivecommand.model.CommandType;
+import com.pileproject.drivecommand.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A scheduler which samples sensors of a machine periodically.
+ * Each sensor is registered with its own sampling rate as a {@link Channel}.
+ * On every tick, the reads which are due are executed together with
+ * {@link MachineBase#execAll(int[], TypedCommand[], TypedResult[], int)},
+ * so machines which can pack several reads into one request (e.g., EV3) need only one round trip per tick.
+ * The latest value of each channel can be taken from any thread.
+ *
+ * <pre>
+ * SensorScheduler scheduler = new SensorScheduler(machine, executor, 10, TimeUnit.MILLISECONDS);
+ * SensorScheduler.Channel rate = scheduler.register(gyroSensor, CommandType.GET_GYRO_RATE, 100);
+ * SensorScheduler.Channel dist = scheduler.register(rangefinder, CommandType.GET_RANGEFINDER_DIST, 10);
+ * scheduler.start();
+ * ...
+ * int value = rate.getIntValue();
+ * </pre>
+ *
+ * Samples can also be pushed to several consumers (e.g., a UI, a logger and a controller)
+ * with {@link Channel#subscribe(SampleListener, Executor)}; all of them share the reads of the channel.
+ */
+public class SensorScheduler {
+    private static final String TAG = "SensorScheduler";
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+    private static final long FAILURE_LOG_INTERVAL_NANOS = NANOS_PER_SECOND;
+
+    private final MachineBase mMachine;
+    private final ScheduledExecutorService mExecutor;
+    private final long mTickNanos;
+    private final List<Channel> mChannels = new CopyOnWriteArrayList<>();
+    private ScheduledFuture<?> mFuture;
+
+    // a lock instead of a monitor, so virtual threads are not pinned while waiting for it
+    private final ReentrantLock mPollLock = new ReentrantLock();
+    // guarded by mPollLock
+    private final List<Channel> mDueChannels = new ArrayList<>();
+    private int[] mPorts = new int[0];
+    private TypedCommand[] mCommands = new TypedCommand[0];
+    private TypedResult[] mResults = new TypedResult[0];
+
+    // used only by the scheduled task
+    private long mLastFailureLog = Long.MIN_VALUE;
+    private int mSuppressedFailureCount;
+
+    /**
+     * @param machine a machine whose sensors are sampled
+     * @param executor an executor which runs the ticks (it can be shared with other schedulers)
+     * @param tick the interval of ticks, which limits the highest sampling rate
+     * @param unit the unit of <code>tick</code>
+     */
+    public SensorScheduler(MachineBase machine, ScheduledExecutorService executor, long tick, TimeUnit unit) {
+        if (tick <= 0) {
+            throw new IllegalArgumentException("The tick must be positive");
+        }
+        mMachine = machine;
+        mExecutor = executor;
+        mTickNanos = unit.toNanos(tick);
+    }
+
+    /**
+     * Registers a command of a device to be sampled periodically.
+     *
+     * @param device a device to be sampled
+     * @param type the type of a command which reads a value (e.g., {@link CommandType#GET_GYRO_RATE})
+     * @param rate the target sampling rate [Hz]
+     * @return a {@link Channel} which keeps the latest value
+     * @see #register(DevicePort, CommandType, double)
+     */
+    public Channel register(DeviceBase device, CommandType type, double rate) {
+        return register(device.getPort(), type, rate);
+    }
+
+    /**
+     * Registers a command with a port to be sampled periodically.
+     * The command is sampled at most once in a tick, so a rate higher than the tick rate is limited to it.
+     *
+     * @param port a port of a device to be sampled
+     * @param type the type of a command which reads a value
+     * @param rate the target sampling rate [Hz]
+     * @return a {@link Channel} which keeps the latest value
+     * @throws UnsupportedOperationException if the machine does not support the command
+     */
+    public Channel register(DevicePort port, CommandType type, double rate) {
+        if (rate <= 0) {
+            throw new IllegalArgumentException("The rate must be positive");
+        }
+        if (!mMachine.supports(type)) {
+            throw new UnsupportedOperationException(type.name() + " is not supported by this machine");
+        }
+
+        Channel channel = new Channel(port, type, (long) (NANOS_PER_SECOND / rate));
+        mChannels.add(channel);
+        return channel;
+    }
+
+    /**
+     * Starts sampling. This method does nothing if it has already been started.
+     */
+    public synchronized void start() {
+        if (mFuture != null) return;
+
+        mFuture = mExecutor.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    poll();
+                } catch (RuntimeException e) {
+                    // keep sampling; a periodic task is cancelled if it throws an exception
+                    logFailure(e);
+                }
+            }
+        }, 0, mTickNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Stops sampling. The latest values are kept.
+     */
+    public synchronized void stop() {
+        if (mFuture == null) return;
+
+        mFuture.cancel(false);
+        mFuture = null;
+    }
+
+    /**
+     * Logs a failure of a tick, but at most once in a second, so a disconnected machine does not flood the log.
+     *
+     * @param e the exception thrown by {@link #poll()}
+     */
+    private void logFailure(RuntimeException e) {
+        long now = now();
+        if (mLastFailureLog != Long.MIN_VALUE && now - mLastFailureLog < FAILURE_LOG_INTERVAL_NANOS) {
+            mSuppressedFailureCount++;
+            return;
+        }
+
+        String message = "Failed to sample sensors";
+        if (mSuppressedFailureCount > 0) {
+            message += " (" + mSuppressedFailureCount + " more failures since the last log)";
+        }
+        Log.e(TAG, message, e);
+        mLastFailureLog = now;
+        mSuppressedFailureCount = 0;
+    }
+
+    /**
+     * Reads all the channels which are due now in one call of
+     * {@link MachineBase#execAll(int[], TypedCommand[], TypedResult[], int)}.
+     * This method is called on every tick after {@link #start()}.
+     * It can also be called directly to drive this scheduler by an own loop;
+     * calls from several threads are serialized.
+     * If the reads fail, the channels are not read again until their next period.
+     */
+    public void poll() {
+        mPollLock.lock();
+        try {
+            pollLocked();
+        } finally {
+            mPollLock.unlock();
+        }
+    }
+
+    private void pollLocked() {
+        long now = now();
+
+        mDueChannels.clear();
+        for (Channel channel : mChannels) {
+            if (channel.isDue(now)) mDueChannels.add(channel);
+        }
+        int count = mDueChannels.size();
+        if (count == 0) return;
+
+        // the arrays only grow (to the number of the registered channels), so they are reused for any batch
+        if (mPorts.length < count) {
+            int capacity = Math.max(count, mChannels.size());
+            mPorts = new int[capacity];
+            mCommands = new TypedCommand[capacity];
+            mResults = new TypedResult[capacity];
+        }
+        for (int i = 0; i < count; i++) {
+            Channel channel = mDueChannels.get(i);
+            mPorts[i] = channel.mPort.getRaw();
+            mCommands[i] = channel.mCommand;
+            mResults[i] = channel.mScratch;
+        }
+
+        try {
+            mMachine.execAll(mPorts, mCommands, mResults, count);
+        } catch (RuntimeException e) {
+            // skip this batch, so a failing read is retried in its next period rather than on every tick
+            for (int i = 0; i < count; i++) {
+                mDueChannels.get(i).advance(now);
+            }
+            throw e;
+        }
+
+        long sampledAt = now();
+        for (int i = 0; i < count; i++) {
+            mDueChannels.get(i).publish(sampledAt, now);
+        }
+    }
+
+    /**
+     * Gets the current time in nanoseconds. Subclasses can override this method to use another clock.
+     *
+     * @return the current time [nsec]
+     */
+    protected long now() {
+        return System.nanoTime();
+    }
+
+    /**
+     * A sensor value which is sampled periodically by a {@link SensorScheduler}.
+     */
+    public class Channel {
+        private final DevicePort mPort;
+        private final TypedCommand mCommand;
+        private final long mPeriodNanos;
+        // guarded by the poll lock of the scheduler
+        private final TypedResult mScratch = new TypedResult();
+        private long mNextDue = Long.MIN_VALUE;
+
+        private final List<Subscription> mSubscriptions = new CopyOnWriteArrayList<>();
+
+        // a lock instead of a monitor, so virtual threads are not pinned while waiting for it
+        private final ReentrantLock mLock = new ReentrantLock();
+        // guarded by mLock
+        private final TypedResult mLatest = new TypedResult();
+        private long mTimestamp;
+        private long mSampleCount;
+
+        private Channel(DevicePort port, CommandType type, long periodNanos) {
+            mPort = port;
+            mCommand = new TypedCommand(type, 0);
+            mPeriodNanos = periodNanos;
+        }
+
+        private boolean isDue(long now) {
+            return mNextDue == Long.MIN_VALUE || now - mNextDue >= 0;
+        }
+
+        private void advance(long scheduledAt) {
+            // keep the phase, but do not try to catch up with the ticks which have been missed
+            mNextDue = (mNextDue == Long.MIN_VALUE || scheduledAt - mNextDue >= mPeriodNanos)
+                    ? scheduledAt + mPeriodNanos : mNextDue + mPeriodNanos;
+        }
+
+        private void publish(long sampledAt, long scheduledAt) {
+            advance(scheduledAt);
+
+            mLock.lock();
+            try {
+                mLatest.set(mScratch);
+                mTimestamp = sampledAt;
+                mSampleCount++;
+            } finally {
+                mLock.unlock();
+            }
+            for (Subscription subscription : mSubscriptions) {
+                subscription.signal();
+            }
+        }
+
+        /**
+         * Subscribes to the samples of this channel. Each sample is delivered to the listener on the executor.
+         * If the listener is slower than the sampling rate, the samples which arrive while it is busy
+         * are conflated: only the latest one is delivered when it returns, so a slow listener never
+         * delays the others or the sampling.
+         *
+         * @param listener a listener which receives the samples
+         * @param executor an executor which calls the listener
+         * @return a {@link Subscription} which can be cancelled
+         */
+        public Subscription subscribe(SampleListener listener, Executor executor) {
+            Subscription subscription = new Subscription(this, listener, executor);
+            mSubscriptions.add(subscription);
+            return subscription;
+        }
+
+        public DevicePort getPort() {
+            return mPort;
+        }
+
+        public CommandType getCommandType() {
+            return mCommand.getCommandType();
+        }
+
+        /**
+         * Gets the sampling period of this channel.
+         *
+         * @return the period [nsec]
+         */
+        public long getPeriodNanos() {
+            return mPeriodNanos;
+        }
+
+        /**
+         * Checks whether this channel has been sampled at least once.
+         *
+         * @return sampled (<code>true</code>) or not (<code>false</code>)
+         */
+        public boolean hasValue() {
+            mLock.lock();
+            try {
+                return mSampleCount > 0;
+            } finally {
+                mLock.unlock();
+            }
+        }
+
+        /**
+         * Gets the time when the latest value was sampled (in the clock of {@link SensorScheduler#now()}).
+         *
+         * @return the timestamp [nsec]
+         */
+        public long getTimestamp() {
+            mLock.lock();
+            try {
+                return mTimestamp;
+            } finally {
+                mLock.unlock();
+            }
+        }
+
+        public long getSampleCount() {
+            mLock.lock();
+            try {
+                return mSampleCount;
+            } finally {
+                mLock.unlock();
+            }
+        }
+
+        public int getIntValue() {
+            mLock.lock();
+            try {
+                return mLatest.getIntValue();
+            } finally {
+                mLock.unlock();
+            }
+        }
+
+        public boolean getBooleanValue() {
+            mLock.lock();
+            try {
+                return mLatest.getBooleanValue();
+            } finally {
+                mLock.unlock();
+            }
+        }
+
+        /**
+         * Gets a copy of the latest <code>float</code> values (e.g., RGB).
+         *
+         * @return the values
+         */
+        public float[] getFloatValues() {
+            mLock.lock();
+            try {
+                return Arrays.copyOf(mLatest.getFloatValues(), mLatest.getFloatCount());
+            } finally {
+                mLock.unlock();
+            }
+        }
+
+        /**
+         * Copies the latest value to a result without making garbage.
+         *
+         * @param result a result to which the value is copied
+         */
+        public void copyTo(TypedResult result) {
+            mLock.lock();
+            try {
+                result.set(mLatest);
+            } finally {
+                mLock.unlock();
+            }
+        }
+
+        /**
+         * Stops sampling this channel.
+         */
+        public void cancel() {
+            mChannels.remove(this);
+        }
+    }
+
+    /**
+     * A subscription of a {@link SampleListener} to a {@link Channel}.
+     * At most one delivery is in flight at a time; samples which arrive meanwhile are conflated into the latest one.
+     */
+    public static class Subscription {
+        private final Channel mChannel;
+        private final SampleListener mListener;
+        private final Executor mExecutor;
+        // used only by the delivering thread
+        private final TypedResult mValue = new TypedResult();
+        private long mLastSampleCount;
+        private final Runnable mDeliverTask = new Runnable() {
+            @Override
+            public void run() {
+                deliver();
+            }
+        };
+
+        private final ReentrantLock mLock = new ReentrantLock();
+        // guarded by mLock
+        private boolean mIsScheduled;
+        private boolean mHasNewSample;
+        private long mDeliveredCount;
+        private long mConflatedCount;
+        private volatile boolean mIsCancelled;
+
+        private Subscription(Channel channel, SampleListener listener, Executor executor) {
+            mChannel = channel;
+            mListener = listener;
+            mExecutor = executor;
+            channel.mLock.lock();
+            try {
+                mLastSampleCount = channel.mSampleCount;
+            } finally {
+                channel.mLock.unlock();
+            }
+        }
+
+        private void signal() {
+            if (mIsCancelled) return;
+            mLock.lock();
+            try {
+                if (mIsScheduled) {
+                    mHasNewSample = true;
+                    return;
+                }
+                mIsScheduled = true;
+            } finally {
+                mLock.unlock();
+            }
+            try {
+                mExecutor.execute(mDeliverTask);
+            } catch (RuntimeException e) {
+                mLock.lock();
+                try {
+                    mIsScheduled = false;
+                } finally {
+                    mLock.unlock();
+                }
+                Log.e(TAG, "Failed to deliver a sample", e);
+            }
+        }
+
+        private void deliver() {
+            while (!mIsCancelled) {
+                long timestamp;
+                long sampleCount;
+                mChannel.mLock.lock();
+                try {
+                    mValue.set(mChannel.mLatest);
+                    timestamp = mChannel.mTimestamp;
+                    sampleCount = mChannel.mSampleCount;
+                } finally {
+                    mChannel.mLock.unlock();
+                }
+                boolean isNew = sampleCount != mLastSampleCount;
+                mLock.lock();
+                try {
+                    mHasNewSample = false;
+                    if (isNew) {
+                        // the samples between the last delivered one and this one are skipped
+                        mConflatedCount += sampleCount - mLastSampleCount - 1;
+                        mDeliveredCount++;
+                    }
+                } finally {
+                    mLock.unlock();
+                }
+                mLastSampleCount = sampleCount;
+
+                // a signal can arrive after its sample has already been delivered
+                if (isNew) {
+                    try {
+                        mListener.onSample(mChannel, mValue, timestamp);
+                    } catch (RuntimeException e) {
+                        Log.e(TAG, "A listener failed", e);
+                    }
+                }
+
+                mLock.lock();
+                try {
+                    if (!mHasNewSample) {
+                        mIsScheduled = false;
+                        return;
+                    }
+                } finally {
+                    mLock.unlock();
+                }
+            }
+            mLock.lock();
+            try {
+                mIsScheduled = false;
+            } finally {
+                mLock.unlock();
+            }
+        }
+
+        /**
+         * Gets the number of samples delivered to the listener.
+         *
+         * @return the number of delivered samples
+         */
+        public long getDeliveredCount() {
+            mLock.lock();
+            try {
+                return mDeliveredCount;
+            } finally {
+                mLock.unlock();
+            }
+        }
+
+        /**
+         * Gets the number of samples which were skipped because the listener was busy.
+         *
+         * @return the number of conflated samples
+         */
+        public long getConflatedCount() {
+            mLock.lock();
+            try {
+                return mConflatedCount;
+            } finally {
+                mLock.unlock();
+            }
+        }
+
+        /**
+         * Stops delivering samples to the listener. A delivery in progress is completed.
+         */
+        public void cancel() {
+            mIsCancelled = true;
+            mChannel.mSubscriptions.remove(this);
+        }
+    }
+}
@@ -16,17 +16,43 @@
 package com.pileproject.drivecommand.machine.device;
 
 import com.pileproject.drivecommand.command.CommandBase;
+import com.pileproject.drivecommand.command.TypedCommand;
+import com.pileproject.drivecommand.command.TypedResult;
 import com.pileproject.drivecommand.machine.device.port.DevicePort;
+import com.pileproject.drivecommand.model.CommandType;
 import com.pileproject.drivecommand.model.ProtocolBase;
+import com.pileproject.drivecommand.model.ShadowState;
 
+import java.util.EnumMap;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * A base class of a (input / output) device.
+ * A device reuses one {@link TypedCommand} and one {@link TypedResult} for all of the commands
+ * of each thread, so it does not make garbage and it can be used by several threads at the same time.
+ *
+ * Values read by {@link #read(CommandType)} can be cached (see {@link #setMaxAge(long, TimeUnit)}).
+ * Caching is disabled by default.
  */
 public abstract class DeviceBase {
     private final DevicePort mPort;
     private final ProtocolBase mProtocol;
+    private final ThreadLocal<Scratch> mScratch = new ThreadLocal<Scratch>() {
+        @Override
+        protected Scratch initialValue() {
+            return new Scratch();
+        }
+    };
+    // a lock instead of a monitor, so virtual threads are not pinned while waiting for it
+    private final ReentrantLock mCacheLock = new ReentrantLock();
+    // cached values for each command (created when caching is enabled, guarded by mCacheLock)
+    private Map<CommandType, CachedValue> mCache;
+    private volatile long mMaxAgeNanos;
+    // guarded by mCacheLock
+    private long mCacheHitCount;
+    private long mCacheMissCount;
 
     /**
      * @param port a port where this device is to be inserted
@@ -47,10 +73,207 @@ public abstract class DeviceBase {
         return mProtocol.exec(mPort.getRaw(), command);
     }
 
+    /**
+     * Executes a command which has no argument.
+     *
+     * @param type the type of a command to be executed
+     * @return the result (this object is overwritten by the next command of this thread)
+     */
+    protected TypedResult exec(CommandType type) {
+        return exec(type, 0);
+    }
+
+    /**
+     * Executes a command with an argument.
+     * This method does not make garbage because the command and the result are reused.
+     *
+     * @param type the type of a command to be executed
+     * @param arg the argument of a command (e.g., speed or angle)
+     * @return the result (this object is overwritten by the next command of this thread)
+     */
+    protected TypedResult exec(CommandType type, int arg) {
+        Scratch scratch = mScratch.get();
+        mProtocol.exec(mPort.getRaw(), scratch.mCommand.set(type, arg), scratch.mResult);
+        return scratch.mResult;
+    }
+
+    /**
+     * Executes a command with an argument.
+     * If <code>force</code> is <code>true</code>, the command is sent even if the machine
+     * records that the actuator is already in the state (see {@link ShadowState}).
+     *
+     * @param type the type of a command to be executed
+     * @param arg the argument of a command (e.g., speed or angle)
+     * @param force send the command regardless of the recorded state (<code>true</code>) or not (<code>false</code>)
+     * @return the result (this object is overwritten by the next command of this thread)
+     */
+    protected TypedResult exec(CommandType type, int arg, boolean force) {
+        Scratch scratch = mScratch.get();
+        mProtocol.exec(mPort.getRaw(), scratch.mCommand.set(type, arg), scratch.mResult, force);
+        return scratch.mResult;
+    }
+
+    /**
+     * Reads a value from this device. If caching is enabled and the last value of the command
+     * is younger than the max age, the value is returned without communicating with a machine.
+     *
+     * @param type the type of a command which reads a value
+     * @return the result (this object is overwritten by the next command of this thread)
+     */
+    protected TypedResult read(CommandType type) {
+        if (mMaxAgeNanos <= 0) {
+            return exec(type);
+        }
+
+        TypedResult result = mScratch.get().mResult;
+        long now = System.nanoTime();
+        mCacheLock.lock();
+        try {
+            CachedValue cached = mCache.get(type);
+            if (cached != null && now - cached.mTimestamp < mMaxAgeNanos) {
+                mCacheHitCount++;
+                result.set(cached.mResult);
+                return result;
+            }
+            mCacheMissCount++;
+        } finally {
+            mCacheLock.unlock();
+        }
+
+        // the machine is read without the lock, so the other commands of this device do not wait for it
+        exec(type);
+
+        mCacheLock.lock();
+        try {
+            CachedValue cached = mCache.get(type);
+            if (cached == null) {
+                cached = new CachedValue();
+                mCache.put(type, cached);
+            }
+            // keep a value which another thread has read later than this one
+            if (!cached.mHasValue || now - cached.mTimestamp > 0) {
+                cached.mResult.set(result);
+                // use the time before reading, so a value is never used longer than the max age
+                cached.mTimestamp = now;
+                cached.mHasValue = true;
+            }
+        } finally {
+            mCacheLock.unlock();
+        }
+        return result;
+    }
+
+    /**
+     * Sets the max age of cached values. The getters of this device return the last value
+     * without communicating with a machine while the value is younger than the max age.
+     *
+     * @param maxAge the max age of cached values (0 disables caching)
+     * @param unit the unit of <code>maxAge</code>
+     */
+    public void setMaxAge(long maxAge, TimeUnit unit) {
+        long maxAgeNanos = unit.toNanos(maxAge);
+        mCacheLock.lock();
+        try {
+            if (maxAgeNanos > 0 && mCache == null) {
+                mCache = new EnumMap<>(CommandType.class);
+            }
+            if (mCache != null) mCache.clear();
+            // set after the cache is created, so read() never sees caching enabled without the cache
+            mMaxAgeNanos = maxAgeNanos;
+        } finally {
+            mCacheLock.unlock();
+        }
+    }
+
+    /**
+     * Gets the max age of cached values.
+     *
+     * @param unit the unit of the returned value
+     * @return the max age (0 if caching is disabled)
+     */
+    public long getMaxAge(TimeUnit unit) {
+        return unit.convert(mMaxAgeNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Discards the cached values, so the next reads communicate with a machine.
+     */
+    public void invalidateCache() {
+        mCacheLock.lock();
+        try {
+            if (mCache != null) mCache.clear();
+        } finally {
+            mCacheLock.unlock();
+        }
+    }
+
+    /**
+     * Forgets the recorded state of the actuator on the port of this device,
+     * so the next command is sent even if it would not change the state.
+     */
+    public void invalidateOutputState() {
+        ShadowState shadow = mProtocol.getShadowState();
+        if (shadow != null) shadow.invalidate(mPort.getRaw());
+    }
+
+    /**
+     * Gets the number of reads which returned cached values.
+     *
+     * @return the number of cache hits
+     */
+    public long getCacheHitCount() {
+        mCacheLock.lock();
+        try {
+            return mCacheHitCount;
+        } finally {
+            mCacheLock.unlock();
+        }
+    }
+
+    /**
+     * Gets the number of reads which communicated with a machine while caching was enabled.
+     *
+     * @return the number of cache misses
+     */
+    public long getCacheMissCount() {
+        mCacheLock.lock();
+        try {
+            return mCacheMissCount;
+        } finally {
+            mCacheLock.unlock();
+        }
+    }
+
+    /**
+     * Gets the port where this device is inserted.
+     *
+     * @return the {@link DevicePort}
+     */
+    public DevicePort getPort() {
+        return mPort;
+    }
+
     /**
      * Gets the type of this device.
      *
      * @return a {@link DeviceType}
      */
     public abstract DeviceType getDeviceType();
+
+    /**
+     * A value of a command with the time when it was read.
+     */
+    private static class CachedValue {
+        private final TypedResult mResult = new TypedResult();
+        private long mTimestamp;
+        private boolean mHasValue;
+    }
+
+    /**
+     * A command and a result which are reused by a thread.
+     */
+    private static class Scratch {
+        private final TypedCommand mCommand = new TypedCommand();
+        private final TypedResult mResult = new TypedResult();
+    }
 }
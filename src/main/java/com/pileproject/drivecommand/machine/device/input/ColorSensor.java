@@ -15,15 +15,14 @@
  */
 package com.pileproject.drivecommand.machine.device.input;
 
-import com.pileproject.drivecommand.command.CommandBase;
-import com.pileproject.drivecommand.command.CommandFactory;
+import com.pileproject.drivecommand.command.TypedResult;
 import com.pileproject.drivecommand.machine.device.DeviceBase;
 import com.pileproject.drivecommand.machine.device.DeviceType;
 import com.pileproject.drivecommand.machine.device.port.InputPort;
 import com.pileproject.drivecommand.model.CommandType;
 import com.pileproject.drivecommand.model.ProtocolBase;
 
-import java.util.Map;
+import java.util.Arrays;
 
 /**
  * A color sensor class.
@@ -41,9 +40,8 @@ public class ColorSensor extends DeviceBase {
      * @return RGB values in an array of float ([0]: r, [1]: g, [2]: b)
      */
     public float[] getRgb() {
-        CommandBase cmd = CommandFactory.createCommand(CommandType.GET_COLOR_RGB, null);
-        Map<String, Object> res = exec(cmd);
-        return (float[]) res.get("value");
+        TypedResult res = read(CommandType.GET_COLOR_RGB);
+        return Arrays.copyOf(res.getFloatValues(), res.getFloatCount());
     }
 
     /**
@@ -52,9 +50,7 @@ public class ColorSensor extends DeviceBase {
      * @return the illuminance (0 - 100%)
      */
     public int getIlluminance() {
-        CommandBase cmd = CommandFactory.createCommand(CommandType.GET_COLOR_ILLUMINANCE, null);
-        Map<String, Object> res = exec(cmd);
-        return (Integer) res.get("value");
+        return read(CommandType.GET_COLOR_ILLUMINANCE).getIntValue();
     }
 
     @Override
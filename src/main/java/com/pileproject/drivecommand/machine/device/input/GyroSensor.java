@@ -15,16 +15,12 @@
  */
 package com.pileproject.drivecommand.machine.device.input;
 
-import com.pileproject.drivecommand.command.CommandBase;
-import com.pileproject.drivecommand.command.CommandFactory;
 import com.pileproject.drivecommand.machine.device.DeviceBase;
 import com.pileproject.drivecommand.machine.device.DeviceType;
 import com.pileproject.drivecommand.machine.device.port.InputPort;
 import com.pileproject.drivecommand.model.CommandType;
 import com.pileproject.drivecommand.model.ProtocolBase;
 
-import java.util.Map;
-
 /**
  * A gyro sensor class.
  */
@@ -40,9 +36,7 @@ public class GyroSensor extends DeviceBase {
      * @return the current rate
      */
     public int getRate() {
-        CommandBase cmd = CommandFactory.createCommand(CommandType.GET_GYRO_RATE, null);
-        Map<String, Object> res = exec(cmd);
-        return (Integer) res.get("value");
+        return read(CommandType.GET_GYRO_RATE).getIntValue();
     }
 
     /**
@@ -51,9 +45,7 @@ public class GyroSensor extends DeviceBase {
      * @return the current angle
      */
     public int getAngle() {
-        CommandBase cmd = CommandFactory.createCommand(CommandType.GET_GYRO_ANGLE, null);
-        Map<String, Object> res = exec(cmd);
-        return (Integer) res.get("value");
+        return read(CommandType.GET_GYRO_ANGLE).getIntValue();
     }
 
     @Override
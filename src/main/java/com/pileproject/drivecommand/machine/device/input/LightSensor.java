@@ -15,16 +15,12 @@
  */
 package com.pileproject.drivecommand.machine.device.input;
 
-import com.pileproject.drivecommand.command.CommandBase;
-import com.pileproject.drivecommand.command.CommandFactory;
 import com.pileproject.drivecommand.machine.device.DeviceBase;
 import com.pileproject.drivecommand.machine.device.DeviceType;
 import com.pileproject.drivecommand.machine.device.port.InputPort;
 import com.pileproject.drivecommand.model.CommandType;
 import com.pileproject.drivecommand.model.ProtocolBase;
 
-import java.util.Map;
-
 /**
  * A light sensor class.
  */
@@ -40,9 +36,7 @@ public class LightSensor extends DeviceBase {
      * @return sensor value (0 - 100%)
      */
     public int getSensorValue() {
-        CommandBase cmd = CommandFactory.createCommand(CommandType.GET_LIGHT_VALUE, null);
-        Map<String, Object> value = exec(cmd);
-        return (Integer) value.get("value");
+        return read(CommandType.GET_LIGHT_VALUE).getIntValue();
     }
 
     @Override
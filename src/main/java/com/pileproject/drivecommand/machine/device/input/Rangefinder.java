@@ -15,16 +15,12 @@
  */
 package com.pileproject.drivecommand.machine.device.input;
 
-import com.pileproject.drivecommand.command.CommandBase;
-import com.pileproject.drivecommand.command.CommandFactory;
 import com.pileproject.drivecommand.machine.device.DeviceBase;
 import com.pileproject.drivecommand.machine.device.DeviceType;
 import com.pileproject.drivecommand.machine.device.port.InputPort;
 import com.pileproject.drivecommand.model.CommandType;
 import com.pileproject.drivecommand.model.ProtocolBase;
 
-import java.util.Map;
-
 /**
  * A rangefinder class.
  */
@@ -40,9 +36,7 @@ public class Rangefinder extends DeviceBase {
      * @return the distance in centimeter
      */
     public int getDistance() {
-        CommandBase cmd = CommandFactory.createCommand(CommandType.GET_RANGEFINDER_DIST, null);
-        Map<String, Object> res = exec(cmd);
-        return (Integer) res.get("value");
+        return read(CommandType.GET_RANGEFINDER_DIST).getIntValue();
     }
 
     @Override
@@ -15,16 +15,12 @@
  */
 package com.pileproject.drivecommand.machine.device.input;
 
-import com.pileproject.drivecommand.command.CommandBase;
-import com.pileproject.drivecommand.command.CommandFactory;
 import com.pileproject.drivecommand.machine.device.DeviceBase;
 import com.pileproject.drivecommand.machine.device.DeviceType;
 import com.pileproject.drivecommand.machine.device.port.InputPort;
 import com.pileproject.drivecommand.model.CommandType;
 import com.pileproject.drivecommand.model.ProtocolBase;
 
-import java.util.Map;
-
 /**
  * A remote control receiver class.
  */
@@ -40,9 +36,7 @@ public class RemoteControlReceiver extends DeviceBase {
      * @return the button number
      */
     public int getRemoteButton() {
-        CommandBase cmd = CommandFactory.createCommand(CommandType.GET_REMOTECONTROLLER_BUTTON, null);
-        Map<String, Object> res = exec(cmd);
-        return (Integer) res.get("value");
+        return read(CommandType.GET_REMOTECONTROLLER_BUTTON).getIntValue();
     }
 
     /**
@@ -52,9 +46,7 @@ public class RemoteControlReceiver extends DeviceBase {
      * TODO: not tested
      */
     public int getRemoteDistance() {
-        CommandBase cmd = CommandFactory.createCommand(CommandType.GET_REMOTECONTROLLER_DIST, null);
-        Map<String, Object> res = exec(cmd);
-        return (Integer) res.get("value");
+        return read(CommandType.GET_REMOTECONTROLLER_DIST).getIntValue();
     }
 
     @Override
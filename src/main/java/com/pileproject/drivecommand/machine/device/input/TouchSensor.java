@@ -15,16 +15,13 @@
  */
 package com.pileproject.drivecommand.machine.device.input;
 
-import com.pileproject.drivecommand.command.CommandBase;
-import com.pileproject.drivecommand.command.CommandFactory;
+import com.pileproject.drivecommand.command.TypedResult;
 import com.pileproject.drivecommand.machine.device.DeviceBase;
 import com.pileproject.drivecommand.machine.device.DeviceType;
 import com.pileproject.drivecommand.machine.device.port.InputPort;
 import com.pileproject.drivecommand.model.CommandType;
 import com.pileproject.drivecommand.model.ProtocolBase;
 
-import java.util.Map;
-
 /**
  * A touch sensor class.
  */
@@ -40,9 +37,7 @@ public class TouchSensor extends DeviceBase {
      * @return touched (<code>true</code>) or (<code>false</code>)
      */
     public boolean isTouched() {
-        CommandBase cmd = CommandFactory.createCommand(CommandType.GET_TOUCH_TOUCHED, null);
-        Map<String, Object> res = exec(cmd);
-        return (Boolean) res.get("value");
+        return read(CommandType.GET_TOUCH_TOUCHED).getBooleanValue();
     }
 
     /**
@@ -51,9 +46,20 @@ public class TouchSensor extends DeviceBase {
      * @return the number of touched count
      */
     public int getTouchedCount() {
-        CommandBase cmd = CommandFactory.createCommand(CommandType.GET_TOUCH_COUNT, null);
-        Map<String, Object> res = exec(cmd);
-        return (Integer) res.get("value");
+        return read(CommandType.GET_TOUCH_COUNT).getIntValue();
+    }
+
+    /**
+     * Gets the numbers of presses and releases since the last call, and clears them.
+     * This command is counted by a machine (only EV3 supports it), so no edge is missed between calls.
+     * Note that the counters are shared by all callers (e.g., a {@link com.pileproject.drivecommand.machine.ChangeDetector}).
+     *
+     * @return the number of presses and the number of releases
+     */
+    public int[] getChanges() {
+        TypedResult result = exec(CommandType.GET_TOUCH_CHANGES);
+        float[] changes = result.getFloatValues();
+        return new int[] { (int) changes[0], (int) changes[1] };
     }
 
     @Override
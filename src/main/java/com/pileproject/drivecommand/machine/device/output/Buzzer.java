@@ -15,8 +15,6 @@
  */
 package com.pileproject.drivecommand.machine.device.output;
 
-import com.pileproject.drivecommand.command.CommandBase;
-import com.pileproject.drivecommand.command.CommandFactory;
 import com.pileproject.drivecommand.machine.device.DeviceBase;
 import com.pileproject.drivecommand.machine.device.DeviceType;
 import com.pileproject.drivecommand.machine.device.port.OutputPort;
@@ -36,24 +34,21 @@ public class Buzzer extends DeviceBase {
      * Turns on this buzzer if it is off.
      */
     public void turnOn() {
-        CommandBase cmd = CommandFactory.createCommand(CommandType.SET_BUZZER_ON, null);
-        exec(cmd);
+        exec(CommandType.SET_BUZZER_ON);
     }
 
     /**
      * Turns off this buzzer if it is on.
      */
     public void turnOff() {
-        CommandBase cmd = CommandFactory.createCommand(CommandType.SET_BUZZER_OFF, null);
-        exec(cmd);
+        exec(CommandType.SET_BUZZER_OFF);
     }
 
     /**
      * Keeps this buzzer beeping.
      */
     public void beep() {
-        CommandBase cmd = CommandFactory.createCommand(CommandType.SET_BUZZER_BEEP, null);
-        exec(cmd);
+        exec(CommandType.SET_BUZZER_BEEP);
     }
 
     @Override
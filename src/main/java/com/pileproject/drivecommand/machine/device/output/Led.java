@@ -15,9 +15,6 @@
  */
 package com.pileproject.drivecommand.machine.device.output;
 
-
-import com.pileproject.drivecommand.command.CommandBase;
-import com.pileproject.drivecommand.command.CommandFactory;
 import com.pileproject.drivecommand.machine.device.DeviceBase;
 import com.pileproject.drivecommand.machine.device.DeviceType;
 import com.pileproject.drivecommand.machine.device.port.OutputPort;
@@ -37,16 +34,14 @@ public class Led extends DeviceBase {
      * Turns on this LED if it is off.
      */
     public void turnOn() {
-        CommandBase cmd = CommandFactory.createCommand(CommandType.SET_LED_ON, null);
-        exec(cmd);
+        exec(CommandType.SET_LED_ON);
     }
 
     /**
      * Turns off this LED if it is on.
      */
     public void turnOff() {
-        CommandBase cmd = CommandFactory.createCommand(CommandType.SET_LED_OFF, null);
-        exec(cmd);
+        exec(CommandType.SET_LED_OFF);
     }
 
     @Override
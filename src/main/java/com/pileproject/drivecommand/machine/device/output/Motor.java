@@ -15,17 +15,12 @@
  */
 package com.pileproject.drivecommand.machine.device.output;
 
-import com.pileproject.drivecommand.command.CommandBase;
-import com.pileproject.drivecommand.command.CommandFactory;
 import com.pileproject.drivecommand.machine.device.DeviceBase;
 import com.pileproject.drivecommand.machine.device.DeviceType;
 import com.pileproject.drivecommand.machine.device.port.OutputPort;
 import com.pileproject.drivecommand.model.CommandType;
 import com.pileproject.drivecommand.model.ProtocolBase;
 
-import java.util.HashMap;
-import java.util.Map;
-
 /**
  * A motor class.
  */
@@ -40,30 +35,21 @@ public class Motor extends DeviceBase {
      * Moves this motor forward.
      */
     public void forward() {
-        Map<String, Object> args = new HashMap<>();
-        args.put("speed", mSpeed);
-        CommandBase cmd = CommandFactory.createCommand(CommandType.SET_MOTOR_SPEED, args);
-        exec(cmd);
+        exec(CommandType.SET_MOTOR_SPEED, mSpeed);
     }
 
     /**
      * Moves this motor backward.
      */
     public void backward() {
-        Map<String, Object> args = new HashMap<>();
-        args.put("speed", -mSpeed);
-        CommandBase cmd = CommandFactory.createCommand(CommandType.SET_MOTOR_SPEED, args);
-        exec(cmd);
+        exec(CommandType.SET_MOTOR_SPEED, -mSpeed);
     }
 
     /**
      * Stops this motor.
      */
     public void stop() {
-        Map<String, Object> args = new HashMap<>();
-        args.put("speed", 0);
-        CommandBase cmd = CommandFactory.createCommand(CommandType.SET_MOTOR_SPEED, args);
-        exec(cmd);
+        exec(CommandType.SET_MOTOR_SPEED, 0);
     }
 
     /**
@@ -15,17 +15,12 @@
  */
 package com.pileproject.drivecommand.machine.device.output;
 
-import com.pileproject.drivecommand.command.CommandBase;
-import com.pileproject.drivecommand.command.CommandFactory;
 import com.pileproject.drivecommand.machine.device.DeviceBase;
 import com.pileproject.drivecommand.machine.device.DeviceType;
 import com.pileproject.drivecommand.machine.device.port.OutputPort;
 import com.pileproject.drivecommand.model.CommandType;
 import com.pileproject.drivecommand.model.ProtocolBase;
 
-import java.util.HashMap;
-import java.util.Map;
-
 /**
  * A servomotor class.
  */
@@ -41,9 +36,7 @@ public class Servomotor extends DeviceBase {
      * @return the current angle
      */
     public int getAngle() {
-        CommandBase cmd = CommandFactory.createCommand(CommandType.GET_SERVO_ANGLE, null);
-        Map<String, Object> res = exec(cmd);
-        return (Integer) res.get("value");
+        return read(CommandType.GET_SERVO_ANGLE).getIntValue();
     }
 
     /**
@@ -52,10 +45,7 @@ public class Servomotor extends DeviceBase {
      * @param angle an angle to be set
      */
     public void setAngle(int angle) {
-        Map<String, Object> args = new HashMap<>();
-        args.put("angle", angle);
-        CommandBase cmd = CommandFactory.createCommand(CommandType.SET_SERVO_ANGLE, args);
-        exec(cmd);
+        exec(CommandType.SET_SERVO_ANGLE, angle);
     }
 
     @Override
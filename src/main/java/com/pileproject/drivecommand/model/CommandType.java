@@ -100,6 +100,12 @@ public enum CommandType {
             return DeviceType.TOUCH_SENSOR;
         }
     },
+    GET_TOUCH_CHANGES {
+        @Override
+        public DeviceType getDeviceType() {
+            return DeviceType.TOUCH_SENSOR;
+        }
+    },
     GET_COLOR_RGB {
         @Override
         public DeviceType getDeviceType() {
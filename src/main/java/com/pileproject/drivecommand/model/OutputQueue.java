@@ -0,0 +1,306 @@
+/**
+ * Copyright (C) 2011-2017 The PILE Developers <pile-dev@googlegroups.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pileproject.drivecommand.model;
+
+import com.pileproject.drivecommand.command.TypedCommand;
+import com.pileproject.drivecommand.command.TypedResult;
+import com.pileproject.drivecommand.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A queue of output commands (set-points such as the speed of a motor) for a protocol.
+ * While a command waits to be sent, a newer command of the same type for the same port replaces it
+ * (last write wins), so only the newest set-point is sent and stale ones are never executed.
+ * The queue is drained on an {@link Executor} as fast as the link can carry the commands.
+ *
+ * Commands which go through this queue are executed asynchronously,
+ * so their results are not returned and they can be sent after later input commands.
+ * If the executor rejects draining (e.g., it has been shut down), the queue is drained
+ * on the thread which offers the command instead.
+ *
+ * @see ProtocolBase#setOutputQueue(OutputQueue)
+ */
+public class OutputQueue {
+    private static final String TAG = "OutputQueue";
+
+    private final ProtocolBase mProtocol;
+    private final Executor mExecutor;
+    private final Set<CommandType> mTypes;
+    private final ReentrantLock mLock = new ReentrantLock();
+    // held while a command is taken from this queue and sent, so sendNow() can run between two of them
+    private final ReentrantLock mSendLock = new ReentrantLock();
+
+    // guarded by mLock
+    private final Map<Integer, Map<CommandType, Slot>> mSlots = new HashMap<>();
+    private final Queue<Slot> mPending = new ArrayDeque<>();
+    private boolean mIsDraining;
+    private long mSubmittedCount;
+    private long mSentCount;
+    private long mCoalescedCount;
+    private long mFailedCount;
+
+    // used only by the draining thread
+    private final TypedCommand mSending = new TypedCommand();
+    private final TypedResult mResult = new TypedResult();
+
+    private final Runnable mDrainTask = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    /**
+     * Creates a queue which coalesces {@link CommandType#SET_MOTOR_SPEED} and {@link CommandType#SET_SERVO_ANGLE}.
+     *
+     * @param protocol a protocol which executes the commands
+     * @param executor an executor which drains the queue
+     */
+    public OutputQueue(ProtocolBase protocol, Executor executor) {
+        this(protocol, executor, EnumSet.of(CommandType.SET_MOTOR_SPEED, CommandType.SET_SERVO_ANGLE));
+    }
+
+    /**
+     * @param protocol a protocol which executes the commands
+     * @param executor an executor which drains the queue
+     * @param types the types of commands which go through this queue (the others are executed immediately)
+     */
+    public OutputQueue(ProtocolBase protocol, Executor executor, Set<CommandType> types) {
+        mProtocol = protocol;
+        mExecutor = executor;
+        mTypes = EnumSet.copyOf(types);
+    }
+
+    /**
+     * Offers a command to this queue.
+     *
+     * @param port a port to be used with the command
+     * @param cmd a command (copied, so it can be reused by the caller)
+     * @return queued (<code>true</code>) or not (<code>false</code>) because this queue does not handle the command
+     */
+    public boolean offer(int port, TypedCommand cmd) {
+        CommandType type = cmd.getCommandType();
+        if (!mTypes.contains(type)) return false;
+
+        boolean startsDraining = false;
+        mLock.lock();
+        try {
+            Map<CommandType, Slot> slots = mSlots.get(port);
+            if (slots == null) {
+                slots = new EnumMap<>(CommandType.class);
+                mSlots.put(port, slots);
+            }
+            Slot slot = slots.get(type);
+            if (slot == null) {
+                slot = new Slot(port);
+                slots.put(type, slot);
+            }
+
+            // overwrite the waiting command if any (last write wins)
+            slot.mCommand.set(type, cmd.getArg());
+            if (slot.mIsPending) {
+                mCoalescedCount++;
+            } else {
+                slot.mIsPending = true;
+                mPending.add(slot);
+            }
+            mSubmittedCount++;
+
+            if (!mIsDraining) {
+                mIsDraining = true;
+                startsDraining = true;
+            }
+        } finally {
+            mLock.unlock();
+        }
+
+        if (startsDraining) {
+            try {
+                mExecutor.execute(mDrainTask);
+            } catch (RuntimeException e) {
+                // the executor rejected the task (e.g., it has been shut down), so this thread drains the queue;
+                // otherwise the queue would stay marked as draining and nothing would be sent any more
+                Log.e(TAG, "Failed to start draining, so the commands are sent on the calling thread", e);
+                drain();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Sends a command immediately on the calling thread, bypassing this queue.
+     * A command of the same type for the port which waits in this queue is discarded,
+     * and a command which is being sent by this queue is completed first,
+     * so no command offered before this one is sent after it.
+     *
+     * @param port a port to be used with the command
+     * @param cmd a command which is to be sent
+     * @param result a result to which the result of the command is set
+     */
+    void sendNow(int port, TypedCommand cmd, TypedResult result) {
+        mSendLock.lock();
+        try {
+            mLock.lock();
+            try {
+                Map<CommandType, Slot> slots = mSlots.get(port);
+                Slot slot = (slots != null) ? slots.get(cmd.getCommandType()) : null;
+                if (slot != null && slot.mIsPending) {
+                    slot.mIsPending = false;
+                    mPending.remove(slot);
+                    mCoalescedCount++;
+                }
+            } finally {
+                mLock.unlock();
+            }
+            mProtocol.dispatch(port, cmd, result);
+        } finally {
+            mSendLock.unlock();
+        }
+    }
+
+    /**
+     * Sends the waiting commands until this queue becomes empty.
+     */
+    private void drain() {
+        while (true) {
+            int port;
+            boolean isSent = false;
+            mSendLock.lock();
+            try {
+                mLock.lock();
+                try {
+                    Slot slot = mPending.poll();
+                    if (slot == null) {
+                        mIsDraining = false;
+                        return;
+                    }
+                    slot.mIsPending = false;
+                    port = slot.mPort;
+                    mSending.set(slot.mCommand.getCommandType(), slot.mCommand.getArg());
+                } finally {
+                    mLock.unlock();
+                }
+
+                mProtocol.dispatch(port, mSending, mResult);
+                isSent = true;
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Failed to send " + mSending.getCommandType().name(), e);
+            } finally {
+                mSendLock.unlock();
+            }
+
+            mLock.lock();
+            try {
+                if (isSent) mSentCount++;
+                else mFailedCount++;
+            } finally {
+                mLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Gets the number of commands waiting to be sent.
+     *
+     * @return the number of pending commands (at most one for each port and command type)
+     */
+    public int getPendingCount() {
+        mLock.lock();
+        try {
+            return mPending.size();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Gets the number of commands which have been offered to this queue.
+     *
+     * @return the number of offered commands
+     */
+    public long getSubmittedCount() {
+        mLock.lock();
+        try {
+            return mSubmittedCount;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Gets the number of commands which have been sent.
+     *
+     * @return the number of sent commands
+     */
+    public long getSentCount() {
+        mLock.lock();
+        try {
+            return mSentCount;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Gets the number of commands which have failed to be sent.
+     *
+     * @return the number of failed commands
+     */
+    public long getFailedCount() {
+        mLock.lock();
+        try {
+            return mFailedCount;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Gets the number of commands which have been replaced by newer ones before being sent.
+     *
+     * @return the number of coalesced commands
+     */
+    public long getCoalescedCount() {
+        mLock.lock();
+        try {
+            return mCoalescedCount;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * A place of the newest command for a pair of a port and a command type.
+     */
+    private static class Slot {
+        private final int mPort;
+        private final TypedCommand mCommand = new TypedCommand();
+        private boolean mIsPending;
+
+        Slot(int port) {
+            mPort = port;
+        }
+    }
+}
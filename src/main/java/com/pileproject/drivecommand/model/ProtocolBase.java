@@ -16,21 +16,50 @@
 package com.pileproject.drivecommand.model;
 
 import com.pileproject.drivecommand.command.CommandBase;
+import com.pileproject.drivecommand.command.TypedCommand;
+import com.pileproject.drivecommand.command.TypedResult;
 import com.pileproject.drivecommand.model.com.ICommunicator;
 
 import java.io.IOException;
+import java.nio.channels.CompletionHandler;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * A base class of protocols which are used for
  * {@link com.pileproject.drivecommand.machine.MachineBase}
  * to interpret machine-specific byte codes.
+ *
+ * Each protocol registers a {@link CommandHandler} for every {@link CommandType} it supports
+ * (see {@link #register(CommandType, CommandHandler)}), and {@link #exec(int, TypedCommand, TypedResult)}
+ * dispatches commands with the table.
+ *
+ * A protocol can be used by several threads at the same time. Each command holds {@link #mLock}
+ * while it is executed, so a request and its reply are never interleaved with those of other commands
+ * on the same connection, while protocols of other machines run in parallel.
  */
 public abstract class ProtocolBase {
+    private static final int NUM_OUTPUT_LOCKS = 16;
+
     protected final ICommunicator mCommunicator;
+    // serializes the commands on the connection; this lock is fair, so a thread which reads sensors
+    // in a busy loop cannot starve the other threads (e.g., the one sending motor commands)
+    protected final ReentrantLock mLock = new ReentrantLock(true);
+    // serialize recording the states of actuators and sending the commands for each port (see ShadowState);
+    // ports share the locks by their numbers, so a blocked port rarely blocks the others
+    private final ReentrantLock[] mOutputLocks = new ReentrantLock[NUM_OUTPUT_LOCKS];
+    private final Map<CommandType, CommandHandler> mHandlers = new EnumMap<>(CommandType.class);
+    private volatile OutputQueue mOutputQueue;
+    private volatile ShadowState mShadowState;
 
     public ProtocolBase(ICommunicator comm) {
         mCommunicator = comm;
+        for (int i = 0; i < NUM_OUTPUT_LOCKS; i++) {
+            mOutputLocks[i] = new ReentrantLock();
+        }
     }
 
     /**
@@ -52,7 +81,362 @@ public abstract class ProtocolBase {
      * @param cmd a {@link CommandBase} which is to be executed
      * @return the result of the command
      */
-    public abstract Map<String, Object> exec(int port, CommandBase cmd);
+    public Map<String, Object> exec(int port, CommandBase cmd) {
+        TypedResult result = new TypedResult();
+        exec(port, new TypedCommand().set(cmd), result);
+        return result.toMap();
+    }
+
+    /**
+     * Executes a {@link TypedCommand} with a port and sets the result to a {@link TypedResult}.
+     * Both the command and the result can be reused, so this method does not make garbage
+     * for boxing arguments and results.
+     *
+     * @param port a port to be used with the command
+     * @param cmd a {@link TypedCommand} which is to be executed
+     * @param result a {@link TypedResult} to which the result of the command is set
+     * @throws UnsupportedOperationException if this protocol does not support the command
+     * (see {@link #supports(CommandType)})
+     * @see #setOutputQueue(OutputQueue)
+     * @see #setShadowState(ShadowState)
+     */
+    public void exec(int port, TypedCommand cmd, TypedResult result) {
+        exec(port, cmd, result, false);
+    }
+
+    /**
+     * Executes a {@link TypedCommand} with a port and sets the result to a {@link TypedResult}.
+     * If <code>force</code> is <code>true</code>, the command is sent even if it would not change
+     * the state recorded by the {@link ShadowState}. While the state is set, commands which change
+     * the states of actuators are sent one by one for each port, so the recorded state matches
+     * the last command sent to the port.
+     *
+     * @param port a port to be used with the command
+     * @param cmd a {@link TypedCommand} which is to be executed
+     * @param result a {@link TypedResult} to which the result of the command is set
+     * @param force send the command regardless of the recorded state (<code>true</code>) or not (<code>false</code>)
+     * @throws UnsupportedOperationException if this protocol does not support the command
+     * (see {@link #supports(CommandType)})
+     */
+    public void exec(int port, TypedCommand cmd, TypedResult result, boolean force) {
+        ShadowState shadow = mShadowState;
+        if (shadow == null || !ShadowState.isStateful(cmd.getCommandType())) {
+            send(port, cmd, result);
+            return;
+        }
+
+        // the state is recorded and the command is sent in one step, so the recorded state
+        // is always the one of the command which is sent last
+        ReentrantLock outputLock = outputLockOf(port);
+        outputLock.lock();
+        try {
+            if (force) {
+                shadow.update(port, cmd);
+            } else if (!shadow.recordIfChanged(port, cmd)) {
+                // the actuator is already in the state
+                result.clear();
+                return;
+            }
+            send(port, cmd, result);
+        } catch (RuntimeException e) {
+            // the state of the actuator is unknown
+            shadow.invalidate(port);
+            throw e;
+        } finally {
+            outputLock.unlock();
+        }
+    }
+
+    /**
+     * Executes a {@link TypedCommand} immediately on the calling thread, regardless of the state recorded
+     * by the {@link ShadowState} and bypassing the {@link OutputQueue} (e.g., to stop motors in an emergency).
+     * A command of the same type for the port which waits in the output queue is discarded,
+     * so it is not sent after this one. The recorded state is updated to this command.
+     *
+     * @param port a port to be used with the command
+     * @param cmd a {@link TypedCommand} which is to be executed
+     * @param result a {@link TypedResult} to which the result of the command is set
+     * @throws UnsupportedOperationException if this protocol does not support the command
+     * (see {@link #supports(CommandType)})
+     */
+    public void execImmediately(int port, TypedCommand cmd, TypedResult result) {
+        ShadowState shadow = mShadowState;
+        boolean isStateful = shadow != null && ShadowState.isStateful(cmd.getCommandType());
+        ReentrantLock outputLock = outputLockOf(port);
+        if (isStateful) outputLock.lock();
+        try {
+            if (isStateful) shadow.update(port, cmd);
+            OutputQueue queue = mOutputQueue;
+            if (queue != null) {
+                queue.sendNow(port, cmd, result);
+            } else {
+                dispatch(port, cmd, result);
+            }
+        } catch (RuntimeException e) {
+            // the state of the actuator is unknown
+            if (isStateful) shadow.invalidate(port);
+            throw e;
+        } finally {
+            if (isStateful) outputLock.unlock();
+        }
+    }
+
+    /**
+     * Gets the lock which serializes the commands changing the states of actuators for a port.
+     *
+     * @param port a port
+     * @return the lock for the port
+     */
+    private ReentrantLock outputLockOf(int port) {
+        return mOutputLocks[(port & Integer.MAX_VALUE) % NUM_OUTPUT_LOCKS];
+    }
+
+    /**
+     * Offers a command to the output queue, or executes it immediately if the queue does not handle it.
+     *
+     * @param port a port to be used with the command
+     * @param cmd a {@link TypedCommand} which is to be executed
+     * @param result a {@link TypedResult} to which the result of the command is set
+     */
+    private void send(int port, TypedCommand cmd, TypedResult result) {
+        OutputQueue queue = mOutputQueue;
+        if (queue != null && supports(cmd.getCommandType()) && queue.offer(port, cmd)) {
+            // the command will be sent later, so there is no result
+            result.clear();
+        } else {
+            dispatch(port, cmd, result);
+        }
+    }
+
+    /**
+     * Executes a command immediately with the registered handler (bypassing the output queue).
+     * The handler is called while holding {@link #mLock} if {@link #isSerialized()} is <code>true</code>.
+     *
+     * @param port a port to be used with the command
+     * @param cmd a {@link TypedCommand} which is to be executed
+     * @param result a {@link TypedResult} to which the result of the command is set
+     */
+    void dispatch(int port, TypedCommand cmd, TypedResult result) {
+        CommandHandler handler = mHandlers.get(cmd.getCommandType());
+        if (handler == null) {
+            throw new UnsupportedOperationException(
+                    cmd.getCommandType().name() + " Operation hasn't been implemented yet");
+        }
+        result.clear();
+
+        boolean serialized = isSerialized();
+        if (serialized) mLock.lock();
+        try {
+            handler.exec(port, cmd, result);
+        } catch (RuntimeException e) {
+            // the state of the actuator is unknown
+            invalidateIfStateful(port, cmd);
+            throw e;
+        } finally {
+            if (serialized) mLock.unlock();
+        }
+
+        if (result.isRejected()) {
+            // the machine has not changed the state of the actuator
+            invalidateIfStateful(port, cmd);
+        }
+    }
+
+    /**
+     * Forgets the recorded states of a port if a command changes the state of an actuator.
+     * Sensors and actuators can share raw port numbers (e.g., on EV3), so a failed read
+     * does not forget the states of the actuators.
+     *
+     * @param port a port used with the command
+     * @param cmd a command which has failed
+     */
+    private void invalidateIfStateful(int port, TypedCommand cmd) {
+        ShadowState shadow = mShadowState;
+        if (shadow != null && ShadowState.isStateful(cmd.getCommandType())) shadow.invalidate(port);
+    }
+
+    /**
+     * Checks whether commands have to be executed one by one.
+     * Protocols which match replies to requests by themselves (e.g., with message counters)
+     * can return <code>false</code> to let several threads wait for replies at the same time;
+     * such protocols must serialize writes to the communicator by themselves.
+     *
+     * @return serialized with {@link #mLock} (<code>true</code>) or not (<code>false</code>)
+     */
+    protected boolean isSerialized() {
+        return true;
+    }
+
+    /**
+     * Sets a queue which coalesces output commands. While the queue is set, the commands handled by it
+     * are executed asynchronously by the queue and only the newest one for each port is sent.
+     *
+     * @param queue an {@link OutputQueue} for this protocol, or <code>null</code> to execute all commands directly
+     */
+    public void setOutputQueue(OutputQueue queue) {
+        mOutputQueue = queue;
+    }
+
+    /**
+     * Gets the queue which coalesces output commands.
+     *
+     * @return the {@link OutputQueue} or <code>null</code> if it is not set
+     */
+    public OutputQueue getOutputQueue() {
+        return mOutputQueue;
+    }
+
+    /**
+     * Sets the last states of actuators. While the state is set, commands which would not change it
+     * are skipped (use {@link #exec(int, TypedCommand, TypedResult, boolean)} to send them anyway).
+     *
+     * @param shadow a {@link ShadowState} for this protocol, or <code>null</code> to send all commands
+     */
+    public void setShadowState(ShadowState shadow) {
+        mShadowState = shadow;
+    }
+
+    /**
+     * Gets the last states of actuators.
+     *
+     * @return the {@link ShadowState} or <code>null</code> if it is not set
+     */
+    public ShadowState getShadowState() {
+        return mShadowState;
+    }
+
+    /**
+     * Checks whether this protocol supports a command.
+     * Callers can use this method instead of catching {@link UnsupportedOperationException}.
+     *
+     * @param type the type of a command
+     * @return supported (<code>true</code>) or not (<code>false</code>)
+     */
+    public boolean supports(CommandType type) {
+        return mHandlers.containsKey(type);
+    }
+
+    /**
+     * Registers a handler of a command. A protocol calls this method in its constructor
+     * for every command it supports. A handler registered later replaces the former one.
+     *
+     * @param type the type of a command
+     * @param handler a handler which executes the command
+     */
+    protected final void register(CommandType type, CommandHandler handler) {
+        mHandlers.put(type, handler);
+    }
+
+    /**
+     * Executes a {@link TypedCommand} with a port and reports the result to a {@link CompletionHandler}.
+     * This implementation executes the command on the calling thread with
+     * {@link #exec(int, TypedCommand, TypedResult)} and calls the handler before returning.
+     * Protocols which can wait for replies without blocking should override this method.
+     *
+     * @param port a port to be used with the command
+     * @param cmd a {@link TypedCommand} which is to be executed
+     * @param result a {@link TypedResult} to which the result of the command is set
+     * @param attachment an object passed to the handler
+     * @param handler a handler which is called with <code>result</code> or a failure
+     * @param <A> the type of the attachment
+     */
+    public <A> void execAsync(int port, TypedCommand cmd, TypedResult result,
+                              A attachment, CompletionHandler<TypedResult, ? super A> handler) {
+        try {
+            exec(port, cmd, result);
+        } catch (RuntimeException e) {
+            handler.failed(e, attachment);
+            return;
+        }
+        handler.completed(result, attachment);
+    }
+
+    /**
+     * Executes {@link CommandBase}s with ports and returns the results as maps.
+     * <code>ports[i]</code> is used with <code>cmds[i]</code>.
+     *
+     * @param ports ports to be used with the commands
+     * @param cmds {@link CommandBase}s which are to be executed
+     * @return the results of the commands in the same order as <code>cmds</code>
+     * @see #execAll(int[], TypedCommand[], TypedResult[])
+     */
+    public List<Map<String, Object>> execAll(int[] ports, CommandBase[] cmds) {
+        TypedCommand[] typedCommands = new TypedCommand[cmds.length];
+        TypedResult[] results = new TypedResult[cmds.length];
+        for (int i = 0; i < cmds.length; i++) {
+            typedCommands[i] = new TypedCommand().set(cmds[i]);
+            results[i] = new TypedResult();
+        }
+        execAll(ports, typedCommands, results);
+
+        List<Map<String, Object>> maps = new ArrayList<>(cmds.length);
+        for (TypedResult result : results) {
+            maps.add(result.toMap());
+        }
+        return maps;
+    }
+
+    /**
+     * Executes {@link TypedCommand}s with ports and sets the results to {@link TypedResult}s.
+     * <code>ports[i]</code> is used with <code>cmds[i]</code> and the result is set to <code>results[i]</code>.
+     *
+     * @param ports ports to be used with the commands
+     * @param cmds {@link TypedCommand}s which are to be executed
+     * @param results {@link TypedResult}s to which the results of the commands are set
+     * @see #execAll(int[], TypedCommand[], TypedResult[], int)
+     */
+    public void execAll(int[] ports, TypedCommand[] cmds, TypedResult[] results) {
+        checkLengths(ports, cmds, results);
+        execAll(ports, cmds, results, cmds.length);
+    }
+
+    /**
+     * Executes the first <code>count</code> {@link TypedCommand}s with ports
+     * and sets the results to {@link TypedResult}s.
+     * The arrays can be longer than <code>count</code>, so callers can reuse them for batches of any size.
+     * This implementation executes the commands one by one.
+     * Protocols which can pack several commands into one request should override this method.
+     *
+     * @param ports ports to be used with the commands
+     * @param cmds {@link TypedCommand}s which are to be executed
+     * @param results {@link TypedResult}s to which the results of the commands are set
+     * @param count the number of the commands to be executed
+     */
+    public void execAll(int[] ports, TypedCommand[] cmds, TypedResult[] results, int count) {
+        checkLengths(ports, cmds, results, count);
+        for (int i = 0; i < count; i++) {
+            exec(ports[i], cmds[i], results[i]);
+        }
+    }
+
+    /**
+     * Checks the lengths of the arguments of {@link #execAll(int[], TypedCommand[], TypedResult[])}.
+     *
+     * @param ports ports to be used with the commands
+     * @param cmds commands which are to be executed
+     * @param results results of the commands
+     * @throws IllegalArgumentException if the lengths are different
+     */
+    protected static void checkLengths(int[] ports, TypedCommand[] cmds, TypedResult[] results) {
+        if (ports.length != cmds.length || cmds.length != results.length) {
+            throw new IllegalArgumentException("The numbers of ports, commands and results must be the same");
+        }
+    }
+
+    /**
+     * Checks the lengths of the arguments of {@link #execAll(int[], TypedCommand[], TypedResult[], int)}.
+     *
+     * @param ports ports to be used with the commands
+     * @param cmds commands which are to be executed
+     * @param results results of the commands
+     * @param count the number of the commands to be executed
+     * @throws IllegalArgumentException if any of the arrays is shorter than the count
+     */
+    protected static void checkLengths(int[] ports, TypedCommand[] cmds, TypedResult[] results, int count) {
+        if (count < 0 || ports.length < count || cmds.length < count || results.length < count) {
+            throw new IllegalArgumentException("The numbers of ports, commands and results must be at least the count");
+        }
+    }
 
     /**
      * Applies commands.
@@ -78,4 +462,18 @@ public abstract class ProtocolBase {
      * @return succeed (<code>true</code>) or not (<code>false</code>)
      */
     public abstract boolean store(int key, byte[] data);
+
+    /**
+     * An interface class of handlers which execute one type of commands.
+     */
+    protected interface CommandHandler {
+        /**
+         * Executes a command with a port.
+         *
+         * @param port a port to be used with the command
+         * @param cmd a {@link TypedCommand} which is to be executed
+         * @param result a cleared {@link TypedResult} to which the result of the command is set
+         */
+        void exec(int port, TypedCommand cmd, TypedResult result);
+    }
 }
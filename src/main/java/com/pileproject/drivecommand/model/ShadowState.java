@@ -0,0 +1,189 @@
+/**
+ * Copyright (C) 2011-2017 The PILE Developers <pile-dev@googlegroups.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pileproject.drivecommand.model;
+
+import com.pileproject.drivecommand.command.TypedCommand;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A class which keeps the last state of actuators (e.g., the speed of a motor or whether a LED is on)
+ * for each port, so that commands which would not change the state can be skipped.
+ *
+ * A state is recorded when a command is sent (or accepted by an {@link OutputQueue})
+ * and forgotten when a command which changes a state of the port fails or is not acknowledged by the machine,
+ * because the state of the machine is unknown then.
+ * Use {@link #invalidate(int)} or {@link #invalidate()} to send the next commands anyway
+ * (e.g., after a machine was reset by a user).
+ */
+public class ShadowState {
+    // kinds of states; SET_*_ON and SET_*_OFF share one state
+    private static final int LED = 0;
+    private static final int BUZZER = 1;
+    private static final int MOTOR = 2;
+    private static final int SERVO = 3;
+    private static final int NUM_STATES = 4;
+
+    // mValues[state][port] is valid only if mKnown[state][port] is true
+    private int[][] mValues = new int[NUM_STATES][0];
+    private boolean[][] mKnown = new boolean[NUM_STATES][0];
+    private long mSuppressedCount;
+    // a lock instead of a monitor, so virtual threads are not pinned while waiting for it
+    private final ReentrantLock mLock = new ReentrantLock();
+
+    /**
+     * Checks whether a command changes the state of an actuator.
+     *
+     * @param type the type of a command
+     * @return handled by this class (<code>true</code>) or not (<code>false</code>)
+     */
+    public static boolean isStateful(CommandType type) {
+        return stateOf(type) >= 0;
+    }
+
+    /**
+     * Records the state which a command sets unless the state is already recorded.
+     * The check and the record are done in one step, so two threads which send commands for
+     * the same port cannot both see the old state. A command which would not change the state
+     * is counted as suppressed. Commands which do not change a state are always reported as changed.
+     *
+     * @param port a port to be used with the command
+     * @param cmd a command which is to be executed
+     * @return the command changes the state, or the state is not known (<code>true</code>),
+     * or the command is redundant (<code>false</code>)
+     */
+    public boolean recordIfChanged(int port, TypedCommand cmd) {
+        mLock.lock();
+        try {
+            int state = stateOf(cmd.getCommandType());
+            if (state < 0 || port < 0) return true;
+
+            int value = valueOf(cmd);
+            if (port < mKnown[state].length && mKnown[state][port] && mValues[state][port] == value) {
+                mSuppressedCount++;
+                return false;
+            }
+            record(state, port, value);
+            return true;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Records the state which a command sets. Commands which do not change a state are ignored.
+     *
+     * @param port a port used with the command
+     * @param cmd a command which is to be executed
+     */
+    public void update(int port, TypedCommand cmd) {
+        mLock.lock();
+        try {
+            int state = stateOf(cmd.getCommandType());
+            if (state < 0 || port < 0) return;
+
+            record(state, port, valueOf(cmd));
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    private void record(int state, int port, int value) {
+        if (port >= mKnown[state].length) {
+            mValues[state] = Arrays.copyOf(mValues[state], port + 1);
+            mKnown[state] = Arrays.copyOf(mKnown[state], port + 1);
+        }
+        mValues[state][port] = value;
+        mKnown[state][port] = true;
+    }
+
+    /**
+     * Forgets the states of a port, so the next commands for the port are sent.
+     *
+     * @param port a port
+     */
+    public void invalidate(int port) {
+        mLock.lock();
+        try {
+            for (int state = 0; state < NUM_STATES; state++) {
+                if (port >= 0 && port < mKnown[state].length) {
+                    mKnown[state][port] = false;
+                }
+            }
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Forgets the states of all ports.
+     */
+    public void invalidate() {
+        mLock.lock();
+        try {
+            for (boolean[] known : mKnown) {
+                Arrays.fill(known, false);
+            }
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Gets the number of commands which were skipped because they would not change a state.
+     *
+     * @return the number of suppressed commands
+     */
+    public long getSuppressedCount() {
+        mLock.lock();
+        try {
+            return mSuppressedCount;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    private static int stateOf(CommandType type) {
+        switch (type) {
+            case SET_LED_ON:
+            case SET_LED_OFF:
+                return LED;
+            case SET_BUZZER_ON:
+            case SET_BUZZER_OFF:
+                return BUZZER;
+            case SET_MOTOR_SPEED:
+                return MOTOR;
+            case SET_SERVO_ANGLE:
+                return SERVO;
+            default:
+                return -1;
+        }
+    }
+
+    private static int valueOf(TypedCommand cmd) {
+        switch (cmd.getCommandType()) {
+            case SET_LED_ON:
+            case SET_BUZZER_ON:
+                return 1;
+            case SET_LED_OFF:
+            case SET_BUZZER_OFF:
+                return 0;
+            default:
+                return cmd.getArg();
+        }
+    }
+}
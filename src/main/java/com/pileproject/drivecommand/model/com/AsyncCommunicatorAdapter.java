@@ -0,0 +1,133 @@
+/**
+ * Copyright (C) 2011-2017 The PILE Developers <pile-dev@googlegroups.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pileproject.drivecommand.model.com;
+
+import java.io.IOException;
+import java.nio.channels.CompletionHandler;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * An adapter class which makes an {@link IAsyncCommunicator} from a blocking {@link ICommunicator}.
+ * Reads and writes are run on an {@link Executor} in the requested order,
+ * so many adapters can share a small thread pool instead of having a thread for each machine.
+ * A read and a write can run at the same time, so the underlying communicator has to allow it.
+ * Note that a thread of the pool is occupied while a read of the underlying communicator blocks.
+ */
+public class AsyncCommunicatorAdapter implements IAsyncCommunicator {
+    private final ICommunicator mCommunicator;
+    private final Executor mExecutor;
+    private final SerialQueue mReads = new SerialQueue();
+    private final SerialQueue mWrites = new SerialQueue();
+
+    public AsyncCommunicatorAdapter(ICommunicator comm, Executor executor) {
+        mCommunicator = comm;
+        mExecutor = executor;
+    }
+
+    @Override
+    public void open() throws IOException {
+        mCommunicator.open();
+    }
+
+    @Override
+    public void close() {
+        mCommunicator.close();
+    }
+
+    @Override
+    public <A> void write(final byte[] data, final A attachment,
+                          final CompletionHandler<Void, ? super A> handler) {
+        mWrites.enqueue(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mCommunicator.write(data);
+                } catch (RuntimeException e) {
+                    handler.failed(e, attachment);
+                    return;
+                }
+                handler.completed(null, attachment);
+            }
+        });
+    }
+
+    @Override
+    public <A> void read(final int length, final A attachment,
+                         final CompletionHandler<byte[], ? super A> handler) {
+        mReads.enqueue(new Runnable() {
+            @Override
+            public void run() {
+                byte[] data;
+                try {
+                    data = mCommunicator.read(length);
+                } catch (RuntimeException e) {
+                    handler.failed(e, attachment);
+                    return;
+                }
+                handler.completed(data, attachment);
+            }
+        });
+    }
+
+    /**
+     * A queue of tasks which runs them on the executor one by one.
+     */
+    private class SerialQueue {
+        // a lock instead of a monitor, so virtual threads are not pinned while waiting for it
+        private final ReentrantLock mLock = new ReentrantLock();
+        private final Queue<Runnable> mTasks = new ArrayDeque<>();
+        private boolean mIsRunning;
+
+        void enqueue(Runnable task) {
+            mLock.lock();
+            try {
+                mTasks.add(task);
+                if (mIsRunning) return;
+                mIsRunning = true;
+            } finally {
+                mLock.unlock();
+            }
+            scheduleNext();
+        }
+
+        private void scheduleNext() {
+            final Runnable task;
+            mLock.lock();
+            try {
+                task = mTasks.poll();
+                if (task == null) {
+                    mIsRunning = false;
+                    return;
+                }
+            } finally {
+                mLock.unlock();
+            }
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        task.run();
+                    } finally {
+                        scheduleNext();
+                    }
+                }
+            });
+        }
+    }
+}
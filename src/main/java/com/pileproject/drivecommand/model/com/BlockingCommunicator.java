@@ -0,0 +1,103 @@
+/**
+ * Copyright (C) 2011-2017 The PILE Developers <pile-dev@googlegroups.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pileproject.drivecommand.model.com;
+
+import java.io.IOException;
+import java.nio.channels.CompletionHandler;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * An adapter class which makes a blocking {@link ICommunicator} from an {@link IAsyncCommunicator}.
+ * This class is used by protocols for requests which have to wait for their results.
+ */
+public class BlockingCommunicator implements ICommunicator {
+    private final IAsyncCommunicator mCommunicator;
+
+    public BlockingCommunicator(IAsyncCommunicator comm) {
+        mCommunicator = comm;
+    }
+
+    /**
+     * Gets the asynchronous communicator wrapped by this class.
+     *
+     * @return the {@link IAsyncCommunicator}
+     */
+    public IAsyncCommunicator getAsyncCommunicator() {
+        return mCommunicator;
+    }
+
+    @Override
+    public void open() throws IOException {
+        mCommunicator.open();
+    }
+
+    @Override
+    public void close() {
+        mCommunicator.close();
+    }
+
+    @Override
+    public void write(byte[] data) throws RuntimeException {
+        Waiter<Void> waiter = new Waiter<>();
+        mCommunicator.write(data, null, waiter);
+        waiter.await();
+    }
+
+    @Override
+    public byte[] read(int length) throws RuntimeException {
+        Waiter<byte[]> waiter = new Waiter<>();
+        mCommunicator.read(length, null, waiter);
+        return waiter.await();
+    }
+
+    /**
+     * A handler which blocks the caller until an operation completes.
+     */
+    private static class Waiter<V> implements CompletionHandler<V, Object> {
+        private final CountDownLatch mLatch = new CountDownLatch(1);
+        private V mResult;
+        private Throwable mFailure;
+
+        @Override
+        public void completed(V result, Object attachment) {
+            mResult = result;
+            mLatch.countDown();
+        }
+
+        @Override
+        public void failed(Throwable exc, Object attachment) {
+            mFailure = exc;
+            mLatch.countDown();
+        }
+
+        V await() {
+            try {
+                mLatch.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while waiting for a machine", e);
+            }
+
+            if (mFailure instanceof RuntimeException) {
+                throw (RuntimeException) mFailure;
+            }
+            if (mFailure != null) {
+                throw new RuntimeException(mFailure);
+            }
+            return mResult;
+        }
+    }
+}
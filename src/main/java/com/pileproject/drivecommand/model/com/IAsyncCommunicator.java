@@ -0,0 +1,62 @@
+/**
+ * Copyright (C) 2011-2017 The PILE Developers <pile-dev@googlegroups.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pileproject.drivecommand.model.com;
+
+import java.io.IOException;
+import java.nio.channels.CompletionHandler;
+
+/**
+ * An interface class for asynchronous communication between machines.
+ * Unlike {@link ICommunicator}, reading and writing methods return immediately
+ * and report their results to {@link CompletionHandler}s, so a few threads can drive many machines.
+ *
+ * Implementations must perform reads in the order they are requested, and so must writes.
+ * A read and a write may be in progress at the same time.
+ * Handlers may be called on any thread (including the calling thread) and should not block.
+ */
+public interface IAsyncCommunicator {
+    /**
+     * Opens a connection between machines.
+     *
+     * @throws IOException if failed to open a connection
+     */
+    void open() throws IOException;
+
+    /**
+     * Closes the connection between machines.
+     */
+    void close();
+
+    /**
+     * Writes the byte array data to a machine asynchronously.
+     *
+     * @param data the array of a data to be passed
+     * @param attachment an object passed to the handler
+     * @param handler a handler which is called when the data has been written or failed to be written
+     * @param <A> the type of the attachment
+     */
+    <A> void write(byte[] data, A attachment, CompletionHandler<Void, ? super A> handler);
+
+    /**
+     * Reads the response from a machine asynchronously.
+     *
+     * @param length the max length of response to be read
+     * @param attachment an object passed to the handler
+     * @param handler a handler which is called with the read results or a failure
+     * @param <A> the type of the attachment
+     */
+    <A> void read(int length, A attachment, CompletionHandler<byte[], ? super A> handler);
+}
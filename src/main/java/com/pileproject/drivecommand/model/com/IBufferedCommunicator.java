@@ -0,0 +1,48 @@
+/**
+ * Copyright (C) 2011-2017 The PILE Developers <pile-dev@googlegroups.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pileproject.drivecommand.model.com;
+
+/**
+ * An interface class for communicators which can read and write parts of buffers given by callers.
+ * Protocols use {@link #read(byte[], int, int)} and {@link #write(byte[], int, int)} instead of
+ * {@link ICommunicator#read(int)} and {@link ICommunicator#write(byte[])}
+ * when a communicator implements this interface, so no array is allocated or copied for each message.
+ *
+ * @see ReceiveBuffer
+ */
+public interface IBufferedCommunicator extends ICommunicator {
+    /**
+     * Writes a part of a byte array to a machine.
+     * The array may be reused by the caller after this method returns.
+     *
+     * @param data the array which has a data to be passed
+     * @param offset the start offset of the data
+     * @param length the length of the data
+     * @throws RuntimeException if failed to write data
+     */
+    void write(byte[] data, int offset, int length) throws RuntimeException;
+
+    /**
+     * Reads the response from a machine into a buffer.
+     *
+     * @param buffer the buffer into which the response is read
+     * @param offset the start offset in the buffer
+     * @param length the max length of response to be read
+     * @return the number of bytes read
+     * @throws RuntimeException if failed to read data
+     */
+    int read(byte[] buffer, int offset, int length) throws RuntimeException;
+}
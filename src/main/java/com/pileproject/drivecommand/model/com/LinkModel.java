@@ -0,0 +1,181 @@
+/**
+ * Copyright (C) 2011-2017 The PILE Developers <pile-dev@googlegroups.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pileproject.drivecommand.model.com;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A model of the delay of a link between a device and a machine (e.g., Bluetooth or USB).
+ * The one-way delay of a frame is the fixed latency, a random jitter (uniformly distributed
+ * between 0 and the max jitter) and the transfer time of the bytes at the bandwidth.
+ *
+ * Simulated machines use this class to delay their replies (see {@link SimulatorBase}).
+ * The random numbers are made from a seed,
+ * so a run can be reproduced. This class is thread-safe.
+ */
+public class LinkModel {
+    /** A link which has no delay. */
+    public static final LinkModel NONE = new LinkModel(0, 0, TimeUnit.NANOSECONDS);
+
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+    private static final long DEFAULT_SEED = 0x45563344L;
+
+    private final long mLatencyNanos;
+    private final long mJitterNanos;
+    private final long mBytesPerSecond;
+    private final Random mRandom;
+    // the time until which the link transfers the frames which have been sent (in System.nanoTime())
+    private final AtomicLong mBusyUntil = new AtomicLong(Long.MIN_VALUE);
+
+    /**
+     * Creates a link which has unlimited bandwidth.
+     *
+     * @param latency the fixed one-way latency
+     * @param jitter the max random delay added to the latency
+     * @param unit the unit of <code>latency</code> and <code>jitter</code>
+     */
+    public LinkModel(long latency, long jitter, TimeUnit unit) {
+        this(latency, jitter, unit, 0, DEFAULT_SEED);
+    }
+
+    /**
+     * @param latency the fixed one-way latency
+     * @param jitter the max random delay added to the latency
+     * @param unit the unit of <code>latency</code> and <code>jitter</code>
+     * @param bytesPerSecond the bandwidth of the link, or 0 if the bandwidth is unlimited
+     * @param seed the seed of the random jitter
+     */
+    public LinkModel(long latency, long jitter, TimeUnit unit, long bytesPerSecond, long seed) {
+        if (latency < 0 || jitter < 0 || bytesPerSecond < 0) {
+            throw new IllegalArgumentException("The latency, jitter and bandwidth must not be negative");
+        }
+        mLatencyNanos = unit.toNanos(latency);
+        mJitterNanos = unit.toNanos(jitter);
+        mBytesPerSecond = bytesPerSecond;
+        mRandom = new Random(seed);
+    }
+
+    /**
+     * Gets the fixed one-way latency.
+     *
+     * @return the latency [nsec]
+     */
+    public long getLatencyNanos() {
+        return mLatencyNanos;
+    }
+
+    /**
+     * Gets the max random delay added to the latency.
+     *
+     * @return the max jitter [nsec]
+     */
+    public long getJitterNanos() {
+        return mJitterNanos;
+    }
+
+    /**
+     * Gets the bandwidth of this link.
+     *
+     * @return the bandwidth [byte/sec], or 0 if the bandwidth is unlimited
+     */
+    public long getBytesPerSecond() {
+        return mBytesPerSecond;
+    }
+
+    /**
+     * Makes the one-way delay of a frame on an idle link. Each call makes a new random jitter.
+     *
+     * @param length the length of the frame [byte]
+     * @return the delay [nsec]
+     */
+    public long nextDelayNanos(int length) {
+        long delay = mLatencyNanos + getTransferNanos(length);
+        if (mJitterNanos > 0) {
+            delay += (long) (mRandom.nextDouble() * mJitterNanos);
+        }
+        return delay;
+    }
+
+    /**
+     * Sends a frame through this link and makes the time when it arrives.
+     * A link with a bandwidth transfers one frame at a time, so a frame waits while the link is busy
+     * with the previous frames. A link model shared by several simulated machines
+     * therefore models machines which share one adapter.
+     *
+     * @param sendTime the time when the frame is sent, in {@link System#nanoTime()}
+     * @param length the length of the frame [byte]
+     * @return the time when the frame arrives, in {@link System#nanoTime()}
+     */
+    public long nextArrivalNanos(long sendTime, int length) {
+        return transfer(sendTime, length) + nextDelayNanos(0);
+    }
+
+    /**
+     * Sends a request through this link and makes the time when its reply arrives.
+     * The reply is booked on the link when the request is sent, so the latency of a round trip
+     * does not keep the link busy for the other frames.
+     *
+     * @param sendTime the time when the request is sent, in {@link System#nanoTime()}
+     * @param requestLength the length of the request [byte]
+     * @param replyLength the length of the reply [byte]
+     * @return the time when the reply arrives, in {@link System#nanoTime()}
+     */
+    public long nextReplyArrivalNanos(long sendTime, int requestLength, int replyLength) {
+        long requestArrival = nextArrivalNanos(sendTime, requestLength);
+        long replyTransferred = transfer(sendTime, replyLength);
+        // the reply cannot be sent before the request arrives
+        long replySent = Math.max(replyTransferred, requestArrival + getTransferNanos(replyLength));
+        return replySent + nextDelayNanos(0);
+    }
+
+    /**
+     * Books the link for a frame.
+     *
+     * @return the time when the frame has been transferred, in {@link System#nanoTime()}
+     */
+    private long transfer(long sendTime, int length) {
+        if (mBytesPerSecond == 0) return sendTime;
+
+        long transfer = getTransferNanos(length);
+        long busyUntil;
+        long transferred;
+        do {
+            busyUntil = mBusyUntil.get();
+            transferred = Math.max(sendTime, busyUntil) + transfer;
+        } while (!mBusyUntil.compareAndSet(busyUntil, transferred));
+        return transferred;
+    }
+
+    private long getTransferNanos(int length) {
+        return (mBytesPerSecond > 0) ? length * NANOS_PER_SECOND / mBytesPerSecond : 0;
+    }
+
+    /**
+     * Waits until a time without holding any lock.
+     * This method returns early if the current thread is interrupted.
+     *
+     * @param deadline the time to wait for, in {@link System#nanoTime()}
+     */
+    public static void parkUntil(long deadline) {
+        long wait;
+        while ((wait = deadline - System.nanoTime()) > 0 && !Thread.currentThread().isInterrupted()) {
+            LockSupport.parkNanos(wait);
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/**
+ * Copyright (C) 2011-2017 The PILE Developers <pile-dev@googlegroups.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pileproject.drivecommand.model.com;
+
+/**
+ * A reusable buffer into which responses from a machine are read.
+ * A protocol keeps one buffer for a connection and decodes responses in place
+ * with the little-endian accessors of this class.
+ *
+ * If a communicator implements {@link IBufferedCommunicator}, responses are read directly into this buffer.
+ * Otherwise they are read with {@link ICommunicator#read(int)} and copied.
+ *
+ * This class is not thread-safe.
+ */
+public class ReceiveBuffer {
+    private byte[] mBytes;
+    private int mLength;
+
+    public ReceiveBuffer(int capacity) {
+        mBytes = new byte[capacity];
+    }
+
+    /**
+     * Reads a response from a machine to the head of this buffer.
+     *
+     * @param comm a communicator to read from
+     * @param length the max length of response to be read
+     * @return the number of bytes read
+     */
+    public int read(ICommunicator comm, int length) {
+        mLength = 0;
+        return append(comm, length);
+    }
+
+    /**
+     * Reads a response from a machine after the data which has already been read.
+     *
+     * @param comm a communicator to read from
+     * @param length the max length of response to be read
+     * @return the number of bytes read
+     */
+    public int append(ICommunicator comm, int length) {
+        ensureCapacity(mLength + length);
+
+        int count;
+        if (comm instanceof IBufferedCommunicator) {
+            count = ((IBufferedCommunicator) comm).read(mBytes, mLength, length);
+        } else {
+            byte[] data = comm.read(length);
+            count = Math.min(data.length, length);
+            System.arraycopy(data, 0, mBytes, mLength, count);
+        }
+        mLength += count;
+        return count;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (mBytes.length < capacity) {
+            byte[] bytes = new byte[Math.max(capacity, mBytes.length * 2)];
+            System.arraycopy(mBytes, 0, bytes, 0, mLength);
+            mBytes = bytes;
+        }
+    }
+
+    /**
+     * Gets the backing array of this buffer.
+     * Only the first {@link #length()} bytes are valid and they will be overwritten by the next read.
+     *
+     * @return the backing array
+     */
+    public byte[] array() {
+        return mBytes;
+    }
+
+    /**
+     * Gets the number of bytes which have been read.
+     *
+     * @return the length of valid data
+     */
+    public int length() {
+        return mLength;
+    }
+
+    public byte get(int index) {
+        return mBytes[index];
+    }
+
+    public int getUnsignedByte(int index) {
+        return mBytes[index] & 0xFF;
+    }
+
+    /**
+     * Gets a 16-bit value stored in little-endian.
+     *
+     * @param index the index of the lower byte
+     * @return the value
+     */
+    public short getShort(int index) {
+        return getShort(mBytes, index);
+    }
+
+    /**
+     * Gets a 32-bit value stored in little-endian.
+     *
+     * @param index the index of the lowest byte
+     * @return the value
+     */
+    public int getInt(int index) {
+        return getInt(mBytes, index);
+    }
+
+    /**
+     * Gets a 32-bit floating point value stored in little-endian.
+     *
+     * @param index the index of the lowest byte
+     * @return the value
+     */
+    public float getFloat(int index) {
+        return getFloat(mBytes, index);
+    }
+
+    /**
+     * Gets a 16-bit value stored in little-endian in an array.
+     *
+     * @param bytes an array
+     * @param index the index of the lower byte
+     * @return the value
+     */
+    public static short getShort(byte[] bytes, int index) {
+        return (short) ((bytes[index] & 0xFF) | ((bytes[index + 1] & 0xFF) << 8));
+    }
+
+    /**
+     * Gets a 32-bit value stored in little-endian in an array.
+     *
+     * @param bytes an array
+     * @param index the index of the lowest byte
+     * @return the value
+     */
+    public static int getInt(byte[] bytes, int index) {
+        return (bytes[index] & 0xFF)
+                | ((bytes[index + 1] & 0xFF) << 8)
+                | ((bytes[index + 2] & 0xFF) << 16)
+                | ((bytes[index + 3] & 0xFF) << 24);
+    }
+
+    /**
+     * Gets a 32-bit floating point value stored in little-endian in an array.
+     *
+     * @param bytes an array
+     * @param index the index of the lowest byte
+     * @return the value
+     */
+    public static float getFloat(byte[] bytes, int index) {
+        return Float.intBitsToFloat(getInt(bytes, index));
+    }
+}
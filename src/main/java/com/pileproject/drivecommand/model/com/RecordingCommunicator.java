@@ -0,0 +1,96 @@
+/**
+ * Copyright (C) 2011-2017 The PILE Developers <pile-dev@googlegroups.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pileproject.drivecommand.model.com;
+
+import java.io.IOException;
+
+/**
+ * A decorator which records every frame written to and read from a communicator with a {@link SessionRecorder}.
+ * The frames are copied into a memory-mapped file on the calling thread, so no thread or I/O is added
+ * to the control loop.
+ *
+ * <pre>
+ * SessionRecorder recorder = new SessionRecorder(new File("session.bin"));
+ * MachineBase machine = new Ev3Machine(new RecordingCommunicator(communicator, recorder));
+ * </pre>
+ *
+ * A frame is recorded before it is written, so a request always precedes its reply in a recording
+ * (even a frame which then fails to be written is recorded).
+ * The recorder is not closed by {@link #close()} because it can be shared by several communicators.
+ */
+public class RecordingCommunicator implements IBufferedCommunicator {
+    private final ICommunicator mCommunicator;
+    private final SessionRecorder mRecorder;
+
+    /**
+     * @param comm a communicator to be recorded
+     * @param recorder a recorder to which the frames are appended
+     */
+    public RecordingCommunicator(ICommunicator comm, SessionRecorder recorder) {
+        mCommunicator = comm;
+        mRecorder = recorder;
+    }
+
+    @Override
+    public void open() throws IOException {
+        mCommunicator.open();
+    }
+
+    @Override
+    public void close() {
+        mCommunicator.close();
+    }
+
+    @Override
+    public void write(byte[] data) throws RuntimeException {
+        // recorded before it is written, so a reply read by another thread is never recorded before its request
+        mRecorder.recordWrite(data, 0, data.length);
+        mCommunicator.write(data);
+    }
+
+    @Override
+    public void write(byte[] data, int offset, int length) throws RuntimeException {
+        mRecorder.recordWrite(data, offset, length);
+        if (mCommunicator instanceof IBufferedCommunicator) {
+            ((IBufferedCommunicator) mCommunicator).write(data, offset, length);
+        } else {
+            byte[] copy = new byte[length];
+            System.arraycopy(data, offset, copy, 0, length);
+            mCommunicator.write(copy);
+        }
+    }
+
+    @Override
+    public byte[] read(int length) throws RuntimeException {
+        byte[] data = mCommunicator.read(length);
+        mRecorder.recordRead(data, 0, data.length);
+        return data;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws RuntimeException {
+        int count;
+        if (mCommunicator instanceof IBufferedCommunicator) {
+            count = ((IBufferedCommunicator) mCommunicator).read(buffer, offset, length);
+        } else {
+            byte[] data = mCommunicator.read(length);
+            count = Math.min(data.length, length);
+            System.arraycopy(data, 0, buffer, offset, count);
+        }
+        mRecorder.recordRead(buffer, offset, count);
+        return count;
+    }
+}
@@ -0,0 +1,262 @@
+/**
+ * Copyright (C) 2011-2017 The PILE Developers <pile-dev@googlegroups.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pileproject.drivecommand.model.com;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A communicator which replays a session recorded by {@link SessionRecorder}, so protocols and control code
+ * can be run and profiled without a machine.
+ * Each write is compared with the next recorded write and a {@link ReplayMismatchException} is thrown
+ * if they differ. Each read returns the next recorded reply.
+ *
+ * Writes and reads are replayed in their own order, and a read waits until the writes recorded before it
+ * have been done. So protocols which read and write at the same time (e.g., EV3 with an
+ * {@link IAsyncCommunicator}) are replayed deterministically.
+ *
+ * Replies are returned at the recorded timing multiplied by <code>1 / speed</code>,
+ * or immediately if the speed is {@link #MAX_SPEED}. {@link #open()} rewinds the session,
+ * so the same session can be replayed many times (e.g., in a benchmark).
+ */
+public class ReplayCommunicator implements IBufferedCommunicator {
+    /** Replies are returned as soon as they are requested. */
+    public static final double MAX_SPEED = 0;
+    /** Replies are returned at the recorded timing. */
+    public static final double RECORDED_SPEED = 1;
+
+    private static final long DEFAULT_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    private final byte[][] mWrites;
+    private final byte[][] mReads;
+    private final long[] mReadOffsets; // the times of the reads since the start of the session [nsec]
+    private final int[] mWritesBeforeReads; // the number of writes recorded before each read
+    private final double mSpeed;
+    private volatile boolean mIsValidating = true;
+    private final ReentrantLock mLock = new ReentrantLock();
+    private final Condition mWritten = mLock.newCondition();
+
+    // guarded by mLock
+    private int mWriteIndex;
+    private int mReadIndex;
+    private long mStartNanos = Long.MIN_VALUE;
+
+    /**
+     * @param file a file written by {@link SessionRecorder}
+     * @param speed the speed of replay relative to the recording, or {@link #MAX_SPEED}
+     * @throws IOException if failed to read the file
+     */
+    public ReplayCommunicator(File file, double speed) throws IOException {
+        this(new SessionReader(file), speed);
+    }
+
+    /**
+     * Creates a communicator from the frames of a reader. The reader is read to the end and closed.
+     *
+     * @param reader a reader of a recorded session
+     * @param speed the speed of replay relative to the recording, or {@link #MAX_SPEED}
+     * @throws IOException if failed to read the session
+     */
+    public ReplayCommunicator(SessionReader reader, double speed) throws IOException {
+        if (speed < 0) {
+            throw new IllegalArgumentException("The speed must not be negative");
+        }
+        mSpeed = speed;
+
+        List<byte[]> writes = new ArrayList<>();
+        List<byte[]> reads = new ArrayList<>();
+        List<Long> readTimes = new ArrayList<>();
+        List<Integer> writesBeforeReads = new ArrayList<>();
+        long start = Long.MIN_VALUE;
+        try {
+            while (reader.next()) {
+                if (reader.getType() == SessionReader.RecordType.SAMPLE) continue;
+                if (start == Long.MIN_VALUE) start = reader.getTimestamp();
+
+                if (reader.getType() == SessionReader.RecordType.WRITE) {
+                    writes.add(reader.getData());
+                } else {
+                    reads.add(reader.getData());
+                    readTimes.add(reader.getTimestamp() - start);
+                    writesBeforeReads.add(writes.size());
+                }
+            }
+        } finally {
+            reader.close();
+        }
+
+        mWrites = writes.toArray(new byte[writes.size()][]);
+        mReads = reads.toArray(new byte[reads.size()][]);
+        mReadOffsets = new long[reads.size()];
+        mWritesBeforeReads = new int[reads.size()];
+        for (int i = 0; i < reads.size(); i++) {
+            mReadOffsets[i] = readTimes.get(i);
+            mWritesBeforeReads[i] = writesBeforeReads.get(i);
+        }
+    }
+
+    /**
+     * Rewinds the session to the beginning.
+     */
+    @Override
+    public void open() throws IOException {
+        mLock.lock();
+        try {
+            mWriteIndex = 0;
+            mReadIndex = 0;
+            mStartNanos = Long.MIN_VALUE;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+    }
+
+    /**
+     * Sets whether writes are compared with the recorded ones.
+     * Without validation, writes are only counted (e.g., for sessions with timestamps in requests).
+     *
+     * @param validating compare (<code>true</code>) or not (<code>false</code>)
+     */
+    public void setValidation(boolean validating) {
+        mIsValidating = validating;
+    }
+
+    @Override
+    public void write(byte[] data) throws RuntimeException {
+        write(data, 0, data.length);
+    }
+
+    @Override
+    public void write(byte[] data, int offset, int length) throws RuntimeException {
+        mLock.lock();
+        try {
+            start();
+            if (mWriteIndex >= mWrites.length) {
+                throw new ReplayMismatchException("No more recorded writes (" + mWrites.length + " writes)");
+            }
+            byte[] expected = mWrites[mWriteIndex];
+            if (mIsValidating && !equals(expected, data, offset, length)) {
+                throw new ReplayMismatchException("Write #" + mWriteIndex + " does not match: expected "
+                        + Arrays.toString(expected) + " but was "
+                        + Arrays.toString(Arrays.copyOfRange(data, offset, offset + length)));
+            }
+            mWriteIndex++;
+            mWritten.signalAll();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    public byte[] read(int length) throws RuntimeException {
+        byte[] data = nextRead(length);
+        return Arrays.copyOf(data, data.length);
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws RuntimeException {
+        byte[] data = nextRead(length);
+        System.arraycopy(data, 0, buffer, offset, data.length);
+        return data.length;
+    }
+
+    /**
+     * Checks whether all the recorded writes and reads have been replayed.
+     *
+     * @return finished (<code>true</code>) or not (<code>false</code>)
+     */
+    public boolean isFinished() {
+        mLock.lock();
+        try {
+            return mWriteIndex == mWrites.length && mReadIndex == mReads.length;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Gets the next recorded reply after the writes recorded before it and its time have come.
+     */
+    private byte[] nextRead(int length) {
+        byte[] data;
+        long due;
+        mLock.lock();
+        try {
+            start();
+            if (mReadIndex >= mReads.length) {
+                throw new ReplayMismatchException("No more recorded reads (" + mReads.length + " reads)");
+            }
+            int index = mReadIndex;
+            data = mReads[index];
+            if (data.length > length) {
+                throw new ReplayMismatchException("Read #" + index + " requested " + length
+                        + " bytes but " + data.length + " bytes were recorded");
+            }
+
+            long remaining = DEFAULT_TIMEOUT_NANOS;
+            while (mWriteIndex < mWritesBeforeReads[index]) {
+                if (remaining <= 0) {
+                    throw new ReplayMismatchException("Read #" + index + " was requested before write #"
+                            + (mWritesBeforeReads[index] - 1));
+                }
+                try {
+                    remaining = mWritten.awaitNanos(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("Interrupted while replaying", e);
+                }
+            }
+            mReadIndex++;
+            due = (mSpeed == MAX_SPEED) ? 0 : mStartNanos + (long) (mReadOffsets[index] / mSpeed);
+        } finally {
+            mLock.unlock();
+        }
+
+        if (mSpeed != MAX_SPEED) {
+            // wait outside the lock, so writes are not delayed
+            long wait;
+            while ((wait = due - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(wait);
+            }
+        }
+        return data;
+    }
+
+    /**
+     * Starts the clock of the replay at the first operation (must be called with the lock).
+     */
+    private void start() {
+        if (mStartNanos == Long.MIN_VALUE) mStartNanos = System.nanoTime();
+    }
+
+    private static boolean equals(byte[] expected, byte[] data, int offset, int length) {
+        if (expected.length != length) return false;
+        for (int i = 0; i < length; i++) {
+            if (expected[i] != data[offset + i]) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,259 @@
+/**
+ * Copyright (C) 2011-2017 The PILE Developers <pile-dev@googlegroups.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pileproject.drivecommand.model.com;
+
+import com.pileproject.drivecommand.command.TypedResult;
+import com.pileproject.drivecommand.model.CommandType;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A reader of a file written by {@link SessionRecorder}.
+ * The records are read one by one with {@link #next()}:
+ * <pre>
+ * SessionReader reader = new SessionReader(file);
+ * while (reader.next()) {
+ *     if (reader.getType() == SessionReader.RecordType.WRITE) { ... reader.getData() ... }
+ * }
+ * reader.close();
+ * </pre>
+ * An instance of this class should not be used by several threads at the same time.
+ */
+public class SessionReader {
+    /**
+     * Types of records.
+     */
+    public enum RecordType {
+        WRITE, READ, SAMPLE
+    }
+
+    private static final RecordType[] RECORD_TYPES = RecordType.values();
+    private static final CommandType[] COMMAND_TYPES = CommandType.values();
+
+    private final RandomAccessFile mFile;
+    private final MappedByteBuffer mBuffer;
+    private final long mStartTimeMillis;
+    private final long mStartNanos;
+
+    // the current record
+    private RecordType mType;
+    private long mTimestamp;
+    private int mPayloadPosition;
+    private int mPayloadLength;
+
+    /**
+     * @param file a file written by {@link SessionRecorder}
+     * @throws IOException if failed to read the file or it is not a recording
+     */
+    public SessionReader(File file) throws IOException {
+        mFile = new RandomAccessFile(file, "r");
+        FileChannel channel = mFile.getChannel();
+        if (channel.size() < SessionRecorder.FILE_HEADER_SIZE || channel.size() > Integer.MAX_VALUE) {
+            mFile.close();
+            throw new IOException("Not a recording of a supported size: " + file);
+        }
+        mBuffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        mBuffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        if (mBuffer.getInt() != SessionRecorder.MAGIC || mBuffer.getShort() != SessionRecorder.VERSION) {
+            mFile.close();
+            throw new IOException("Not a recording of a supported version: " + file);
+        }
+        mStartTimeMillis = mBuffer.getLong();
+        mStartNanos = mBuffer.getLong();
+    }
+
+    /**
+     * Moves to the next record.
+     *
+     * @return there is a record (<code>true</code>) or not (<code>false</code>)
+     * @throws IOException if the record is broken
+     */
+    public boolean next() throws IOException {
+        if (mType != null) mBuffer.position(mPayloadPosition + mPayloadLength);
+        if (mBuffer.remaining() < SessionRecorder.RECORD_HEADER_SIZE) {
+            mType = null;
+            return false;
+        }
+
+        int type = mBuffer.get() - SessionRecorder.TYPE_WRITE;
+        mTimestamp = mBuffer.getLong();
+        mPayloadLength = mBuffer.getInt();
+        mPayloadPosition = mBuffer.position();
+        if (type < 0 || type >= RECORD_TYPES.length
+                || mPayloadLength < 0 || mPayloadLength > mBuffer.remaining()) {
+            throw new IOException("Broken record at " + (mPayloadPosition - SessionRecorder.RECORD_HEADER_SIZE));
+        }
+        mType = RECORD_TYPES[type];
+        return true;
+    }
+
+    /**
+     * Gets the wall clock time when the recording was started.
+     *
+     * @return the time [msec]
+     */
+    public long getStartTimeMillis() {
+        return mStartTimeMillis;
+    }
+
+    /**
+     * Gets the nano time when the recording was started.
+     * The timestamps of records minus this value are the times since the start.
+     *
+     * @return the time [nsec]
+     */
+    public long getStartNanos() {
+        return mStartNanos;
+    }
+
+    public RecordType getType() {
+        return mType;
+    }
+
+    /**
+     * Gets the timestamp of the current record.
+     *
+     * @return the time [nsec] (in the clock of {@link System#nanoTime()} of the recording process)
+     */
+    public long getTimestamp() {
+        return mTimestamp;
+    }
+
+    /**
+     * Gets the length of the payload of the current record.
+     *
+     * @return the length [byte]
+     */
+    public int getLength() {
+        return mPayloadLength;
+    }
+
+    /**
+     * Gets a copy of the frame of the current record ({@link RecordType#WRITE} or {@link RecordType#READ}).
+     *
+     * @return the frame
+     */
+    public byte[] getData() {
+        byte[] data = new byte[mPayloadLength];
+        getData(data, 0);
+        return data;
+    }
+
+    /**
+     * Copies the frame of the current record to a buffer without making garbage.
+     *
+     * @param buffer a buffer to which the frame is copied
+     * @param offset the start offset in the buffer
+     * @return the length of the frame
+     */
+    public int getData(byte[] buffer, int offset) {
+        for (int i = 0; i < mPayloadLength; i++) {
+            buffer[offset + i] = mBuffer.get(mPayloadPosition + i);
+        }
+        return mPayloadLength;
+    }
+
+    /**
+     * Gets the port of the current record ({@link RecordType#SAMPLE}).
+     *
+     * @return the port
+     */
+    public int getPort() {
+        checkSample();
+        return mBuffer.getInt(mPayloadPosition);
+    }
+
+    /**
+     * Gets the type of a command of the current record ({@link RecordType#SAMPLE}).
+     *
+     * @return the type of the command
+     * @throws IOException if the command type is not known to this version
+     */
+    public CommandType getCommandType() throws IOException {
+        checkSample();
+        int length = mBuffer.get(mPayloadPosition + 4);
+        for (int i = 0; i < COMMAND_TYPES.length; i++) {
+            if (isName(SessionRecorder.COMMAND_TYPE_NAMES[i], length)) return COMMAND_TYPES[i];
+        }
+        byte[] name = new byte[length];
+        for (int i = 0; i < length; i++) {
+            name[i] = mBuffer.get(mPayloadPosition + 5 + i);
+        }
+        throw new IOException("Unknown command type: " + new String(name, StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Copies the value of the current record ({@link RecordType#SAMPLE}) to a result.
+     *
+     * @param result a result to which the value is set
+     * @throws IOException if the value type is not known to this version
+     */
+    public void getValue(TypedResult result) throws IOException {
+        checkSample();
+        int position = mPayloadPosition + 5 + mBuffer.get(mPayloadPosition + 4);
+        byte valueType = mBuffer.get(position++);
+        result.clear();
+        switch (valueType) {
+            case SessionRecorder.VALUE_NONE:
+                break;
+            case SessionRecorder.VALUE_INT:
+                result.setIntValue(mBuffer.getInt(position));
+                break;
+            case SessionRecorder.VALUE_BOOLEAN:
+                result.setBooleanValue(mBuffer.get(position) != 0);
+                break;
+            case SessionRecorder.VALUE_FLOATS:
+                int count = mBuffer.get(position);
+                float[] values = result.setFloatCount(count);
+                for (int i = 0; i < count; i++) {
+                    values[i] = mBuffer.getFloat(position + 1 + 4 * i);
+                }
+                break;
+            default:
+                throw new IOException("Unknown value type: " + valueType);
+        }
+    }
+
+    /**
+     * Closes the file.
+     *
+     * @throws IOException if failed to close the file
+     */
+    public void close() throws IOException {
+        mFile.close();
+    }
+
+    private boolean isName(byte[] name, int length) {
+        if (name.length != length) return false;
+        for (int i = 0; i < length; i++) {
+            if (name[i] != mBuffer.get(mPayloadPosition + 5 + i)) return false;
+        }
+        return true;
+    }
+
+    private void checkSample() {
+        if (mType != RecordType.SAMPLE) {
+            throw new IllegalStateException("The current record is not a sample");
+        }
+    }
+}
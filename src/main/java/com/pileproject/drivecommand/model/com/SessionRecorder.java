@@ -0,0 +1,319 @@
+/**
+ * Copyright (C) 2011-2017 The PILE Developers <pile-dev@googlegroups.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pileproject.drivecommand.model.com;
+
+import com.pileproject.drivecommand.command.TypedResult;
+import com.pileproject.drivecommand.machine.SampleListener;
+import com.pileproject.drivecommand.machine.SensorScheduler;
+import com.pileproject.drivecommand.model.CommandType;
+import com.pileproject.drivecommand.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A recorder which appends compact binary records of a session to a memory-mapped file.
+ * Recording a frame is a copy into the mapped memory, so it does not wait for the disk;
+ * the operating system writes the pages back in the background.
+ * The file is mapped in chunks and a new chunk is mapped when the current one is full.
+ *
+ * The file starts with a header:
+ * <pre>
+ * | magic "DCRC" (4) | version (2) | wall clock at start [msec] (8) | nano time at start [nsec] (8) |
+ * </pre>
+ * and each record has a header of 13 bytes followed by its payload (all values are little endian):
+ * <pre>
+ * | type (1) | nano time [nsec] (8) | payload length (4) | payload |
+ * </pre>
+ * The payloads of {@link SessionReader.RecordType#WRITE} and {@link SessionReader.RecordType#READ}
+ * are the frames. The payload of {@link SessionReader.RecordType#SAMPLE} is
+ * <pre>
+ * | port (4) | name length (1) | name of the command type (n) | value type (1) | value |
+ * </pre>
+ * where the value type is 0 (none), 1 (int (4)), 2 (boolean (1)) or 3 (count (1) and floats (4 * count)).
+ * The command type is stored by its name, so recordings can be read after constants are added to
+ * {@link CommandType}.
+ *
+ * Frames are recorded by {@link RecordingCommunicator}, and samples are recorded
+ * by subscribing this recorder to a {@link SensorScheduler.Channel}.
+ * This class is thread-safe. Records after {@link #close()} are dropped.
+ *
+ * @see SessionReader
+ */
+public class SessionRecorder implements SampleListener {
+    private static final String TAG = "SessionRecorder";
+    static final int MAGIC = 0x43524344; // "DCRC" in little endian
+    static final short VERSION = 2;
+    static final int FILE_HEADER_SIZE = 22;
+    static final int RECORD_HEADER_SIZE = 13;
+    static final byte TYPE_WRITE = 1;
+    static final byte TYPE_READ = 2;
+    static final byte TYPE_SAMPLE = 3;
+    static final byte VALUE_NONE = 0;
+    static final byte VALUE_INT = 1;
+    static final byte VALUE_BOOLEAN = 2;
+    static final byte VALUE_FLOATS = 3;
+
+    // the names of command types in ASCII, indexed by their ordinals
+    static final byte[][] COMMAND_TYPE_NAMES;
+
+    static {
+        CommandType[] types = CommandType.values();
+        COMMAND_TYPE_NAMES = new byte[types.length][];
+        for (CommandType type : types) {
+            COMMAND_TYPE_NAMES[type.ordinal()] = type.name().getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    private static final long DEFAULT_CHUNK_SIZE = 16 * 1024 * 1024;
+
+    private final RandomAccessFile mFile;
+    private final FileChannel mChannel;
+    private final long mChunkSize;
+    // a lock instead of a monitor, so virtual threads are not pinned while waiting for it
+    private final ReentrantLock mLock = new ReentrantLock();
+
+    // guarded by mLock
+    private MappedByteBuffer mBuffer;
+    private long mBufferStart; // the position of mBuffer in the file
+    private long mRecordCount;
+    private long mDroppedCount;
+    private boolean mIsClosed;
+    private boolean mIsFailed;
+
+    /**
+     * Creates a recorder with the default chunk size (16 MiB).
+     *
+     * @param file a file to be written (it is overwritten)
+     * @throws IOException if failed to open the file
+     */
+    public SessionRecorder(File file) throws IOException {
+        this(file, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * @param file a file to be written (it is overwritten)
+     * @param chunkSize the size of each mapped region [byte]; larger chunks need fewer mappings
+     * @throws IOException if failed to open the file
+     */
+    public SessionRecorder(File file, long chunkSize) throws IOException {
+        if (chunkSize < FILE_HEADER_SIZE) {
+            throw new IllegalArgumentException("The chunk size is too small");
+        }
+        mFile = new RandomAccessFile(file, "rw");
+        mFile.setLength(0);
+        mChannel = mFile.getChannel();
+        mChunkSize = chunkSize;
+        map(0, chunkSize);
+
+        mBuffer.putInt(MAGIC);
+        mBuffer.putShort(VERSION);
+        mBuffer.putLong(System.currentTimeMillis());
+        mBuffer.putLong(System.nanoTime());
+    }
+
+    /**
+     * Records a frame written to a machine.
+     *
+     * @param data an array which has the frame
+     * @param offset the start offset of the frame
+     * @param length the length of the frame
+     */
+    public void recordWrite(byte[] data, int offset, int length) {
+        recordFrame(TYPE_WRITE, data, offset, length);
+    }
+
+    /**
+     * Records a frame read from a machine.
+     *
+     * @param data an array which has the frame
+     * @param offset the start offset of the frame
+     * @param length the length of the frame
+     */
+    public void recordRead(byte[] data, int offset, int length) {
+        recordFrame(TYPE_READ, data, offset, length);
+    }
+
+    /**
+     * Records a decoded sensor value.
+     *
+     * @param port the port of the sensor
+     * @param type the type of a command which read the value
+     * @param value the value
+     * @param timestamp the time when the value was sampled [nsec]
+     */
+    public void recordSample(int port, CommandType type, TypedResult value, long timestamp) {
+        byte[] name = COMMAND_TYPE_NAMES[type.ordinal()];
+        byte valueType;
+        int length = 6 + name.length;
+        switch (value.getValueType()) {
+            case INT:
+                valueType = VALUE_INT;
+                length += 4;
+                break;
+            case BOOLEAN:
+                valueType = VALUE_BOOLEAN;
+                length += 1;
+                break;
+            case FLOATS:
+                valueType = VALUE_FLOATS;
+                length += 1 + 4 * value.getFloatCount();
+                break;
+            default:
+                valueType = VALUE_NONE;
+                break;
+        }
+
+        mLock.lock();
+        try {
+            if (!beginRecord(TYPE_SAMPLE, timestamp, length)) return;
+            mBuffer.putInt(port);
+            mBuffer.put((byte) name.length);
+            mBuffer.put(name);
+            mBuffer.put(valueType);
+            switch (value.getValueType()) {
+                case INT:
+                    mBuffer.putInt(value.getIntValue());
+                    break;
+                case BOOLEAN:
+                    mBuffer.put((byte) (value.getBooleanValue() ? 1 : 0));
+                    break;
+                case FLOATS:
+                    float[] floats = value.getFloatValues();
+                    mBuffer.put((byte) value.getFloatCount());
+                    for (int i = 0; i < value.getFloatCount(); i++) {
+                        mBuffer.putFloat(floats[i]);
+                    }
+                    break;
+                default:
+                    break;
+            }
+        } catch (IOException e) {
+            fail(e);
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Records a sample of a channel.
+     */
+    @Override
+    public void onSample(SensorScheduler.Channel channel, TypedResult value, long timestamp) {
+        recordSample(channel.getPort().getRaw(), channel.getCommandType(), value, timestamp);
+    }
+
+    /**
+     * Gets the number of records written to the file.
+     *
+     * @return the number of records
+     */
+    public long getRecordCount() {
+        mLock.lock();
+        try {
+            return mRecordCount;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Gets the number of records which were dropped because this recorder was closed or failed to write.
+     *
+     * @return the number of dropped records
+     */
+    public long getDroppedCount() {
+        mLock.lock();
+        try {
+            return mDroppedCount;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Flushes the records to the disk, truncates the unused part of the file and closes it.
+     *
+     * @throws IOException if failed to close the file
+     */
+    public void close() throws IOException {
+        mLock.lock();
+        try {
+            if (mIsClosed) return;
+            mIsClosed = true;
+            long size = mBufferStart + mBuffer.position();
+            mBuffer.force();
+            mBuffer = null;
+            mChannel.truncate(size);
+            mFile.close();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    private void recordFrame(byte type, byte[] data, int offset, int length) {
+        long now = System.nanoTime();
+        mLock.lock();
+        try {
+            if (!beginRecord(type, now, length)) return;
+            mBuffer.put(data, offset, length);
+        } catch (IOException e) {
+            fail(e);
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Writes the header of a record and makes room for its payload (must be called with the lock).
+     *
+     * @return the record can be written (<code>true</code>) or is dropped (<code>false</code>)
+     */
+    private boolean beginRecord(byte type, long timestamp, int length) throws IOException {
+        if (mIsClosed || mIsFailed) {
+            mDroppedCount++;
+            return false;
+        }
+        int size = RECORD_HEADER_SIZE + length;
+        if (mBuffer.remaining() < size) {
+            map(mBufferStart + mBuffer.position(), Math.max(mChunkSize, size));
+        }
+        mBuffer.put(type);
+        mBuffer.putLong(timestamp);
+        mBuffer.putInt(length);
+        mRecordCount++;
+        return true;
+    }
+
+    private void map(long position, long size) throws IOException {
+        mBuffer = mChannel.map(FileChannel.MapMode.READ_WRITE, position, size);
+        mBuffer.order(ByteOrder.LITTLE_ENDIAN);
+        mBufferStart = position;
+    }
+
+    private void fail(IOException e) {
+        // a recorder must not break the control loop, so the following records are dropped
+        mIsFailed = true;
+        mDroppedCount++;
+        Log.e(TAG, "Failed to record", e);
+    }
+}
@@ -0,0 +1,276 @@
+/**
+ * Copyright (C) 2011-2017 The PILE Developers <pile-dev@googlegroups.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pileproject.drivecommand.model.com;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A base class of simulated machines which work as communicators, so protocols can be
+ * load-tested and soak-tested without hardware.
+ *
+ * This class splits the written bytes into requests, lets the subclass execute each request and
+ * returns the replies in the order of the requests. Replies are delayed by a {@link LinkModel}
+ * (the arrivals of the request and the reply) and cannot overtake each other, like a real link.
+ * A read returns bytes of one reply at most, so a protocol can read the header and the rest separately.
+ *
+ * The state of a subclass should be guarded by {@link #mLock}, which is held while requests are executed.
+ */
+public abstract class SimulatorBase implements IBufferedCommunicator {
+    private static final long READ_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    protected final ReentrantLock mLock = new ReentrantLock();
+    private final Condition mReplied = mLock.newCondition();
+    private final LinkModel mLink;
+    private final String mName;
+
+    // guarded by mLock
+    private byte[] mInput = new byte[64];
+    private int mInputLength;
+    private final Queue<Frame> mReplies = new ArrayDeque<>();
+    private Frame mCurrentReply;
+    private int mReplyPosition;
+    private long mLastDue = Long.MIN_VALUE;
+    private boolean mIsOpen;
+    private int mRequestCount;
+    private int mFailureCount;
+
+    /**
+     * @param link the model of the delay of the link
+     */
+    protected SimulatorBase(LinkModel link) {
+        mLink = link;
+        mName = getClass().getSimpleName();
+    }
+
+    /**
+     * Gets the length of the request at the head of the written bytes.
+     * This method is called with {@link #mLock}.
+     *
+     * @param data the written bytes
+     * @param offset the start offset of the request
+     * @param available the number of the written bytes from <code>offset</code>
+     * @return the length of the request, or a negative value if it is not known yet
+     */
+    protected abstract int getRequestLength(byte[] data, int offset, int available);
+
+    /**
+     * Executes a request. This method is called with {@link #mLock}.
+     *
+     * @param data the written bytes
+     * @param offset the start offset of the request
+     * @param length the length of the request
+     * @return the reply, or <code>null</code> if the request has no reply
+     */
+    protected abstract byte[] execute(byte[] data, int offset, int length);
+
+    @Override
+    public void open() throws IOException {
+        mLock.lock();
+        try {
+            mIsOpen = true;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Disconnects the simulator. The requests and replies which have not been processed are discarded.
+     * The state of the simulated machine is kept.
+     */
+    @Override
+    public void close() {
+        mLock.lock();
+        try {
+            mIsOpen = false;
+            mInputLength = 0;
+            mReplies.clear();
+            mCurrentReply = null;
+            mReplied.signalAll();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Gets the number of requests which have been executed.
+     *
+     * @return the number of requests
+     */
+    public int getRequestCount() {
+        mLock.lock();
+        try {
+            return mRequestCount;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Gets the number of requests which have failed (e.g., unsupported requests).
+     *
+     * @return the number of failed requests
+     */
+    public int getFailureCount() {
+        mLock.lock();
+        try {
+            return mFailureCount;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Counts a failed request. This method is called with {@link #mLock}.
+     */
+    protected void countFailure() {
+        mFailureCount++;
+    }
+
+    @Override
+    public void write(byte[] data) throws RuntimeException {
+        write(data, 0, data.length);
+    }
+
+    @Override
+    public void write(byte[] data, int offset, int length) throws RuntimeException {
+        mLock.lock();
+        try {
+            if (!mIsOpen) throw new RuntimeException(mName + " is not opened");
+
+            if (mInputLength + length > mInput.length) {
+                mInput = Arrays.copyOf(mInput, Math.max(mInputLength + length, mInput.length * 2));
+            }
+            System.arraycopy(data, offset, mInput, mInputLength, length);
+            mInputLength += length;
+
+            // execute all the requests which have been written completely
+            int position = 0;
+            while (position < mInputLength) {
+                int requestLength = getRequestLength(mInput, position, mInputLength - position);
+                if (requestLength < 0 || mInputLength - position < requestLength) break;
+                mRequestCount++;
+                long now = System.nanoTime();
+                byte[] reply = execute(mInput, position, requestLength);
+                enqueue(reply, requestLength, now);
+                position += requestLength;
+            }
+            System.arraycopy(mInput, position, mInput, 0, mInputLength - position);
+            mInputLength -= position;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    public byte[] read(int length) throws RuntimeException {
+        byte[] buffer = new byte[length];
+        int count = read(buffer, 0, length);
+        return (count == length) ? buffer : Arrays.copyOf(buffer, count);
+    }
+
+    /**
+     * Reads the replies in the order of the requests. This method blocks until the current reply is due,
+     * and does not read over the end of it.
+     */
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws RuntimeException {
+        Frame reply;
+        int position;
+        int count;
+        mLock.lock();
+        try {
+            long remaining = READ_TIMEOUT_NANOS;
+            while (mCurrentReply == null && mReplies.isEmpty()) {
+                if (!mIsOpen) throw new RuntimeException(mName + " is not opened");
+                if (remaining <= 0) throw new RuntimeException("Timed out while reading a reply");
+                try {
+                    remaining = mReplied.awaitNanos(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("Interrupted while reading a reply", e);
+                }
+            }
+            if (mCurrentReply == null) {
+                mCurrentReply = mReplies.poll();
+                mReplyPosition = 0;
+            }
+            reply = mCurrentReply;
+            position = mReplyPosition;
+            count = Math.min(length, reply.data.length - position);
+            mReplyPosition += count;
+            if (mReplyPosition == reply.data.length) mCurrentReply = null;
+        } finally {
+            mLock.unlock();
+        }
+
+        // wait outside the lock, so requests can be written meanwhile
+        LinkModel.parkUntil(reply.due);
+        System.arraycopy(reply.data, position, buffer, offset, count);
+        return count;
+    }
+
+    /**
+     * Queues a reply with the time when it arrives (must be called with the lock).
+     */
+    private void enqueue(byte[] reply, int requestLength, long now) {
+        if (reply == null) {
+            // the request still occupies the link
+            mLastDue = Math.max(mLastDue, mLink.nextArrivalNanos(now, requestLength));
+            return;
+        }
+
+        // replies cannot overtake each other on a link
+        long due = Math.max(mLastDue, mLink.nextReplyArrivalNanos(now, requestLength, reply.length));
+        mLastDue = due;
+        mReplies.add(new Frame(reply, due));
+        mReplied.signalAll();
+    }
+
+    /**
+     * Writes a <code>short</code> value in little-endian.
+     */
+    protected static void putShort(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) value;
+        buffer[offset + 1] = (byte) (value >> 8);
+    }
+
+    /**
+     * Writes an <code>int</code> value in little-endian.
+     */
+    protected static void putInt(byte[] buffer, int offset, int value) {
+        putShort(buffer, offset, value);
+        putShort(buffer, offset + 2, value >> 16);
+    }
+
+    /**
+     * A reply and the time when it arrives.
+     */
+    private static class Frame {
+        final byte[] data;
+        final long due;
+
+        Frame(byte[] data, long due) {
+            this.data = data;
+            this.due = due;
+        }
+    }
+}
@@ -15,16 +15,19 @@
  */
 package com.pileproject.drivecommand.model.ev3;
 
-import com.pileproject.drivecommand.util.Log;
+import com.pileproject.drivecommand.model.com.IBufferedCommunicator;
+import com.pileproject.drivecommand.model.com.ICommunicator;
 
-import java.io.ByteArrayOutputStream;
-import java.io.DataOutputStream;
-import java.io.IOException;
+import java.util.Arrays;
 
 /**
  * A formatter class for byte codes of LEGO MINDSTORMS EV3.
  * This class makes byte arrays which are used as byte code commands to control
  * Ev3 with a device.
+ *
+ * Byte codes are written directly into an internal array, which is kept by {@link #reset()},
+ * so a formatter can be reused for many commands without making garbage.
+ * This class is not thread-safe.
  */
 public class ByteCodeFormatter {
     // parameter size
@@ -34,28 +37,44 @@ public class ByteCodeFormatter {
     @SuppressWarnings("unused")
     private static final byte STRING_SIZE = (byte) 0x84;
     private static final byte GLOBAL_INDEX_SIZE = (byte) 0xe1;
-    private static String TAG = "ByteCodeFormatter";
-    private ByteArrayOutputStream mStream;
-
-    // use DataOutputStream as a writer of ByteArrayOutputStream
-    private DataOutputStream mWriter;
+    // the length (2 bytes) and the identification codes (2 bytes)
+    private static final int HEADER_SIZE = 4;
+    private static final int DEFAULT_CAPACITY = 64;
+    private byte[] mBuffer;
+    private int mPosition;
+    private short mMessageCounter;
 
     public ByteCodeFormatter() {
-        mStream = new ByteArrayOutputStream();
-        mWriter = new DataOutputStream(mStream);
+        mBuffer = new byte[DEFAULT_CAPACITY];
+        reset();
+    }
 
+    /**
+     * Clears the byte code to reuse this formatter. The internal array is kept.
+     *
+     * @return this formatter
+     */
+    public ByteCodeFormatter reset() {
         // add header
-        // The 1st and 2nd bytes show the length of this byte code. They will be set when byteArray() is called.
+        // The 1st and 2nd bytes show the length of this byte code. They will be set when the byte code is taken.
         // Next 2 bytes are identification codes. You can use them to identify the pair of a request and a response
-        // (in current implementation, the default is [0x00, 0x00]).
-        byte[] header = {
-                0x00, 0x00, 0x00, 0x00
-        };
-        try {
-            mWriter.write(header);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        // (the default is [0x00, 0x00]). They will be set when the byte code is taken (see setMessageCounter()).
+        Arrays.fill(mBuffer, 0, HEADER_SIZE, (byte) 0x00);
+        mPosition = HEADER_SIZE;
+        mMessageCounter = 0;
+        return this;
+    }
+
+    /**
+     * Sets the message counter (identification codes) of this byte code.
+     * EV3 returns a reply with the same message counter as its request,
+     * so it can be used to identify the pair of a request and a reply.
+     *
+     * @param counter the message counter
+     * @see ReplyDemultiplexer
+     */
+    public void setMessageCounter(short counter) {
+        mMessageCounter = counter;
     }
 
     /**
@@ -64,11 +83,8 @@ public class ByteCodeFormatter {
      * @param opcode the operation code
      */
     public void addOpCode(byte opcode) {
-        try {
-            mWriter.writeByte(opcode);
-        } catch (IOException e) {
-            Log.e(TAG, "Couldn't write opcode", e);
-        }
+        ensureCapacity(1);
+        mBuffer[mPosition++] = opcode;
     }
 
     /**
@@ -78,18 +94,28 @@ public class ByteCodeFormatter {
      * @param local the size of local buffer in byte
      */
     public void addGlobalAndLocalBufferSize(int global, int local) {
+        ensureCapacity(2);
+        setGlobalAndLocalBufferSize(mPosition, global, local);
+        mPosition += 2;
+    }
+
+    /**
+     * Overwrites the global and local buffer size which has been added at a position.
+     * This can be used when the sizes are known only after the operations are added.
+     *
+     * @param position the position returned by {@link #position()} before the sizes were added
+     * @param global the size of global buffer in byte
+     * @param local the size of local buffer in byte
+     */
+    public void setGlobalAndLocalBufferSize(int position, int global, int local) {
         if (global > 1024)
             throw new IllegalArgumentException("Global buffer must be less than 1024 bytes");
         if (local > 64)
             throw new IllegalArgumentException("Local buffer must be less than 64 bytes");
 
         // write 2 bytes in form of (llllllgg gggggggg)
-        try {
-            mWriter.writeByte(global); // LSB
-            mWriter.writeByte((local << 2) | ((global >> 8) & 0x03)); // MSB
-        } catch (IOException e) {
-            Log.e(TAG, "Couldn't write global and local buffer size", e);
-        }
+        mBuffer[position] = (byte) global; // LSB
+        mBuffer[position + 1] = (byte) ((local << 2) | ((global >> 8) & 0x03)); // MSB
     }
 
     /**
@@ -98,12 +124,9 @@ public class ByteCodeFormatter {
      * @param param a parameter in byte
      */
     public void addParameter(byte param) {
-        try {
-            mWriter.writeByte(BYTE_SIZE);
-            mWriter.writeByte(param);
-        } catch (IOException e) {
-            Log.e(TAG, "Couldn't write parameter (byte)", e);
-        }
+        ensureCapacity(2);
+        mBuffer[mPosition++] = BYTE_SIZE;
+        mBuffer[mPosition++] = param;
     }
 
     /**
@@ -112,13 +135,10 @@ public class ByteCodeFormatter {
      * @param param a parameter in short
      */
     public void addParameter(short param) {
-        try {
-            mWriter.writeByte(SHORT_SIZE);
-            mWriter.writeByte(param);
-            mWriter.writeByte(param >> 8);
-        } catch (IOException e) {
-            Log.e(TAG, "Couldn't write parameter (short)", e);
-        }
+        ensureCapacity(3);
+        mBuffer[mPosition++] = SHORT_SIZE;
+        mBuffer[mPosition++] = (byte) param;
+        mBuffer[mPosition++] = (byte) (param >> 8);
     }
 
     /**
@@ -127,15 +147,12 @@ public class ByteCodeFormatter {
      * @param param a parameter in int
      */
     public void addParameter(int param) {
-        try {
-            mWriter.writeByte(INT_SIZE);
-            mWriter.writeByte(param);
-            mWriter.writeByte(param >> 8);
-            mWriter.writeByte(param >> 16);
-            mWriter.writeByte(param >> 24);
-        } catch (IOException e) {
-            Log.e(TAG, "Couldn't write parameter (int)", e);
-        }
+        ensureCapacity(5);
+        mBuffer[mPosition++] = INT_SIZE;
+        mBuffer[mPosition++] = (byte) param;
+        mBuffer[mPosition++] = (byte) (param >> 8);
+        mBuffer[mPosition++] = (byte) (param >> 16);
+        mBuffer[mPosition++] = (byte) (param >> 24);
     }
 
 
@@ -145,12 +162,9 @@ public class ByteCodeFormatter {
      * @param index the global index
      */
     public void addGlobalIndex(byte index) {
-        try {
-            mWriter.writeByte(GLOBAL_INDEX_SIZE);
-            mWriter.writeByte(index);
-        } catch (IOException e) {
-            Log.e(TAG, "Couldn't add global index", e);
-        }
+        ensureCapacity(2);
+        mBuffer[mPosition++] = GLOBAL_INDEX_SIZE;
+        mBuffer[mPosition++] = index;
     }
 
     /**
@@ -159,28 +173,93 @@ public class ByteCodeFormatter {
      * @param command an other command
      */
     public void appendCommand(ByteCodeFormatter command) {
-        try {
-            mWriter.write(command.byteArray());
-        } catch (IOException e) {
-            Log.e(TAG, "Couldn't append command", e);
-        }
+        command.fillHeader();
+        ensureCapacity(command.mPosition);
+        System.arraycopy(command.mBuffer, 0, mBuffer, mPosition, command.mPosition);
+        mPosition += command.mPosition;
+    }
+
+    /**
+     * Overwrites a byte at a position. This is used to patch the parameters of a command template.
+     *
+     * @param position the position in the byte code (including the header)
+     * @param value the new value
+     * @see CommandTemplates
+     */
+    public void patchByte(int position, byte value) {
+        mBuffer[position] = value;
+    }
+
+    /**
+     * Overwrites a <code>short</code> value (in little-endian) at a position.
+     * This is used to patch the parameters of a command template.
+     *
+     * @param position the position in the byte code (including the header)
+     * @param value the new value
+     * @see CommandTemplates
+     */
+    public void patchShort(int position, short value) {
+        mBuffer[position] = (byte) value;
+        mBuffer[position + 1] = (byte) (value >> 8);
+    }
+
+    /**
+     * Gets the current length of the byte code (including the header).
+     * The value can be used as a position for patching later.
+     *
+     * @return the length in byte
+     */
+    public int position() {
+        return mPosition;
     }
 
     /**
      * Gets the byte code in an array of byte.
+     * This method copies the byte code. Use {@link #writeTo(ICommunicator)} to avoid the copy.
      *
      * @return an array of bytes
      */
     public byte[] byteArray() {
-        byte[] byteCode = mStream.toByteArray();
+        fillHeader();
+        return Arrays.copyOf(mBuffer, mPosition);
+    }
+
+    /**
+     * Writes the byte code to a machine.
+     * If the communicator implements {@link IBufferedCommunicator},
+     * the internal array is passed without copying.
+     *
+     * @param comm a communicator to write to
+     */
+    public void writeTo(ICommunicator comm) {
+        if (comm instanceof IBufferedCommunicator) {
+            fillHeader();
+            ((IBufferedCommunicator) comm).write(mBuffer, 0, mPosition);
+        } else {
+            comm.write(byteArray());
+        }
+    }
 
+    /**
+     * Sets the length and the message counter to the header.
+     */
+    private void fillHeader() {
         // subtract 2 for the first 2 bytes
         // which are used to tell the length of this byte code
-        int bodyLength = byteCode.length - 2;
+        int bodyLength = mPosition - 2;
 
         // update the first 2 bytes to express the length of body
-        byteCode[0] = (byte) (bodyLength & 0xff);
-        byteCode[1] = (byte) ((bodyLength >>> 8) & 0xff);
-        return byteCode;
+        mBuffer[0] = (byte) (bodyLength & 0xff);
+        mBuffer[1] = (byte) ((bodyLength >>> 8) & 0xff);
+
+        // the next 2 bytes are the message counter
+        mBuffer[2] = (byte) (mMessageCounter & 0xff);
+        mBuffer[3] = (byte) ((mMessageCounter >>> 8) & 0xff);
+    }
+
+    private void ensureCapacity(int size) {
+        if (mPosition + size > mBuffer.length) {
+            mBuffer = Arrays.copyOf(mBuffer, Math.max(mPosition + size, mBuffer.length * 2));
+        }
     }
 }
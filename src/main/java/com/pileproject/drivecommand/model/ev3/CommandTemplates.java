@@ -0,0 +1,176 @@
+/**
+ * Copyright (C) 2011-2017 The PILE Developers <pile-dev@googlegroups.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pileproject.drivecommand.model.ev3;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.pileproject.drivecommand.model.ev3.Ev3Constants.DIRECT_COMMAND_NOREPLY;
+import static com.pileproject.drivecommand.model.ev3.Ev3Constants.DIRECT_COMMAND_REPLY;
+import static com.pileproject.drivecommand.model.ev3.Ev3Constants.INPUT_DEVICE;
+import static com.pileproject.drivecommand.model.ev3.Ev3Constants.LAYER_MASTER;
+import static com.pileproject.drivecommand.model.ev3.Ev3Constants.OUTPUT_POWER;
+import static com.pileproject.drivecommand.model.ev3.Ev3Constants.OUTPUT_START;
+import static com.pileproject.drivecommand.model.ev3.Ev3Constants.READY_PCT;
+import static com.pileproject.drivecommand.model.ev3.Ev3Constants.READY_SI;
+import static com.pileproject.drivecommand.model.ev3.Ev3Constants.SOUND_CONTROL;
+import static com.pileproject.drivecommand.model.ev3.Ev3Constants.SOUND_TONE;
+
+/**
+ * A cache of byte code templates for frequently used commands of LEGO MINDSTORMS EV3.
+ * Each command is assembled once, and only its parameter bytes are patched for each call.
+ *
+ * The returned {@link ByteCodeFormatter} is shared by the calls of the same command,
+ * so it has to be sent before the next call. This class is not thread-safe;
+ * use one instance for each thread.
+ */
+public class CommandTemplates {
+    // the offset of a value from the position of its parameter (skipping the size prefix)
+    private static final int VALUE_OFFSET = 1;
+
+    private ByteCodeFormatter mOutputState;
+    private int mOutputPowerPortPosition;
+    private int mSpeedPosition;
+    private int mOutputStartPortPosition;
+
+    private ByteCodeFormatter mSoundTone;
+    private int mVolumePosition;
+    private int mFrequencyPosition;
+    private int mDurationPosition;
+
+    // the templates of input requests for each pair of the unit and the number of values
+    private final Map<Integer, InputTemplate> mInputs = new HashMap<>();
+
+    /**
+     * Gets a byte code which sets the power of an output device and starts it.
+     *
+     * @param port the byte code port (bit field) of a device
+     * @param speed the speed of a device
+     * @return the patched byte code
+     */
+    public ByteCodeFormatter setOutputState(byte port, byte speed) {
+        if (mOutputState == null) {
+            ByteCodeFormatter byteCode = new ByteCodeFormatter();
+            byteCode.addOpCode(DIRECT_COMMAND_NOREPLY);
+            byteCode.addGlobalAndLocalBufferSize(0, 0);
+
+            byteCode.addOpCode(OUTPUT_POWER);
+            byteCode.addParameter(LAYER_MASTER);
+            mOutputPowerPortPosition = byteCode.position() + VALUE_OFFSET;
+            byteCode.addParameter(port);
+            mSpeedPosition = byteCode.position() + VALUE_OFFSET;
+            byteCode.addParameter(speed);
+
+            byteCode.addOpCode(OUTPUT_START);
+            byteCode.addParameter(LAYER_MASTER);
+            mOutputStartPortPosition = byteCode.position() + VALUE_OFFSET;
+            byteCode.addParameter(port);
+            mOutputState = byteCode;
+        }
+
+        mOutputState.patchByte(mOutputPowerPortPosition, port);
+        mOutputState.patchByte(mSpeedPosition, speed);
+        mOutputState.patchByte(mOutputStartPortPosition, port);
+        return mOutputState;
+    }
+
+    /**
+     * Gets a byte code which makes a sound.
+     *
+     * @param volume the volume of a sound (0 ~ 100 [%])
+     * @param freq the frequency [Hz]
+     * @param duration the duration of a sound [msec]
+     * @return the patched byte code
+     */
+    public ByteCodeFormatter soundTone(byte volume, short freq, short duration) {
+        if (mSoundTone == null) {
+            ByteCodeFormatter byteCode = new ByteCodeFormatter();
+            byteCode.addOpCode(DIRECT_COMMAND_NOREPLY);
+            byteCode.addGlobalAndLocalBufferSize(0, 0);
+
+            byteCode.addOpCode(SOUND_CONTROL);
+            byteCode.addOpCode(SOUND_TONE);
+            mVolumePosition = byteCode.position() + VALUE_OFFSET;
+            byteCode.addParameter(volume);
+            mFrequencyPosition = byteCode.position() + VALUE_OFFSET;
+            byteCode.addParameter(freq);
+            mDurationPosition = byteCode.position() + VALUE_OFFSET;
+            byteCode.addParameter(duration);
+            mSoundTone = byteCode;
+        }
+
+        mSoundTone.patchByte(mVolumePosition, volume);
+        mSoundTone.patchShort(mFrequencyPosition, freq);
+        mSoundTone.patchShort(mDurationPosition, duration);
+        return mSoundTone;
+    }
+
+    /**
+     * Gets a byte code which reads the values of an input device into the head of the global buffer.
+     * The message counter of the byte code is cleared.
+     *
+     * @param isSi read values in SI unit (<code>true</code>) or in percent (<code>false</code>)
+     * @param port the port of a device
+     * @param type the device type
+     * @param mode the mode of the device
+     * @param nvalue the number of the response value
+     * @return the patched byte code
+     */
+    public ByteCodeFormatter readInput(boolean isSi, byte port, byte type, byte mode, int nvalue) {
+        int key = (nvalue << 1) | (isSi ? 1 : 0);
+        InputTemplate template = mInputs.get(key);
+        if (template == null) {
+            template = new InputTemplate(isSi, nvalue);
+            mInputs.put(key, template);
+        }
+        return template.patch(port, type, mode);
+    }
+
+    /**
+     * A template of a direct command which has one input request.
+     */
+    private static class InputTemplate {
+        private final ByteCodeFormatter mByteCode = new ByteCodeFormatter();
+        private final int mPortPosition;
+        private final int mTypePosition;
+        private final int mModePosition;
+
+        InputTemplate(boolean isSi, int nvalue) {
+            mByteCode.addOpCode(DIRECT_COMMAND_REPLY);
+            mByteCode.addGlobalAndLocalBufferSize((isSi ? 4 : 1) * nvalue, 0);
+
+            mByteCode.addOpCode(INPUT_DEVICE);
+            mByteCode.addOpCode(isSi ? READY_SI : READY_PCT);
+            mByteCode.addParameter(LAYER_MASTER);
+            mPortPosition = mByteCode.position() + VALUE_OFFSET;
+            mByteCode.addParameter((byte) 0);
+            mTypePosition = mByteCode.position() + VALUE_OFFSET;
+            mByteCode.addParameter((byte) 0);
+            mModePosition = mByteCode.position() + VALUE_OFFSET;
+            mByteCode.addParameter((byte) 0);
+            mByteCode.addParameter((byte) nvalue); // number of values
+            mByteCode.addGlobalIndex((byte) 0);
+        }
+
+        ByteCodeFormatter patch(byte port, byte type, byte mode) {
+            mByteCode.setMessageCounter((short) 0);
+            mByteCode.patchByte(mPortPosition, port);
+            mByteCode.patchByte(mTypePosition, type);
+            mByteCode.patchByte(mModePosition, mode);
+            return mByteCode;
+        }
+    }
+}
@@ -32,6 +32,7 @@ import com.pileproject.drivecommand.machine.device.output.Servomotor;
 import com.pileproject.drivecommand.machine.device.port.DevicePortTypeMismatchException;
 import com.pileproject.drivecommand.machine.device.port.InputPort;
 import com.pileproject.drivecommand.machine.device.port.OutputPort;
+import com.pileproject.drivecommand.model.com.IAsyncCommunicator;
 import com.pileproject.drivecommand.model.com.ICommunicator;
 import com.pileproject.drivecommand.model.ev3.port.Ev3InputPort;
 import com.pileproject.drivecommand.model.ev3.port.Ev3OutputPort;
@@ -45,6 +46,10 @@ public class Ev3Machine extends MachineBase {
         super(new Ev3Protocol(comm));
     }
 
+    public Ev3Machine(IAsyncCommunicator comm) {
+        super(new Ev3Protocol(comm));
+    }
+
     @Override
     public void apply() {
         mProtocol.apply();
@@ -16,27 +16,38 @@
 package com.pileproject.drivecommand.model.ev3;
 
 import com.pileproject.drivecommand.command.CommandBase;
+import com.pileproject.drivecommand.command.TypedCommand;
+import com.pileproject.drivecommand.command.TypedResult;
 import com.pileproject.drivecommand.model.CommandType;
 import com.pileproject.drivecommand.model.ProtocolBase;
+import com.pileproject.drivecommand.model.com.BlockingCommunicator;
+import com.pileproject.drivecommand.model.com.IAsyncCommunicator;
 import com.pileproject.drivecommand.model.com.ICommunicator;
-import com.pileproject.drivecommand.util.Log;
+import com.pileproject.drivecommand.model.com.ReceiveBuffer;
 
 import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.util.Arrays;
-import java.util.HashMap;
+import java.nio.channels.CompletionHandler;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
+import static com.pileproject.drivecommand.model.ev3.Ev3Constants.CLR_CHANGES;
 import static com.pileproject.drivecommand.model.ev3.Ev3Constants.COL_REFLECT;
 import static com.pileproject.drivecommand.model.ev3.Ev3Constants.COL_RGB;
-import static com.pileproject.drivecommand.model.ev3.Ev3Constants.DIRECT_COMMAND_NOREPLY;
 import static com.pileproject.drivecommand.model.ev3.Ev3Constants.DIRECT_COMMAND_REPLY;
 import static com.pileproject.drivecommand.model.ev3.Ev3Constants.EV3_COLOR;
 import static com.pileproject.drivecommand.model.ev3.Ev3Constants.EV3_GYRO;
 import static com.pileproject.drivecommand.model.ev3.Ev3Constants.EV3_IR;
 import static com.pileproject.drivecommand.model.ev3.Ev3Constants.EV3_TOUCH;
 import static com.pileproject.drivecommand.model.ev3.Ev3Constants.EV3_ULTRASONIC;
+import static com.pileproject.drivecommand.model.ev3.Ev3Constants.GET_BUMPS;
+import static com.pileproject.drivecommand.model.ev3.Ev3Constants.GET_CHANGES;
 import static com.pileproject.drivecommand.model.ev3.Ev3Constants.GYRO_ANGLE;
 import static com.pileproject.drivecommand.model.ev3.Ev3Constants.GYRO_RATE;
 import static com.pileproject.drivecommand.model.ev3.Ev3Constants.INPUT_DEVICE;
@@ -61,14 +72,59 @@ import static com.pileproject.drivecommand.model.ev3.Ev3Constants.US_CM;
 
 /**
  * A protocol class for LEGO MINDSTORMS EV3.
+ *
+ * Requests are patched into per-thread templates and values are decoded from replies in place,
+ * so commands do not make garbage except for the {@link ReplyDemultiplexer.Reply} and the reply data
+ * of each request, which are needed to match replies to requests by message counters.
  */
 public class Ev3Protocol extends ProtocolBase {
-    private static final String KEY_VALUE = "value";
     private static final String TAG = "Ev3Protocol";
     private static final byte OUTPUT_PORT_OFFSET = 0x10;
+    private final ReplyDemultiplexer mDemultiplexer;
+    private final Map<CommandType, InputHandler> mInputHandlers = new EnumMap<>(CommandType.class);
+    // one set of templates for each thread, which are patched for every command
+    private final ThreadLocal<CommandTemplates> mTemplates = new ThreadLocal<CommandTemplates>() {
+        @Override
+        protected CommandTemplates initialValue() {
+            return new CommandTemplates();
+        }
+    };
+    // one formatter for each thread, which is reset and reused for every command
+    private final ThreadLocal<ByteCodeFormatter> mFormatters = new ThreadLocal<ByteCodeFormatter>() {
+        @Override
+        protected ByteCodeFormatter initialValue() {
+            return new ByteCodeFormatter();
+        }
+    };
 
     public Ev3Protocol(ICommunicator comm) {
         super(comm);
+        mDemultiplexer = new ReplyDemultiplexer(comm);
+        registerHandlers();
+    }
+
+    /**
+     * Creates a protocol which reads replies asynchronously.
+     * {@link #submit(int, CommandBase)} and
+     * {@link #execAsync(int, TypedCommand, TypedResult, Object, CompletionHandler)}
+     * do not block any thread while waiting for replies.
+     *
+     * @param comm an asynchronous communicator
+     */
+    public Ev3Protocol(IAsyncCommunicator comm) {
+        super(new BlockingCommunicator(comm));
+        mDemultiplexer = new ReplyDemultiplexer(comm);
+        registerHandlers();
+    }
+
+    /**
+     * Returns <code>false</code> because replies are matched to requests by message counters
+     * and requests are written one by one by {@link ReplyDemultiplexer}.
+     * So several threads can wait for replies at the same time.
+     */
+    @Override
+    protected boolean isSerialized() {
+        return false;
     }
 
     @Override
@@ -81,189 +137,382 @@ public class Ev3Protocol extends ProtocolBase {
         mCommunicator.close();
     }
 
-    @Override
-    public Map<String, Object> exec(int port, CommandBase cmd) {
-        Map<String, Object> res = new HashMap<>();
-        CommandType type = cmd.getCommandType();
-        switch (type) {
-            case GET_COLOR_ILLUMINANCE: {
-                // TODO: EV3 also can use NXT's color sensor (NXT_COLOR).
-                // I should switch the types (EV3_COLOR/NXT_COLOR) based on the device info.
-                short[] values = getPercentValue(port, EV3_COLOR, COL_REFLECT, 1);
-                res.put(KEY_VALUE, (int) values[0]);
-                break;
-            }
-            case GET_COLOR_RGB: {
-                // TODO: EV3 also can use NXT's color sensor (NXT_COLOR).
-                // I should switch the types (EV3_COLOR/NXT_COLOR) based on the device info.
-                // TODO: Reading value is failed because ev3 returns
-                // DIRECT_COMMAND_FAILED.
-                // So the byte code is something wrong.
-                float[] values = getSiValue(port, EV3_COLOR, COL_RGB, 3);
-                res.put(KEY_VALUE, values);
-                break;
-            }
-            case GET_GYRO_ANGLE: {
-                float[] value = getSiValue(port, EV3_GYRO, GYRO_ANGLE, 1);
-                res.put(KEY_VALUE, (int) value[0]);
-                break;
-            }
-            case GET_GYRO_RATE: {
-                float[] value = getSiValue(port, EV3_GYRO, GYRO_RATE, 1);
-                res.put(KEY_VALUE, (int) value[0]);
-                break;
-            }
-            case GET_LIGHT_VALUE: {
-                // TODO: NOT TESTED
-                short[] values = getPercentValue(port, NXT_LIGHT, LIGHT_REFLECT, 1);
-                res.put(KEY_VALUE, (int) values[0]);
-                break;
-            }
-            case GET_RANGEFINDER_DIST: {
-                float[] values = getSiValue(port, EV3_ULTRASONIC, US_CM, 1);
-                res.put(KEY_VALUE, (int) values[0]);
-                break;
-            }
-            case GET_REMOTECONTROLLER_BUTTON: {
-                // TODO: NOT TESTED
-                float[] values = getSiValue(port, EV3_IR, IR_REMOTE, 1);
-                res.put(KEY_VALUE, (int) values[0]);
-                break;
-            }
-            case GET_REMOTECONTROLLER_DIST: {
-                // TODO: NOT TESTED
-                float[] values = getSiValue(port, EV3_IR, IR_SEEK, 1);
-                res.put(KEY_VALUE, (int) values[0]);
-                break;
-            }
-            case GET_SERVO_ANGLE: {
-                float[] values = getSiValue((OUTPUT_PORT_OFFSET | port), L_MOTOR, L_MOTOR_DEGREE, 1);
-                res.put(KEY_VALUE, (int) values[0]);
-                break;
-            }
-            case GET_SOUND_DB: {
-                float[] values = getSiValue(port, NXT_SOUND, SOUND_DB, 1);
-                res.put(KEY_VALUE, (int) values[0]);
-                break;
-            }
-            case GET_TOUCH_COUNT: {
-                float[] values = getSiValue(port, EV3_TOUCH, TOUCH_BUMPS, 1);
-                res.put(KEY_VALUE, (int) values[0]);
-                break;
-            }
-            case GET_TOUCH_TOUCHED: {
-                float[] values = getSiValue(port, EV3_TOUCH, TOUCH_TOUCH, 1);
-                res.put(KEY_VALUE, ((int) values[0]) == 1);
-                break;
+    /**
+     * Registers the handlers of the supported commands.
+     */
+    private void registerHandlers() {
+        // TODO: EV3 also can use NXT's color sensor (NXT_COLOR).
+        // I should switch the types (EV3_COLOR/NXT_COLOR) based on the device info.
+        registerInput(CommandType.GET_COLOR_ILLUMINANCE, false, EV3_COLOR, COL_REFLECT, 1);
+        // TODO: Reading value is failed because ev3 returns
+        // DIRECT_COMMAND_FAILED.
+        // So the byte code is something wrong.
+        registerInput(CommandType.GET_COLOR_RGB, true, EV3_COLOR, COL_RGB, 3);
+        registerInput(CommandType.GET_GYRO_ANGLE, true, EV3_GYRO, GYRO_ANGLE, 1);
+        registerInput(CommandType.GET_GYRO_RATE, true, EV3_GYRO, GYRO_RATE, 1);
+        // TODO: NOT TESTED
+        registerInput(CommandType.GET_LIGHT_VALUE, false, NXT_LIGHT, LIGHT_REFLECT, 1);
+        registerInput(CommandType.GET_RANGEFINDER_DIST, true, EV3_ULTRASONIC, US_CM, 1);
+        // TODO: NOT TESTED
+        registerInput(CommandType.GET_REMOTECONTROLLER_BUTTON, true, EV3_IR, IR_REMOTE, 1);
+        // TODO: NOT TESTED
+        registerInput(CommandType.GET_REMOTECONTROLLER_DIST, true, EV3_IR, IR_SEEK, 1);
+        registerInput(CommandType.GET_SOUND_DB, true, NXT_SOUND, SOUND_DB, 1);
+        registerInput(CommandType.GET_TOUCH_COUNT, true, EV3_TOUCH, TOUCH_BUMPS, 1);
+        registerInput(CommandType.GET_TOUCH_TOUCHED, true, EV3_TOUCH, TOUCH_TOUCH, 1);
+        // motors are read as input devices at the output ports
+        registerInput(CommandType.GET_SERVO_ANGLE, new InputHandler(
+                CommandType.GET_SERVO_ANGLE, true, OUTPUT_PORT_OFFSET, L_MOTOR, L_MOTOR_DEGREE, 1));
+
+        register(CommandType.GET_TOUCH_CHANGES, new CommandHandler() {
+            @Override
+            public void exec(int port, TypedCommand cmd, TypedResult result) {
+                readAndClearChanges(port, result);
             }
-            case SET_BUZZER_BEEP: {
+        });
+        register(CommandType.SET_BUZZER_BEEP, new CommandHandler() {
+            @Override
+            public void exec(int port, TypedCommand cmd, TypedResult result) {
                 // TODO: maybe OK.
                 // Indeed, it beeps but I'm not sure that the arguments (frep =
                 // 600, duration = 200) are okay.
                 soundTone(50, 600, 200);
-                break;
             }
-            case SET_MOTOR_SPEED: {
-                Map<String, Object> args = cmd.getArgs();
-                int speed = (Integer) args.get("speed");
-                setOutputState(port, speed);
-                break;
+        });
+        register(CommandType.SET_MOTOR_SPEED, new CommandHandler() {
+            @Override
+            public void exec(int port, TypedCommand cmd, TypedResult result) {
+                setOutputState(port, cmd.getArg());
             }
+        });
+    }
 
-            case SET_BUZZER_OFF:
-            case SET_BUZZER_ON:
-            case SET_LED_OFF:
-            case SET_LED_ON:
-            case SET_SERVO_ANGLE: {
-                throw new UnsupportedOperationException(type.name() + " Operation hasn't been implemented yet");
-            }
+    private void registerInput(CommandType commandType, boolean isSi, byte type, byte mode, int nvalue) {
+        registerInput(commandType, new InputHandler(commandType, isSi, 0, type, mode, nvalue));
+    }
 
-            default: {
-                throw new UnsupportedOperationException("This Operation hasn't been implemented yet");
+    private void registerInput(CommandType commandType, InputHandler handler) {
+        mInputHandlers.put(commandType, handler);
+        register(commandType, handler);
+    }
+
+    /**
+     * Executes commands with ports. Consecutive input commands (e.g., {@link CommandType#GET_GYRO_ANGLE})
+     * are packed into one direct command, so they cost only one round trip.
+     * The other commands are executed one by one in order.
+     *
+     * @param ports ports to be used with the commands
+     * @param cmds {@link TypedCommand}s which are to be executed
+     * @param results {@link TypedResult}s to which the results of the commands are set
+     * @param count the number of the commands to be executed
+     */
+    @Override
+    public void execAll(int[] ports, TypedCommand[] cmds, TypedResult[] results, int count) {
+        checkLengths(ports, cmds, results, count);
+
+        List<InputRequest> pending = new ArrayList<>();
+        List<TypedResult> pendingResults = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            InputRequest request = toInputRequest(ports[i], cmds[i].getCommandType());
+            if (request != null) {
+                pending.add(request);
+                pendingResults.add(results[i]);
+                continue;
             }
+
+            flushInputRequests(pending, pendingResults);
+            exec(ports[i], cmds[i], results[i]);
         }
-        return res;
+        flushInputRequests(pending, pendingResults);
     }
 
     /**
-     * Gets the value in SI unit from a machine. This method sends a request and receives the result.
+     * Sends the pending input requests as one direct command and sets their results.
      *
-     * @param port the port of a device
-     * @param type the device type
-     * @param mode the mode of the device
-     * @param nvalue the number of the response value
-     * @return a returned value in SI unit
+     * @param pending input requests which have not been sent yet (cleared by this method)
+     * @param results results of the pending requests (cleared by this method)
      */
-    private float[] getSiValue(int port, int type, int mode, int nvalue) {
-        ByteCodeFormatter byteCode = new ByteCodeFormatter();
-        byteCode.addOpCode(DIRECT_COMMAND_REPLY);
+    private void flushInputRequests(List<InputRequest> pending, List<TypedResult> results) {
+        if (pending.isEmpty()) return;
 
-        // TODO: NOT TESTED when nvalue is more than 2
-        byteCode.addGlobalAndLocalBufferSize(4 * nvalue, 0);
-        byteCode.addOpCode(INPUT_DEVICE);
-        byteCode.addOpCode(READY_SI);
-        byteCode.addParameter(LAYER_MASTER);
-        byteCode.addParameter((byte) port);
-        byteCode.addParameter((byte) type);
-        byteCode.addParameter((byte) mode);
-        byteCode.addParameter((byte) nvalue); // number of values
-        byteCode.addGlobalIndex((byte) 0x00);
+        byte[] reply = await(sendInputRequests(pending));
+        decodeInputs(pending, reply, results);
+        pending.clear();
+        results.clear();
+    }
 
-        // send message
-        mCommunicator.write(byteCode.byteArray());
+    /**
+     * Sends a command without waiting for its reply.
+     * The replies are matched to the requests by message counters, so several commands can be in flight at once
+     * and the link does not idle while waiting for each reply.
+     * Commands which do not read input devices are executed immediately.
+     *
+     * @param port a port to be used with the command
+     * @param cmd a {@link CommandBase} which is to be executed
+     * @return a {@link Future} of the result, which reads replies from the machine when it is waited for
+     */
+    public Future<Map<String, Object>> submit(int port, CommandBase cmd) {
+        InputRequest request = toInputRequest(port, cmd.getCommandType());
+        if (request == null) {
+            return new CompletedFuture<>(exec(port, cmd));
+        }
 
-        byte[] reply = readData();
+        final List<InputRequest> requests = Collections.singletonList(request);
+        return new DecodingFuture<Map<String, Object>>(sendInputRequests(requests)) {
+            @Override
+            protected Map<String, Object> decode(byte[] reply) {
+                TypedResult result = new TypedResult();
+                decodeInputs(requests, reply, Collections.singletonList(result));
+                return result.toMap();
+            }
+        };
+    }
 
-        // check the validity of the response
-        // boolean valid = (reply[2] == DIRECT_COMMAND_SUCCESS);
+    /**
+     * Executes a command and reports the result without waiting for its reply.
+     * The handler is called on the thread which reads the reply.
+     * Commands which do not read input devices are executed immediately,
+     * and so are all the commands if this protocol uses a blocking {@link ICommunicator}.
+     */
+    @Override
+    public <A> void execAsync(int port, TypedCommand cmd, final TypedResult result,
+                              final A attachment, final CompletionHandler<TypedResult, ? super A> handler) {
+        InputRequest request = toInputRequest(port, cmd.getCommandType());
+        if (request == null || !mDemultiplexer.isAsynchronous()) {
+            super.execAsync(port, cmd, result, attachment, handler);
+            return;
+        }
 
-        // read the SI unit value in float type
-        float[] result = new float[nvalue];
-        for (int i = 0; i < nvalue; i++) {
-            byte[] data = Arrays.copyOfRange(reply, 3 + 4 * i, 7 + 4 * i);
-            result[i] = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN).getFloat();
+        final List<InputRequest> requests = Collections.singletonList(request);
+        final ReplyDemultiplexer.Reply reply;
+        try {
+            reply = sendInputRequests(requests);
+        } catch (RuntimeException e) {
+            handler.failed(e, attachment);
+            return;
         }
-        return result;
+
+        reply.addListener(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    decodeInputs(requests, reply.get(), Collections.singletonList(result));
+                } catch (ExecutionException e) {
+                    handler.failed(e.getCause(), attachment);
+                    return;
+                } catch (InterruptedException | RuntimeException e) {
+                    handler.failed(e, attachment);
+                    return;
+                }
+                handler.completed(result, attachment);
+            }
+        });
     }
 
     /**
-     * Gets the value in percent from a machine. This method sends a request and receives the result.
+     * Converts a command to an input request.
      *
      * @param port the port of a device
-     * @param type the device type
-     * @param mode the mode of the device
-     * @param nvalue the number of the response value
-     * @return a returned value in percent
+     * @param type the type of a command
+     * @return an {@link InputRequest} or <code>null</code> if the command does not read an input device
+     */
+    private InputRequest toInputRequest(int port, CommandType type) {
+        InputHandler handler = mInputHandlers.get(type);
+        return (handler != null) ? handler.toRequest(port) : null;
+    }
+
+    /**
+     * Waits for a reply of a request.
+     *
+     * @param reply a reply returned by {@link ReplyDemultiplexer#send(ByteCodeFormatter)}
+     * @return the reply data
      */
-    private short[] getPercentValue(int port, int type, int mode, int nvalue) {
-        ByteCodeFormatter byteCode = new ByteCodeFormatter();
+    private static byte[] await(ReplyDemultiplexer.Reply reply) {
+        try {
+            return reply.get();
+        } catch (ExecutionException e) {
+            throw toRuntimeException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for a reply", e);
+        }
+    }
+
+    /**
+     * Sends input requests as one direct command.
+     * Each request has its own area in the global buffer
+     * (4 bytes per value in SI unit and 1 byte per value in percent).
+     *
+     * @param requests the requests to be sent
+     * @return the reply of the direct command
+     */
+    private ReplyDemultiplexer.Reply sendInputRequests(List<InputRequest> requests) {
+        if (requests.size() == 1) {
+            // a single request has a fixed shape, so only its parameters are patched
+            InputRequest request = requests.get(0);
+            return mDemultiplexer.send(mTemplates.get().readInput(
+                    request.isSi, (byte) request.port, request.type, request.mode, request.nvalue));
+        }
+
+        ByteCodeFormatter byteCode = obtainFormatter();
         byteCode.addOpCode(DIRECT_COMMAND_REPLY);
 
+        int globalSize = 0;
+        for (InputRequest request : requests) {
+            globalSize += request.size();
+        }
         // TODO: NOT TESTED when nvalue is more than 2
-        byteCode.addGlobalAndLocalBufferSize(1 * nvalue, 0);
+        byteCode.addGlobalAndLocalBufferSize(globalSize, 0);
+
+        int offset = 0;
+        for (InputRequest request : requests) {
+            if (offset > 0xFF) {
+                throw new IllegalArgumentException("Too many input requests in a direct command");
+            }
+            byteCode.addOpCode(INPUT_DEVICE);
+            byteCode.addOpCode(request.isSi ? READY_SI : READY_PCT);
+            byteCode.addParameter(LAYER_MASTER);
+            byteCode.addParameter((byte) request.port);
+            byteCode.addParameter(request.type);
+            byteCode.addParameter(request.mode);
+            byteCode.addParameter((byte) request.nvalue); // number of values
+            byteCode.addGlobalIndex((byte) offset);
+            offset += request.size();
+        }
+
+        // send message
+        return mDemultiplexer.send(byteCode);
+    }
+
+    /**
+     * Reads the numbers of presses (positive changes) and releases (negative changes) of a sensor
+     * since the last call, and clears them in the same direct command.
+     * The brick counts the changes by itself, so no edge is missed however rarely this method is called.
+     *
+     * @param port the port of a sensor
+     * @param result a result to which the number of presses and the number of releases are set
+     */
+    private void readAndClearChanges(int port, TypedResult result) {
+        ByteCodeFormatter byteCode = obtainFormatter();
+        byteCode.addOpCode(DIRECT_COMMAND_REPLY);
+        byteCode.addGlobalAndLocalBufferSize(8, 0);
+
         byteCode.addOpCode(INPUT_DEVICE);
-        byteCode.addOpCode(READY_PCT);
+        byteCode.addOpCode(GET_CHANGES);
         byteCode.addParameter(LAYER_MASTER);
         byteCode.addParameter((byte) port);
-        byteCode.addParameter((byte) type);
-        byteCode.addParameter((byte) mode);
-        byteCode.addParameter((byte) nvalue); // number of values
         byteCode.addGlobalIndex((byte) 0x00);
 
-        // Send message
-        mCommunicator.write(byteCode.byteArray());
+        byteCode.addOpCode(INPUT_DEVICE);
+        byteCode.addOpCode(GET_BUMPS);
+        byteCode.addParameter(LAYER_MASTER);
+        byteCode.addParameter((byte) port);
+        byteCode.addGlobalIndex((byte) 0x04);
 
-        byte[] reply = readData();
+        byteCode.addOpCode(INPUT_DEVICE);
+        byteCode.addOpCode(CLR_CHANGES);
+        byteCode.addParameter(LAYER_MASTER);
+        byteCode.addParameter((byte) port);
+
+        byte[] reply = await(mDemultiplexer.send(byteCode));
 
+        // the global buffer starts after the identification codes (2 bytes) and the status (1 byte)
+        float[] changes = result.setFloatCount(2);
+        changes[0] = ReceiveBuffer.getFloat(reply, 3);
+        changes[1] = ReceiveBuffer.getFloat(reply, 7);
+    }
+
+    /**
+     * Decodes the values of input devices from a reply and sets them to results.
+     *
+     * @param requests the requests which have been sent
+     * @param reply the reply of the requests
+     * @param results results of the requests (in the same order as <code>requests</code>)
+     */
+    private static void decodeInputs(List<InputRequest> requests, byte[] reply, List<TypedResult> results) {
         // check the validity of the response
-        // boolean valid = (reply[2] == direct_command_success);
+        // boolean valid = (reply[2] == DIRECT_COMMAND_SUCCESS);
+
+        // the global buffer starts after the identification codes (2 bytes) and the status (1 byte)
+        int offset = 3;
+        for (int i = 0; i < requests.size(); i++) {
+            InputRequest request = requests.get(i);
+            TypedResult result = results.get(i);
+            result.clear();
+            decodeInput(request.commandType, request.isSi, request.nvalue, reply, offset, result);
+            offset += request.size();
+        }
+    }
+
+    /**
+     * Decodes the values of an input device in place and sets them to a result.
+     * Percent values are also handled as <code>float</code>.
+     *
+     * @param type the type of a command
+     * @param isSi the values are in SI unit (<code>true</code>) or in percent (<code>false</code>)
+     * @param nvalue the number of the values
+     * @param reply the reply which has the values
+     * @param offset the offset of the values in the reply
+     * @param result a result to which the values are set
+     */
+    private static void decodeInput(CommandType type, boolean isSi, int nvalue,
+                                    byte[] reply, int offset, TypedResult result) {
+        switch (type) {
+            case GET_COLOR_RGB: {
+                float[] values = result.setFloatCount(nvalue);
+                for (int i = 0; i < nvalue; i++) {
+                    values[i] = decodeValue(isSi, reply, offset, i);
+                }
+                break;
+            }
+            case GET_TOUCH_TOUCHED:
+                result.setBooleanValue(((int) decodeValue(isSi, reply, offset, 0)) == 1);
+                break;
+            default:
+                result.setIntValue((int) decodeValue(isSi, reply, offset, 0));
+                break;
+        }
+    }
 
+    /**
+     * Decodes one value of an input device.
+     *
+     * @param isSi the value is in SI unit (<code>true</code>) or in percent (<code>false</code>)
+     * @param reply the reply which has the value
+     * @param offset the offset of the values in the reply
+     * @param index the index of the value
+     * @return the value
+     */
+    private static float decodeValue(boolean isSi, byte[] reply, int offset, int index) {
+        if (isSi) {
+            // read the SI unit value in float type (decoded in place)
+            return ReceiveBuffer.getFloat(reply, offset + 4 * index);
+        }
         // read the percent value in short type
-        short[] result = new short[nvalue];
-        for (int i = 0; i < nvalue; i++) {
-            result[i] = (short) reply[3 + i];
+        return (short) reply[offset + index];
+    }
+
+    /**
+     * Unwraps an exception thrown while waiting for a reply.
+     *
+     * @param e an exception thrown by {@link Future#get()}
+     * @return the cause as a {@link RuntimeException}
+     */
+    private static RuntimeException toRuntimeException(ExecutionException e) {
+        if (e.getCause() instanceof RuntimeException) {
+            return (RuntimeException) e.getCause();
         }
-        return result;
+        return new RuntimeException(e.getCause());
+    }
+
+    /**
+     * Gets the formatter of the current thread after resetting it.
+     * The byte code has to be sent before the next call on the same thread.
+     *
+     * @return a cleared {@link ByteCodeFormatter}
+     */
+    private ByteCodeFormatter obtainFormatter() {
+        return mFormatters.get().reset();
     }
 
     /**
@@ -284,25 +533,14 @@ public class Ev3Protocol extends ProtocolBase {
      * @param speed the speed of a device
      */
     private void setOutputState(int port, int speed) {
-        ByteCodeFormatter byteCode = new ByteCodeFormatter();
-
         // convert port number
         byte byteCodePort = toByteCodePort(port);
 
-        byteCode.addOpCode(DIRECT_COMMAND_NOREPLY);
-        byteCode.addGlobalAndLocalBufferSize(0, 0);
-
-        byteCode.addOpCode(OUTPUT_POWER);
-        byteCode.addParameter(LAYER_MASTER);
-        byteCode.addParameter(byteCodePort);
-        byteCode.addParameter((byte) speed);
-
-        byteCode.addOpCode(OUTPUT_START);
-        byteCode.addParameter(LAYER_MASTER);
-        byteCode.addParameter(byteCodePort);
+        // OUTPUT_POWER and OUTPUT_START (see CommandTemplates)
+        ByteCodeFormatter byteCode = mTemplates.get().setOutputState(byteCodePort, (byte) speed);
 
         // send message
-        mCommunicator.write(byteCode.byteArray());
+        mDemultiplexer.write(byteCode);
     }
 
     /**
@@ -313,36 +551,11 @@ public class Ev3Protocol extends ProtocolBase {
      * @param duration the duration of a sound [msec]
      */
     private void soundTone(int volume, int freq, int duration) {
-        ByteCodeFormatter byteCode = new ByteCodeFormatter();
-
-        byteCode.addOpCode(DIRECT_COMMAND_NOREPLY);
-        byteCode.addGlobalAndLocalBufferSize(0, 0);
-
-        byteCode.addOpCode(SOUND_CONTROL);
-        byteCode.addOpCode(SOUND_TONE);
-        byteCode.addParameter((byte) volume);
-        byteCode.addParameter((short) freq);
-        byteCode.addParameter((short) duration);
+        // SOUND_CONTROL with SOUND_TONE (see CommandTemplates)
+        ByteCodeFormatter byteCode = mTemplates.get().soundTone((byte) volume, (short) freq, (short) duration);
 
         // Send message
-        mCommunicator.write(byteCode.byteArray());
-    }
-
-    /**
-     * Reads data from a machine.
-     *
-     * @return the returned results
-     */
-    private byte[] readData() {
-        // calculate the size of response by reading 2 bytes
-        byte[] header = mCommunicator.read(2);
-        int numBytes = ((header[1] & 0x00ff) << 8) | (header[0] & 0x00ff);
-
-        // get result
-        byte[] result = mCommunicator.read(numBytes);
-        Log.d(TAG, "read: " + result.length + " bytes");
-
-        return result;
+        mDemultiplexer.write(byteCode);
     }
 
     @Override
@@ -359,4 +572,164 @@ public class Ev3Protocol extends ProtocolBase {
     public boolean store(int key, byte[] data) {
         throw new UnsupportedOperationException("Ev3 Protocol hasn't supported key-value store yet");
     }
+
+    /**
+     * A handler of a command which reads values from an input device.
+     */
+    private class InputHandler implements CommandHandler {
+        private final CommandType mCommandType;
+        private final boolean mIsSi;
+        private final int mPortOffset;
+        private final byte mType;
+        private final byte mMode;
+        private final int mNvalue;
+
+        /**
+         * @param commandType the type of the command
+         * @param isSi read values in SI unit (<code>true</code>) or in percent (<code>false</code>)
+         * @param portOffset the offset added to the port of a device
+         * @param type the device type
+         * @param mode the mode of the device
+         * @param nvalue the number of the response value
+         */
+        InputHandler(CommandType commandType, boolean isSi, int portOffset, byte type, byte mode, int nvalue) {
+            mCommandType = commandType;
+            mIsSi = isSi;
+            mPortOffset = portOffset;
+            mType = type;
+            mMode = mode;
+            mNvalue = nvalue;
+        }
+
+        InputRequest toRequest(int port) {
+            return new InputRequest(mCommandType, mIsSi, mPortOffset | port, mType, mMode, mNvalue);
+        }
+
+        @Override
+        public void exec(int port, TypedCommand cmd, TypedResult result) {
+            // a single request has a fixed shape, so only its parameters are patched
+            byte[] reply = await(mDemultiplexer.send(mTemplates.get().readInput(
+                    mIsSi, (byte) (mPortOffset | port), mType, mMode, mNvalue)));
+            // the global buffer starts after the identification codes (2 bytes) and the status (1 byte)
+            decodeInput(mCommandType, mIsSi, mNvalue, reply, 3, result);
+        }
+    }
+
+    /**
+     * A container class of a request to read values from an input device.
+     */
+    private static class InputRequest {
+        final CommandType commandType;
+        final boolean isSi;
+        final int port;
+        final byte type;
+        final byte mode;
+        final int nvalue;
+
+        /**
+         * @param commandType the type of the original command
+         * @param isSi read values in SI unit (<code>true</code>) or in percent (<code>false</code>)
+         * @param port the port of a device
+         * @param type the device type
+         * @param mode the mode of the device
+         * @param nvalue the number of the response value
+         */
+        InputRequest(CommandType commandType, boolean isSi, int port, byte type, byte mode, int nvalue) {
+            this.commandType = commandType;
+            this.isSi = isSi;
+            this.port = port;
+            this.type = type;
+            this.mode = mode;
+            this.nvalue = nvalue;
+        }
+
+        /**
+         * Gets the size of the area for this request in the global buffer.
+         *
+         * @return the size in byte
+         */
+        int size() {
+            return (isSi ? 4 : 1) * nvalue;
+        }
+    }
+
+    /**
+     * A {@link Future} which has already been completed.
+     */
+    private static class CompletedFuture<T> implements Future<T> {
+        private final T mValue;
+
+        CompletedFuture(T value) {
+            mValue = value;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return false;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public boolean isDone() {
+            return true;
+        }
+
+        @Override
+        public T get() {
+            return mValue;
+        }
+
+        @Override
+        public T get(long timeout, TimeUnit unit) {
+            return mValue;
+        }
+    }
+
+    /**
+     * A {@link Future} which decodes a reply when it is waited for.
+     */
+    private abstract static class DecodingFuture<T> implements Future<T> {
+        private final Future<byte[]> mReply;
+
+        DecodingFuture(Future<byte[]> reply) {
+            mReply = reply;
+        }
+
+        /**
+         * Decodes a reply to a result.
+         *
+         * @param reply the reply read from a machine
+         * @return the result
+         */
+        protected abstract T decode(byte[] reply);
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return mReply.cancel(mayInterruptIfRunning);
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return mReply.isCancelled();
+        }
+
+        @Override
+        public boolean isDone() {
+            return mReply.isDone();
+        }
+
+        @Override
+        public T get() throws InterruptedException, ExecutionException {
+            return decode(mReply.get());
+        }
+
+        @Override
+        public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            return decode(mReply.get(timeout, unit));
+        }
+    }
 }
@@ -0,0 +1,457 @@
+/**
+ * Copyright (C) 2011-2017 The PILE Developers <pile-dev@googlegroups.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pileproject.drivecommand.model.ev3;
+
+import com.pileproject.drivecommand.model.com.LinkModel;
+import com.pileproject.drivecommand.model.com.SimulatorBase;
+import com.pileproject.drivecommand.util.Log;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.pileproject.drivecommand.model.ev3.Ev3Constants.CLR_CHANGES;
+import static com.pileproject.drivecommand.model.ev3.Ev3Constants.DIRECT_COMMAND_FAIL;
+import static com.pileproject.drivecommand.model.ev3.Ev3Constants.DIRECT_COMMAND_NOREPLY;
+import static com.pileproject.drivecommand.model.ev3.Ev3Constants.DIRECT_COMMAND_SUCCESS;
+import static com.pileproject.drivecommand.model.ev3.Ev3Constants.GET_BUMPS;
+import static com.pileproject.drivecommand.model.ev3.Ev3Constants.GET_CHANGES;
+import static com.pileproject.drivecommand.model.ev3.Ev3Constants.INPUT_DEVICE;
+import static com.pileproject.drivecommand.model.ev3.Ev3Constants.OUTPUT_POWER;
+import static com.pileproject.drivecommand.model.ev3.Ev3Constants.OUTPUT_SPEED;
+import static com.pileproject.drivecommand.model.ev3.Ev3Constants.OUTPUT_START;
+import static com.pileproject.drivecommand.model.ev3.Ev3Constants.OUTPUT_STOP;
+import static com.pileproject.drivecommand.model.ev3.Ev3Constants.READY_PCT;
+import static com.pileproject.drivecommand.model.ev3.Ev3Constants.READY_SI;
+import static com.pileproject.drivecommand.model.ev3.Ev3Constants.SOUND_BREAK;
+import static com.pileproject.drivecommand.model.ev3.Ev3Constants.SOUND_CONTROL;
+import static com.pileproject.drivecommand.model.ev3.Ev3Constants.SOUND_TONE;
+import static com.pileproject.drivecommand.model.ev3.Ev3Constants.TOUCH_BUMPS;
+import static com.pileproject.drivecommand.model.ev3.Ev3Constants.TOUCH_TOUCH;
+
+/**
+ * A simulated LEGO MINDSTORMS EV3 which works as a communicator, so protocols can be
+ * load-tested and soak-tested without a brick.
+ * This class decodes the direct commands made by {@link ByteCodeFormatter}
+ * (INPUT_DEVICE, OUTPUT_POWER/SPEED/START/STOP and SOUND_CONTROL), keeps the state of virtual
+ * motors and sensors, and returns replies in the same format as a brick.
+ *
+ * Replies are delayed by a {@link LinkModel} (see {@link SimulatorBase}).
+ * The values of sensors are set by {@link #setInputValues(int, float...)} and {@link #setTouched(int, boolean)},
+ * and the rotation of a motor is integrated from its power.
+ *
+ * <pre>
+ * Ev3Simulator simulator = new Ev3Simulator(new LinkModel(15, 5, TimeUnit.MILLISECONDS));
+ * simulator.setInputValues(1, 42.0f);
+ * MachineBase machine = new Ev3Machine(simulator);
+ * </pre>
+ *
+ * This class is thread-safe.
+ */
+public class Ev3Simulator extends SimulatorBase {
+    private static final String TAG = "Ev3Simulator";
+
+    /** The rotation speed of a motor at full power [deg/sec]. */
+    public static final float DEGREES_PER_SECOND = 1050.0f;
+
+    private static final int NUM_OUTPUT_PORTS = 4;
+    private static final int OUTPUT_PORT_OFFSET = 0x10;
+    // parameter size
+    private static final int BYTE_SIZE = 0x81;
+    private static final int SHORT_SIZE = 0x82;
+    private static final int INT_SIZE = 0x83;
+    private static final int GLOBAL_INDEX_SIZE = 0xE1;
+
+    // guarded by mLock
+    private final Map<Integer, float[]> mInputValues = new HashMap<>();
+    private final Map<Integer, TouchState> mTouchStates = new HashMap<>();
+    private final Motor[] mMotors = new Motor[NUM_OUTPUT_PORTS];
+    private int mToneCount;
+    private int mLastToneFrequency;
+
+    /**
+     * Creates a simulator which replies without delay.
+     */
+    public Ev3Simulator() {
+        this(LinkModel.NONE);
+    }
+
+    /**
+     * @param link the model of the delay of the link
+     */
+    public Ev3Simulator(LinkModel link) {
+        super(link);
+        for (int i = 0; i < NUM_OUTPUT_PORTS; i++) {
+            mMotors[i] = new Motor();
+        }
+    }
+
+    /**
+     * Sets the values of an input device, which are returned for any type and mode.
+     *
+     * @param port the port of a sensor (0 ~ 3)
+     * @param values the values (in SI unit or in percent)
+     */
+    public void setInputValues(int port, float... values) {
+        mLock.lock();
+        try {
+            mInputValues.put(port, Arrays.copyOf(values, values.length));
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Presses or releases a touch sensor. The numbers of presses and releases are counted
+     * until they are cleared by CLR_CHANGES.
+     *
+     * @param port the port of a touch sensor (0 ~ 3)
+     * @param touched pressed (<code>true</code>) or released (<code>false</code>)
+     */
+    public void setTouched(int port, boolean touched) {
+        mLock.lock();
+        try {
+            TouchState state = getTouchState(port);
+            if (state.isTouched == touched) return;
+            state.isTouched = touched;
+            if (touched) state.presses++;
+            else state.releases++;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Gets the power of a motor.
+     *
+     * @param port the port of a motor (0 ~ 3)
+     * @return the power (-100 ~ 100), or 0 if the motor has been stopped
+     */
+    public int getMotorPower(int port) {
+        mLock.lock();
+        try {
+            Motor motor = mMotors[port];
+            return motor.isRunning ? motor.power : 0;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Gets the rotation of a motor.
+     *
+     * @param port the port of a motor (0 ~ 3)
+     * @return the rotation [deg]
+     */
+    public float getMotorDegrees(int port) {
+        mLock.lock();
+        try {
+            return mMotors[port].update(System.nanoTime());
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Gets the number of tones which have been played.
+     *
+     * @return the number of tones
+     */
+    public int getToneCount() {
+        mLock.lock();
+        try {
+            return mToneCount;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Gets the frequency of the last tone.
+     *
+     * @return the frequency [Hz]
+     */
+    public int getLastToneFrequency() {
+        mLock.lock();
+        try {
+            return mLastToneFrequency;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    protected int getRequestLength(byte[] data, int offset, int available) {
+        if (available < 2) return -1;
+        // the length field (2 bytes) does not count itself
+        return 2 + ((data[offset] & 0xFF) | ((data[offset + 1] & 0xFF) << 8));
+    }
+
+    /**
+     * Executes a direct command and makes its reply.
+     */
+    @Override
+    protected byte[] execute(byte[] data, int offset, int length) {
+        long now = System.nanoTime();
+        Decoder decoder = new Decoder(data, offset + 2, offset + length);
+        int counter = decoder.readShort();
+        int type = decoder.readByte();
+        int sizes = decoder.readShort();
+        byte[] global = new byte[sizes & 0x03FF];
+
+        boolean isSucceeded;
+        try {
+            while (decoder.hasRemaining()) {
+                executeOperation(decoder, global, now);
+            }
+            isSucceeded = true;
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            Log.e(TAG, "Failed to execute a direct command", e);
+            countFailure();
+            isSucceeded = false;
+        }
+
+        if ((type & 0xFF) == (DIRECT_COMMAND_NOREPLY & 0xFF)) return null;
+
+        // [length (2 bytes)][message counter (2 bytes)][status (1 byte)][global buffer]
+        byte[] reply = new byte[5 + global.length];
+        putShort(reply, 0, reply.length - 2);
+        putShort(reply, 2, counter);
+        reply[4] = isSucceeded ? DIRECT_COMMAND_SUCCESS : DIRECT_COMMAND_FAIL;
+        System.arraycopy(global, 0, reply, 5, global.length);
+        return reply;
+    }
+
+    /**
+     * Executes an operation of a direct command (must be called with the lock).
+     *
+     * @param decoder a decoder positioned at the opcode
+     * @param global the global buffer of the direct command
+     * @param now the current time [nsec]
+     */
+    private void executeOperation(Decoder decoder, byte[] global, long now) {
+        byte opcode = (byte) decoder.readByte();
+        switch (opcode) {
+            case INPUT_DEVICE:
+                executeInputDevice(decoder, global);
+                break;
+            case OUTPUT_POWER:
+            case OUTPUT_SPEED: {
+                decoder.readParameter(); // layer
+                int ports = decoder.readParameter();
+                int power = decoder.readParameter();
+                for (int i = 0; i < NUM_OUTPUT_PORTS; i++) {
+                    if ((ports & (1 << i)) != 0) mMotors[i].setPower(power, now);
+                }
+                break;
+            }
+            case OUTPUT_START:
+            case OUTPUT_STOP: {
+                decoder.readParameter(); // layer
+                int ports = decoder.readParameter();
+                if (opcode == OUTPUT_STOP) decoder.readParameter(); // brake
+                for (int i = 0; i < NUM_OUTPUT_PORTS; i++) {
+                    if ((ports & (1 << i)) != 0) mMotors[i].setRunning(opcode == OUTPUT_START, now);
+                }
+                break;
+            }
+            case SOUND_CONTROL: {
+                byte command = (byte) decoder.readByte();
+                if (command == SOUND_TONE) {
+                    decoder.readParameter(); // volume
+                    mLastToneFrequency = decoder.readParameter();
+                    decoder.readParameter(); // duration
+                    mToneCount++;
+                } else if (command != SOUND_BREAK) {
+                    throw new IllegalArgumentException("Unsupported sound command: " + command);
+                }
+                break;
+            }
+            default:
+                throw new IllegalArgumentException("Unsupported opcode: " + opcode);
+        }
+    }
+
+    /**
+     * Executes an INPUT_DEVICE operation (must be called with the lock).
+     *
+     * @param decoder a decoder positioned after the opcode
+     * @param global the global buffer of the direct command
+     */
+    private void executeInputDevice(Decoder decoder, byte[] global) {
+        byte command = (byte) decoder.readByte();
+        switch (command) {
+            case READY_SI:
+            case READY_PCT: {
+                decoder.readParameter(); // layer
+                int port = decoder.readParameter();
+                int type = decoder.readParameter();
+                int mode = decoder.readParameter();
+                int nvalue = decoder.readParameter();
+                int index = decoder.readParameter();
+                for (int i = 0; i < nvalue; i++) {
+                    float value = getInputValue(port, (byte) type, (byte) mode, i);
+                    if (command == READY_SI) {
+                        putFloat(global, index + 4 * i, value);
+                    } else {
+                        global[index + i] = (byte) value;
+                    }
+                }
+                break;
+            }
+            case GET_CHANGES:
+            case GET_BUMPS: {
+                decoder.readParameter(); // layer
+                TouchState state = getTouchState(decoder.readParameter());
+                int index = decoder.readParameter();
+                putFloat(global, index, (command == GET_CHANGES) ? state.presses : state.releases);
+                break;
+            }
+            case CLR_CHANGES: {
+                decoder.readParameter(); // layer
+                TouchState state = getTouchState(decoder.readParameter());
+                state.presses = 0;
+                state.releases = 0;
+                break;
+            }
+            default:
+                throw new IllegalArgumentException("Unsupported input command: " + command);
+        }
+    }
+
+    /**
+     * Gets a value of an input device (must be called with the lock).
+     */
+    private float getInputValue(int port, byte type, byte mode, int index) {
+        if (port >= OUTPUT_PORT_OFFSET && port < OUTPUT_PORT_OFFSET + NUM_OUTPUT_PORTS) {
+            // motors are read as input devices at the output ports
+            return mMotors[port - OUTPUT_PORT_OFFSET].update(System.nanoTime());
+        }
+
+        TouchState touch = mTouchStates.get(port);
+        if (touch != null && type == Ev3Constants.EV3_TOUCH) {
+            if (mode == TOUCH_TOUCH) return touch.isTouched ? 1 : 0;
+            if (mode == TOUCH_BUMPS) return touch.presses;
+        }
+
+        float[] values = mInputValues.get(port);
+        return (values != null && index < values.length) ? values[index] : 0;
+    }
+
+    private TouchState getTouchState(int port) {
+        TouchState state = mTouchStates.get(port);
+        if (state == null) {
+            state = new TouchState();
+            mTouchStates.put(port, state);
+        }
+        return state;
+    }
+
+    private static void putFloat(byte[] buffer, int offset, float value) {
+        putInt(buffer, offset, Float.floatToIntBits(value));
+    }
+
+    /**
+     * A reader of the opcodes and parameters of a direct command.
+     */
+    private static class Decoder {
+        private final byte[] mData;
+        private final int mEnd;
+        private int mPosition;
+
+        Decoder(byte[] data, int start, int end) {
+            mData = data;
+            mPosition = start;
+            mEnd = end;
+        }
+
+        boolean hasRemaining() {
+            return mPosition < mEnd;
+        }
+
+        int readByte() {
+            if (mPosition >= mEnd) throw new IndexOutOfBoundsException("Unexpected end of a direct command");
+            return mData[mPosition++] & 0xFF;
+        }
+
+        int readShort() {
+            return readByte() | (readByte() << 8);
+        }
+
+        /**
+         * Reads a parameter in any size (a short constant, a long constant or a global index).
+         *
+         * @return the value of the parameter
+         */
+        int readParameter() {
+            int prefix = readByte();
+            if ((prefix & 0x80) == 0) {
+                // a short constant which has a 6-bit signed value in the prefix
+                return (prefix << 26) >> 26;
+            }
+            switch (prefix) {
+                case BYTE_SIZE:
+                    return (byte) readByte();
+                case SHORT_SIZE:
+                    return (short) readShort();
+                case INT_SIZE:
+                    return readShort() | (readShort() << 16);
+                case GLOBAL_INDEX_SIZE:
+                    return readByte();
+                default:
+                    throw new IllegalArgumentException("Unsupported parameter: " + prefix);
+            }
+        }
+    }
+
+    /**
+     * The state of a touch sensor.
+     */
+    private static class TouchState {
+        boolean isTouched;
+        int presses;
+        int releases;
+    }
+
+    /**
+     * The state of a motor. The rotation is integrated when the power or the running state changes
+     * and when it is read.
+     */
+    private static class Motor {
+        int power;
+        boolean isRunning;
+        float degrees;
+        long lastUpdate = System.nanoTime();
+
+        float update(long now) {
+            if (isRunning) {
+                degrees += DEGREES_PER_SECOND * power / 100.0f * (now - lastUpdate) / 1e9f;
+            }
+            lastUpdate = now;
+            return degrees;
+        }
+
+        void setPower(int power, long now) {
+            update(now);
+            this.power = Math.max(-100, Math.min(100, power));
+        }
+
+        void setRunning(boolean running, long now) {
+            update(now);
+            isRunning = running;
+        }
+    }
+}
@@ -0,0 +1,458 @@
+/**
+ * Copyright (C) 2011-2017 The PILE Developers <pile-dev@googlegroups.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pileproject.drivecommand.model.ev3;
+
+import com.pileproject.drivecommand.model.com.BlockingCommunicator;
+import com.pileproject.drivecommand.model.com.IAsyncCommunicator;
+import com.pileproject.drivecommand.model.com.IBufferedCommunicator;
+import com.pileproject.drivecommand.model.com.ICommunicator;
+import com.pileproject.drivecommand.model.com.ReceiveBuffer;
+import com.pileproject.drivecommand.util.Log;
+
+import java.nio.channels.CompletionHandler;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A demultiplexer class for replies of LEGO MINDSTORMS EV3.
+ * This class allocates message counters to requests and matches replies to them,
+ * so several requests can be in flight at once and their replies can be completed out of order.
+ *
+ * With an {@link ICommunicator}, there is no background thread. A thread which waits for a reply
+ * reads replies from a machine and completes the requests of them (including the ones of other threads)
+ * until its own reply arrives.
+ *
+ * With an {@link IAsyncCommunicator}, replies are read asynchronously while any request which has been
+ * written is in flight, and no thread is blocked for reading. A read is started only after a write
+ * completes, so a read which occupies a thread of a shared executor never holds up the write of
+ * the request whose reply it waits for.
+ *
+ * This class is thread-safe. Requests are written one by one, so they are never interleaved.
+ */
+public class ReplyDemultiplexer {
+    private static final String TAG = "ReplyDemultiplexer";
+    private static final int COUNTER_MASK = 0xFFFF;
+
+    private final ICommunicator mCommunicator;
+    private final IAsyncCommunicator mAsyncCommunicator;
+    private final ConcurrentMap<Integer, Reply> mPending = new ConcurrentHashMap<>();
+    private final AtomicInteger mNextCounter = new AtomicInteger();
+    private final ReentrantLock mReadLock = new ReentrantLock();
+    // fair, so a thread which sends requests in a busy loop cannot starve the others
+    private final ReentrantLock mWriteLock = new ReentrantLock(true);
+    private final AtomicBoolean mIsReceiving = new AtomicBoolean();
+    // guarded by mReadLock
+    private final ReceiveBuffer mHeader = new ReceiveBuffer(2);
+
+    public ReplyDemultiplexer(ICommunicator comm) {
+        mCommunicator = comm;
+        mAsyncCommunicator = null;
+    }
+
+    public ReplyDemultiplexer(IAsyncCommunicator comm) {
+        mCommunicator = new BlockingCommunicator(comm);
+        mAsyncCommunicator = comm;
+    }
+
+    /**
+     * Allocates a message counter which is not used by any request in flight.
+     * The caller should set it to the request with {@link ByteCodeFormatter#setMessageCounter(short)}
+     * and send the request. With an {@link IAsyncCommunicator}, replies are read only for requests
+     * sent with {@link #send(ByteCodeFormatter)}.
+     *
+     * @return a {@link Reply} which will be completed when the reply with the counter arrives
+     */
+    public Reply allocate() {
+        if (mPending.size() > COUNTER_MASK) {
+            throw new IllegalStateException("Too many requests in flight");
+        }
+
+        while (true) {
+            int counter = mNextCounter.getAndIncrement() & COUNTER_MASK;
+            Reply reply = new Reply(counter);
+            if (mPending.putIfAbsent(counter, reply) == null) {
+                return reply;
+            }
+        }
+    }
+
+    /**
+     * Sends a request with a newly allocated message counter.
+     * With an {@link IAsyncCommunicator}, this method does not wait for the request to be written
+     * and a failure of writing is reported by the returned reply.
+     *
+     * @param byteCode a request to be sent
+     * @return a {@link Reply} which will be completed when the reply of the request arrives
+     * @throws RuntimeException if failed to write the request to a blocking communicator
+     */
+    public Reply send(ByteCodeFormatter byteCode) {
+        final Reply reply = allocate();
+        byteCode.setMessageCounter(reply.getCounter());
+
+        if (mAsyncCommunicator != null) {
+            // copy the byte code because the formatter may be reused before it is written
+            mAsyncCommunicator.write(byteCode.byteArray(), reply, new CompletionHandler<Void, Reply>() {
+                @Override
+                public void completed(Void result, Reply attachment) {
+                    // the reply will be completed by the receiving loop
+                    attachment.mIsWritten = true;
+                    startReceiving();
+                }
+
+                @Override
+                public void failed(Throwable exc, Reply attachment) {
+                    if (mPending.remove(attachment.mCounter, attachment)) {
+                        attachment.fail(exc);
+                    }
+                }
+            });
+            return reply;
+        }
+
+        try {
+            write(byteCode);
+        } catch (RuntimeException e) {
+            reply.cancel(false);
+            throw e;
+        }
+        return reply;
+    }
+
+    /**
+     * Writes a request which has no reply (e.g., a direct command without a reply).
+     * The request is not interleaved with the ones written by other threads.
+     *
+     * @param byteCode a request to be written
+     */
+    public void write(ByteCodeFormatter byteCode) {
+        mWriteLock.lock();
+        try {
+            byteCode.writeTo(mCommunicator);
+        } finally {
+            mWriteLock.unlock();
+        }
+    }
+
+    /**
+     * Checks whether replies are read asynchronously.
+     *
+     * @return <code>true</code> if this demultiplexer uses an {@link IAsyncCommunicator}
+     */
+    public boolean isAsynchronous() {
+        return mAsyncCommunicator != null;
+    }
+
+    /**
+     * Gets the number of requests whose replies have not arrived yet.
+     *
+     * @return the number of requests in flight
+     */
+    public int getPendingCount() {
+        return mPending.size();
+    }
+
+    /**
+     * Starts reading replies asynchronously unless it has already been started.
+     */
+    private void startReceiving() {
+        if (!mIsReceiving.compareAndSet(false, true)) return;
+
+        mAsyncCommunicator.read(2, null, new CompletionHandler<byte[], Void>() {
+            @Override
+            public void completed(byte[] header, Void attachment) {
+                int numBytes = ((header[1] & 0x00ff) << 8) | (header[0] & 0x00ff);
+                mAsyncCommunicator.read(numBytes, null, new CompletionHandler<byte[], Void>() {
+                    @Override
+                    public void completed(byte[] result, Void attachment) {
+                        dispatch(result);
+                        continueReceiving();
+                    }
+
+                    @Override
+                    public void failed(Throwable exc, Void attachment) {
+                        failAll(exc);
+                    }
+                });
+            }
+
+            @Override
+            public void failed(Throwable exc, Void attachment) {
+                failAll(exc);
+            }
+        });
+    }
+
+    /**
+     * Reads the next reply if any request which has been written is still in flight.
+     */
+    private void continueReceiving() {
+        mIsReceiving.set(false);
+        // a request may have been written after the last reply was dispatched
+        if (hasWrittenRequest()) startReceiving();
+    }
+
+    /**
+     * Checks whether any request in flight has been written.
+     * Requests which are still waiting to be written have no reply to be read yet.
+     *
+     * @return written (<code>true</code>) or not (<code>false</code>)
+     */
+    private boolean hasWrittenRequest() {
+        for (Reply reply : mPending.values()) {
+            if (reply.mIsWritten) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Fails all the requests in flight because replies could not be read.
+     *
+     * @param exc the cause of the failure
+     */
+    private void failAll(Throwable exc) {
+        Log.e(TAG, "Failed to read a reply", exc);
+        for (Integer counter : mPending.keySet()) {
+            Reply reply = mPending.remove(counter);
+            if (reply != null) reply.fail(exc);
+        }
+        continueReceiving();
+    }
+
+    /**
+     * Reads replies from a machine until the specified reply is completed.
+     *
+     * @param target a reply to be waited for
+     */
+    private void receiveUntil(Reply target) {
+        while (!target.isDone()) {
+            mReadLock.lock();
+            try {
+                // another thread may have read the reply while this thread waited for the lock
+                if (target.isDone()) return;
+                dispatch(readData());
+            } finally {
+                mReadLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Reads one reply from a machine.
+     *
+     * @return the returned results (starting with the message counter)
+     */
+    private byte[] readData() {
+        // calculate the size of response by reading 2 bytes
+        mHeader.read(mCommunicator, 2);
+        int numBytes = mHeader.getShort(0) & 0xFFFF;
+
+        // get result (the array is handed to a reply, so it cannot be reused)
+        byte[] result;
+        if (mCommunicator instanceof IBufferedCommunicator) {
+            result = new byte[numBytes];
+            int count = ((IBufferedCommunicator) mCommunicator).read(result, 0, numBytes);
+            if (count < numBytes) result = Arrays.copyOf(result, count);
+        } else {
+            result = mCommunicator.read(numBytes);
+        }
+
+        return result;
+    }
+
+    /**
+     * Completes the request which has the same message counter as a reply.
+     *
+     * @param data a reply read from a machine
+     */
+    private void dispatch(byte[] data) {
+        int counter = ((data[1] & 0x00ff) << 8) | (data[0] & 0x00ff);
+        Reply reply = mPending.remove(counter);
+        if (reply == null) {
+            Log.e(TAG, "Dropped a reply with an unknown message counter: " + counter);
+            return;
+        }
+        reply.complete(data);
+    }
+
+    /**
+     * A reply of a request which is identified by a message counter.
+     * {@link #get()} returns the reply data starting with the message counter (2 bytes) and the status (1 byte).
+     */
+    public class Reply implements Future<byte[]> {
+        private final int mCounter;
+        private final CountDownLatch mLatch = new CountDownLatch(1);
+        private volatile byte[] mData;
+        private volatile Throwable mFailure;
+        private volatile boolean mIsCancelled;
+        // set when the request has been written to an IAsyncCommunicator
+        private volatile boolean mIsWritten;
+        // guards mListeners (a lock instead of a monitor, so virtual threads are not pinned)
+        private final ReentrantLock mListenerLock = new ReentrantLock();
+        private List<Runnable> mListeners = new ArrayList<>();
+
+        private Reply(int counter) {
+            mCounter = counter;
+        }
+
+        /**
+         * Gets the message counter of this reply.
+         *
+         * @return the message counter
+         */
+        public short getCounter() {
+            return (short) mCounter;
+        }
+
+        /**
+         * Adds a listener which is called when this reply is completed, failed or cancelled.
+         * If this reply has already been done, the listener is called immediately on the calling thread.
+         * Otherwise it is called on the thread which completes this reply, so it should not block.
+         *
+         * Note that, with an {@link ICommunicator}, replies are read only while a thread waits for one
+         * with {@link #get()}.
+         *
+         * @param listener a listener to be called
+         */
+        public void addListener(Runnable listener) {
+            mListenerLock.lock();
+            try {
+                if (mListeners != null) {
+                    mListeners.add(listener);
+                    return;
+                }
+            } finally {
+                mListenerLock.unlock();
+            }
+            listener.run();
+        }
+
+        private void complete(byte[] data) {
+            mData = data;
+            done();
+        }
+
+        private void fail(Throwable exc) {
+            mFailure = exc;
+            done();
+        }
+
+        private void done() {
+            List<Runnable> listeners;
+            mListenerLock.lock();
+            try {
+                listeners = mListeners;
+                mListeners = null;
+            } finally {
+                mListenerLock.unlock();
+            }
+            mLatch.countDown();
+            for (Runnable listener : listeners) {
+                listener.run();
+            }
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            if (mPending.remove(mCounter, this)) {
+                mIsCancelled = true;
+                done();
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return mIsCancelled;
+        }
+
+        @Override
+        public boolean isDone() {
+            return mLatch.getCount() == 0;
+        }
+
+        @Override
+        public byte[] get() throws InterruptedException, ExecutionException {
+            if (mAsyncCommunicator != null) {
+                mLatch.await();
+                return getData();
+            }
+
+            try {
+                receiveUntil(this);
+            } catch (RuntimeException e) {
+                throw new ExecutionException(e);
+            }
+            return getData();
+        }
+
+        /**
+         * Waits for this reply. This method reads replies from a machine by itself
+         * only when no other thread is reading them, so the timeout is not strict
+         * while a reply is being read.
+         */
+        @Override
+        public byte[] get(long timeout, TimeUnit unit)
+                throws InterruptedException, ExecutionException, TimeoutException {
+            if (mAsyncCommunicator != null) {
+                if (!mLatch.await(timeout, unit)) {
+                    throw new TimeoutException("No reply for message counter " + mCounter);
+                }
+                return getData();
+            }
+
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+            while (!isDone()) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    throw new TimeoutException("No reply for message counter " + mCounter);
+                }
+                if (mReadLock.tryLock(remaining, TimeUnit.NANOSECONDS)) {
+                    try {
+                        if (!isDone()) dispatch(readData());
+                    } catch (RuntimeException e) {
+                        throw new ExecutionException(e);
+                    } finally {
+                        mReadLock.unlock();
+                    }
+                }
+            }
+            return getData();
+        }
+
+        private byte[] getData() throws ExecutionException {
+            if (mIsCancelled) {
+                throw new CancellationException("The request has been cancelled");
+            }
+            if (mFailure != null) {
+                throw new ExecutionException(mFailure);
+            }
+            return mData;
+        }
+    }
+}
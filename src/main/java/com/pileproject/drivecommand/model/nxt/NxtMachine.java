@@ -25,6 +25,7 @@ import com.pileproject.drivecommand.machine.device.output.Motor;
 import com.pileproject.drivecommand.machine.device.port.DevicePortTypeMismatchException;
 import com.pileproject.drivecommand.machine.device.port.InputPort;
 import com.pileproject.drivecommand.machine.device.port.OutputPort;
+import com.pileproject.drivecommand.model.com.IAsyncCommunicator;
 import com.pileproject.drivecommand.model.com.ICommunicator;
 import com.pileproject.drivecommand.model.nxt.port.NxtInputPort;
 import com.pileproject.drivecommand.model.nxt.port.NxtOutputPort;
@@ -38,6 +39,10 @@ public class NxtMachine extends MachineBase {
         super(new NxtProtocol(comm));
     }
 
+    public NxtMachine(IAsyncCommunicator comm) {
+        super(new NxtProtocol(comm));
+    }
+
     @Override
     public void apply() {
         mProtocol.apply();
@@ -15,10 +15,15 @@
  */
 package com.pileproject.drivecommand.model.nxt;
 
-import com.pileproject.drivecommand.command.CommandBase;
+import com.pileproject.drivecommand.command.TypedCommand;
+import com.pileproject.drivecommand.command.TypedResult;
 import com.pileproject.drivecommand.model.CommandType;
 import com.pileproject.drivecommand.model.ProtocolBase;
+import com.pileproject.drivecommand.model.com.BlockingCommunicator;
+import com.pileproject.drivecommand.model.com.IAsyncCommunicator;
+import com.pileproject.drivecommand.model.com.IBufferedCommunicator;
 import com.pileproject.drivecommand.model.com.ICommunicator;
+import com.pileproject.drivecommand.model.com.ReceiveBuffer;
 
 import java.io.IOException;
 import java.util.HashMap;
@@ -44,81 +49,96 @@ import static com.pileproject.drivecommand.model.nxt.NxtConstants.SWITCH;
  * A protocol class for LEGO MINDSTORMS NXT.
  */
 public class NxtProtocol extends ProtocolBase {
-    private static final String KEY_VALUE = "value";
     private static final String TAG = "NxtProtocol";
     private static final int MAX_RES_LENGTH = 66;
-    private Map<Integer, Byte> mPortTypes;
+    // the size (2 bytes), the type of the command and the opcode precede the parameters
+    private static final int PARAMETER_POSITION = 4;
+    // the sensor types set to the ports in this connection (guarded by mLock)
+    private final Map<Integer, Byte> mPortTypes = new HashMap<>();
+    // reused for every request and reply not to make garbage (guarded by mLock);
+    // each request has a fixed shape, so only its parameters are patched
+    private final byte[] mOutputStateRequest = newRequest(DIRECT_COMMAND_NOREPLY, SET_OUTPUT_STATE, 10);
+    private final byte[] mInputValuesRequest = newRequest(DIRECT_COMMAND_REPLY, GET_INPUT_VALUES, 1);
+    private final byte[] mInputModeRequest = newRequest(DIRECT_COMMAND_NOREPLY, SET_INPUT_MODE, 3);
+    private final InputValues mInputValues = new InputValues();
+    private final ReceiveBuffer mReplyBuffer = new ReceiveBuffer(MAX_RES_LENGTH);
 
     public NxtProtocol(ICommunicator comm) {
         super(comm);
+        registerHandlers();
+    }
+
+    /**
+     * Creates a protocol with an asynchronous communicator.
+     * This protocol waits for each reply, so it uses the communicator through a {@link BlockingCommunicator}.
+     *
+     * @param comm an asynchronous communicator
+     */
+    public NxtProtocol(IAsyncCommunicator comm) {
+        super(new BlockingCommunicator(comm));
+        registerHandlers();
     }
 
     @Override
     public void open() throws IOException {
         mCommunicator.open();
-        mPortTypes = new HashMap<>();
+        forgetPortTypes();
     }
 
     @Override
     public void close() {
+        // closed first, so a command which blocks on the link returns and releases the lock
         mCommunicator.close();
-        mPortTypes = null;
+        forgetPortTypes();
     }
 
-    @Override
-    public Map<String, Object> exec(int port, CommandBase cmd) {
-        Map<String, Object> res = new HashMap<>();
-        CommandType type = cmd.getCommandType();
-        switch (type) {
-            case GET_LIGHT_VALUE: {
+    /**
+     * Forgets the sensor types set to the ports, so they are set again in a new connection.
+     */
+    private void forgetPortTypes() {
+        mLock.lock();
+        try {
+            mPortTypes.clear();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Registers the handlers of the supported commands.
+     */
+    private void registerHandlers() {
+        register(CommandType.GET_LIGHT_VALUE, new CommandHandler() {
+            @Override
+            public void exec(int port, TypedCommand cmd, TypedResult result) {
                 setInputMode(port, LIGHT_ACTIVE, PCTFULLSCALEMODE);
                 InputValues values = getInputValues(port);
-                res.put(KEY_VALUE, values.scaledValue / 10);
-                break;
+                result.setIntValue(values.scaledValue / 10);
             }
-            case GET_SOUND_DB: {
+        });
+        register(CommandType.GET_SOUND_DB, new CommandHandler() {
+            @Override
+            public void exec(int port, TypedCommand cmd, TypedResult result) {
                 setInputMode(port, SOUND_DB, PCTFULLSCALEMODE);
                 InputValues values = getInputValues(port);
-                res.put(KEY_VALUE, values.scaledValue / 10);
-                break;
+                result.setIntValue(values.scaledValue / 10);
             }
-            case GET_TOUCH_TOUCHED: {
+        });
+        register(CommandType.GET_TOUCH_TOUCHED, new CommandHandler() {
+            @Override
+            public void exec(int port, TypedCommand cmd, TypedResult result) {
                 setInputMode(port, SWITCH, BOOLEANMODE);
                 InputValues values = getInputValues(port);
-                res.put(KEY_VALUE, values.scaledValue < 600);
-                break;
+                result.setBooleanValue(values.scaledValue < 600);
             }
-            case SET_MOTOR_SPEED: {
-                Map<String, Object> args = cmd.getArgs();
-                int speed = (Integer) args.get("speed");
-                setOutputState(port, speed, BRAKE + MOTORON + REGULATED,
+        });
+        register(CommandType.SET_MOTOR_SPEED, new CommandHandler() {
+            @Override
+            public void exec(int port, TypedCommand cmd, TypedResult result) {
+                setOutputState(port, cmd.getArg(), BRAKE + MOTORON + REGULATED,
                         REGULATION_MODE_MOTOR_SPEED, 0, MOTOR_RUN_STATE_RUNNING, 0);
-                break;
-            }
-
-            case GET_COLOR_ILLUMINANCE:
-            case GET_COLOR_RGB:
-            case GET_GYRO_ANGLE:
-            case GET_GYRO_RATE:
-            case GET_RANGEFINDER_DIST:
-            case GET_REMOTECONTROLLER_BUTTON:
-            case GET_REMOTECONTROLLER_DIST:
-            case GET_SERVO_ANGLE:
-            case GET_TOUCH_COUNT:
-            case SET_BUZZER_BEEP:
-            case SET_BUZZER_OFF:
-            case SET_BUZZER_ON:
-            case SET_LED_OFF:
-            case SET_LED_ON:
-            case SET_SERVO_ANGLE: {
-                throw new UnsupportedOperationException(type.name() + " Operation hasn't been implemented yet");
             }
-
-            default: {
-                throw new UnsupportedOperationException("This Operation hasn't been implemented yet");
-            }
-        }
-        return res;
+        });
     }
 
     /**
@@ -134,60 +154,80 @@ public class NxtProtocol extends ProtocolBase {
      */
     private void setOutputState(int port, int speed, int mode,
                                 int regulationMode, int turnRatio, int runState, int tachoLimit) {
-        byte[] request = {
-                DIRECT_COMMAND_NOREPLY,
-                SET_OUTPUT_STATE,
-                (byte) port,
-                (byte) speed,
-                (byte) mode,
-                (byte) regulationMode,
-                (byte) turnRatio,
-                (byte) runState,
-                (byte) tachoLimit,
-                (byte) (tachoLimit >>> 8),
-                (byte) (tachoLimit >>> 16),
-                (byte) (tachoLimit >>> 24)
-        };
+        byte[] request = mOutputStateRequest;
+        request[PARAMETER_POSITION] = (byte) port;
+        request[PARAMETER_POSITION + 1] = (byte) speed;
+        request[PARAMETER_POSITION + 2] = (byte) mode;
+        request[PARAMETER_POSITION + 3] = (byte) regulationMode;
+        request[PARAMETER_POSITION + 4] = (byte) turnRatio;
+        request[PARAMETER_POSITION + 5] = (byte) runState;
+        request[PARAMETER_POSITION + 6] = (byte) tachoLimit;
+        request[PARAMETER_POSITION + 7] = (byte) (tachoLimit >>> 8);
+        request[PARAMETER_POSITION + 8] = (byte) (tachoLimit >>> 16);
+        request[PARAMETER_POSITION + 9] = (byte) (tachoLimit >>> 24);
         // send request
         sendData(request);
     }
 
     /**
-     * Sends data to a machine. This method calculates the size of the data and append it to the data.
+     * Makes a request with the size of it, the type of the command and the opcode.
+     * The parameters are set to the returned array before sending it.
+     *
+     * @param commandType the type of the command (e.g., {@link NxtConstants#DIRECT_COMMAND_REPLY})
+     * @param opcode the opcode of the command
+     * @param numParameters the number of the parameter bytes
+     * @return an array which has the size (2 bytes), the type, the opcode and room for the parameters
+     */
+    private static byte[] newRequest(byte commandType, byte opcode, int numParameters) {
+        int length = 2 + numParameters;
+        byte[] data = new byte[PARAMETER_POSITION + numParameters];
+        data[0] = (byte) length;
+        data[1] = (byte) (length >> 8);
+        data[2] = commandType;
+        data[3] = opcode;
+        return data;
+    }
+
+    /**
+     * Sends a request made by {@link #newRequest(byte, byte, int)} to a machine.
+     * If the communicator implements {@link IBufferedCommunicator}, the array is passed without copying.
      *
-     * @param request a request to be sent to a machine
+     * @param data a request which has its size at the head
      */
-    private void sendData(byte[] request) {
-        // Calculate the size of request and append them
-        byte[] data = new byte[request.length + 2];
-        data[0] = (byte) request.length;
-        data[1] = (byte) (request.length >> 8);
-        System.arraycopy(request, 0, data, 2, request.length);
-
-        // Send request
-        mCommunicator.write(data);
+    private void sendData(byte[] data) {
+        if (mCommunicator instanceof IBufferedCommunicator) {
+            ((IBufferedCommunicator) mCommunicator).write(data, 0, data.length);
+        } else {
+            // the array is reused for the next request
+            mCommunicator.write(data.clone());
+        }
     }
 
+    /**
+     * Gets the values of an input device.
+     *
+     * @param port the port of a device (0 ~ 3)
+     * @return the values of the device (this object is overwritten by the next call)
+     */
     private InputValues getInputValues(int port) {
-        byte[] request = {
-                DIRECT_COMMAND_REPLY,
-                GET_INPUT_VALUES,
-                (byte) port
-        };
+        byte[] request = mInputValuesRequest;
+        request[PARAMETER_POSITION] = (byte) port;
         sendData(request);
-        byte[] reply = mCommunicator.read(MAX_RES_LENGTH);
-        InputValues inputValues = new InputValues();
-        inputValues.inputPort = reply[3];
+        // decode the reply in place
+        ReceiveBuffer reply = mReplyBuffer;
+        reply.read(mCommunicator, MAX_RES_LENGTH);
+        InputValues inputValues = mInputValues;
+        inputValues.inputPort = reply.get(3);
         // 0 is false, 1 is true
-        inputValues.valid = (reply[4] != 0);
+        inputValues.valid = (reply.get(4) != 0);
         // 0 is false, 1 is true
-        inputValues.isCalibrated = (reply[5] == 0);
-        inputValues.sensorType = reply[6];
-        inputValues.sensorMode = reply[7];
-        inputValues.rawADValue = (short) ((0xFF & reply[8]) | ((0xFF & reply[9]) << 8));
-        inputValues.normalizedADValue = (short) ((0xFF & reply[10]) | ((0xFF & reply[11]) << 8));
-        inputValues.scaledValue = (short) ((0xFF & reply[12]) | ((0xFF & reply[13]) << 8));
-        inputValues.calibratedValue = (short) ((0xFF & reply[14]) | ((0xFF & reply[15]) << 8));
+        inputValues.isCalibrated = (reply.get(5) == 0);
+        inputValues.sensorType = reply.get(6);
+        inputValues.sensorMode = reply.get(7);
+        inputValues.rawADValue = reply.getShort(8);
+        inputValues.normalizedADValue = reply.getShort(10);
+        inputValues.scaledValue = reply.getShort(12);
+        inputValues.calibratedValue = reply.getShort(14);
 
         return inputValues;
     }
@@ -200,25 +240,27 @@ public class NxtProtocol extends ProtocolBase {
      * @param sensorMode see {@link NxtConstants}
      */
     public void setInputMode(int port, int sensorType, int sensorMode) {
-        // if the port has not been initialized yet, set the mode
-        if (!mPortTypes.containsKey(port) || sensorType != mPortTypes.get(port)) {
-            // save the port setting to a map and set the mode of sensor
-            mPortTypes.put(port, (byte) sensorType);
-
-            byte[] request = {
-                    DIRECT_COMMAND_NOREPLY,
-                    SET_INPUT_MODE,
-                    (byte) port,
-                    (byte) sensorType,
-                    (byte) sensorMode
-            };
-
-            sendData(request);
-            getInputValues(port); // skip the first value (it may be invalid)
-
-            // sound sensor needs more initializing
-            // time based on our experiments
-            if (sensorType == SOUND_DB) waitMillSeconds(250);
+        // the requests are shared with the commands, which hold the same lock
+        mLock.lock();
+        try {
+            // if the port has not been initialized yet, set the mode
+            if (!mPortTypes.containsKey(port) || sensorType != mPortTypes.get(port)) {
+                // save the port setting to a map and set the mode of sensor
+                mPortTypes.put(port, (byte) sensorType);
+
+                byte[] request = mInputModeRequest;
+                request[PARAMETER_POSITION] = (byte) port;
+                request[PARAMETER_POSITION + 1] = (byte) sensorType;
+                request[PARAMETER_POSITION + 2] = (byte) sensorMode;
+                sendData(request);
+                getInputValues(port); // skip the first value (it may be invalid)
+
+                // sound sensor needs more initializing
+                // time based on our experiments
+                if (sensorType == SOUND_DB) waitMillSeconds(250);
+            }
+        } finally {
+            mLock.unlock();
         }
     }
 
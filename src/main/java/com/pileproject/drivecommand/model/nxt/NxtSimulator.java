@@ -0,0 +1,488 @@
+/**
+ * Copyright (C) 2011-2017 The PILE Developers <pile-dev@googlegroups.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pileproject.drivecommand.model.nxt;
+
+import com.pileproject.drivecommand.model.com.LinkModel;
+import com.pileproject.drivecommand.model.com.SimulatorBase;
+import com.pileproject.drivecommand.util.Log;
+
+import static com.pileproject.drivecommand.model.nxt.NxtConstants.BOOLEANMODE;
+import static com.pileproject.drivecommand.model.nxt.NxtConstants.DIRECT_COMMAND_NOREPLY;
+import static com.pileproject.drivecommand.model.nxt.NxtConstants.DIRECT_COMMAND_REPLY;
+import static com.pileproject.drivecommand.model.nxt.NxtConstants.GET_BATTERY_LEVEL;
+import static com.pileproject.drivecommand.model.nxt.NxtConstants.GET_INPUT_VALUES;
+import static com.pileproject.drivecommand.model.nxt.NxtConstants.GET_OUTPUT_STATE;
+import static com.pileproject.drivecommand.model.nxt.NxtConstants.KEEP_ALIVE;
+import static com.pileproject.drivecommand.model.nxt.NxtConstants.MODEMASK;
+import static com.pileproject.drivecommand.model.nxt.NxtConstants.MOTORON;
+import static com.pileproject.drivecommand.model.nxt.NxtConstants.MOTOR_RUN_STATE_IDLE;
+import static com.pileproject.drivecommand.model.nxt.NxtConstants.PCTFULLSCALEMODE;
+import static com.pileproject.drivecommand.model.nxt.NxtConstants.PERIODCOUNTERMODE;
+import static com.pileproject.drivecommand.model.nxt.NxtConstants.PLAY_TONE;
+import static com.pileproject.drivecommand.model.nxt.NxtConstants.REPLY_COMMAND;
+import static com.pileproject.drivecommand.model.nxt.NxtConstants.RESET_MOTOR_POSITION;
+import static com.pileproject.drivecommand.model.nxt.NxtConstants.RESET_SCALED_INPUT_VALUE;
+import static com.pileproject.drivecommand.model.nxt.NxtConstants.SET_INPUT_MODE;
+import static com.pileproject.drivecommand.model.nxt.NxtConstants.SET_OUTPUT_STATE;
+import static com.pileproject.drivecommand.model.nxt.NxtConstants.STOP_SOUND_PLAYBACK;
+import static com.pileproject.drivecommand.model.nxt.NxtConstants.SYSTEM_COMMAND_NOREPLY;
+import static com.pileproject.drivecommand.model.nxt.NxtConstants.TRANSITIONCNTMODE;
+
+/**
+ * A simulated LEGO MINDSTORMS NXT which works as a communicator, so protocols can be
+ * benchmarked without a brick.
+ * This class executes the direct commands PLAY_TONE, SET_OUTPUT_STATE, SET_INPUT_MODE, GET_OUTPUT_STATE,
+ * GET_INPUT_VALUES, RESET_SCALED_INPUT_VALUE, RESET_MOTOR_POSITION, GET_BATTERY_LEVEL,
+ * STOP_SOUND_PLAYBACK and KEEP_ALIVE, and keeps the state of virtual motors and sensors.
+ * The other commands are replied with an error status.
+ *
+ * Requests start with the length (2 bytes) as {@link NxtProtocol} sends them.
+ * Replies start with the reply type (0x02) without the length, which is how {@link NxtProtocol} reads them
+ * (e.g., a reply of GET_INPUT_VALUES is 16 bytes and fits in its 66-byte buffer).
+ * Replies are delayed by a {@link LinkModel} (see {@link SimulatorBase}).
+ *
+ * The value of a sensor is set as a raw A/D value by {@link #setRawValue(int, int)} and scaled
+ * according to the mode set by SET_INPUT_MODE. A sensor is reported as invalid until it is read once
+ * after its mode is set, and the number of SET_INPUT_MODE commands is counted
+ * (see {@link #getInputModeCount()}) to measure the cost of re-initialization.
+ *
+ * This class is thread-safe.
+ */
+public class NxtSimulator extends SimulatorBase {
+    private static final String TAG = "NxtSimulator";
+
+    /** The rotation speed of a motor at full power [deg/sec]. */
+    public static final float DEGREES_PER_SECOND = 1020.0f;
+    /** The voltage of the battery returned by GET_BATTERY_LEVEL [mV]. */
+    public static final int BATTERY_MILLIVOLTS = 8000;
+
+    private static final int NUM_INPUT_PORTS = 4;
+    private static final int NUM_OUTPUT_PORTS = 3;
+    private static final int ALL_OUTPUT_PORTS = 0xFF;
+    private static final int MAX_RAW_VALUE = 1023;
+    private static final int SLEEP_TIME_MILLIS = 10 * 60 * 1000;
+    // status bytes
+    private static final byte STATUS_SUCCESS = 0x00;
+    private static final byte STATUS_UNKNOWN_OPCODE = (byte) 0xBE;
+    private static final byte STATUS_BAD_PORT = (byte) 0xF0;
+
+    // guarded by mLock
+    private final Sensor[] mSensors = new Sensor[NUM_INPUT_PORTS];
+    private final Motor[] mMotors = new Motor[NUM_OUTPUT_PORTS];
+    private int mInputModeCount;
+    private int mToneCount;
+    private int mLastToneFrequency;
+
+    /**
+     * Creates a simulator which replies without delay.
+     */
+    public NxtSimulator() {
+        this(LinkModel.NONE);
+    }
+
+    /**
+     * @param link the model of the delay of the link
+     */
+    public NxtSimulator(LinkModel link) {
+        super(link);
+        for (int i = 0; i < NUM_INPUT_PORTS; i++) {
+            mSensors[i] = new Sensor();
+        }
+        for (int i = 0; i < NUM_OUTPUT_PORTS; i++) {
+            mMotors[i] = new Motor();
+        }
+    }
+
+    /**
+     * Sets the raw A/D value of a sensor. A change across the middle of the range is counted
+     * as a transition (TRANSITIONCNTMODE and PERIODCOUNTERMODE).
+     *
+     * @param port the port of a sensor (0 ~ 3)
+     * @param raw the raw value (0 ~ 1023)
+     */
+    public void setRawValue(int port, int raw) {
+        mLock.lock();
+        try {
+            mSensors[port].setRaw(Math.max(0, Math.min(MAX_RAW_VALUE, raw)));
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Gets the power of a motor.
+     *
+     * @param port the port of a motor (0 ~ 2)
+     * @return the power (-100 ~ 100), or 0 if the motor is not running
+     */
+    public int getMotorPower(int port) {
+        mLock.lock();
+        try {
+            Motor motor = mMotors[port];
+            return motor.isRunning() ? motor.power : 0;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Gets the rotation of a motor since the start.
+     *
+     * @param port the port of a motor (0 ~ 2)
+     * @return the rotation [deg]
+     */
+    public float getMotorDegrees(int port) {
+        mLock.lock();
+        try {
+            Motor motor = mMotors[port];
+            motor.update(System.nanoTime());
+            return motor.tachoCount;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Gets the number of SET_INPUT_MODE commands which have been executed.
+     *
+     * @return the number of SET_INPUT_MODE commands
+     */
+    public int getInputModeCount() {
+        mLock.lock();
+        try {
+            return mInputModeCount;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Gets the number of tones which have been played.
+     *
+     * @return the number of tones
+     */
+    public int getToneCount() {
+        mLock.lock();
+        try {
+            return mToneCount;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Gets the frequency of the last tone.
+     *
+     * @return the frequency [Hz]
+     */
+    public int getLastToneFrequency() {
+        mLock.lock();
+        try {
+            return mLastToneFrequency;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    protected int getRequestLength(byte[] data, int offset, int available) {
+        if (available < 2) return -1;
+        // the length field (2 bytes) does not count itself
+        return 2 + ((data[offset] & 0xFF) | ((data[offset + 1] & 0xFF) << 8));
+    }
+
+    /**
+     * Executes a direct command and makes its reply.
+     */
+    @Override
+    protected byte[] execute(byte[] data, int offset, int length) {
+        if (length < 4) {
+            Log.e(TAG, "Too short command: " + length + " bytes");
+            countFailure();
+            return null;
+        }
+        byte type = data[offset + 2];
+        byte opcode = data[offset + 3];
+        Request request = new Request(data, offset + 4, offset + length);
+
+        byte[] reply;
+        try {
+            if (type == DIRECT_COMMAND_REPLY || type == DIRECT_COMMAND_NOREPLY) {
+                reply = executeDirectCommand(opcode, request, System.nanoTime());
+            } else {
+                reply = newReply(opcode, STATUS_UNKNOWN_OPCODE, 0);
+            }
+        } catch (IndexOutOfBoundsException e) {
+            Log.e(TAG, "Too short command: " + opcode, e);
+            reply = newReply(opcode, STATUS_UNKNOWN_OPCODE, 0);
+        }
+
+        if (reply[2] != STATUS_SUCCESS) countFailure();
+        boolean isReplied = (type != DIRECT_COMMAND_NOREPLY && type != SYSTEM_COMMAND_NOREPLY);
+        return isReplied ? reply : null;
+    }
+
+    /**
+     * Executes a direct command (must be called with the lock).
+     *
+     * @param opcode the opcode of the command
+     * @param request the parameters of the command
+     * @param now the current time [nsec]
+     * @return the reply
+     */
+    private byte[] executeDirectCommand(byte opcode, Request request, long now) {
+        switch (opcode) {
+            case PLAY_TONE: {
+                mLastToneFrequency = request.readShort();
+                request.readShort(); // duration
+                mToneCount++;
+                return newReply(opcode, STATUS_SUCCESS, 0);
+            }
+            case STOP_SOUND_PLAYBACK:
+                return newReply(opcode, STATUS_SUCCESS, 0);
+            case SET_OUTPUT_STATE: {
+                int port = request.readUnsignedByte();
+                if (port != ALL_OUTPUT_PORTS && port >= NUM_OUTPUT_PORTS) {
+                    return newReply(opcode, STATUS_BAD_PORT, 0);
+                }
+                int power = request.readByte();
+                int mode = request.readUnsignedByte();
+                int regulationMode = request.readUnsignedByte();
+                int turnRatio = request.readByte();
+                int runState = request.readUnsignedByte();
+                long tachoLimit = request.readInt() & 0xFFFFFFFFL;
+                for (int i = 0; i < NUM_OUTPUT_PORTS; i++) {
+                    if (port == ALL_OUTPUT_PORTS || port == i) {
+                        mMotors[i].setState(power, mode, regulationMode, turnRatio, runState, tachoLimit, now);
+                    }
+                }
+                return newReply(opcode, STATUS_SUCCESS, 0);
+            }
+            case GET_OUTPUT_STATE: {
+                int port = request.readUnsignedByte();
+                if (port >= NUM_OUTPUT_PORTS) return newReply(opcode, STATUS_BAD_PORT, 0);
+                Motor motor = mMotors[port];
+                motor.update(now);
+                byte[] reply = newReply(opcode, STATUS_SUCCESS, 22);
+                reply[3] = (byte) port;
+                reply[4] = (byte) motor.power;
+                reply[5] = (byte) motor.mode;
+                reply[6] = (byte) motor.regulationMode;
+                reply[7] = (byte) motor.turnRatio;
+                reply[8] = (byte) motor.runState;
+                putInt(reply, 9, (int) motor.tachoLimit);
+                putInt(reply, 13, (int) motor.tachoCount);
+                putInt(reply, 17, (int) motor.blockTachoCount);
+                putInt(reply, 21, (int) motor.rotationCount);
+                return reply;
+            }
+            case RESET_MOTOR_POSITION: {
+                int port = request.readUnsignedByte();
+                boolean isRelative = request.readByte() != 0;
+                if (port >= NUM_OUTPUT_PORTS) return newReply(opcode, STATUS_BAD_PORT, 0);
+                Motor motor = mMotors[port];
+                motor.update(now);
+                if (isRelative) motor.blockTachoCount = 0;
+                else motor.rotationCount = 0;
+                return newReply(opcode, STATUS_SUCCESS, 0);
+            }
+            case SET_INPUT_MODE: {
+                int port = request.readUnsignedByte();
+                if (port >= NUM_INPUT_PORTS) return newReply(opcode, STATUS_BAD_PORT, 0);
+                Sensor sensor = mSensors[port];
+                sensor.type = request.readUnsignedByte();
+                sensor.mode = request.readUnsignedByte();
+                sensor.isValid = false;
+                sensor.transitions = 0;
+                mInputModeCount++;
+                return newReply(opcode, STATUS_SUCCESS, 0);
+            }
+            case GET_INPUT_VALUES: {
+                int port = request.readUnsignedByte();
+                if (port >= NUM_INPUT_PORTS) return newReply(opcode, STATUS_BAD_PORT, 0);
+                Sensor sensor = mSensors[port];
+                int scaled = sensor.getScaledValue();
+                byte[] reply = newReply(opcode, STATUS_SUCCESS, 13);
+                reply[3] = (byte) port;
+                reply[4] = (byte) (sensor.isValid ? 1 : 0);
+                reply[5] = 0; // not calibrated
+                reply[6] = (byte) sensor.type;
+                reply[7] = (byte) sensor.mode;
+                putShort(reply, 8, sensor.raw);
+                putShort(reply, 10, sensor.raw);
+                putShort(reply, 12, scaled);
+                putShort(reply, 14, scaled);
+                // the first value after SET_INPUT_MODE is invalid
+                sensor.isValid = true;
+                return reply;
+            }
+            case RESET_SCALED_INPUT_VALUE: {
+                int port = request.readUnsignedByte();
+                if (port >= NUM_INPUT_PORTS) return newReply(opcode, STATUS_BAD_PORT, 0);
+                mSensors[port].transitions = 0;
+                return newReply(opcode, STATUS_SUCCESS, 0);
+            }
+            case GET_BATTERY_LEVEL: {
+                byte[] reply = newReply(opcode, STATUS_SUCCESS, 2);
+                putShort(reply, 3, BATTERY_MILLIVOLTS);
+                return reply;
+            }
+            case KEEP_ALIVE: {
+                byte[] reply = newReply(opcode, STATUS_SUCCESS, 4);
+                putInt(reply, 3, SLEEP_TIME_MILLIS);
+                return reply;
+            }
+            default:
+                Log.e(TAG, "Unsupported opcode: " + opcode);
+                return newReply(opcode, STATUS_UNKNOWN_OPCODE, 0);
+        }
+    }
+
+    /**
+     * Makes a reply which has the header (the reply type, the opcode and the status).
+     *
+     * @param opcode the opcode of the request
+     * @param status the status of the reply
+     * @param length the length of the rest of the reply
+     * @return the reply
+     */
+    private static byte[] newReply(byte opcode, byte status, int length) {
+        byte[] reply = new byte[3 + length];
+        reply[0] = REPLY_COMMAND;
+        reply[1] = opcode;
+        reply[2] = status;
+        return reply;
+    }
+
+    /**
+     * A reader of the parameters of a command.
+     */
+    private static class Request {
+        private final byte[] mData;
+        private final int mEnd;
+        private int mPosition;
+
+        Request(byte[] data, int start, int end) {
+            mData = data;
+            mPosition = start;
+            mEnd = end;
+        }
+
+        int readByte() {
+            if (mPosition >= mEnd) throw new IndexOutOfBoundsException("Unexpected end of a command");
+            return mData[mPosition++];
+        }
+
+        int readUnsignedByte() {
+            return readByte() & 0xFF;
+        }
+
+        int readShort() {
+            return readUnsignedByte() | (readUnsignedByte() << 8);
+        }
+
+        int readInt() {
+            return readShort() | (readShort() << 16);
+        }
+    }
+
+    /**
+     * The state of a sensor.
+     */
+    private static class Sensor {
+        int type;
+        int mode;
+        int raw = MAX_RAW_VALUE;
+        boolean isValid;
+        int transitions;
+
+        void setRaw(int raw) {
+            // a low value means "on" (e.g., a pressed touch sensor)
+            if (isOn(this.raw) != isOn(raw)) transitions++;
+            this.raw = raw;
+        }
+
+        int getScaledValue() {
+            switch ((byte) (mode & MODEMASK)) {
+                case BOOLEANMODE:
+                    return isOn(raw) ? 1 : 0;
+                case TRANSITIONCNTMODE:
+                    return transitions;
+                case PERIODCOUNTERMODE:
+                    return transitions / 2;
+                case PCTFULLSCALEMODE:
+                    return (MAX_RAW_VALUE - raw) * 100 / MAX_RAW_VALUE;
+                default:
+                    return raw;
+            }
+        }
+
+        private static boolean isOn(int raw) {
+            return raw < MAX_RAW_VALUE / 2;
+        }
+    }
+
+    /**
+     * The state of a motor. The rotation is integrated when the state changes and when it is read,
+     * and the motor stops when it has rotated by the tacho limit.
+     */
+    private static class Motor {
+        int power;
+        int mode;
+        int regulationMode;
+        int turnRatio;
+        int runState = MOTOR_RUN_STATE_IDLE;
+        long tachoLimit;
+        float tachoCount;
+        float blockTachoCount;
+        float rotationCount;
+        float limitStart;
+        long lastUpdate = System.nanoTime();
+
+        boolean isRunning() {
+            return (mode & MOTORON) != 0 && runState != MOTOR_RUN_STATE_IDLE;
+        }
+
+        void update(long now) {
+            if (isRunning()) {
+                float delta = DEGREES_PER_SECOND * power / 100.0f * (now - lastUpdate) / 1e9f;
+                if (tachoLimit > 0) {
+                    float left = tachoLimit - Math.abs(tachoCount - limitStart);
+                    if (Math.abs(delta) >= left) {
+                        delta = Math.signum(delta) * Math.max(left, 0);
+                        runState = MOTOR_RUN_STATE_IDLE;
+                    }
+                }
+                tachoCount += delta;
+                blockTachoCount += delta;
+                rotationCount += delta;
+            }
+            lastUpdate = now;
+        }
+
+        void setState(int power, int mode, int regulationMode, int turnRatio, int runState,
+                      long tachoLimit, long now) {
+            update(now);
+            this.power = Math.max(-100, Math.min(100, power));
+            this.mode = mode;
+            this.regulationMode = regulationMode;
+            this.turnRatio = turnRatio;
+            this.runState = runState;
+            this.tachoLimit = tachoLimit;
+            limitStart = tachoCount;
+        }
+    }
+}
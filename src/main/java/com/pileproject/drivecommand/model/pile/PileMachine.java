@@ -24,6 +24,7 @@ import com.pileproject.drivecommand.machine.device.output.Motor;
 import com.pileproject.drivecommand.machine.device.port.DevicePortTypeMismatchException;
 import com.pileproject.drivecommand.machine.device.port.InputPort;
 import com.pileproject.drivecommand.machine.device.port.OutputPort;
+import com.pileproject.drivecommand.model.com.IAsyncCommunicator;
 import com.pileproject.drivecommand.model.com.ICommunicator;
 import com.pileproject.drivecommand.model.pile.port.PileInputPort;
 
@@ -35,6 +36,10 @@ public class PileMachine extends MachineBase {
         super(new PileProtocol(comm));
     }
 
+    public PileMachine(IAsyncCommunicator comm) {
+        super(new PileProtocol(comm));
+    }
+
     @Override
     public void apply() {
         mProtocol.apply();
@@ -15,42 +15,78 @@
  */
 package com.pileproject.drivecommand.model.pile;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
+import com.pileproject.drivecommand.model.com.IBufferedCommunicator;
+import com.pileproject.drivecommand.model.com.ICommunicator;
+import com.pileproject.drivecommand.util.Log;
+
+import java.util.Arrays;
 
 /**
  * A formatter class for packets of PILE machines.
+ *
+ * A packet is written directly into an internal array, which is kept by {@link #reset(PileConstants.CommandTypes)},
+ * so a formatter can be reused for many packets without making garbage.
+ * This class is not thread-safe.
  */
 public class PilePacketFormatter {
-    private ByteArrayOutputStream mByteStream;
+    private static final String TAG = "PilePacketFormatter";
+    private static final int DEFAULT_CAPACITY = 16;
+    // the length (1 byte) precedes the type, and it is set by calculateChecksum()
+    private static final int TYPE_POSITION = 1;
+    private byte[] mBuffer;
+    private int mLength;
     private boolean mIsValid;
     private boolean mIsFixed;
 
     public PilePacketFormatter(PileConstants.CommandTypes type) {
-        mByteStream = new ByteArrayOutputStream();
-        mByteStream.write(type.value());
-        mIsValid = false;
-        mIsFixed = false;
+        mBuffer = new byte[DEFAULT_CAPACITY];
+        reset(type);
     }
 
     public PilePacketFormatter(byte[] byteArray) {
-        mByteStream = new ByteArrayOutputStream();
-        try {
-            byte checksum = 0x00;
-            for (int i = 0; i < byteArray.length - 1; i++)
-                checksum ^= byteArray[i];
-            if (checksum != byteArray[byteArray.length - 1])
-                throw new IOException("Invalid Checksum");
-            mByteStream.write(byteArray);
+        if (hasValidChecksum(byteArray, byteArray.length)) {
+            mBuffer = Arrays.copyOf(byteArray, byteArray.length);
+            mLength = byteArray.length;
             mIsValid = true;
-        } catch (IOException e) {
-            e.printStackTrace();
-            mByteStream = new ByteArrayOutputStream();
+        } else {
+            Log.e(TAG, "Invalid Checksum");
+            mBuffer = new byte[DEFAULT_CAPACITY];
+            mLength = 0;
             mIsValid = false;
         }
         mIsFixed = true;
     }
 
+    /**
+     * Clears the packet to reuse this formatter for a new one. The internal array is kept.
+     *
+     * @param type the type of the new packet
+     * @return this formatter
+     */
+    public PilePacketFormatter reset(PileConstants.CommandTypes type) {
+        mBuffer[TYPE_POSITION] = (byte) type.value();
+        mLength = TYPE_POSITION + 1;
+        mIsValid = false;
+        mIsFixed = false;
+        return this;
+    }
+
+    /**
+     * Checks the checksum of a received packet without copying it.
+     *
+     * @param packet an array which has a packet at its head
+     * @param length the length of the packet
+     * @return valid (<code>true</code>) or (<code>false</code>)
+     */
+    public static boolean hasValidChecksum(byte[] packet, int length) {
+        if (length < 1)
+            return false;
+        byte checksum = 0x00;
+        for (int i = 0; i < length - 1; i++)
+            checksum ^= packet[i];
+        return checksum == packet[length - 1];
+    }
+
     /**
      * Sets a data byte to the packet.
      *
@@ -59,7 +95,8 @@ public class PilePacketFormatter {
     public void setDataByte(byte dataByte) {
         if (mIsFixed)
             return;
-        mByteStream.write((int) dataByte);
+        ensureCapacity(1);
+        mBuffer[mLength++] = dataByte;
     }
 
     /**
@@ -68,34 +105,47 @@ public class PilePacketFormatter {
     public void calculateChecksum() {
         if (mIsFixed)
             return;
-        byte[] dataArray = mByteStream.toByteArray();
-        int size = mByteStream.size() + 2; // (+2 means checksum)
-        ByteArrayOutputStream byteStream = new ByteArrayOutputStream(size);
-        byte checksum = (byte) (size & 0xFF);
+        ensureCapacity(1);
+        int size = mLength + 1; // (+1 means checksum)
         // Length
-        byteStream.write(size);
-        // Type, Data
-        for (byte b : dataArray) {
-            checksum ^= b;
-            byteStream.write(b);
-        }
-        // Checksum
-        byteStream.write(checksum);
-        // Swap
-        mByteStream = byteStream;
+        mBuffer[0] = (byte) (size & 0xFF);
+        // Checksum of Length, Type and Data
+        byte checksum = 0x00;
+        for (int i = 0; i < mLength; i++)
+            checksum ^= mBuffer[i];
+        mBuffer[mLength++] = checksum;
         mIsValid = true;
         mIsFixed = true;
     }
 
     /**
      * Returns the packet in a byte array format.
+     * This method copies the packet. Use {@link #writeTo(ICommunicator)} to avoid the copy.
      *
      * @return a packet in a byte array
      */
     public byte[] byteArray() {
         if (!mIsValid)
             return null;
-        return mByteStream.toByteArray();
+        return Arrays.copyOf(mBuffer, mLength);
+    }
+
+    /**
+     * Writes the packet to a machine.
+     * If the communicator implements {@link IBufferedCommunicator},
+     * the internal array is passed without copying.
+     *
+     * @param comm a communicator to write to
+     * @throws IllegalStateException if the packet is not valid (e.g., the checksum has not been calculated)
+     */
+    public void writeTo(ICommunicator comm) {
+        if (!mIsValid)
+            throw new IllegalStateException("The packet is not valid");
+        if (comm instanceof IBufferedCommunicator) {
+            ((IBufferedCommunicator) comm).write(mBuffer, 0, mLength);
+        } else {
+            comm.write(byteArray());
+        }
     }
 
     /**
@@ -106,10 +156,7 @@ public class PilePacketFormatter {
     public byte[] data() {
         if (!mIsValid)
             return null;
-        byte[] src = mByteStream.toByteArray();
-        byte[] dst = new byte[src.length - 3];
-        System.arraycopy(src, 2, dst, 0, src.length - 3);
-        return dst;
+        return Arrays.copyOfRange(mBuffer, 2, mLength - 1);
     }
 
     /**
@@ -129,4 +176,10 @@ public class PilePacketFormatter {
     public boolean isFixed() {
         return mIsFixed;
     }
+
+    private void ensureCapacity(int size) {
+        if (mLength + size > mBuffer.length) {
+            mBuffer = Arrays.copyOf(mBuffer, Math.max(mLength + size, mBuffer.length * 2));
+        }
+    }
 }
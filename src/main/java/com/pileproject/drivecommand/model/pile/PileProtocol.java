@@ -15,25 +15,43 @@
  */
 package com.pileproject.drivecommand.model.pile;
 
-import com.pileproject.drivecommand.command.CommandBase;
+import com.pileproject.drivecommand.command.TypedCommand;
+import com.pileproject.drivecommand.command.TypedResult;
 import com.pileproject.drivecommand.model.CommandType;
 import com.pileproject.drivecommand.model.ProtocolBase;
+import com.pileproject.drivecommand.model.com.BlockingCommunicator;
+import com.pileproject.drivecommand.model.com.IAsyncCommunicator;
 import com.pileproject.drivecommand.model.com.ICommunicator;
+import com.pileproject.drivecommand.model.com.ReceiveBuffer;
+import com.pileproject.drivecommand.util.Log;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 /**
  * A protocol class for PILE machines.
  */
 public class PileProtocol extends ProtocolBase {
-    private static final String KEY_VALUE = "value";
     private static final String TAG = "PileProtocol";
+    private static final int ACK_LENGTH = 4;
+    // reused for every request and reply not to make garbage (guarded by mLock)
+    private final PilePacketFormatter mPacket = new PilePacketFormatter(PileConstants.CommandTypes.MOVE);
+    private final ReceiveBuffer mReplyBuffer = new ReceiveBuffer(ACK_LENGTH);
 
     public PileProtocol(ICommunicator comm) {
         super(comm);
+        registerHandlers();
+    }
+
+    /**
+     * Creates a protocol with an asynchronous communicator.
+     * This protocol waits for each reply, so it uses the communicator through a {@link BlockingCommunicator}.
+     *
+     * @param comm an asynchronous communicator
+     */
+    public PileProtocol(IAsyncCommunicator comm) {
+        super(new BlockingCommunicator(comm));
+        registerHandlers();
     }
 
     @Override
@@ -46,91 +64,105 @@ public class PileProtocol extends ProtocolBase {
         mCommunicator.close();
     }
 
-    @Override
-    public Map<String, Object> exec(int port, CommandBase cmd) {
-        Map<String, Object> res = new HashMap<>();
-        CommandType type = cmd.getCommandType();
-        switch (type) {
-            case GET_LIGHT_VALUE: {
+    /**
+     * Registers the handlers of the supported commands.
+     */
+    private void registerHandlers() {
+        register(CommandType.GET_LIGHT_VALUE, new CommandHandler() {
+            @Override
+            public void exec(int port, TypedCommand cmd, TypedResult result) {
                 int response = requestOneByte(port, PileConstants.CommandTypes.LIGHTSENSOR);
-                res.put(KEY_VALUE, response);
-                break;
+                result.setIntValue(response);
             }
-            case GET_RANGEFINDER_DIST: {
+        });
+        register(CommandType.GET_RANGEFINDER_DIST, new CommandHandler() {
+            @Override
+            public void exec(int port, TypedCommand cmd, TypedResult result) {
                 int response = requestOneByte(port, PileConstants.CommandTypes.DISTANCE);
-                res.put(KEY_VALUE, 0xFF - response);
-                break;
+                result.setIntValue(0xFF - response);
             }
-            case GET_TOUCH_TOUCHED: {
+        });
+        register(CommandType.GET_TOUCH_TOUCHED, new CommandHandler() {
+            @Override
+            public void exec(int port, TypedCommand cmd, TypedResult result) {
                 int response = requestOneByte(port, PileConstants.CommandTypes.TOUCH);
-                res.put(KEY_VALUE, (response == 1));
-                break;
+                result.setBooleanValue(response == 1);
             }
-            case SET_MOTOR_SPEED: {
-                Map<String, Object> args = cmd.getArgs();
-                int speed = (Integer) args.get("speed");
+        });
+        register(CommandType.SET_MOTOR_SPEED, new CommandHandler() {
+            @Override
+            public void exec(int port, TypedCommand cmd, TypedResult result) {
+                int speed = cmd.getArg();
                 if (speed > 100 || speed < -100) {
-                    throw new UnsupportedOperationException(type.name() + "Speed is out of range: " + speed);
+                    throw new UnsupportedOperationException(
+                            CommandType.SET_MOTOR_SPEED.name() + "Speed is out of range: " + speed);
                 }
                 boolean ack = setMotor(port, speed);
-                res.put(KEY_VALUE, (ack) ? 1 : 0);
-                break;
+                result.setIntValue((ack) ? 1 : 0);
+                if (!ack) result.setRejected();
             }
-            case SET_LED_OFF: {
+        });
+        register(CommandType.SET_LED_OFF, new CommandHandler() {
+            @Override
+            public void exec(int port, TypedCommand cmd, TypedResult result) {
                 boolean ack = switchLed(false);
-                res.put(KEY_VALUE, (ack) ? 1 : 0);
-                break;
+                result.setIntValue((ack) ? 1 : 0);
+                if (!ack) result.setRejected();
             }
-            case SET_LED_ON: {
+        });
+        register(CommandType.SET_LED_ON, new CommandHandler() {
+            @Override
+            public void exec(int port, TypedCommand cmd, TypedResult result) {
                 boolean ack = switchLed(true);
-                res.put(KEY_VALUE, (ack) ? 1 : 0);
-                break;
-            }
-
-            case GET_TOUCH_COUNT:
-            case GET_COLOR_ILLUMINANCE:
-            case GET_COLOR_RGB:
-            case GET_GYRO_ANGLE:
-            case GET_GYRO_RATE:
-            case GET_REMOTECONTROLLER_BUTTON:
-            case GET_REMOTECONTROLLER_DIST:
-            case GET_SERVO_ANGLE:
-            case GET_SOUND_DB:
-            case SET_BUZZER_BEEP:
-            case SET_BUZZER_OFF:
-            case SET_BUZZER_ON:
-            case SET_SERVO_ANGLE: {
-                throw new UnsupportedOperationException(type.name() + " Operation hasn't been implemented yet");
+                result.setIntValue((ack) ? 1 : 0);
+                if (!ack) result.setRejected();
             }
-
-            default: {
-                throw new UnsupportedOperationException("This Operation hasn't been implemented yet");
-            }
-        }
-        return res;
+        });
     }
 
     private int requestOneByte(int port, PileConstants.CommandTypes type) {
-        PilePacketFormatter packet = new PilePacketFormatter(type);
+        PilePacketFormatter packet = mPacket.reset(type);
         packet.setDataByte((byte) port);
         packet.calculateChecksum();
-        mCommunicator.write(packet.byteArray());
-        byte[] receivedByteArray = mCommunicator.read(4);
-        packet = new PilePacketFormatter(receivedByteArray);
-        if (!packet.isValid())
+        packet.writeTo(mCommunicator);
+        ReceiveBuffer reply = mReplyBuffer;
+        reply.read(mCommunicator, ACK_LENGTH);
+        if (!isValidReply(reply))
             return -1;
-        return packet.data()[0] & 0xFF;
+        return reply.getUnsignedByte(2);
+    }
+
+    /**
+     * Checks the checksum of a reply in the receive buffer.
+     *
+     * @param reply a buffer which has a reply
+     * @return valid (<code>true</code>) or (<code>false</code>)
+     */
+    private boolean isValidReply(ReceiveBuffer reply) {
+        if (PilePacketFormatter.hasValidChecksum(reply.array(), reply.length()))
+            return true;
+        Log.e(TAG, "Invalid Checksum");
+        return false;
+    }
+
+    /**
+     * Reads an ACK packet and checks its flag.
+     *
+     * @return acknowledged (<code>true</code>) or not (<code>false</code>)
+     */
+    private boolean readAck() {
+        mReplyBuffer.read(mCommunicator, ACK_LENGTH);
+        return ((mReplyBuffer.get(2) & 0x01) == 0x01);
     }
 
     private boolean switchLed(boolean turnOn) {
-        PilePacketFormatter packet = new PilePacketFormatter(PileConstants.CommandTypes.LED);
+        PilePacketFormatter packet = mPacket.reset(PileConstants.CommandTypes.LED);
         packet.setDataByte(turnOn ?
                 PileConstants.LedState.ON.value()
                 : PileConstants.LedState.OFF.value());
         packet.calculateChecksum();
-        mCommunicator.write(packet.byteArray());
-        byte[] ack = mCommunicator.read(4);
-        return ((ack[2] & 0x01) == 0x01);
+        packet.writeTo(mCommunicator);
+        return readAck();
     }
 
     private boolean setMotor(int port, int speed) {
@@ -139,59 +171,65 @@ public class PileProtocol extends ProtocolBase {
             dir = PileConstants.MotorDir.BACKWARD;
             speed = -speed;
         }
-        PilePacketFormatter packet = new PilePacketFormatter(PileConstants.CommandTypes.MOVE);
+        PilePacketFormatter packet = mPacket.reset(PileConstants.CommandTypes.MOVE);
         packet.setDataByte((byte) (((port & 0x0F) << 2) | dir.value())); // Byte 0
         packet.setDataByte((byte) (speed & 0xFF)); // Byte 1
         packet.calculateChecksum();
-        mCommunicator.write(packet.byteArray());
-        byte[] ack = mCommunicator.read(4);
-        return ((ack[2] & 0x01) == 0x01);
+        packet.writeTo(mCommunicator);
+        return readAck();
     }
 
     @Override
     public boolean apply() {
-        PilePacketFormatter packet = new PilePacketFormatter(PileConstants.CommandTypes.APPLY);
-        packet.setDataByte((byte) 0); // any data (1 byte) is OK
-        packet.calculateChecksum();
-        mCommunicator.write(packet.byteArray());
-        byte[] ack = mCommunicator.read(4);
-        return ((ack[2] & 0x01) == 0x01);
+        mLock.lock();
+        try {
+            PilePacketFormatter packet = mPacket.reset(PileConstants.CommandTypes.APPLY);
+            packet.setDataByte((byte) 0); // any data (1 byte) is OK
+            packet.calculateChecksum();
+            packet.writeTo(mCommunicator);
+            return readAck();
+        } finally {
+            mLock.unlock();
+        }
     }
 
     @Override
     public byte[] load(int key) {
-        PilePacketFormatter packet = new PilePacketFormatter(PileConstants.CommandTypes.LOAD);
-        packet.setDataByte((byte) key); // any data (1 byte) is OK
-        packet.calculateChecksum();
-        mCommunicator.write(packet.byteArray());
-
-        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-        byte outputLength = mCommunicator.read(1)[0];   // read LENGTH info
-        outputStream.write(outputLength);
-        // read the rest data
+        mLock.lock();
         try {
-            // -1 means the length of LENGTH data
-            outputStream.write(mCommunicator.read((int) outputLength - 1));
-        } catch (IOException e) {
-            e.printStackTrace();
+            PilePacketFormatter packet = mPacket.reset(PileConstants.CommandTypes.LOAD);
+            packet.setDataByte((byte) key); // any data (1 byte) is OK
+            packet.calculateChecksum();
+            packet.writeTo(mCommunicator);
+
+            ReceiveBuffer reply = mReplyBuffer;
+            reply.read(mCommunicator, 1);   // read LENGTH info
+            int outputLength = reply.get(0);
+            // read the rest data (-1 means the length of LENGTH data)
+            reply.append(mCommunicator, outputLength - 1);
+            if (!isValidReply(reply))
+                return null;
+            // the data is between the header (LENGTH and TYPE) and the checksum
+            return Arrays.copyOfRange(reply.array(), 2, reply.length() - 1);
+        } finally {
+            mLock.unlock();
         }
-        byte[] receivedByteArray = outputStream.toByteArray();
-        packet = new PilePacketFormatter(receivedByteArray);
-        if (!packet.isValid())
-            return null;
-        return packet.data();
     }
 
     @Override
     public boolean store(int key, byte[] data) {
-        PilePacketFormatter packet = new PilePacketFormatter(PileConstants.CommandTypes.STORE);
-        packet.setDataByte((byte) key);
-        for (byte d : data) {
-            packet.setDataByte(d);
+        mLock.lock();
+        try {
+            PilePacketFormatter packet = mPacket.reset(PileConstants.CommandTypes.STORE);
+            packet.setDataByte((byte) key);
+            for (byte d : data) {
+                packet.setDataByte(d);
+            }
+            packet.calculateChecksum();
+            packet.writeTo(mCommunicator);
+            return readAck();
+        } finally {
+            mLock.unlock();
         }
-        packet.calculateChecksum();
-        mCommunicator.write(packet.byteArray());
-        byte[] ack = mCommunicator.read(4);
-        return ((ack[2] & 0x01) == 0x01);
     }
 }
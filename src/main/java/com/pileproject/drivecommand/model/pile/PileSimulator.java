@@ -0,0 +1,336 @@
+/**
+ * Copyright (C) 2011-2017 The PILE Developers <pile-dev@googlegroups.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.pileproject.drivecommand.model.pile;
+
+import com.pileproject.drivecommand.model.com.LinkModel;
+import com.pileproject.drivecommand.model.com.SimulatorBase;
+import com.pileproject.drivecommand.util.Log;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A simulated PILE machine which works as a communicator, so transactions and the key-value store
+ * can be benchmarked without a robot.
+ * This class parses the packets made by {@link PilePacketFormatter}, executes MOVE, MUSIC, TOUCH, DISTANCE,
+ * LIGHTSENSOR, LED, LOAD, STORE, APPLY, PRINT and ECHOBACK, and answers with packets
+ * in the formats described in {@link PileConstants.CommandTypes}.
+ *
+ * MOVE, MUSIC and LED are staged and take effect when APPLY is received, like the firmware.
+ * The key-value store is kept while the simulator is closed.
+ * A packet which has an invalid checksum or an unknown type is answered with a negative ACK.
+ *
+ * Replies are delayed by a {@link LinkModel} (see {@link SimulatorBase}).
+ * {@link #PileSimulator(int)} simulates a serial link at a baud rate.
+ *
+ * This class is thread-safe.
+ */
+public class PileSimulator extends SimulatorBase {
+    private static final String TAG = "PileSimulator";
+    private static final int MAX_PACKET_LENGTH = 64;
+    // a start bit, 8 data bits and a stop bit
+    private static final int BITS_PER_BYTE = 10;
+    private static final byte ACK = 0x01;
+    private static final byte NACK = 0x00;
+
+    // guarded by mLock
+    private final Map<Integer, byte[]> mStore = new HashMap<>();
+    private final Map<Integer, Integer> mTouches = new HashMap<>();
+    private final Map<Integer, Integer> mDistances = new HashMap<>();
+    private final Map<Integer, Integer> mBrightnesses = new HashMap<>();
+    private final Map<Integer, Integer> mMotorSpeeds = new HashMap<>();
+    private final Map<Integer, Integer> mPendingMotorSpeeds = new HashMap<>();
+    private final Map<Integer, Boolean> mLeds = new HashMap<>();
+    private final Map<Integer, Boolean> mPendingLeds = new HashMap<>();
+    private int mMusic = -1;
+    private int mPendingMusic = -1;
+    private int mApplyCount;
+
+    /**
+     * Creates a simulator which replies without delay.
+     */
+    public PileSimulator() {
+        this(LinkModel.NONE);
+    }
+
+    /**
+     * Creates a simulator connected with a serial link (8N1) which has no latency.
+     *
+     * @param baudRate the baud rate of the link [bit/sec]
+     */
+    public PileSimulator(int baudRate) {
+        this(new LinkModel(0, 0, TimeUnit.NANOSECONDS, baudRate / BITS_PER_BYTE, 0));
+    }
+
+    /**
+     * @param link the model of the delay of the link
+     */
+    public PileSimulator(LinkModel link) {
+        super(link);
+    }
+
+    /**
+     * Presses or releases a touch sensor.
+     *
+     * @param port the port of a touch sensor
+     * @param touched pressed (<code>true</code>) or released (<code>false</code>)
+     */
+    public void setTouched(int port, boolean touched) {
+        put(mTouches, port, touched ? 1 : 0);
+    }
+
+    /**
+     * Sets the raw value of a rangefinder.
+     *
+     * @param port the port of a rangefinder
+     * @param distance the raw value (0 ~ 255)
+     */
+    public void setDistance(int port, int distance) {
+        put(mDistances, port, distance & 0xFF);
+    }
+
+    /**
+     * Sets the raw value of a light sensor.
+     *
+     * @param port the port of a light sensor
+     * @param brightness the raw value (0 ~ 255)
+     */
+    public void setBrightness(int port, int brightness) {
+        put(mBrightnesses, port, brightness & 0xFF);
+    }
+
+    /**
+     * Gets the speed of a motor which has been applied.
+     *
+     * @param port the port of a motor
+     * @return the speed (-100 ~ 100), where a negative value means backward
+     */
+    public int getMotorSpeed(int port) {
+        mLock.lock();
+        try {
+            Integer speed = mMotorSpeeds.get(port);
+            return (speed != null) ? speed : 0;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Checks whether a LED has been turned on and applied.
+     *
+     * @param port the port of a LED
+     * @return on (<code>true</code>) or off (<code>false</code>)
+     */
+    public boolean isLedOn(int port) {
+        mLock.lock();
+        try {
+            return Boolean.TRUE.equals(mLeds.get(port));
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Gets the type of the music which has been applied.
+     *
+     * @return the type of the music, or -1 if no music has been applied
+     */
+    public int getMusic() {
+        mLock.lock();
+        try {
+            return mMusic;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Gets a value in the key-value store.
+     *
+     * @param key the key of a value
+     * @return a copy of the value, or <code>null</code> if the key does not exist
+     */
+    public byte[] getStoredValue(int key) {
+        mLock.lock();
+        try {
+            byte[] value = mStore.get(key);
+            return (value != null) ? Arrays.copyOf(value, value.length) : null;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Gets the number of APPLY commands which have been executed.
+     *
+     * @return the number of transactions
+     */
+    public int getApplyCount() {
+        mLock.lock();
+        try {
+            return mApplyCount;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    protected int getRequestLength(byte[] data, int offset, int available) {
+        // skip a broken length, so the following packets can be parsed
+        return Math.max(data[offset] & 0xFF, 1);
+    }
+
+    /**
+     * Executes a packet and makes its reply.
+     */
+    @Override
+    protected byte[] execute(byte[] data, int offset, int length) {
+        byte[] packet = Arrays.copyOfRange(data, offset, offset + length);
+        if (length < 3 || !PilePacketFormatter.hasValidChecksum(packet, length)) {
+            Log.e(TAG, "Invalid packet: " + Arrays.toString(packet));
+            countFailure();
+            return reply(packet.length > 1 ? packet[1] & 0xFF : 0, NACK);
+        }
+
+        PileConstants.CommandTypes type = toCommandType(packet[1] & 0xFF);
+        if (type == null) {
+            Log.e(TAG, "Unknown type: " + (packet[1] & 0xFF));
+            countFailure();
+            return reply(packet[1] & 0xFF, NACK);
+        }
+
+        if (length > MAX_PACKET_LENGTH) {
+            Log.e(TAG, "Too long packet: " + length + " bytes");
+            return nack(type);
+        }
+
+        // the data is between the header (LENGTH and TYPE) and the checksum
+        int dataLength = length - 3;
+        switch (type) {
+            case MOVE: {
+                if (dataLength < 2) return nack(type);
+                int port = (packet[2] >> 2) & 0x0F;
+                int dir = packet[2] & 0x03;
+                int percent = Math.min(packet[3] & 0xFF, 100);
+                int speed = 0;
+                if (dir == PileConstants.MotorDir.FORWARD.value()) speed = percent;
+                else if (dir == PileConstants.MotorDir.BACKWARD.value()) speed = -percent;
+                mPendingMotorSpeeds.put(port, speed);
+                return reply(type, ACK);
+            }
+            case MUSIC:
+                if (dataLength < 1) return nack(type);
+                mPendingMusic = packet[2] & 0xFF;
+                return reply(type, ACK);
+            case LED:
+                if (dataLength < 1) return nack(type);
+                mPendingLeds.put((packet[2] >> 1) & 0x07, (packet[2] & 0x01) != 0);
+                return reply(type, ACK);
+            case APPLY:
+                mMotorSpeeds.putAll(mPendingMotorSpeeds);
+                mPendingMotorSpeeds.clear();
+                mLeds.putAll(mPendingLeds);
+                mPendingLeds.clear();
+                if (mPendingMusic >= 0) mMusic = mPendingMusic;
+                mPendingMusic = -1;
+                mApplyCount++;
+                return reply(type, ACK);
+            case TOUCH:
+                return reply(type, read(mTouches, packet, dataLength));
+            case DISTANCE:
+                return reply(type, read(mDistances, packet, dataLength));
+            case LIGHTSENSOR:
+                return reply(type, read(mBrightnesses, packet, dataLength));
+            case LOAD: {
+                if (dataLength < 1) return nack(type);
+                byte[] value = mStore.get(packet[2] & 0xFF);
+                if (value == null) value = new byte[0];
+                // |LENGTH|PAYLOAD|
+                PilePacketFormatter reply = new PilePacketFormatter(type);
+                reply.setDataByte((byte) value.length);
+                for (byte b : value) {
+                    reply.setDataByte(b);
+                }
+                reply.calculateChecksum();
+                return reply.byteArray();
+            }
+            case STORE: {
+                if (dataLength < 1) return nack(type);
+                int key = packet[2] & 0xFF;
+                if (dataLength == 1) {
+                    // an empty payload removes the value
+                    mStore.remove(key);
+                } else {
+                    mStore.put(key, Arrays.copyOfRange(packet, 3, length - 1));
+                }
+                return reply(type, ACK);
+            }
+            case PRINT:
+                Log.d(TAG, "PRINT: " + Arrays.toString(Arrays.copyOfRange(packet, 2, length - 1)));
+                return null;
+            case ECHOBACK:
+                return packet;
+            default:
+                return nack(type);
+        }
+    }
+
+    private void put(Map<Integer, Integer> values, int port, int value) {
+        mLock.lock();
+        try {
+            values.put(port, value);
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Reads the value of a sensor at the port in a packet. A port out of range returns zero.
+     */
+    private static byte read(Map<Integer, Integer> values, byte[] packet, int dataLength) {
+        if (dataLength < 1) return 0;
+        Integer value = values.get(packet[2] & 0xFF);
+        return (value != null) ? value.byteValue() : 0;
+    }
+
+    private byte[] nack(PileConstants.CommandTypes type) {
+        countFailure();
+        return reply(type, NACK);
+    }
+
+    private static byte[] reply(PileConstants.CommandTypes type, byte value) {
+        return reply(type.value(), value);
+    }
+
+    /**
+     * Makes a reply which has one data byte (e.g., an ACK).
+     */
+    private static byte[] reply(int type, byte value) {
+        // |LENGTH|TYPE|VALUE|CHECKSUM|
+        byte[] reply = { 4, (byte) type, value, 0 };
+        reply[3] = (byte) (reply[0] ^ reply[1] ^ reply[2]);
+        return reply;
+    }
+
+    private static PileConstants.CommandTypes toCommandType(int value) {
+        for (PileConstants.CommandTypes type : PileConstants.CommandTypes.values()) {
+            if (type.value() == value) return type;
+        }
+        return null;
+    }
+}
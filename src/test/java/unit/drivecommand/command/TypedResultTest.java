@@ -0,0 +1,63 @@
+/**
+ * Copyright (C) 2011-2017 The PILE Developers <pile-dev@googlegroups.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package unit.drivecommand.command;
+
+import com.pileproject.drivecommand.command.TypedResult;
+
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+
+public class TypedResultTest {
+
+    @Test
+    public void reuseForDifferentValues() {
+        TypedResult result = new TypedResult();
+        assertEquals(result.getValueType(), TypedResult.ValueType.NONE);
+
+        result.setIntValue(42);
+        assertEquals(result.getValueType(), TypedResult.ValueType.INT);
+        assertEquals(result.getIntValue(), 42);
+
+        result.clear();
+        result.setBooleanValue(true);
+        assertEquals(result.getValueType(), TypedResult.ValueType.BOOLEAN);
+        assertTrue(result.getBooleanValue());
+
+        result.clear();
+        assertEquals(result.getValueType(), TypedResult.ValueType.NONE);
+        assertTrue(result.toMap().isEmpty());
+    }
+
+    @Test
+    public void keepFloatBuffer() {
+        TypedResult result = new TypedResult();
+        result.setFloatValues(new float[] {1, 2, 3}, 3);
+        float[] buffer = result.getFloatValues();
+
+        result.clear();
+        result.setFloatValues(new float[] {4, 5}, 2);
+        assertTrue(buffer == result.getFloatValues());
+        assertEquals(result.getFloatCount(), 2);
+
+        Map<String, Object> map = result.toMap();
+        assertTrue(Arrays.equals((float[]) map.get("value"), new float[] {4, 5}));
+    }
+}
@@ -0,0 +1,145 @@
+/**
+ * Copyright (C) 2011-2017 The PILE Developers <pile-dev@googlegroups.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package unit.drivecommand.machine;
+
+import com.pileproject.drivecommand.command.TypedCommand;
+import com.pileproject.drivecommand.command.TypedResult;
+import com.pileproject.drivecommand.machine.ChangeDetector;
+import com.pileproject.drivecommand.machine.ChangeListener;
+import com.pileproject.drivecommand.machine.MachineBase;
+import com.pileproject.drivecommand.machine.SensorScheduler;
+import com.pileproject.drivecommand.machine.device.port.DevicePort;
+import com.pileproject.drivecommand.machine.device.port.InputPort;
+import com.pileproject.drivecommand.model.CommandType;
+
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import mockit.Delegate;
+import mockit.Mocked;
+import mockit.NonStrictExpectations;
+
+import static org.testng.Assert.assertEquals;
+
+public class ChangeDetectorTest {
+    @Mocked
+    private MachineBase machine;
+    @Mocked
+    private ScheduledExecutorService executor;
+    private final InputPort PORT = new InputPort() {
+        @Override
+        public int getRaw() {
+            return 0;
+        }
+    };
+    private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    public void debounceSampledValues() throws Exception {
+        // touched (1) or not (0) at every 10 ms; the bounces at 20 ms and 80 ms are ignored
+        final int[] values = { 0, 0, 1, 0, 1, 1, 1, 1, 0, 1, 1, 0, 0, 0 };
+        feed(CommandType.GET_TOUCH_TOUCHED, new Delegate<Void>() {
+            int count;
+
+            @SuppressWarnings("unused")
+            void execAll(int[] ports, TypedCommand[] cmds, TypedResult[] results, int batchSize) {
+                results[0].setBooleanValue(values[count++] == 1);
+            }
+        });
+        List<String> events = run(CommandType.GET_TOUCH_TOUCHED, values.length, 20);
+
+        assertEquals(events.size(), 2);
+        assertEquals(events.get(0), "0->1 at 60");
+        assertEquals(events.get(1), "1->0 at 130");
+    }
+
+    @Test
+    public void reportCountedChanges() throws Exception {
+        // presses and releases counted by a machine between the samples
+        final float[][] changes = { { 0, 0 }, { 2, 1 }, { 0, 1 } };
+        feed(CommandType.GET_TOUCH_CHANGES, new Delegate<Void>() {
+            int count;
+
+            @SuppressWarnings("unused")
+            void execAll(int[] ports, TypedCommand[] cmds, TypedResult[] results, int batchSize) {
+                results[0].setFloatValues(changes[count++], 2);
+            }
+        });
+        List<String> events = run(CommandType.GET_TOUCH_CHANGES, changes.length, 20);
+
+        assertEquals(events.size(), 4);
+        assertEquals(events.get(0), "0->1 at 10");
+        assertEquals(events.get(1), "1->0 at 10");
+        assertEquals(events.get(2), "0->1 at 10");
+        assertEquals(events.get(3), "1->0 at 20");
+    }
+
+    @Test
+    public void chooseTheCommandOfAMachine() throws Exception {
+        new NonStrictExpectations() {{
+            machine.supports(CommandType.GET_TOUCH_CHANGES);
+            result = false;
+        }};
+        assertEquals(ChangeDetector.touchCommandFor(machine), CommandType.GET_TOUCH_TOUCHED);
+    }
+
+    private void feed(final CommandType type, final Delegate<Void> delegate) {
+        new NonStrictExpectations() {{
+            machine.supports(type);
+            result = true;
+            machine.execAll((int[]) any, (TypedCommand[]) any, (TypedResult[]) any, anyInt);
+            result = delegate;
+        }};
+    }
+
+    private List<String> run(CommandType type, int numSamples, long debounceMillis) {
+        final List<String> events = new ArrayList<>();
+        ManualScheduler scheduler = new ManualScheduler(machine, executor);
+        SensorScheduler.Channel channel = scheduler.register(PORT, type, 100);
+        new ChangeDetector(new ChangeListener() {
+            @Override
+            public void onChange(DevicePort port, CommandType type, int oldValue, int newValue, long timestamp) {
+                events.add(oldValue + "->" + newValue + " at " + timestamp / MILLIS);
+            }
+        }, debounceMillis, TimeUnit.MILLISECONDS).attachTo(channel);
+
+        for (int i = 0; i < numSamples; i++) {
+            scheduler.time = i * 10 * MILLIS;
+            scheduler.poll();
+        }
+        return events;
+    }
+
+    /**
+     * A scheduler whose clock is set by tests.
+     */
+    private static class ManualScheduler extends SensorScheduler {
+        long time;
+
+        ManualScheduler(MachineBase machine, ScheduledExecutorService executor) {
+            super(machine, executor, 10, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        protected long now() {
+            return time;
+        }
+    }
+}
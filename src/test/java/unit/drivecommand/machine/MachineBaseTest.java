@@ -15,12 +15,19 @@
  */
 package unit.drivecommand.machine;
 
+import com.pileproject.drivecommand.command.CommandBase;
+import com.pileproject.drivecommand.command.CommandFactory;
+import com.pileproject.drivecommand.command.TypedCommand;
+import com.pileproject.drivecommand.command.TypedResult;
 import com.pileproject.drivecommand.machine.MachineBase;
 import com.pileproject.drivecommand.machine.MachineStatus;
+import com.pileproject.drivecommand.machine.device.port.DevicePort;
 import com.pileproject.drivecommand.machine.device.port.InputPort;
 import com.pileproject.drivecommand.machine.device.port.OutputPort;
+import com.pileproject.drivecommand.model.CommandType;
 import com.pileproject.drivecommand.model.ProtocolBase;
 
+import org.testng.AssertJUnit;
 import org.testng.annotations.Test;
 
 import java.io.IOException;
@@ -71,6 +78,44 @@ public class MachineBaseTest {
         machineBase.disconnect();
     }
 
+    @Test
+    public void supports() {
+        new Expectations() {{
+            protocol.supports(CommandType.GET_GYRO_RATE);
+            result = true;
+        }};
+        MachineBase machineBase = newMachineBase(protocol);
+        AssertJUnit.assertTrue(machineBase.supports(CommandType.GET_GYRO_RATE));
+    }
+
+    @Test
+    public void execAllWithRawPorts() {
+        final CommandBase[] cmds = {
+                CommandFactory.createCommand(CommandType.GET_TOUCH_TOUCHED, null),
+                CommandFactory.createCommand(CommandType.GET_LIGHT_VALUE, null)
+        };
+        new Expectations() {{
+            protocol.execAll(new int[] { OUT_PORT.getRaw(), IN_PORT.getRaw() }, cmds);
+        }};
+        MachineBase machineBase = newMachineBase(protocol);
+        machineBase.execAll(new DevicePort[] { OUT_PORT, IN_PORT }, cmds);
+    }
+
+    @Test
+    public void execAllFirstCountCommands() {
+        final int[] ports = { OUT_PORT.getRaw(), IN_PORT.getRaw() };
+        final TypedCommand[] cmds = {
+                new TypedCommand(CommandType.GET_TOUCH_TOUCHED, 0),
+                new TypedCommand(CommandType.GET_LIGHT_VALUE, 0)
+        };
+        final TypedResult[] results = { new TypedResult(), new TypedResult() };
+        new Expectations() {{
+            protocol.execAll(ports, cmds, results, 1);
+        }};
+        MachineBase machineBase = newMachineBase(protocol);
+        machineBase.execAll(ports, cmds, results, 1);
+    }
+
     @Test(expectedExceptions = UnsupportedOperationException.class)
     public void applyAndThrowAnException() {
         MachineBase machineBase = newMachineBase(protocol);
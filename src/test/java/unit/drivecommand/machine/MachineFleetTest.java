@@ -0,0 +1,239 @@
+/**
+ * Copyright (C) 2011-2017 The PILE Developers <pile-dev@googlegroups.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package unit.drivecommand.machine;
+
+import com.pileproject.drivecommand.command.TypedCommand;
+import com.pileproject.drivecommand.command.TypedResult;
+import com.pileproject.drivecommand.machine.MachineBase;
+import com.pileproject.drivecommand.machine.MachineFleet;
+import com.pileproject.drivecommand.machine.MachineStatus;
+import com.pileproject.drivecommand.machine.device.port.InputPort;
+import com.pileproject.drivecommand.machine.device.port.OutputPort;
+import com.pileproject.drivecommand.model.CommandType;
+import com.pileproject.drivecommand.model.OutputQueue;
+import com.pileproject.drivecommand.model.ProtocolBase;
+import com.pileproject.drivecommand.model.ShadowState;
+
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+import mockit.Delegate;
+import mockit.Injectable;
+import mockit.NonStrictExpectations;
+import mockit.Verifications;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class MachineFleetTest {
+    @Injectable
+    private ProtocolBase first;
+    @Injectable
+    private ProtocolBase second;
+    private final OutputPort OUT_PORT = new OutputPort() {
+        @Override
+        public int getRaw() {
+            return 2;
+        }
+    };
+    private final InputPort IN_PORT = new InputPort() {
+        @Override
+        public int getRaw() {
+            return 1;
+        }
+    };
+
+    private static class MotorProtocol extends ProtocolBase {
+        final List<String> sent = new ArrayList<>();
+
+        MotorProtocol() {
+            super(null);
+            register(CommandType.SET_MOTOR_SPEED, new CommandHandler() {
+                @Override
+                public void exec(int port, TypedCommand cmd, TypedResult result) {
+                    sent.add(port + ":" + cmd.getArg());
+                }
+            });
+        }
+
+        @Override
+        public void open() {
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public boolean apply() {
+            return false;
+        }
+
+        @Override
+        public byte[] load(int key) {
+            return null;
+        }
+
+        @Override
+        public boolean store(int key, byte[] data) {
+            return false;
+        }
+    }
+
+    private static class QueuedExecutor implements Executor {
+        private final Queue<Runnable> mTasks = new ArrayDeque<>();
+
+        @Override
+        public void execute(Runnable command) {
+            mTasks.add(command);
+        }
+
+        void runAll() {
+            Runnable task;
+            while ((task = mTasks.poll()) != null) {
+                task.run();
+            }
+        }
+    }
+
+    private MachineBase newMachineBase(ProtocolBase protocol) {
+        return new MachineBase(protocol) {
+            @Override
+            public MachineStatus fetchStatus() {
+                return null;
+            }
+        };
+    }
+
+    @Test
+    public void connectAll() throws Exception {
+        new NonStrictExpectations() {{
+            second.open();
+            result = new IOException("unreachable");
+        }};
+        MachineFleet fleet = new MachineFleet(2);
+        fleet.add("first", newMachineBase(first));
+        fleet.add("second", newMachineBase(second));
+
+        Map<String, Throwable> failures = fleet.connectAll();
+        fleet.shutdown();
+
+        assertEquals(failures.size(), 1);
+        assertTrue(failures.get("second") instanceof IOException);
+        new Verifications() {{
+            first.open();
+            times = 1;
+            first.close();
+            times = 1;
+            second.close();
+            times = 1;
+        }};
+    }
+
+    @Test
+    public void stopAllMotors() throws Exception {
+        MachineFleet fleet = new MachineFleet(2);
+        fleet.add("first", newMachineBase(first)).addMotor(OUT_PORT);
+        fleet.add("second", newMachineBase(second));
+
+        Map<String, Throwable> failures = fleet.stopAllMotors();
+        fleet.getExecutor().shutdown();
+
+        assertTrue(failures.isEmpty());
+        new Verifications() {{
+            TypedCommand cmd;
+            first.execImmediately(2, cmd = withCapture(), (TypedResult) any);
+            times = 1;
+            assertEquals(cmd.getCommandType(), CommandType.SET_MOTOR_SPEED);
+            assertEquals(cmd.getArg(), 0);
+            // the second machine has no motor
+            second.execImmediately(anyInt, (TypedCommand) any, (TypedResult) any);
+            times = 0;
+        }};
+    }
+
+    @Test
+    public void stopMotorsRegardlessOfSuppressionAndCoalescing() throws Exception {
+        MotorProtocol protocol = new MotorProtocol();
+        MachineBase machine = newMachineBase(protocol);
+        ShadowState shadow = machine.enableRedundantCommandSuppression();
+        QueuedExecutor queueExecutor = new QueuedExecutor();
+        OutputQueue queue = machine.enableOutputCoalescing(queueExecutor);
+        MachineFleet fleet = new MachineFleet(1);
+        fleet.add("first", machine).addMotor(OUT_PORT);
+
+        // the recorded state is stale (the motor is running) and a command waits in the queue
+        shadow.update(2, new TypedCommand(CommandType.SET_MOTOR_SPEED, 0));
+        protocol.exec(2, new TypedCommand(CommandType.SET_MOTOR_SPEED, 50), new TypedResult());
+        assertEquals(queue.getPendingCount(), 1);
+
+        Map<String, Throwable> failures = fleet.stopAllMotors();
+        fleet.getExecutor().shutdown();
+
+        // the stop has been sent before stopAllMotors() returns
+        assertTrue(failures.isEmpty());
+        assertEquals(protocol.sent, Collections.singletonList("2:0"));
+        // and the waiting command is never sent after it
+        assertEquals(queue.getPendingCount(), 0);
+        queueExecutor.runAll();
+        assertEquals(protocol.sent, Collections.singletonList("2:0"));
+    }
+
+    @Test
+    public void snapshotAllSensors() throws Exception {
+        new NonStrictExpectations() {{
+            first.supports(CommandType.GET_TOUCH_TOUCHED);
+            result = true;
+            second.supports(CommandType.GET_LIGHT_VALUE);
+            result = true;
+            first.execAll((int[]) any, (TypedCommand[]) any, (TypedResult[]) any);
+            result = new Delegate<Void>() {
+                @SuppressWarnings("unused")
+                void execAll(int[] ports, TypedCommand[] cmds, TypedResult[] results) {
+                    results[0].setBooleanValue(true);
+                }
+            };
+            second.execAll((int[]) any, (TypedCommand[]) any, (TypedResult[]) any);
+            result = new IllegalStateException("broken");
+        }};
+        MachineFleet fleet = new MachineFleet(2);
+        fleet.add("first", newMachineBase(first)).addSensor(IN_PORT, CommandType.GET_TOUCH_TOUCHED);
+        fleet.add("second", newMachineBase(second)).addSensor(IN_PORT, CommandType.GET_LIGHT_VALUE);
+
+        Map<String, TypedResult[]> values = fleet.snapshotAllSensors();
+        fleet.getExecutor().shutdown();
+
+        // the failed machine is not contained
+        assertEquals(values.keySet(), Collections.singleton("first"));
+        assertTrue(values.get("first")[0].getBooleanValue());
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void rejectDuplicatedName() {
+        MachineFleet fleet = new MachineFleet(1);
+        fleet.getExecutor().shutdown();
+        fleet.add("first", newMachineBase(first));
+        fleet.add("first", newMachineBase(second));
+    }
+}
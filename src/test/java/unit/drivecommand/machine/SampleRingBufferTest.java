@@ -0,0 +1,136 @@
+/**
+ * Copyright (C) 2011-2017 The PILE Developers <pile-dev@googlegroups.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package unit.drivecommand.machine;
+
+import com.pileproject.drivecommand.command.TypedCommand;
+import com.pileproject.drivecommand.command.TypedResult;
+import com.pileproject.drivecommand.machine.MachineBase;
+import com.pileproject.drivecommand.machine.SampleRingBuffer;
+import com.pileproject.drivecommand.machine.SensorScheduler;
+import com.pileproject.drivecommand.machine.device.port.InputPort;
+import com.pileproject.drivecommand.model.CommandType;
+
+import org.testng.annotations.Test;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import mockit.Delegate;
+import mockit.Mocked;
+import mockit.NonStrictExpectations;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class SampleRingBufferTest {
+    @Mocked
+    private MachineBase machine;
+    @Mocked
+    private ScheduledExecutorService executor;
+    private final InputPort PORT = new InputPort() {
+        @Override
+        public int getRaw() {
+            return 0;
+        }
+    };
+    private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    public void queryWindows() throws Exception {
+        SampleRingBuffer buffer = new SampleRingBuffer(8);
+        // 1, 2, ..., 5 at 0, 10, ..., 40 ms
+        for (int i = 0; i < 5; i++) {
+            buffer.add(i * 10 * MILLIS, i + 1);
+        }
+
+        // the window of 20 ms has the samples at 20, 30 and 40 ms
+        assertEquals(buffer.count(20, TimeUnit.MILLISECONDS), 3);
+        assertEquals(buffer.min(20, TimeUnit.MILLISECONDS), 3.0f);
+        assertEquals(buffer.max(20, TimeUnit.MILLISECONDS), 5.0f);
+        assertEquals(buffer.mean(20, TimeUnit.MILLISECONDS), 4.0f);
+        assertEquals(buffer.mean(1, TimeUnit.SECONDS), 3.0f);
+        assertEquals(buffer.getLatestValue(), 5.0f);
+        assertEquals(buffer.getLatestTimestamp(), 40 * MILLIS);
+    }
+
+    @Test
+    public void overwriteTheOldestSamples() throws Exception {
+        SampleRingBuffer buffer = new SampleRingBuffer(3);
+        for (int i = 0; i < 5; i++) {
+            buffer.add(i * MILLIS, i);
+        }
+
+        long[] timestamps = new long[4];
+        float[] values = new float[4];
+        assertEquals(buffer.size(), 3);
+        assertEquals(buffer.copyTo(timestamps, values), 3);
+        assertEquals(values[0], 2.0f);
+        assertEquals(values[2], 4.0f);
+        assertEquals(timestamps[0], 2 * MILLIS);
+        assertEquals(buffer.min(1, TimeUnit.SECONDS), 2.0f);
+    }
+
+    @Test
+    public void returnNaNIfEmpty() throws Exception {
+        SampleRingBuffer buffer = new SampleRingBuffer(3);
+        buffer.add(0, 1);
+        buffer.clear();
+
+        assertEquals(buffer.size(), 0);
+        assertTrue(Float.isNaN(buffer.mean(1, TimeUnit.SECONDS)));
+        assertTrue(Float.isNaN(buffer.getLatestValue()));
+    }
+
+    @Test
+    public void keepEverySampleOfAnAttachedChannel() throws Exception {
+        new NonStrictExpectations() {{
+            machine.supports((CommandType) any);
+            result = true;
+            machine.execAll((int[]) any, (TypedCommand[]) any, (TypedResult[]) any, anyInt);
+            result = new Delegate<Void>() {
+                int count;
+
+                @SuppressWarnings("unused")
+                void execAll(int[] ports, TypedCommand[] cmds, TypedResult[] results, int batchSize) {
+                    results[0].setIntValue(++count);
+                }
+            };
+        }};
+        final long[] time = new long[1];
+        SensorScheduler scheduler = new SensorScheduler(machine, executor, 10, TimeUnit.MILLISECONDS) {
+            @Override
+            protected long now() {
+                return time[0];
+            }
+        };
+        SensorScheduler.Channel channel = scheduler.register(PORT, CommandType.GET_RANGEFINDER_DIST, 100);
+        SampleRingBuffer buffer = new SampleRingBuffer(8);
+        SensorScheduler.Subscription subscription = buffer.attachTo(channel);
+
+        for (int i = 0; i < 5; i++) {
+            time[0] = i * 10 * MILLIS;
+            scheduler.poll();
+        }
+        subscription.cancel();
+        time[0] = 50 * MILLIS;
+        scheduler.poll();
+
+        // 1, 2, ..., 5 without gaps, and nothing after it was detached
+        assertEquals(buffer.size(), 5);
+        assertEquals(buffer.mean(1, TimeUnit.SECONDS), 3.0f);
+        assertEquals(buffer.getLatestTimestamp(), 40 * MILLIS);
+    }
+}
@@ -0,0 +1,288 @@
+/**
+ * Copyright (C) 2011-2017 The PILE Developers <pile-dev@googlegroups.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package unit.drivecommand.machine;
+
+import com.pileproject.drivecommand.command.TypedCommand;
+import com.pileproject.drivecommand.command.TypedResult;
+import com.pileproject.drivecommand.machine.MachineBase;
+import com.pileproject.drivecommand.machine.SampleListener;
+import com.pileproject.drivecommand.machine.SensorScheduler;
+import com.pileproject.drivecommand.machine.device.port.InputPort;
+import com.pileproject.drivecommand.model.CommandType;
+
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import mockit.Delegate;
+import mockit.Expectations;
+import mockit.Mocked;
+import mockit.NonStrictExpectations;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertSame;
+
+public class SensorSchedulerTest {
+    @Mocked
+    private MachineBase machine;
+    @Mocked
+    private ScheduledExecutorService executor;
+    @Mocked
+    private ScheduledFuture<?> future;
+    private final InputPort GYRO_PORT = new InputPort() {
+        @Override
+        public int getRaw() {
+            return 0;
+        }
+    };
+    private final InputPort RANGEFINDER_PORT = new InputPort() {
+        @Override
+        public int getRaw() {
+            return 1;
+        }
+    };
+    private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    public void coalesceDueReads() throws Exception {
+        final List<Integer> batchSizes = new ArrayList<>();
+        final List<TypedCommand[]> commandArrays = new ArrayList<>();
+        new NonStrictExpectations() {{
+            machine.supports((CommandType) any);
+            result = true;
+            machine.execAll((int[]) any, (TypedCommand[]) any, (TypedResult[]) any, anyInt);
+            result = new Delegate<Void>() {
+                @SuppressWarnings("unused")
+                void execAll(int[] ports, TypedCommand[] cmds, TypedResult[] results, int count) {
+                    batchSizes.add(count);
+                    commandArrays.add(cmds);
+                    for (int i = 0; i < count; i++) {
+                        results[i].setIntValue(ports[i] + 10 * batchSizes.size());
+                    }
+                }
+            };
+        }};
+        ManualScheduler scheduler = new ManualScheduler(machine, executor);
+        SensorScheduler.Channel gyro = scheduler.register(GYRO_PORT, CommandType.GET_GYRO_RATE, 100);
+        SensorScheduler.Channel dist = scheduler.register(RANGEFINDER_PORT, CommandType.GET_RANGEFINDER_DIST, 10);
+        assertFalse(gyro.hasValue());
+
+        for (long t = 0; t <= 100; t += 10) {
+            scheduler.time = t * MILLIS;
+            scheduler.poll();
+        }
+
+        // both at 0 ms and 100 ms, only the gyro sensor between them
+        assertEquals(batchSizes.size(), 11);
+        assertEquals((int) batchSizes.get(0), 2);
+        assertEquals((int) batchSizes.get(1), 1);
+        assertEquals((int) batchSizes.get(10), 2);
+        assertEquals(gyro.getSampleCount(), 11);
+        assertEquals(dist.getSampleCount(), 2);
+        assertEquals(gyro.getIntValue(), 110);
+        assertEquals(dist.getIntValue(), 111);
+        assertEquals(dist.getTimestamp(), 100 * MILLIS);
+        // the arrays are sized to the channels once and reused for batches of any size
+        for (TypedCommand[] cmds : commandArrays) {
+            assertSame(cmds, commandArrays.get(0));
+        }
+        assertEquals(commandArrays.get(0).length, 2);
+    }
+
+    @Test
+    public void conflateSamplesForASlowListener() throws Exception {
+        new NonStrictExpectations() {{
+            machine.supports((CommandType) any);
+            result = true;
+            machine.execAll((int[]) any, (TypedCommand[]) any, (TypedResult[]) any, anyInt);
+            result = new Delegate<Void>() {
+                int count;
+
+                @SuppressWarnings("unused")
+                void execAll(int[] ports, TypedCommand[] cmds, TypedResult[] results, int batchSize) {
+                    results[0].setIntValue(++count);
+                }
+            };
+        }};
+        ManualScheduler scheduler = new ManualScheduler(machine, executor);
+        SensorScheduler.Channel gyro = scheduler.register(GYRO_PORT, CommandType.GET_GYRO_RATE, 100);
+        final List<Integer> fast = new ArrayList<>();
+        final List<Integer> slow = new ArrayList<>();
+        QueuedExecutor slowExecutor = new QueuedExecutor();
+        SampleListener fastListener = new SampleListener() {
+            @Override
+            public void onSample(SensorScheduler.Channel channel, TypedResult value, long timestamp) {
+                fast.add(value.getIntValue());
+            }
+        };
+        SampleListener slowListener = new SampleListener() {
+            @Override
+            public void onSample(SensorScheduler.Channel channel, TypedResult value, long timestamp) {
+                slow.add(value.getIntValue());
+            }
+        };
+        Executor direct = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        };
+        gyro.subscribe(fastListener, direct);
+        SensorScheduler.Subscription subscription = gyro.subscribe(slowListener, slowExecutor);
+
+        // the slow listener does not run until the executor runs it
+        for (long t = 0; t < 50; t += 10) {
+            scheduler.time = t * MILLIS;
+            scheduler.poll();
+        }
+        slowExecutor.runAll();
+
+        assertEquals(fast.size(), 5);
+        assertEquals(slowExecutor.executed, 1);
+        assertEquals(slow.size(), 1);
+        assertEquals((int) slow.get(0), 5);
+
+        scheduler.time = 50 * MILLIS;
+        scheduler.poll();
+        slowExecutor.runAll();
+        subscription.cancel();
+        scheduler.time = 60 * MILLIS;
+        scheduler.poll();
+        slowExecutor.runAll();
+
+        assertEquals(fast.size(), 7);
+        assertEquals(slow.size(), 2);
+        assertEquals((int) slow.get(1), 6);
+        assertEquals(subscription.getDeliveredCount(), 2);
+        // the first four samples were skipped
+        assertEquals(subscription.getConflatedCount(), 4);
+    }
+
+    @Test
+    public void cancelAChannel() throws Exception {
+        new NonStrictExpectations() {{
+            machine.supports((CommandType) any);
+            result = true;
+        }};
+        ManualScheduler scheduler = new ManualScheduler(machine, executor);
+        SensorScheduler.Channel gyro = scheduler.register(GYRO_PORT, CommandType.GET_GYRO_RATE, 100);
+        gyro.cancel();
+        scheduler.poll();
+
+        assertFalse(gyro.hasValue());
+    }
+
+    @Test(expectedExceptions = UnsupportedOperationException.class)
+    public void registerAnUnsupportedCommandAndThrowAnException() throws Exception {
+        new NonStrictExpectations() {{
+            machine.supports(CommandType.GET_GYRO_RATE);
+            result = false;
+        }};
+        ManualScheduler scheduler = new ManualScheduler(machine, executor);
+        scheduler.register(GYRO_PORT, CommandType.GET_GYRO_RATE, 100);
+    }
+
+    @Test
+    public void retryAFailedReadInTheNextPeriod() throws Exception {
+        final List<Long> calls = new ArrayList<>();
+        final ManualScheduler scheduler = new ManualScheduler(machine, executor);
+        new NonStrictExpectations() {{
+            machine.supports((CommandType) any);
+            result = true;
+            machine.execAll((int[]) any, (TypedCommand[]) any, (TypedResult[]) any, anyInt);
+            result = new Delegate<Void>() {
+                @SuppressWarnings("unused")
+                void execAll(int[] ports, TypedCommand[] cmds, TypedResult[] results, int count) {
+                    calls.add(scheduler.time);
+                    if (calls.size() == 1) throw new RuntimeException("disconnected");
+                    results[0].setIntValue(42);
+                }
+            };
+        }};
+        SensorScheduler.Channel dist = scheduler.register(RANGEFINDER_PORT, CommandType.GET_RANGEFINDER_DIST, 10);
+
+        for (long t = 0; t <= 100; t += 10) {
+            scheduler.time = t * MILLIS;
+            try {
+                scheduler.poll();
+            } catch (RuntimeException e) {
+                assertEquals(t, 0);
+            }
+        }
+
+        // not on every tick after the failure
+        assertEquals(calls.size(), 2);
+        assertEquals((long) calls.get(1), 100 * MILLIS);
+        assertEquals(dist.getSampleCount(), 1);
+        assertEquals(dist.getIntValue(), 42);
+    }
+
+    @Test
+    public void startOnlyOnce() throws Exception {
+        new Expectations() {{
+            executor.scheduleAtFixedRate((Runnable) any, 0, 10 * MILLIS, TimeUnit.NANOSECONDS);
+            result = future;
+            future.cancel(false);
+        }};
+        ManualScheduler scheduler = new ManualScheduler(machine, executor);
+        scheduler.start();
+        scheduler.start();
+        scheduler.stop();
+        scheduler.stop();
+    }
+
+    /**
+     * A scheduler whose clock is set by tests.
+     */
+    private static class ManualScheduler extends SensorScheduler {
+        long time;
+
+        ManualScheduler(MachineBase machine, ScheduledExecutorService executor) {
+            super(machine, executor, 10, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        protected long now() {
+            return time;
+        }
+    }
+
+    /**
+     * An executor which keeps tasks until they are run by a test.
+     */
+    private static class QueuedExecutor implements Executor {
+        final List<Runnable> tasks = new ArrayList<>();
+        int executed;
+
+        @Override
+        public void execute(Runnable command) {
+            tasks.add(command);
+        }
+
+        void runAll() {
+            while (!tasks.isEmpty()) {
+                executed++;
+                tasks.remove(0).run();
+            }
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/**
+ * Copyright (C) 2011-2017 The PILE Developers <pile-dev@googlegroups.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package unit.drivecommand.machine.device;
+
+import com.pileproject.drivecommand.command.TypedCommand;
+import com.pileproject.drivecommand.command.TypedResult;
+import com.pileproject.drivecommand.machine.device.input.Rangefinder;
+import com.pileproject.drivecommand.machine.device.port.InputPort;
+import com.pileproject.drivecommand.model.CommandType;
+import com.pileproject.drivecommand.model.ProtocolBase;
+
+import org.testng.AssertJUnit;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class DeviceBaseTest {
+    private final InputPort PORT = new InputPort() {
+        @Override
+        public int getRaw() {
+            return 1;
+        }
+    };
+    private final int VALUE_DISTANCE = 200;
+
+    @Test(timeOut = 5000)
+    public void execFromSeveralThreads() throws Exception {
+        // both threads have their results set before either of them returns
+        final CyclicBarrier barrier = new CyclicBarrier(2);
+        final Rangefinder rf = new Rangefinder(PORT, new BarrierProtocol(barrier));
+        Callable<Integer> getDistance = new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return rf.getDistance();
+            }
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<Integer> first = executor.submit(getDistance);
+            Future<Integer> second = executor.submit(getDistance);
+            AssertJUnit.assertEquals(first.get() + second.get(), VALUE_DISTANCE + 2 * VALUE_DISTANCE);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private class BarrierProtocol extends ProtocolBase {
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        BarrierProtocol(final CyclicBarrier barrier) {
+            super(null);
+            register(CommandType.GET_RANGEFINDER_DIST, new CommandHandler() {
+                @Override
+                public void exec(int port, TypedCommand cmd, TypedResult result) {
+                    result.setIntValue(mCount.incrementAndGet() * VALUE_DISTANCE);
+                    try {
+                        barrier.await();
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+        }
+
+        @Override
+        protected boolean isSerialized() {
+            // the commands of both threads are executed at the same time
+            return false;
+        }
+
+        @Override
+        public void open() {
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public boolean apply() {
+            return false;
+        }
+
+        @Override
+        public byte[] load(int key) {
+            return null;
+        }
+
+        @Override
+        public boolean store(int key, byte[] data) {
+            return false;
+        }
+    }
+}
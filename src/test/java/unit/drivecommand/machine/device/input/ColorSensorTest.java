@@ -15,21 +15,22 @@
  */
 package unit.drivecommand.machine.device.input;
 
-import com.pileproject.drivecommand.command.CommandBase;
+import com.pileproject.drivecommand.command.TypedCommand;
+import com.pileproject.drivecommand.command.TypedResult;
 import com.pileproject.drivecommand.machine.device.DeviceType;
 import com.pileproject.drivecommand.machine.device.input.ColorSensor;
 import com.pileproject.drivecommand.machine.device.port.InputPort;
 import com.pileproject.drivecommand.model.ProtocolBase;
 
+import java.util.Arrays;
+
 import org.testng.AssertJUnit;
 import org.testng.annotations.Test;
 
-import java.util.HashMap;
-
+import mockit.Delegate;
 import mockit.Expectations;
 import mockit.Mocked;
 
-@SuppressWarnings("serial")
 public class ColorSensorTest {
     @Mocked
     private ProtocolBase protocol;
@@ -41,27 +42,32 @@ public class ColorSensorTest {
     };
     private final float[] VALUE_RGB = {0, 100, 255};
     private final int VALUE_ILLUMINANCE = 22;
-    private final String KEY_VALUE = "value";
     
     @Test
     public void getColorRgb() {
         new Expectations() {{
-            protocol.exec(PORT.getRaw(), (CommandBase) any);
-            result = new HashMap<String, Object>() {{
-                put(KEY_VALUE, VALUE_RGB);
-            }};
+            protocol.exec(PORT.getRaw(), (TypedCommand) any, (TypedResult) any);
+            result = new Delegate<Void>() {
+                @SuppressWarnings("unused")
+                void exec(int port, TypedCommand cmd, TypedResult res) {
+                    res.setFloatValues(VALUE_RGB, VALUE_RGB.length);
+                }
+            };
         }};
         ColorSensor cs = new ColorSensor(PORT, protocol);
-        AssertJUnit.assertEquals(cs.getRgb(), VALUE_RGB);
+        AssertJUnit.assertTrue(Arrays.equals(cs.getRgb(), VALUE_RGB));
     }
     
     @Test
     public void getColorIlluminance() {
         new Expectations() {{
-            protocol.exec(PORT.getRaw(), (CommandBase) any);
-            result = new HashMap<String, Object>() {{
-                put(KEY_VALUE, VALUE_ILLUMINANCE);
-            }};
+            protocol.exec(PORT.getRaw(), (TypedCommand) any, (TypedResult) any);
+            result = new Delegate<Void>() {
+                @SuppressWarnings("unused")
+                void exec(int port, TypedCommand cmd, TypedResult res) {
+                    res.setIntValue(VALUE_ILLUMINANCE);
+                }
+            };
         }};
         ColorSensor cs = new ColorSensor(PORT, protocol);
         AssertJUnit.assertEquals(cs.getIlluminance(), VALUE_ILLUMINANCE);
@@ -15,7 +15,8 @@
  */
 package unit.drivecommand.machine.device.input;
 
-import com.pileproject.drivecommand.command.CommandBase;
+import com.pileproject.drivecommand.command.TypedCommand;
+import com.pileproject.drivecommand.command.TypedResult;
 import com.pileproject.drivecommand.machine.device.DeviceType;
 import com.pileproject.drivecommand.machine.device.input.GyroSensor;
 import com.pileproject.drivecommand.machine.device.port.InputPort;
@@ -24,12 +25,10 @@ import com.pileproject.drivecommand.model.ProtocolBase;
 import org.testng.AssertJUnit;
 import org.testng.annotations.Test;
 
-import java.util.HashMap;
-
+import mockit.Delegate;
 import mockit.Expectations;
 import mockit.Mocked;
 
-@SuppressWarnings("serial")
 public class GyroSensorTest {
     @Mocked
     private ProtocolBase protocol;
@@ -41,15 +40,17 @@ public class GyroSensorTest {
     };
     private final int VALUE_ANGLE = 100;
     private final int VALUE_RATE = 22;
-    private final String KEY_VALUE = "value";
     
     @Test
     public void getGyroAngle() {
         new Expectations() {{
-            protocol.exec(PORT.getRaw(), (CommandBase) any);
-            result = new HashMap<String, Object>() {{
-                put(KEY_VALUE, VALUE_ANGLE);
-            }};
+            protocol.exec(PORT.getRaw(), (TypedCommand) any, (TypedResult) any);
+            result = new Delegate<Void>() {
+                @SuppressWarnings("unused")
+                void exec(int port, TypedCommand cmd, TypedResult res) {
+                    res.setIntValue(VALUE_ANGLE);
+                }
+            };
         }};
         GyroSensor gs = new GyroSensor(PORT, protocol);
         AssertJUnit.assertEquals(gs.getAngle(), VALUE_ANGLE);
@@ -58,10 +59,13 @@ public class GyroSensorTest {
     @Test
     public void getGyroRate() {
         new Expectations() {{
-            protocol.exec(PORT.getRaw(), (CommandBase) any);
-            result = new HashMap<String, Object>() {{
-                put(KEY_VALUE, VALUE_RATE);
-            }};
+            protocol.exec(PORT.getRaw(), (TypedCommand) any, (TypedResult) any);
+            result = new Delegate<Void>() {
+                @SuppressWarnings("unused")
+                void exec(int port, TypedCommand cmd, TypedResult res) {
+                    res.setIntValue(VALUE_RATE);
+                }
+            };
         }};
         GyroSensor gs = new GyroSensor(PORT, protocol);
         AssertJUnit.assertEquals(gs.getRate(), VALUE_RATE);
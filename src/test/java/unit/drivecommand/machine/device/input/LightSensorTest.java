@@ -15,7 +15,8 @@
  */
 package unit.drivecommand.machine.device.input;
 
-import com.pileproject.drivecommand.command.CommandBase;
+import com.pileproject.drivecommand.command.TypedCommand;
+import com.pileproject.drivecommand.command.TypedResult;
 import com.pileproject.drivecommand.machine.device.DeviceType;
 import com.pileproject.drivecommand.machine.device.input.LightSensor;
 import com.pileproject.drivecommand.machine.device.port.InputPort;
@@ -25,12 +26,10 @@ import com.pileproject.drivecommand.model.nxt.port.NxtInputPort;
 import org.testng.AssertJUnit;
 import org.testng.annotations.Test;
 
-import java.util.HashMap;
-
+import mockit.Delegate;
 import mockit.Expectations;
 import mockit.Mocked;
 
-@SuppressWarnings("serial")
 public class LightSensorTest {
     @Mocked
     private ProtocolBase protocol;
@@ -41,15 +40,17 @@ public class LightSensorTest {
         }
     };
     private final int VALUE_SENSOR = 50;
-    private final String KEY_VALUE = "value";
     
     @Test
     public void getSensorValue() {
         new Expectations() {{
-            protocol.exec(PORT.getRaw(), (CommandBase) any);
-            result = new HashMap<String, Object>() {{
-                put(KEY_VALUE, VALUE_SENSOR);
-            }};
+            protocol.exec(PORT.getRaw(), (TypedCommand) any, (TypedResult) any);
+            result = new Delegate<Void>() {
+                @SuppressWarnings("unused")
+                void exec(int port, TypedCommand cmd, TypedResult res) {
+                    res.setIntValue(VALUE_SENSOR);
+                }
+            };
         }};
 
         LightSensor ls = new LightSensor(PORT, protocol);
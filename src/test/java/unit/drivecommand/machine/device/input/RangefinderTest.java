@@ -15,7 +15,8 @@
  */
 package unit.drivecommand.machine.device.input;
 
-import com.pileproject.drivecommand.command.CommandBase;
+import com.pileproject.drivecommand.command.TypedCommand;
+import com.pileproject.drivecommand.command.TypedResult;
 import com.pileproject.drivecommand.machine.device.DeviceType;
 import com.pileproject.drivecommand.machine.device.input.Rangefinder;
 import com.pileproject.drivecommand.machine.device.port.InputPort;
@@ -24,12 +25,12 @@ import com.pileproject.drivecommand.model.ProtocolBase;
 import org.testng.AssertJUnit;
 import org.testng.annotations.Test;
 
-import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
 
+import mockit.Delegate;
 import mockit.Expectations;
 import mockit.Mocked;
 
-@SuppressWarnings("serial")
 public class RangefinderTest {
     @Mocked
     private ProtocolBase protocol;
@@ -40,20 +41,46 @@ public class RangefinderTest {
         }
     };
     private final int VALUE_DISTANCE = 200;
-    private final String KEY_VALUE = "value";
     
     @Test
     public void getDistance() {
         new Expectations() {{
-            protocol.exec(PORT.getRaw(), (CommandBase) any);
-            result = new HashMap<String, Object>() {{
-                put(KEY_VALUE, VALUE_DISTANCE);
-            }};
+            protocol.exec(PORT.getRaw(), (TypedCommand) any, (TypedResult) any);
+            result = new Delegate<Void>() {
+                @SuppressWarnings("unused")
+                void exec(int port, TypedCommand cmd, TypedResult res) {
+                    res.setIntValue(VALUE_DISTANCE);
+                }
+            };
         }};
         Rangefinder rf = new Rangefinder(PORT, protocol);
         AssertJUnit.assertEquals(rf.getDistance(), VALUE_DISTANCE);
     }
     
+    @Test
+    public void getDistanceFromCache() {
+        new Expectations() {{
+            // only the first and the third calls communicate with a machine
+            protocol.exec(PORT.getRaw(), (TypedCommand) any, (TypedResult) any);
+            times = 2;
+            result = new Delegate<Void>() {
+                @SuppressWarnings("unused")
+                void exec(int port, TypedCommand cmd, TypedResult res) {
+                    res.setIntValue(VALUE_DISTANCE);
+                }
+            };
+        }};
+        Rangefinder rf = new Rangefinder(PORT, protocol);
+        rf.setMaxAge(1, TimeUnit.HOURS);
+        AssertJUnit.assertEquals(rf.getDistance(), VALUE_DISTANCE);
+        AssertJUnit.assertEquals(rf.getDistance(), VALUE_DISTANCE);
+        rf.invalidateCache();
+        AssertJUnit.assertEquals(rf.getDistance(), VALUE_DISTANCE);
+
+        AssertJUnit.assertEquals(rf.getCacheHitCount(), 1);
+        AssertJUnit.assertEquals(rf.getCacheMissCount(), 2);
+    }
+    
     @Test
     public void deviceTypeIsRangefinder() {
         Rangefinder rf = new Rangefinder(PORT, protocol);
@@ -15,7 +15,8 @@
  */
 package unit.drivecommand.machine.device.input;
 
-import com.pileproject.drivecommand.command.CommandBase;
+import com.pileproject.drivecommand.command.TypedCommand;
+import com.pileproject.drivecommand.command.TypedResult;
 import com.pileproject.drivecommand.machine.device.DeviceType;
 import com.pileproject.drivecommand.machine.device.input.RemoteControlReceiver;
 import com.pileproject.drivecommand.machine.device.port.InputPort;
@@ -24,12 +25,10 @@ import com.pileproject.drivecommand.model.ProtocolBase;
 import org.testng.AssertJUnit;
 import org.testng.annotations.Test;
 
-import java.util.HashMap;
-
+import mockit.Delegate;
 import mockit.Expectations;
 import mockit.Mocked;
 
-@SuppressWarnings("serial")
 public class RemoteControlReceiverTest {
     @Mocked
     private ProtocolBase protocol;
@@ -41,15 +40,17 @@ public class RemoteControlReceiverTest {
     };
     private final int VALUE_BUTTON = 3;
     private final int VALUE_DISTANCE = 3;
-    private final String KEY_VALUE = "value";
     
     @Test
     public void getRemoteControllerButton() {
         new Expectations() {{
-            protocol.exec(PORT.getRaw(), (CommandBase) any);
-            result = new HashMap<String, Object>() {{
-                put(KEY_VALUE, VALUE_BUTTON);
-            }};
+            protocol.exec(PORT.getRaw(), (TypedCommand) any, (TypedResult) any);
+            result = new Delegate<Void>() {
+                @SuppressWarnings("unused")
+                void exec(int port, TypedCommand cmd, TypedResult res) {
+                    res.setIntValue(VALUE_BUTTON);
+                }
+            };
         }};
         RemoteControlReceiver rr = new RemoteControlReceiver(PORT, protocol);
         AssertJUnit.assertEquals(rr.getRemoteButton(), VALUE_BUTTON);
@@ -58,10 +59,13 @@ public class RemoteControlReceiverTest {
     @Test
     public void getRemoteControllerDistance() {
         new Expectations() {{
-            protocol.exec(PORT.getRaw(), (CommandBase) any);
-            result = new HashMap<String, Object>() {{
-                put(KEY_VALUE, VALUE_DISTANCE);
-            }};
+            protocol.exec(PORT.getRaw(), (TypedCommand) any, (TypedResult) any);
+            result = new Delegate<Void>() {
+                @SuppressWarnings("unused")
+                void exec(int port, TypedCommand cmd, TypedResult res) {
+                    res.setIntValue(VALUE_DISTANCE);
+                }
+            };
         }};
         RemoteControlReceiver rr = new RemoteControlReceiver(PORT, protocol);
         AssertJUnit.assertEquals(rr.getRemoteDistance(), VALUE_DISTANCE);
@@ -15,7 +15,8 @@
  */
 package unit.drivecommand.machine.device.input;
 
-import com.pileproject.drivecommand.command.CommandBase;
+import com.pileproject.drivecommand.command.TypedCommand;
+import com.pileproject.drivecommand.command.TypedResult;
 import com.pileproject.drivecommand.machine.device.DeviceType;
 import com.pileproject.drivecommand.machine.device.input.SoundSensor;
 import com.pileproject.drivecommand.machine.device.port.InputPort;
@@ -24,12 +25,10 @@ import com.pileproject.drivecommand.model.ProtocolBase;
 import org.testng.AssertJUnit;
 import org.testng.annotations.Test;
 
-import java.util.HashMap;
-
+import mockit.Delegate;
 import mockit.Expectations;
 import mockit.Mocked;
 
-@SuppressWarnings("serial")
 public class SoundSensorTest {
     @Mocked
     private ProtocolBase protocol;
@@ -40,15 +39,17 @@ public class SoundSensorTest {
         }
     };
     private final int VALUE_DB = 100;
-    private final String KEY_VALUE = "value";
     
     @Test
     public void getSoundDb() {
         new Expectations() {{
-            protocol.exec(PORT.getRaw(), (CommandBase) any);
-            result = new HashMap<String, Object>() {{
-                put(KEY_VALUE, VALUE_DB);
-            }};
+            protocol.exec(PORT.getRaw(), (TypedCommand) any, (TypedResult) any);
+            result = new Delegate<Void>() {
+                @SuppressWarnings("unused")
+                void exec(int port, TypedCommand cmd, TypedResult res) {
+                    res.setIntValue(VALUE_DB);
+                }
+            };
         }};
         SoundSensor ss = new SoundSensor(PORT, protocol);
         AssertJUnit.assertEquals(ss.getDb(), VALUE_DB);
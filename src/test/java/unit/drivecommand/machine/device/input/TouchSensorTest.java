@@ -15,7 +15,8 @@
  */
 package unit.drivecommand.machine.device.input;
 
-import com.pileproject.drivecommand.command.CommandBase;
+import com.pileproject.drivecommand.command.TypedCommand;
+import com.pileproject.drivecommand.command.TypedResult;
 import com.pileproject.drivecommand.machine.device.DeviceType;
 import com.pileproject.drivecommand.machine.device.input.TouchSensor;
 import com.pileproject.drivecommand.machine.device.port.InputPort;
@@ -24,12 +25,10 @@ import com.pileproject.drivecommand.model.ProtocolBase;
 import org.testng.AssertJUnit;
 import org.testng.annotations.Test;
 
-import java.util.HashMap;
-
+import mockit.Delegate;
 import mockit.Expectations;
 import mockit.Mocked;
 
-@SuppressWarnings("serial")
 public class TouchSensorTest {
     @Mocked
     private ProtocolBase protocol;
@@ -41,15 +40,17 @@ public class TouchSensorTest {
     };
     private final boolean VALUE_TOUCHED = true;
     private final int VALUE_COUNT = 20;
-    private final String KEY_VALUE = "value";
     
     @Test
     public void checkTouchSensorWasTouched() {
         new Expectations() {{
-            protocol.exec(PORT.getRaw(), (CommandBase) any);
-            result = new HashMap<String, Object>() {{
-                put(KEY_VALUE, VALUE_TOUCHED);
-            }};
+            protocol.exec(PORT.getRaw(), (TypedCommand) any, (TypedResult) any);
+            result = new Delegate<Void>() {
+                @SuppressWarnings("unused")
+                void exec(int port, TypedCommand cmd, TypedResult res) {
+                    res.setBooleanValue(VALUE_TOUCHED);
+                }
+            };
         }};
         TouchSensor ts = new TouchSensor(PORT, protocol);
         AssertJUnit.assertEquals(ts.isTouched(), VALUE_TOUCHED);
@@ -58,10 +59,13 @@ public class TouchSensorTest {
     @Test
     public void getTouchedCount() {
         new Expectations() {{
-            protocol.exec(PORT.getRaw(), (CommandBase) any);
-            result = new HashMap<String, Object>() {{
-                put(KEY_VALUE, VALUE_COUNT);
-            }};
+            protocol.exec(PORT.getRaw(), (TypedCommand) any, (TypedResult) any);
+            result = new Delegate<Void>() {
+                @SuppressWarnings("unused")
+                void exec(int port, TypedCommand cmd, TypedResult res) {
+                    res.setIntValue(VALUE_COUNT);
+                }
+            };
         }};
         TouchSensor ts = new TouchSensor(PORT, protocol);
         AssertJUnit.assertEquals(ts.getTouchedCount(), VALUE_COUNT);
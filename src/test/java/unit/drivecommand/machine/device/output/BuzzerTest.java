@@ -15,7 +15,8 @@
  */
 package unit.drivecommand.machine.device.output;
 
-import com.pileproject.drivecommand.command.CommandBase;
+import com.pileproject.drivecommand.command.TypedCommand;
+import com.pileproject.drivecommand.command.TypedResult;
 import com.pileproject.drivecommand.machine.device.DeviceType;
 import com.pileproject.drivecommand.machine.device.output.Buzzer;
 import com.pileproject.drivecommand.machine.device.port.OutputPort;
@@ -24,12 +25,9 @@ import com.pileproject.drivecommand.model.ProtocolBase;
 import org.testng.AssertJUnit;
 import org.testng.annotations.Test;
 
-import java.util.HashMap;
-
 import mockit.Expectations;
 import mockit.Mocked;
 
-@SuppressWarnings("serial")
 public class BuzzerTest {
     @Mocked
     private ProtocolBase protocol;
@@ -40,16 +38,11 @@ public class BuzzerTest {
         }
     };
 
-    private final String KEY_VALID = "valid";
-    private final boolean VALUE_VALID = true;
     
     @Test
     public void turnOnBuzzer() {
         new Expectations() {{
-            protocol.exec(PORT.getRaw(), (CommandBase) any);
-            result = new HashMap<String, Object>() {{
-                put(KEY_VALID, VALUE_VALID);
-            }};
+            protocol.exec(PORT.getRaw(), (TypedCommand) any, (TypedResult) any);
         }};
         Buzzer bz = new Buzzer(PORT, protocol);
         bz.turnOn();
@@ -58,10 +51,7 @@ public class BuzzerTest {
     @Test
     public void turnOffBuzzer() {
         new Expectations() {{
-            protocol.exec(PORT.getRaw(), (CommandBase) any);
-            result = new HashMap<String, Object>() {{
-                put(KEY_VALID, VALUE_VALID);
-            }};
+            protocol.exec(PORT.getRaw(), (TypedCommand) any, (TypedResult) any);
         }};
         Buzzer bz = new Buzzer(PORT, protocol);
         bz.turnOff();
@@ -70,10 +60,7 @@ public class BuzzerTest {
     @Test
     public void beepBuzzer() {
         new Expectations() {{
-            protocol.exec(PORT.getRaw(), (CommandBase) any);
-            result = new HashMap<String, Object>() {{
-                put(KEY_VALID, VALUE_VALID);
-            }};
+            protocol.exec(PORT.getRaw(), (TypedCommand) any, (TypedResult) any);
         }};
         Buzzer bz = new Buzzer(PORT, protocol);
         bz.beep();
@@ -15,7 +15,8 @@
  */
 package unit.drivecommand.machine.device.output;
 
-import com.pileproject.drivecommand.command.CommandBase;
+import com.pileproject.drivecommand.command.TypedCommand;
+import com.pileproject.drivecommand.command.TypedResult;
 import com.pileproject.drivecommand.machine.device.DeviceType;
 import com.pileproject.drivecommand.machine.device.output.Led;
 import com.pileproject.drivecommand.machine.device.port.OutputPort;
@@ -24,12 +25,9 @@ import com.pileproject.drivecommand.model.ProtocolBase;
 import org.testng.AssertJUnit;
 import org.testng.annotations.Test;
 
-import java.util.HashMap;
-
 import mockit.Expectations;
 import mockit.Mocked;
 
-@SuppressWarnings("serial")
 public class LedTest {
     @Mocked
     private ProtocolBase protocol;
@@ -40,16 +38,11 @@ public class LedTest {
         }
     };
 
-    private final String KEY_VALID = "valid";
-    private final boolean VALUE_VALID = true;
     
     @Test
     public void turnOnLed() {
         new Expectations() {{
-            protocol.exec(PORT.getRaw(), (CommandBase) any);
-            result = new HashMap<String, Object>() {{
-                put(KEY_VALID, VALUE_VALID);
-            }};
+            protocol.exec(PORT.getRaw(), (TypedCommand) any, (TypedResult) any);
         }};
         Led led = new Led(PORT, protocol);
         led.turnOn();
@@ -58,10 +51,7 @@ public class LedTest {
     @Test
     public void turnOffLed() {
         new Expectations() {{
-            protocol.exec(PORT.getRaw(), (CommandBase) any);
-            result = new HashMap<String, Object>() {{
-                put(KEY_VALID, VALUE_VALID);
-            }};
+            protocol.exec(PORT.getRaw(), (TypedCommand) any, (TypedResult) any);
         }};
         Led led = new Led(PORT, protocol);
         led.turnOff();
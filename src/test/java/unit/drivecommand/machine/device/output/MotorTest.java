@@ -15,37 +15,33 @@
  */
 package unit.drivecommand.machine.device.output;
 
-import com.pileproject.drivecommand.command.CommandBase;
+import com.pileproject.drivecommand.command.TypedCommand;
+import com.pileproject.drivecommand.command.TypedResult;
 import com.pileproject.drivecommand.machine.device.DeviceType;
 import com.pileproject.drivecommand.machine.device.output.Motor;
 import com.pileproject.drivecommand.machine.device.port.OutputPort;
+import com.pileproject.drivecommand.model.CommandType;
 import com.pileproject.drivecommand.model.ProtocolBase;
 
 import org.testng.AssertJUnit;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
-import java.util.HashMap;
-
+import mockit.Delegate;
 import mockit.Expectations;
 import mockit.Mocked;
 
-@SuppressWarnings("serial")
 public class MotorTest {
     @Mocked
     private ProtocolBase protocol;
-    @Mocked
-    private HashMap<String, Object> args;
     private final OutputPort PORT = new OutputPort() {
         @Override
         public int getRaw() {
             return 1;
         }
     };
-    private final String KEY_VALID = "valid";
     private final int VALUE_SPEED = 30;
     private final int VALUE_SPEED_OUT_OF_RANGE = -1;
-    private final boolean VALUE_VALID = true;
     private final int INITIAL_SPEED = 50;
     
     private Motor motor;
@@ -75,10 +71,14 @@ public class MotorTest {
     @Test
     public void forwardMotor() {
         new Expectations() {{
-            protocol.exec(PORT.getRaw(), (CommandBase) any);
-            result = new HashMap<String, Object>() {{
-                put(KEY_VALID, VALUE_VALID);
-            }};
+            protocol.exec(PORT.getRaw(), (TypedCommand) any, (TypedResult) any);
+            result = new Delegate<Void>() {
+                @SuppressWarnings("unused")
+                void exec(int port, TypedCommand cmd, TypedResult res) {
+                    AssertJUnit.assertEquals(cmd.getCommandType(), CommandType.SET_MOTOR_SPEED);
+                    AssertJUnit.assertEquals(cmd.getArg(), VALUE_SPEED);
+                }
+            };
         }};
         motor.forward();
     }
@@ -86,10 +86,14 @@ public class MotorTest {
     @Test
     public void backwardMotor() {
         new Expectations() {{
-            protocol.exec(PORT.getRaw(), (CommandBase) any);
-            result = new HashMap<String, Object>() {{
-                put(KEY_VALID, VALUE_VALID);
-            }};
+            protocol.exec(PORT.getRaw(), (TypedCommand) any, (TypedResult) any);
+            result = new Delegate<Void>() {
+                @SuppressWarnings("unused")
+                void exec(int port, TypedCommand cmd, TypedResult res) {
+                    AssertJUnit.assertEquals(cmd.getCommandType(), CommandType.SET_MOTOR_SPEED);
+                    AssertJUnit.assertEquals(cmd.getArg(), -VALUE_SPEED);
+                }
+            };
         }};
         motor.backward();
     }
@@ -97,10 +101,14 @@ public class MotorTest {
     @Test
     public void stopMotor() {
         new Expectations() {{
-            protocol.exec(PORT.getRaw(), (CommandBase) any);
-            result = new HashMap<String, Object>() {{
-                put(KEY_VALID, VALUE_VALID);
-            }};
+            protocol.exec(PORT.getRaw(), (TypedCommand) any, (TypedResult) any);
+            result = new Delegate<Void>() {
+                @SuppressWarnings("unused")
+                void exec(int port, TypedCommand cmd, TypedResult res) {
+                    AssertJUnit.assertEquals(cmd.getCommandType(), CommandType.SET_MOTOR_SPEED);
+                    AssertJUnit.assertEquals(cmd.getArg(), 0);
+                }
+            };
         }};
         motor.stop();
     }
@@ -15,7 +15,8 @@
  */
 package unit.drivecommand.machine.device.output;
 
-import com.pileproject.drivecommand.command.CommandBase;
+import com.pileproject.drivecommand.command.TypedCommand;
+import com.pileproject.drivecommand.command.TypedResult;
 import com.pileproject.drivecommand.machine.device.DeviceType;
 import com.pileproject.drivecommand.machine.device.output.Servomotor;
 import com.pileproject.drivecommand.machine.device.port.OutputPort;
@@ -24,35 +25,31 @@ import com.pileproject.drivecommand.model.ProtocolBase;
 import org.testng.AssertJUnit;
 import org.testng.annotations.Test;
 
-import java.util.HashMap;
-
+import mockit.Delegate;
 import mockit.Expectations;
 import mockit.Mocked;
 
-@SuppressWarnings("serial")
 public class ServoMotorTest {
     @Mocked
     private ProtocolBase protocol;
-    @Mocked
-    private HashMap<String, Object> args;
     private final OutputPort PORT = new OutputPort() {
         @Override
         public int getRaw() {
             return 1;
         }
     };
-    private final String KEY_VALID = "valid";
-    private final String KEY_VALUE = "value";
     private final int VALUE_ANGLE = 30;
-    private final boolean VALUE_VALID = true;
     
     @Test
     public void getServomotorAngle() {
         new Expectations() {{
-            protocol.exec(PORT.getRaw(), (CommandBase) any);
-            result = new HashMap<String, Object>() {{
-                put(KEY_VALUE, VALUE_ANGLE);
-            }};
+            protocol.exec(PORT.getRaw(), (TypedCommand) any, (TypedResult) any);
+            result = new Delegate<Void>() {
+                @SuppressWarnings("unused")
+                void exec(int port, TypedCommand cmd, TypedResult res) {
+                    res.setIntValue(VALUE_ANGLE);
+                }
+            };
         }};
         Servomotor motor = new Servomotor(PORT, protocol);
         motor.getAngle();
@@ -61,10 +58,7 @@ public class ServoMotorTest {
     @Test
     public void setServomotorAngle() {
         new Expectations() {{
-            protocol.exec(PORT.getRaw(), (CommandBase) any);
-            result = new HashMap<String, Object>() {{
-                put(KEY_VALID, VALUE_VALID);
-            }};
+            protocol.exec(PORT.getRaw(), (TypedCommand) any, (TypedResult) any);
         }};
         Servomotor motor = new Servomotor(PORT, protocol);
         motor.setAngle(VALUE_ANGLE);
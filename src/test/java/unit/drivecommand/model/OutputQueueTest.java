@@ -0,0 +1,177 @@
+/**
+ * Copyright (C) 2011-2017 The PILE Developers <pile-dev@googlegroups.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package unit.drivecommand.model;
+
+import com.pileproject.drivecommand.command.TypedCommand;
+import com.pileproject.drivecommand.command.TypedResult;
+import com.pileproject.drivecommand.model.CommandType;
+import com.pileproject.drivecommand.model.OutputQueue;
+import com.pileproject.drivecommand.model.ProtocolBase;
+
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.testng.Assert.assertEquals;
+
+public class OutputQueueTest {
+
+    @Test
+    public void sendOnlyTheNewestSpeed() throws Exception {
+        RecordingProtocol protocol = new RecordingProtocol();
+        QueuedExecutor executor = new QueuedExecutor();
+        OutputQueue queue = new OutputQueue(protocol, executor);
+        protocol.setOutputQueue(queue);
+
+        TypedCommand cmd = new TypedCommand();
+        TypedResult result = new TypedResult();
+        protocol.exec(0, cmd.set(CommandType.SET_MOTOR_SPEED, 10), result);
+        protocol.exec(1, cmd.set(CommandType.SET_MOTOR_SPEED, 20), result);
+        protocol.exec(0, cmd.set(CommandType.SET_MOTOR_SPEED, 30), result);
+        protocol.exec(0, cmd.set(CommandType.SET_MOTOR_SPEED, 40), result);
+
+        // nothing has been sent yet
+        assertEquals(protocol.sent.size(), 0);
+        assertEquals(queue.getPendingCount(), 2);
+        executor.runAll();
+
+        // port 0 keeps its place in the queue with the newest speed
+        assertEquals(protocol.sent.size(), 2);
+        assertEquals(protocol.sent.get(0), "0:40");
+        assertEquals(protocol.sent.get(1), "1:20");
+        assertEquals(queue.getSubmittedCount(), 4);
+        assertEquals(queue.getSentCount(), 2);
+        assertEquals(queue.getCoalescedCount(), 2);
+    }
+
+    @Test
+    public void executeOtherCommandsImmediately() throws Exception {
+        RecordingProtocol protocol = new RecordingProtocol();
+        QueuedExecutor executor = new QueuedExecutor();
+        protocol.setOutputQueue(new OutputQueue(protocol, executor));
+
+        TypedResult result = new TypedResult();
+        protocol.exec(2, new TypedCommand(CommandType.GET_TOUCH_TOUCHED, 0), result);
+
+        assertEquals(protocol.sent.size(), 1);
+        assertEquals(protocol.sent.get(0), "2:0");
+        assertEquals(result.getIntValue(), 1);
+        assertEquals(executor.tasks.size(), 0);
+    }
+
+    @Test
+    public void sendOnCallingThreadIfExecutorRejects() throws Exception {
+        RecordingProtocol protocol = new RecordingProtocol();
+        OutputQueue queue = new OutputQueue(protocol, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                throw new RejectedExecutionException("shut down");
+            }
+        });
+        protocol.setOutputQueue(queue);
+
+        TypedResult result = new TypedResult();
+        protocol.exec(0, new TypedCommand(CommandType.SET_MOTOR_SPEED, 10), result);
+        protocol.exec(0, new TypedCommand(CommandType.SET_MOTOR_SPEED, 20), result);
+
+        // the queue is not left draining, so every command is sent
+        assertEquals(protocol.sent.size(), 2);
+        assertEquals(protocol.sent.get(1), "0:20");
+        assertEquals(queue.getPendingCount(), 0);
+        assertEquals(queue.getSentCount(), 2);
+    }
+
+    @Test
+    public void countFailedCommands() throws Exception {
+        RecordingProtocol protocol = new RecordingProtocol();
+        QueuedExecutor executor = new QueuedExecutor();
+        OutputQueue queue = new OutputQueue(protocol, executor);
+        protocol.setOutputQueue(queue);
+
+        protocol.failing = true;
+        protocol.exec(0, new TypedCommand(CommandType.SET_MOTOR_SPEED, 10), new TypedResult());
+        executor.runAll();
+
+        assertEquals(queue.getSentCount(), 0);
+        assertEquals(queue.getFailedCount(), 1);
+    }
+
+    /**
+     * A protocol which records the executed commands.
+     */
+    private static class RecordingProtocol extends ProtocolBase {
+        final List<String> sent = new ArrayList<>();
+        boolean failing;
+
+        RecordingProtocol() {
+            super(null);
+            CommandHandler handler = new CommandHandler() {
+                @Override
+                public void exec(int port, TypedCommand cmd, TypedResult result) {
+                    if (failing) throw new RuntimeException("failed to send");
+                    sent.add(port + ":" + cmd.getArg());
+                    result.setIntValue(1);
+                }
+            };
+            register(CommandType.SET_MOTOR_SPEED, handler);
+            register(CommandType.GET_TOUCH_TOUCHED, handler);
+        }
+
+        @Override
+        public void open() {
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public boolean apply() {
+            return false;
+        }
+
+        @Override
+        public byte[] load(int key) {
+            return null;
+        }
+
+        @Override
+        public boolean store(int key, byte[] data) {
+            return false;
+        }
+    }
+
+    /**
+     * An executor which keeps tasks until they are run by a test.
+     */
+    private static class QueuedExecutor implements Executor {
+        final List<Runnable> tasks = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable command) {
+            tasks.add(command);
+        }
+
+        void runAll() {
+            while (!tasks.isEmpty()) {
+                tasks.remove(0).run();
+            }
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/**
+ * Copyright (C) 2011-2017 The PILE Developers <pile-dev@googlegroups.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package unit.drivecommand.model;
+
+import com.pileproject.drivecommand.command.TypedCommand;
+import com.pileproject.drivecommand.command.TypedResult;
+import com.pileproject.drivecommand.model.CommandType;
+import com.pileproject.drivecommand.model.ProtocolBase;
+
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class ProtocolBaseTest {
+
+    @Test
+    public void serializeCommandsOfOneConnection() throws Exception {
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        final AtomicInteger count = new AtomicInteger();
+        final SimpleProtocol protocol = new SimpleProtocol(new Runnable() {
+            @Override
+            public void run() {
+                int n = inFlight.incrementAndGet();
+                if (n > maxInFlight.get()) maxInFlight.set(n);
+                Thread.yield();
+                count.incrementAndGet();
+                inFlight.decrementAndGet();
+            }
+        });
+
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            final int port = i;
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    TypedCommand cmd = new TypedCommand(CommandType.GET_TOUCH_TOUCHED, 0);
+                    TypedResult result = new TypedResult();
+                    for (int j = 0; j < 500; j++) {
+                        protocol.exec(port, cmd, result);
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) thread.start();
+        for (Thread thread : threads) thread.join();
+
+        assertEquals(count.get(), 2000);
+        assertEquals(maxInFlight.get(), 1);
+    }
+
+    @Test(timeOut = 10000)
+    public void runConnectionsInParallel() throws Exception {
+        // both commands have to be in flight at the same time to pass the barrier
+        final CyclicBarrier barrier = new CyclicBarrier(2);
+        Runnable meet = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    barrier.await(5, TimeUnit.SECONDS);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        final SimpleProtocol first = new SimpleProtocol(meet);
+        final SimpleProtocol second = new SimpleProtocol(meet);
+        final boolean[] done = new boolean[2];
+
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                second.exec(0, new TypedCommand(CommandType.GET_TOUCH_TOUCHED, 0), new TypedResult());
+                done[1] = true;
+            }
+        });
+        thread.start();
+        first.exec(0, new TypedCommand(CommandType.GET_TOUCH_TOUCHED, 0), new TypedResult());
+        done[0] = true;
+        thread.join();
+
+        assertTrue(done[0] && done[1]);
+    }
+
+    /**
+     * A protocol which runs a task for every command.
+     */
+    private static class SimpleProtocol extends ProtocolBase {
+
+        SimpleProtocol(final Runnable task) {
+            super(null);
+            register(CommandType.GET_TOUCH_TOUCHED, new CommandHandler() {
+                @Override
+                public void exec(int port, TypedCommand cmd, TypedResult result) {
+                    task.run();
+                    result.setIntValue(1);
+                }
+            });
+        }
+
+        @Override
+        public void open() {
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public boolean apply() {
+            return false;
+        }
+
+        @Override
+        public byte[] load(int key) {
+            return null;
+        }
+
+        @Override
+        public boolean store(int key, byte[] data) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,297 @@
+/**
+ * Copyright (C) 2011-2017 The PILE Developers <pile-dev@googlegroups.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package unit.drivecommand.model;
+
+import com.pileproject.drivecommand.command.TypedCommand;
+import com.pileproject.drivecommand.command.TypedResult;
+import com.pileproject.drivecommand.model.CommandType;
+import com.pileproject.drivecommand.model.ProtocolBase;
+import com.pileproject.drivecommand.model.ShadowState;
+
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class ShadowStateTest {
+
+    @Test
+    public void detectRedundantCommands() throws Exception {
+        ShadowState shadow = new ShadowState();
+        TypedCommand speed = new TypedCommand(CommandType.SET_MOTOR_SPEED, 50);
+
+        // nothing is known yet
+        assertTrue(shadow.recordIfChanged(0, speed));
+        assertFalse(shadow.recordIfChanged(0, speed));
+        assertTrue(shadow.recordIfChanged(1, speed));
+        assertTrue(shadow.recordIfChanged(0, new TypedCommand(CommandType.SET_MOTOR_SPEED, -50)));
+        assertFalse(shadow.recordIfChanged(0, new TypedCommand(CommandType.SET_MOTOR_SPEED, -50)));
+        assertEquals(shadow.getSuppressedCount(), 2);
+    }
+
+    @Test
+    public void shareStateBetweenOnAndOff() throws Exception {
+        ShadowState shadow = new ShadowState();
+        TypedCommand on = new TypedCommand(CommandType.SET_LED_ON, 0);
+        TypedCommand off = new TypedCommand(CommandType.SET_LED_OFF, 0);
+
+        shadow.update(2, on);
+        assertFalse(shadow.recordIfChanged(2, on));
+        assertTrue(shadow.recordIfChanged(2, off));
+        assertFalse(shadow.recordIfChanged(2, off));
+        assertTrue(shadow.recordIfChanged(2, on));
+    }
+
+    @Test
+    public void ignoreStatelessCommands() throws Exception {
+        ShadowState shadow = new ShadowState();
+        TypedCommand beep = new TypedCommand(CommandType.SET_BUZZER_BEEP, 0);
+
+        assertFalse(ShadowState.isStateful(CommandType.SET_BUZZER_BEEP));
+        assertFalse(ShadowState.isStateful(CommandType.GET_TOUCH_TOUCHED));
+        shadow.update(0, beep);
+        assertTrue(shadow.recordIfChanged(0, beep));
+        assertTrue(shadow.recordIfChanged(0, beep));
+    }
+
+    @Test
+    public void invalidate() throws Exception {
+        ShadowState shadow = new ShadowState();
+        TypedCommand speed = new TypedCommand(CommandType.SET_MOTOR_SPEED, 50);
+
+        shadow.update(0, speed);
+        shadow.update(1, speed);
+        shadow.invalidate(0);
+        assertTrue(shadow.recordIfChanged(0, speed));
+        assertFalse(shadow.recordIfChanged(1, speed));
+        shadow.invalidate();
+        assertTrue(shadow.recordIfChanged(1, speed));
+    }
+
+    @Test
+    public void skipRedundantCommandsOfProtocol() throws Exception {
+        RecordingProtocol protocol = new RecordingProtocol();
+        protocol.setShadowState(new ShadowState());
+        TypedResult result = new TypedResult();
+
+        protocol.exec(0, new TypedCommand(CommandType.SET_MOTOR_SPEED, 30), result);
+        protocol.exec(0, new TypedCommand(CommandType.SET_MOTOR_SPEED, 30), result);
+        protocol.exec(0, new TypedCommand(CommandType.SET_MOTOR_SPEED, 30), result, true);
+        protocol.exec(0, new TypedCommand(CommandType.SET_MOTOR_SPEED, 0), result);
+
+        assertEquals(protocol.sent.size(), 3);
+        assertEquals(protocol.sent.get(0), "0:30");
+        assertEquals(protocol.sent.get(1), "0:30");
+        assertEquals(protocol.sent.get(2), "0:0");
+        assertEquals(protocol.getShadowState().getSuppressedCount(), 1);
+    }
+
+    @Test
+    public void forgetStateAfterFailure() throws Exception {
+        RecordingProtocol protocol = new RecordingProtocol();
+        protocol.setShadowState(new ShadowState());
+        TypedResult result = new TypedResult();
+
+        protocol.exec(0, new TypedCommand(CommandType.SET_MOTOR_SPEED, 30), result);
+        protocol.failing = true;
+        try {
+            protocol.exec(0, new TypedCommand(CommandType.SET_MOTOR_SPEED, 40), result);
+            fail();
+        } catch (RuntimeException e) {
+            // expected
+        }
+        protocol.failing = false;
+        protocol.exec(0, new TypedCommand(CommandType.SET_MOTOR_SPEED, 30), result);
+
+        assertEquals(protocol.sent.size(), 2);
+    }
+
+    @Test
+    public void forgetStateAfterNak() throws Exception {
+        RecordingProtocol protocol = new RecordingProtocol();
+        protocol.setShadowState(new ShadowState());
+        TypedResult result = new TypedResult();
+
+        protocol.rejecting = true;
+        protocol.exec(0, new TypedCommand(CommandType.SET_MOTOR_SPEED, 30), result);
+        assertTrue(result.isRejected());
+        protocol.rejecting = false;
+        // the retry is sent because the machine has not acknowledged the first command
+        protocol.exec(0, new TypedCommand(CommandType.SET_MOTOR_SPEED, 30), result);
+        assertFalse(result.isRejected());
+        protocol.exec(0, new TypedCommand(CommandType.SET_MOTOR_SPEED, 30), result);
+
+        assertEquals(protocol.sent.size(), 2);
+        assertEquals(protocol.getShadowState().getSuppressedCount(), 1);
+    }
+
+    @Test
+    public void keepLastCommandOfConcurrentThreads() throws Exception {
+        final RecordingProtocol protocol = new RecordingProtocol();
+        protocol.setShadowState(new ShadowState());
+        protocol.exec(0, new TypedCommand(CommandType.SET_MOTOR_SPEED, 0), new TypedResult());
+
+        // the first thread is blocked while sending 50
+        protocol.blocking = new CountDownLatch(1);
+        Thread first = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                protocol.exec(0, new TypedCommand(CommandType.SET_MOTOR_SPEED, 50), new TypedResult());
+            }
+        });
+        first.start();
+        protocol.entered.await();
+
+        // the second thread sends 0 before the first one records 50
+        Thread second = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                protocol.exec(0, new TypedCommand(CommandType.SET_MOTOR_SPEED, 0), new TypedResult());
+            }
+        });
+        second.start();
+        while (second.getState() != Thread.State.WAITING) {
+            Thread.yield();
+        }
+        protocol.blocking.countDown();
+        first.join();
+        second.join();
+
+        assertEquals(protocol.sent.size(), 3);
+        assertEquals(protocol.sent.get(2), "0:0");
+    }
+
+    @Test
+    public void keepStateAfterFailedRead() throws Exception {
+        RecordingProtocol protocol = new RecordingProtocol();
+        protocol.setShadowState(new ShadowState());
+        TypedResult result = new TypedResult();
+
+        protocol.exec(0, new TypedCommand(CommandType.SET_MOTOR_SPEED, 30), result);
+        protocol.failing = true;
+        try {
+            // a sensor on the same raw port as the motor
+            protocol.exec(0, new TypedCommand(CommandType.GET_TOUCH_TOUCHED, 0), result);
+            fail();
+        } catch (RuntimeException e) {
+            // expected
+        }
+        protocol.failing = false;
+        protocol.exec(0, new TypedCommand(CommandType.SET_MOTOR_SPEED, 30), result);
+
+        assertEquals(protocol.sent.size(), 1);
+        assertEquals(protocol.getShadowState().getSuppressedCount(), 1);
+    }
+
+    @Test(timeOut = 5000)
+    public void sendToOtherPortsWhileAPortIsBlocked() throws Exception {
+        final RecordingProtocol protocol = new RecordingProtocol();
+        protocol.serialized = false;
+        protocol.setShadowState(new ShadowState());
+
+        // the first thread is blocked while sending 50 to the port 0
+        protocol.blocking = new CountDownLatch(1);
+        Thread first = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                protocol.exec(0, new TypedCommand(CommandType.SET_MOTOR_SPEED, 50), new TypedResult());
+            }
+        });
+        first.start();
+        protocol.entered.await();
+
+        protocol.exec(1, new TypedCommand(CommandType.SET_MOTOR_SPEED, 0), new TypedResult());
+        assertEquals(protocol.sent.get(1), "1:0");
+
+        protocol.blocking.countDown();
+        first.join();
+        assertEquals(protocol.sent.size(), 2);
+    }
+
+    /**
+     * A protocol which records the executed commands.
+     */
+    private static class RecordingProtocol extends ProtocolBase {
+        final List<String> sent = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch entered = new CountDownLatch(1);
+        volatile boolean failing;
+        volatile boolean rejecting;
+        volatile CountDownLatch blocking;
+        volatile boolean serialized = true;
+
+        RecordingProtocol() {
+            super(null);
+            register(CommandType.SET_MOTOR_SPEED, new CommandHandler() {
+                @Override
+                public void exec(int port, TypedCommand cmd, TypedResult result) {
+                    if (failing) throw new RuntimeException("failed to send");
+                    sent.add(port + ":" + cmd.getArg());
+                    if (rejecting) result.setRejected();
+                    if (blocking != null && cmd.getArg() != 0) {
+                        entered.countDown();
+                        try {
+                            blocking.await();
+                        } catch (InterruptedException e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                }
+            });
+            register(CommandType.GET_TOUCH_TOUCHED, new CommandHandler() {
+                @Override
+                public void exec(int port, TypedCommand cmd, TypedResult result) {
+                    if (failing) throw new RuntimeException("failed to read");
+                    result.setBooleanValue(false);
+                }
+            });
+        }
+
+        @Override
+        protected boolean isSerialized() {
+            return serialized;
+        }
+
+        @Override
+        public void open() {
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public boolean apply() {
+            return false;
+        }
+
+        @Override
+        public byte[] load(int key) {
+            return null;
+        }
+
+        @Override
+        public boolean store(int key, byte[] data) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/**
+ * Copyright (C) 2011-2017 The PILE Developers <pile-dev@googlegroups.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package unit.drivecommand.model.com;
+
+import com.pileproject.drivecommand.model.com.AsyncCommunicatorAdapter;
+import com.pileproject.drivecommand.model.com.BlockingCommunicator;
+import com.pileproject.drivecommand.model.com.ICommunicator;
+
+import org.testng.annotations.Test;
+
+import java.nio.channels.CompletionHandler;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import mockit.Expectations;
+import mockit.Mocked;
+
+import static org.testng.Assert.assertEquals;
+
+public class AsyncCommunicatorAdapterTest {
+    @Mocked
+    private ICommunicator communicator;
+
+    @Test
+    public void runOperationsInOrder() throws Exception {
+        final byte[] data = { 0x01, 0x02 };
+        new Expectations() {{
+            communicator.write(data);
+            communicator.read(2);
+            result = data;
+            communicator.read(2);
+            result = data;
+        }};
+        QueuedExecutor executor = new QueuedExecutor();
+        AsyncCommunicatorAdapter adapter = new AsyncCommunicatorAdapter(communicator, executor);
+        RecordingHandler<byte[]> readHandler = new RecordingHandler<>();
+        RecordingHandler<Void> writeHandler = new RecordingHandler<>();
+
+        adapter.write(data, "write", writeHandler);
+        adapter.read(2, "read", readHandler);
+        adapter.read(2, "read", readHandler);
+
+        // the second read waits for the first one
+        assertEquals(executor.tasks.size(), 2);
+        executor.runAll();
+
+        assertEquals(writeHandler.attachments.size(), 1);
+        assertEquals(readHandler.attachments.size(), 2);
+        assertEquals(readHandler.results.get(0), data);
+    }
+
+    @Test
+    public void reportAFailure() throws Exception {
+        final RuntimeException failure = new RuntimeException("disconnected");
+        new Expectations() {{
+            communicator.read(2);
+            result = failure;
+        }};
+        QueuedExecutor executor = new QueuedExecutor();
+        AsyncCommunicatorAdapter adapter = new AsyncCommunicatorAdapter(communicator, executor);
+        RecordingHandler<byte[]> handler = new RecordingHandler<>();
+
+        adapter.read(2, "read", handler);
+        executor.runAll();
+
+        assertEquals(handler.failures.size(), 1);
+        assertEquals(handler.failures.get(0), failure);
+    }
+
+    @Test(expectedExceptions = RuntimeException.class)
+    public void blockAndThrowAnException() throws Exception {
+        new Expectations() {{
+            communicator.read(2);
+            result = new RuntimeException("disconnected");
+        }};
+        BlockingCommunicator blocking = new BlockingCommunicator(
+                new AsyncCommunicatorAdapter(communicator, new QueuedExecutor().direct()));
+        blocking.read(2);
+    }
+
+    /**
+     * An executor which keeps tasks until they are run by a test.
+     */
+    private static class QueuedExecutor implements Executor {
+        final List<Runnable> tasks = new ArrayList<>();
+        private boolean mIsDirect;
+
+        QueuedExecutor direct() {
+            mIsDirect = true;
+            return this;
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            if (mIsDirect) command.run();
+            else tasks.add(command);
+        }
+
+        void runAll() {
+            while (!tasks.isEmpty()) {
+                tasks.remove(0).run();
+            }
+        }
+    }
+
+    private static class RecordingHandler<V> implements CompletionHandler<V, Object> {
+        final List<V> results = new ArrayList<>();
+        final List<Object> attachments = new ArrayList<>();
+        final List<Throwable> failures = new ArrayList<>();
+
+        @Override
+        public void completed(V result, Object attachment) {
+            results.add(result);
+            attachments.add(attachment);
+        }
+
+        @Override
+        public void failed(Throwable exc, Object attachment) {
+            failures.add(exc);
+        }
+    }
+}
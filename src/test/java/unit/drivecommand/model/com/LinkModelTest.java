@@ -0,0 +1,55 @@
+/**
+ * Copyright (C) 2011-2017 The PILE Developers <pile-dev@googlegroups.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package unit.drivecommand.model.com;
+
+import com.pileproject.drivecommand.model.com.LinkModel;
+
+import org.testng.annotations.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class LinkModelTest {
+    @Test
+    public void delayWithJitterAndBandwidth() throws Exception {
+        // 1 msec latency, up to 1 msec jitter and 1000 bytes/sec (1 msec per byte)
+        LinkModel link = new LinkModel(1, 1, TimeUnit.MILLISECONDS, 1000, 42);
+        for (int i = 0; i < 100; i++) {
+            long delay = link.nextDelayNanos(10);
+            assertTrue(delay >= TimeUnit.MILLISECONDS.toNanos(11), "delay: " + delay);
+            assertTrue(delay < TimeUnit.MILLISECONDS.toNanos(12), "delay: " + delay);
+        }
+        assertEquals(LinkModel.NONE.nextDelayNanos(100), 0);
+    }
+
+    @Test
+    public void shareBandwidthBetweenFrames() throws Exception {
+        LinkModel link = new LinkModel(5, 0, TimeUnit.MILLISECONDS, 1000, 0);
+        long now = 0;
+        long ms = TimeUnit.MILLISECONDS.toNanos(1);
+
+        // the second frame waits until the first one has been transferred
+        assertEquals(link.nextArrivalNanos(now, 10), 15 * ms);
+        assertEquals(link.nextArrivalNanos(now, 10), 25 * ms);
+
+        // the reply is sent after the request arrives, and the link is not kept busy meanwhile
+        long later = 100 * ms;
+        assertEquals(link.nextReplyArrivalNanos(later, 2, 4), later + 2 * ms + 5 * ms + 4 * ms + 5 * ms);
+        assertEquals(link.nextArrivalNanos(later, 1), later + 7 * ms + 5 * ms);
+    }
+}
@@ -0,0 +1,77 @@
+/**
+ * Copyright (C) 2011-2017 The PILE Developers <pile-dev@googlegroups.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package unit.drivecommand.model.com;
+
+import com.pileproject.drivecommand.model.com.IBufferedCommunicator;
+import com.pileproject.drivecommand.model.com.ICommunicator;
+import com.pileproject.drivecommand.model.com.ReceiveBuffer;
+
+import org.testng.annotations.Test;
+
+import mockit.Delegate;
+import mockit.Expectations;
+import mockit.Mocked;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class ReceiveBufferTest {
+    @Mocked
+    private ICommunicator communicator;
+    @Mocked
+    private IBufferedCommunicator bufferedCommunicator;
+
+    @Test
+    public void readAndCopy() throws Exception {
+        new Expectations() {{
+            communicator.read(2);
+            result = new byte[] { 0x34, 0x12 };
+            communicator.read(4);
+            result = new byte[] { 0x00, 0x00, (byte) 0xB4, 0x42 };
+        }};
+        ReceiveBuffer buffer = new ReceiveBuffer(2);
+
+        assertEquals(buffer.read(communicator, 2), 2);
+        assertEquals(buffer.getShort(0), 0x1234);
+        // the buffer grows when it is too small
+        assertEquals(buffer.append(communicator, 4), 4);
+        assertEquals(buffer.length(), 6);
+        assertEquals(buffer.getFloat(2), 90.0f);
+    }
+
+    @Test
+    public void readIntoTheBuffer() throws Exception {
+        final ReceiveBuffer buffer = new ReceiveBuffer(4);
+        new Expectations() {{
+            bufferedCommunicator.read(buffer.array(), 0, 4);
+            result = new Delegate<Integer>() {
+                @SuppressWarnings("unused")
+                int read(byte[] dst, int offset, int length) {
+                    dst[offset] = (byte) 0xFF;
+                    dst[offset + 1] = 0x7F;
+                    return 2;
+                }
+            };
+        }};
+        byte[] array = buffer.array();
+
+        assertEquals(buffer.read(bufferedCommunicator, 4), 2);
+        assertTrue(array == buffer.array());
+        assertEquals(buffer.length(), 2);
+        assertEquals(buffer.getUnsignedByte(0), 0xFF);
+        assertEquals(buffer.getShort(0), 0x7FFF);
+    }
+}
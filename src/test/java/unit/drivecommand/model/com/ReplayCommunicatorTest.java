@@ -0,0 +1,113 @@
+/**
+ * Copyright (C) 2011-2017 The PILE Developers <pile-dev@googlegroups.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package unit.drivecommand.model.com;
+
+import com.pileproject.drivecommand.model.com.ReplayCommunicator;
+import com.pileproject.drivecommand.model.com.ReplayMismatchException;
+import com.pileproject.drivecommand.model.com.SessionRecorder;
+
+import org.testng.annotations.Test;
+
+import java.io.File;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class ReplayCommunicatorTest {
+    private static final byte[] REQUEST_1 = { 0x01, 0x02 };
+    private static final byte[] REQUEST_2 = { 0x03 };
+    private static final byte[] REPLY_1 = { 0x11, 0x12, 0x13 };
+    private static final byte[] REPLY_2 = { 0x14 };
+
+    private static File record() throws Exception {
+        File file = File.createTempFile("replay", ".bin");
+        file.deleteOnExit();
+        SessionRecorder recorder = new SessionRecorder(file, 256);
+        recorder.recordWrite(REQUEST_1, 0, REQUEST_1.length);
+        recorder.recordWrite(REQUEST_2, 0, REQUEST_2.length);
+        recorder.recordRead(REPLY_1, 0, REPLY_1.length);
+        recorder.recordRead(REPLY_2, 0, REPLY_2.length);
+        recorder.close();
+        return file;
+    }
+
+    @Test
+    public void replayRecordedSession() throws Exception {
+        ReplayCommunicator comm = new ReplayCommunicator(record(), ReplayCommunicator.MAX_SPEED);
+
+        for (int i = 0; i < 2; i++) {
+            comm.open();
+            assertFalse(comm.isFinished());
+            comm.write(REQUEST_1);
+            comm.write(new byte[] { 0x00, 0x03 }, 1, 1);
+            assertEquals(comm.read(8), REPLY_1);
+            byte[] buffer = new byte[4];
+            assertEquals(comm.read(buffer, 2, 2), 1);
+            assertEquals(buffer[2], 0x14);
+            assertTrue(comm.isFinished());
+            comm.close();
+        }
+    }
+
+    @Test
+    public void replayWritesAndReadsFromDifferentThreads() throws Exception {
+        final ReplayCommunicator comm = new ReplayCommunicator(record(), ReplayCommunicator.MAX_SPEED);
+        comm.open();
+        final byte[][] replies = new byte[2][];
+
+        // the reader waits until the recorded writes have been done
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                replies[0] = comm.read(8);
+                replies[1] = comm.read(8);
+            }
+        });
+        reader.start();
+        Thread.sleep(50);
+        comm.write(REQUEST_1);
+        comm.write(REQUEST_2);
+        reader.join(5000);
+
+        assertEquals(replies[0], REPLY_1);
+        assertEquals(replies[1], REPLY_2);
+        assertTrue(comm.isFinished());
+    }
+
+    @Test
+    public void throwIfRequestDiffers() throws Exception {
+        ReplayCommunicator comm = new ReplayCommunicator(record(), ReplayCommunicator.MAX_SPEED);
+        comm.open();
+        try {
+            comm.write(REQUEST_2);
+            fail();
+        } catch (ReplayMismatchException e) {
+            // expected
+        }
+
+        comm.setValidation(false);
+        comm.write(REQUEST_2);
+        comm.write(REQUEST_2);
+        try {
+            comm.write(REQUEST_2);
+            fail();
+        } catch (ReplayMismatchException e) {
+            // no more writes
+        }
+    }
+}
@@ -0,0 +1,164 @@
+/**
+ * Copyright (C) 2011-2017 The PILE Developers <pile-dev@googlegroups.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package unit.drivecommand.model.com;
+
+import com.pileproject.drivecommand.command.TypedResult;
+import com.pileproject.drivecommand.model.CommandType;
+import com.pileproject.drivecommand.model.com.ICommunicator;
+import com.pileproject.drivecommand.model.com.RecordingCommunicator;
+import com.pileproject.drivecommand.model.com.SessionReader;
+import com.pileproject.drivecommand.model.com.SessionRecorder;
+
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+
+import mockit.Delegate;
+import mockit.Expectations;
+import mockit.Mocked;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class SessionRecorderTest {
+    @Mocked
+    private ICommunicator communicator;
+
+    @Test
+    public void recordFramesAndSamples() throws Exception {
+        final byte[] request = { 0x01, 0x02, 0x03 };
+        final byte[] reply = { 0x04, 0x05 };
+        new Expectations() {{
+            communicator.write(request);
+            communicator.read(2);
+            result = reply;
+        }};
+        File file = File.createTempFile("session", ".bin");
+        file.deleteOnExit();
+        // a small chunk, so new chunks are mapped while recording
+        SessionRecorder recorder = new SessionRecorder(file, 32);
+        RecordingCommunicator comm = new RecordingCommunicator(communicator, recorder);
+        comm.write(request);
+        byte[] buffer = new byte[4];
+        assertEquals(comm.read(buffer, 1, 2), 2);
+        TypedResult rgb = new TypedResult();
+        rgb.setFloatValues(new float[] { 0.5f, 0.25f, 1.0f }, 3);
+        recorder.recordSample(2, CommandType.GET_COLOR_RGB, rgb, 1234L);
+        recorder.close();
+        recorder.recordWrite(request, 0, request.length);
+
+        assertEquals(recorder.getRecordCount(), 3);
+        assertEquals(recorder.getDroppedCount(), 1);
+        // file header (22 bytes) + 3 record headers (13 bytes each) + payloads (3 + 2 + 32 bytes)
+        assertEquals(file.length(), 22 + 39 + 37);
+
+        SessionReader reader = new SessionReader(file);
+        assertTrue(reader.next());
+        assertEquals(reader.getType(), SessionReader.RecordType.WRITE);
+        assertEquals(reader.getData(), request);
+        assertTrue(reader.next());
+        assertEquals(reader.getType(), SessionReader.RecordType.READ);
+        assertEquals(reader.getData(), reply);
+        assertTrue(reader.next());
+        assertEquals(reader.getType(), SessionReader.RecordType.SAMPLE);
+        assertEquals(reader.getTimestamp(), 1234L);
+        assertEquals(reader.getPort(), 2);
+        assertEquals(reader.getCommandType(), CommandType.GET_COLOR_RGB);
+        TypedResult value = new TypedResult();
+        reader.getValue(value);
+        assertEquals(value.getFloatCount(), 3);
+        assertEquals(value.getFloatValues()[1], 0.25f);
+        assertFalse(reader.next());
+        reader.close();
+    }
+
+    @Test
+    public void recordWriteBeforeItIsSent() throws Exception {
+        File file = File.createTempFile("session", ".bin");
+        file.deleteOnExit();
+        final SessionRecorder recorder = new SessionRecorder(file, 32);
+        final int[] recordCounts = new int[1];
+        new Expectations() {{
+            communicator.write((byte[]) any);
+            result = new Delegate<Void>() {
+                @SuppressWarnings("unused")
+                void write(byte[] data) {
+                    // a reply can be read by another thread as soon as the request is written
+                    recordCounts[0] = (int) recorder.getRecordCount();
+                }
+            };
+        }};
+        RecordingCommunicator comm = new RecordingCommunicator(communicator, recorder);
+        comm.write(new byte[] { 0x01, 0x02, 0x03 }, 1, 2);
+        recorder.close();
+
+        assertEquals(recordCounts[0], 1);
+    }
+
+    @Test
+    public void storeCommandTypeByName() throws Exception {
+        File file = File.createTempFile("session", ".bin");
+        file.deleteOnExit();
+        SessionRecorder recorder = new SessionRecorder(file, 64);
+        TypedResult touched = new TypedResult();
+        touched.setBooleanValue(true);
+        recorder.recordSample(1, CommandType.GET_TOUCH_TOUCHED, touched, 0L);
+        recorder.close();
+
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        // file header (22 bytes) + record header (13 bytes) + port (4 bytes)
+        assertEquals(bytes[39], "GET_TOUCH_TOUCHED".length());
+        assertEquals(new String(bytes, 40, bytes[39], "US-ASCII"), "GET_TOUCH_TOUCHED");
+        assertEquals(bytes[40 + bytes[39]], 2); // boolean
+
+        SessionReader reader = new SessionReader(file);
+        assertTrue(reader.next());
+        assertEquals(reader.getCommandType(), CommandType.GET_TOUCH_TOUCHED);
+        TypedResult value = new TypedResult();
+        reader.getValue(value);
+        assertTrue(value.getBooleanValue());
+        reader.close();
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void rejectUnknownCommandType() throws Exception {
+        File file = File.createTempFile("session", ".bin");
+        file.deleteOnExit();
+        SessionRecorder recorder = new SessionRecorder(file, 64);
+        TypedResult touched = new TypedResult();
+        touched.setBooleanValue(true);
+        recorder.recordSample(1, CommandType.GET_TOUCH_TOUCHED, touched, 0L);
+        recorder.close();
+
+        // rename the command type as if it was recorded by a newer version
+        RandomAccessFile raw = new RandomAccessFile(file, "rw");
+        raw.seek(40);
+        raw.write('X');
+        raw.close();
+
+        SessionReader reader = new SessionReader(file);
+        try {
+            assertTrue(reader.next());
+            reader.getCommandType();
+        } finally {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/**
+ * Copyright (C) 2011-2017 The PILE Developers <pile-dev@googlegroups.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package unit.drivecommand.model.ev3;
+
+import com.pileproject.drivecommand.model.com.IBufferedCommunicator;
+import com.pileproject.drivecommand.model.ev3.ByteCodeFormatter;
+
+import org.testng.annotations.Test;
+
+import mockit.Expectations;
+import mockit.Mocked;
+
+import static com.pileproject.drivecommand.model.ev3.Ev3Constants.DIRECT_COMMAND_REPLY;
+import static com.pileproject.drivecommand.model.ev3.Ev3Constants.SOUND_CONTROL;
+import static org.testng.Assert.assertEquals;
+
+public class ByteCodeFormatterTest {
+    @Mocked
+    private IBufferedCommunicator communicator;
+
+    @Test
+    public void formatAByteCode() throws Exception {
+        ByteCodeFormatter byteCode = new ByteCodeFormatter();
+        byteCode.setMessageCounter((short) 0x0102);
+        byteCode.addOpCode(DIRECT_COMMAND_REPLY);
+        byteCode.addGlobalAndLocalBufferSize(0x104, 1);
+        byteCode.addParameter((byte) 0x7F);
+        byteCode.addParameter((short) 0x1234);
+        byteCode.addParameter(0x12345678);
+
+        assertEquals(byteCode.byteArray(), new byte[] {
+                0x0F, 0x00, // length
+                0x02, 0x01, // identification codes
+                DIRECT_COMMAND_REPLY,
+                0x04, 0x05, // global and local buffer size
+                (byte) 0x81, 0x7F,
+                (byte) 0x82, 0x34, 0x12,
+                (byte) 0x83, 0x78, 0x56, 0x34, 0x12,
+        });
+    }
+
+    @Test
+    public void resetAndReuse() throws Exception {
+        ByteCodeFormatter byteCode = new ByteCodeFormatter();
+        byteCode.setMessageCounter((short) 1);
+        // more than the initial capacity
+        for (int i = 0; i < 100; i++) {
+            byteCode.addOpCode(SOUND_CONTROL);
+        }
+
+        byteCode.reset();
+        byteCode.addOpCode(DIRECT_COMMAND_REPLY);
+        int position = byteCode.position();
+        byteCode.addGlobalAndLocalBufferSize(0, 0);
+        byteCode.setGlobalAndLocalBufferSize(position, 4, 0);
+
+        assertEquals(byteCode.byteArray(), new byte[] {
+                0x05, 0x00, 0x00, 0x00, DIRECT_COMMAND_REPLY, 0x04, 0x00
+        });
+    }
+
+    @Test
+    public void writeWithoutCopying() throws Exception {
+        final ByteCodeFormatter byteCode = new ByteCodeFormatter();
+        byteCode.addOpCode(DIRECT_COMMAND_REPLY);
+        new Expectations() {{
+            communicator.write((byte[]) any, 0, 5);
+        }};
+        byteCode.writeTo(communicator);
+    }
+}
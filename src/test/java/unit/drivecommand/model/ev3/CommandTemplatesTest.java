@@ -0,0 +1,102 @@
+/**
+ * Copyright (C) 2011-2017 The PILE Developers <pile-dev@googlegroups.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package unit.drivecommand.model.ev3;
+
+import com.pileproject.drivecommand.model.ev3.ByteCodeFormatter;
+import com.pileproject.drivecommand.model.ev3.CommandTemplates;
+
+import org.testng.annotations.Test;
+
+import static com.pileproject.drivecommand.model.ev3.Ev3Constants.DIRECT_COMMAND_NOREPLY;
+import static com.pileproject.drivecommand.model.ev3.Ev3Constants.DIRECT_COMMAND_REPLY;
+import static com.pileproject.drivecommand.model.ev3.Ev3Constants.EV3_GYRO;
+import static com.pileproject.drivecommand.model.ev3.Ev3Constants.EV3_TOUCH;
+import static com.pileproject.drivecommand.model.ev3.Ev3Constants.GYRO_ANGLE;
+import static com.pileproject.drivecommand.model.ev3.Ev3Constants.INPUT_DEVICE;
+import static com.pileproject.drivecommand.model.ev3.Ev3Constants.LAYER_MASTER;
+import static com.pileproject.drivecommand.model.ev3.Ev3Constants.OUTPUT_POWER;
+import static com.pileproject.drivecommand.model.ev3.Ev3Constants.OUTPUT_START;
+import static com.pileproject.drivecommand.model.ev3.Ev3Constants.READY_SI;
+import static com.pileproject.drivecommand.model.ev3.Ev3Constants.SOUND_CONTROL;
+import static com.pileproject.drivecommand.model.ev3.Ev3Constants.SOUND_TONE;
+import static com.pileproject.drivecommand.model.ev3.Ev3Constants.TOUCH_TOUCH;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+
+public class CommandTemplatesTest {
+
+    @Test
+    public void patchSetOutputState() throws Exception {
+        CommandTemplates templates = new CommandTemplates();
+        ByteCodeFormatter first = templates.setOutputState((byte) 0x01, (byte) 50);
+        ByteCodeFormatter second = templates.setOutputState((byte) 0x04, (byte) -30);
+
+        assertSame(first, second);
+        assertEquals(second.byteArray(), setOutputState((byte) 0x04, (byte) -30));
+    }
+
+    @Test
+    public void patchSoundTone() throws Exception {
+        CommandTemplates templates = new CommandTemplates();
+        templates.soundTone((byte) 10, (short) 440, (short) 100);
+
+        ByteCodeFormatter expected = new ByteCodeFormatter();
+        expected.addOpCode(DIRECT_COMMAND_NOREPLY);
+        expected.addGlobalAndLocalBufferSize(0, 0);
+        expected.addOpCode(SOUND_CONTROL);
+        expected.addOpCode(SOUND_TONE);
+        expected.addParameter((byte) 50);
+        expected.addParameter((short) 600);
+        expected.addParameter((short) 200);
+
+        assertEquals(templates.soundTone((byte) 50, (short) 600, (short) 200).byteArray(), expected.byteArray());
+    }
+
+    @Test
+    public void patchReadInput() throws Exception {
+        CommandTemplates templates = new CommandTemplates();
+        templates.readInput(true, (byte) 0, EV3_TOUCH, TOUCH_TOUCH, 1).setMessageCounter((short) 5);
+
+        ByteCodeFormatter expected = new ByteCodeFormatter();
+        expected.addOpCode(DIRECT_COMMAND_REPLY);
+        expected.addGlobalAndLocalBufferSize(4, 0);
+        expected.addOpCode(INPUT_DEVICE);
+        expected.addOpCode(READY_SI);
+        expected.addParameter(LAYER_MASTER);
+        expected.addParameter((byte) 2);
+        expected.addParameter(EV3_GYRO);
+        expected.addParameter(GYRO_ANGLE);
+        expected.addParameter((byte) 1);
+        expected.addGlobalIndex((byte) 0);
+
+        // the message counter of the previous call is cleared
+        assertEquals(templates.readInput(true, (byte) 2, EV3_GYRO, GYRO_ANGLE, 1).byteArray(), expected.byteArray());
+    }
+
+    private static byte[] setOutputState(byte port, byte speed) {
+        ByteCodeFormatter byteCode = new ByteCodeFormatter();
+        byteCode.addOpCode(DIRECT_COMMAND_NOREPLY);
+        byteCode.addGlobalAndLocalBufferSize(0, 0);
+        byteCode.addOpCode(OUTPUT_POWER);
+        byteCode.addParameter(LAYER_MASTER);
+        byteCode.addParameter(port);
+        byteCode.addParameter(speed);
+        byteCode.addOpCode(OUTPUT_START);
+        byteCode.addParameter(LAYER_MASTER);
+        byteCode.addParameter(port);
+        return byteCode.byteArray();
+    }
+}
@@ -15,15 +15,28 @@
  */
 package unit.drivecommand.model.ev3;
 
+import com.pileproject.drivecommand.command.CommandBase;
+import com.pileproject.drivecommand.command.CommandFactory;
+import com.pileproject.drivecommand.command.TypedCommand;
+import com.pileproject.drivecommand.command.TypedResult;
+import com.pileproject.drivecommand.model.CommandType;
 import com.pileproject.drivecommand.model.ProtocolBase;
 import com.pileproject.drivecommand.model.com.ICommunicator;
 import com.pileproject.drivecommand.model.ev3.Ev3Protocol;
 
 import org.testng.annotations.Test;
 
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+
 import mockit.Expectations;
 import mockit.Mocked;
 
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
 public class Ev3ProtocolTest {
     @Mocked
     private ICommunicator communicator;
@@ -53,6 +66,109 @@ public class Ev3ProtocolTest {
         // TODO: check whether each operation works properly
     }
 
+    @Test
+    public void execAllInOneDirectCommand() throws Exception {
+        final byte[] request = {
+                0x21, 0x00, // length
+                0x00, 0x00, // identification codes
+                0x00, // DIRECT_COMMAND_REPLY
+                0x05, 0x00, // global: 5 bytes, local: 0 bytes
+                // gyro angle (SI) of port 1 -> global[0]
+                (byte) 0x99, 0x1D, (byte) 0x81, 0x00, (byte) 0x81, 0x00,
+                (byte) 0x81, 0x20, (byte) 0x81, 0x00, (byte) 0x81, 0x01, (byte) 0xE1, 0x00,
+                // color illuminance (PCT) of port 2 -> global[4]
+                (byte) 0x99, 0x1B, (byte) 0x81, 0x00, (byte) 0x81, 0x01,
+                (byte) 0x81, 0x1D, (byte) 0x81, 0x00, (byte) 0x81, 0x01, (byte) 0xE1, 0x04,
+        };
+        final byte[] reply = {
+                0x00, 0x00, // identification codes
+                0x02, // DIRECT_COMMAND_SUCCESS
+                0x00, 0x00, (byte) 0xB4, 0x42, // 90.0f
+                0x2A, // 42
+        };
+        new Expectations() {{
+            communicator.write(request);
+            communicator.read(2);
+            result = new byte[] { (byte) reply.length, 0x00 };
+            communicator.read(reply.length);
+            result = reply;
+        }};
+        ProtocolBase protocol = new Ev3Protocol(communicator);
+        List<Map<String, Object>> results = protocol.execAll(new int[] { 0, 1 }, new CommandBase[] {
+                CommandFactory.createCommand(CommandType.GET_GYRO_ANGLE, null),
+                CommandFactory.createCommand(CommandType.GET_COLOR_ILLUMINANCE, null)
+        });
+
+        assertEquals(results.size(), 2);
+        assertEquals(results.get(0).get("value"), 90);
+        assertEquals(results.get(1).get("value"), 42);
+    }
+
+    @Test
+    public void submitAndCompleteOutOfOrder() throws Exception {
+        final byte[] angleReply = { 0x00, 0x00, 0x02, 0x00, 0x00, (byte) 0xB4, 0x42 }; // 90.0f
+        final byte[] rateReply = { 0x01, 0x00, 0x02, 0x00, 0x00, 0x20, 0x41 }; // 10.0f
+        new Expectations() {{
+            communicator.write((byte[]) any);
+            times = 2;
+            // the reply of the second request arrives first
+            communicator.read(2);
+            result = new byte[] { 0x07, 0x00 };
+            communicator.read(7);
+            result = rateReply;
+            communicator.read(2);
+            result = new byte[] { 0x07, 0x00 };
+            communicator.read(7);
+            result = angleReply;
+        }};
+        Ev3Protocol protocol = new Ev3Protocol(communicator);
+        Future<Map<String, Object>> angle =
+                protocol.submit(0, CommandFactory.createCommand(CommandType.GET_GYRO_ANGLE, null));
+        Future<Map<String, Object>> rate =
+                protocol.submit(0, CommandFactory.createCommand(CommandType.GET_GYRO_RATE, null));
+
+        assertEquals(angle.get().get("value"), 90);
+        assertEquals(rate.get().get("value"), 10);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void execAllWithDifferentLengthsAndThrowAnException() throws Exception {
+        ProtocolBase protocol = new Ev3Protocol(communicator);
+        protocol.execAll(new int[] { 0, 1 }, new CommandBase[] {
+                CommandFactory.createCommand(CommandType.GET_GYRO_ANGLE, null)
+        });
+    }
+
+    @Test
+    public void execAllOnlyTheFirstCountCommands() throws Exception {
+        final byte[] reply = { 0x00, 0x00, 0x02, 0x00, 0x00, (byte) 0xB4, 0x42 }; // 90.0f
+        new Expectations() {{
+            communicator.write((byte[]) any);
+            times = 1;
+            communicator.read(2);
+            result = new byte[] { (byte) reply.length, 0x00 };
+            communicator.read(reply.length);
+            result = reply;
+        }};
+        ProtocolBase protocol = new Ev3Protocol(communicator);
+        TypedResult[] results = { new TypedResult(), new TypedResult() };
+        protocol.execAll(new int[] { 0, 1 }, new TypedCommand[] {
+                new TypedCommand(CommandType.GET_GYRO_ANGLE, 0),
+                new TypedCommand(CommandType.GET_COLOR_ILLUMINANCE, 0)
+        }, results, 1);
+
+        assertEquals(results[0].getIntValue(), 90);
+        assertEquals(results[1].getValueType(), TypedResult.ValueType.NONE);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void execAllWithTooLargeCountAndThrowAnException() throws Exception {
+        ProtocolBase protocol = new Ev3Protocol(communicator);
+        protocol.execAll(new int[] { 0 }, new TypedCommand[] {
+                new TypedCommand(CommandType.GET_GYRO_ANGLE, 0)
+        }, new TypedResult[] { new TypedResult() }, 2);
+    }
+
     @Test
     public void applySuccessfully() throws Exception {
         // TODO: complete this
@@ -63,6 +179,56 @@ public class Ev3ProtocolTest {
         // protocol.apply();
     }
 
+    @Test
+    public void supportCommands() throws Exception {
+        ProtocolBase protocol = new Ev3Protocol(communicator);
+        assertTrue(protocol.supports(CommandType.GET_GYRO_ANGLE));
+        assertTrue(protocol.supports(CommandType.SET_MOTOR_SPEED));
+        assertFalse(protocol.supports(CommandType.SET_LED_ON));
+    }
+
+    @Test(expectedExceptions = UnsupportedOperationException.class)
+    public void execAnUnsupportedCommandAndThrowAnException() throws Exception {
+        ProtocolBase protocol = new Ev3Protocol(communicator);
+        protocol.exec(0, new TypedCommand(CommandType.SET_LED_ON, 0), new TypedResult());
+    }
+
+    @Test
+    public void readAndClearTouchChanges() throws Exception {
+        final byte[] request = {
+                0x1B, 0x00, // length
+                0x00, 0x00, // identification codes
+                0x00, // DIRECT_COMMAND_REPLY
+                0x08, 0x00, // global: 8 bytes, local: 0 bytes
+                // GET_CHANGES of port 1 -> global[0]
+                (byte) 0x99, 0x19, (byte) 0x81, 0x00, (byte) 0x81, 0x00, (byte) 0xE1, 0x00,
+                // GET_BUMPS of port 1 -> global[4]
+                (byte) 0x99, 0x1F, (byte) 0x81, 0x00, (byte) 0x81, 0x00, (byte) 0xE1, 0x04,
+                // CLR_CHANGES of port 1
+                (byte) 0x99, 0x1A, (byte) 0x81, 0x00, (byte) 0x81, 0x00,
+        };
+        final byte[] reply = {
+                0x00, 0x00, // identification codes
+                0x02, // DIRECT_COMMAND_SUCCESS
+                0x00, 0x00, 0x00, 0x40, // 2.0f
+                0x00, 0x00, (byte) 0x80, 0x3F, // 1.0f
+        };
+        new Expectations() {{
+            communicator.write(request);
+            communicator.read(2);
+            result = new byte[] { (byte) reply.length, 0x00 };
+            communicator.read(reply.length);
+            result = reply;
+        }};
+        ProtocolBase protocol = new Ev3Protocol(communicator);
+        TypedResult result = new TypedResult();
+        protocol.exec(0, new TypedCommand(CommandType.GET_TOUCH_CHANGES, 0), result);
+
+        assertEquals(result.getFloatCount(), 2);
+        assertEquals(result.getFloatValues()[0], 2.0f);
+        assertEquals(result.getFloatValues()[1], 1.0f);
+    }
+
     @Test(expectedExceptions = UnsupportedOperationException.class)
     public void loadAndThrowAnException() throws Exception {
         ProtocolBase protocol = new Ev3Protocol(communicator);
@@ -0,0 +1,135 @@
+/**
+ * Copyright (C) 2011-2017 The PILE Developers <pile-dev@googlegroups.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package unit.drivecommand.model.ev3;
+
+import com.pileproject.drivecommand.command.TypedCommand;
+import com.pileproject.drivecommand.command.TypedResult;
+import com.pileproject.drivecommand.model.CommandType;
+import com.pileproject.drivecommand.model.com.AsyncCommunicatorAdapter;
+import com.pileproject.drivecommand.model.com.LinkModel;
+import com.pileproject.drivecommand.model.ev3.Ev3Protocol;
+import com.pileproject.drivecommand.model.ev3.Ev3Simulator;
+
+import org.testng.annotations.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class Ev3SimulatorTest {
+    @Test
+    public void readSensorsAndDriveMotors() throws Exception {
+        Ev3Simulator simulator = new Ev3Simulator();
+        Ev3Protocol protocol = new Ev3Protocol(simulator);
+        protocol.open();
+        TypedResult result = new TypedResult();
+
+        simulator.setInputValues(1, 42.5f);
+        simulator.setInputValues(2, 10.0f, 20.0f, 30.0f);
+        protocol.exec(1, new TypedCommand(CommandType.GET_GYRO_ANGLE, 0), result);
+        assertEquals(result.getIntValue(), 42);
+        protocol.exec(2, new TypedCommand(CommandType.GET_COLOR_RGB, 0), result);
+        assertEquals(result.getFloatValues(), new float[] { 10.0f, 20.0f, 30.0f });
+        // percent values are returned in a byte
+        protocol.exec(2, new TypedCommand(CommandType.GET_COLOR_ILLUMINANCE, 0), result);
+        assertEquals(result.getIntValue(), 10);
+
+        protocol.exec(0, new TypedCommand(CommandType.SET_MOTOR_SPEED, 50), result);
+        assertEquals(simulator.getMotorPower(0), 50);
+        Thread.sleep(20);
+        protocol.exec(0, new TypedCommand(CommandType.GET_SERVO_ANGLE, 0), result);
+        assertTrue(result.getIntValue() > 0);
+
+        protocol.exec(0, new TypedCommand(CommandType.SET_BUZZER_BEEP, 0), result);
+        assertEquals(simulator.getToneCount(), 1);
+        assertEquals(simulator.getLastToneFrequency(), 600);
+        assertEquals(simulator.getRequestCount(), 6);
+        assertEquals(simulator.getFailureCount(), 0);
+        protocol.close();
+    }
+
+    @Test
+    public void countTouchChanges() throws Exception {
+        Ev3Simulator simulator = new Ev3Simulator();
+        Ev3Protocol protocol = new Ev3Protocol(simulator);
+        protocol.open();
+        TypedResult result = new TypedResult();
+
+        simulator.setTouched(3, true);
+        protocol.exec(3, new TypedCommand(CommandType.GET_TOUCH_TOUCHED, 0), result);
+        assertTrue(result.getBooleanValue());
+        simulator.setTouched(3, false);
+        simulator.setTouched(3, true);
+        simulator.setTouched(3, false);
+        protocol.exec(3, new TypedCommand(CommandType.GET_TOUCH_TOUCHED, 0), result);
+        assertFalse(result.getBooleanValue());
+        protocol.exec(3, new TypedCommand(CommandType.GET_TOUCH_COUNT, 0), result);
+        assertEquals(result.getIntValue(), 2);
+
+        protocol.exec(3, new TypedCommand(CommandType.GET_TOUCH_CHANGES, 0), result);
+        assertEquals(result.getFloatValues(), new float[] { 2, 2 });
+        // the changes have been cleared
+        protocol.exec(3, new TypedCommand(CommandType.GET_TOUCH_CHANGES, 0), result);
+        assertEquals(result.getFloatValues(), new float[] { 0, 0 });
+        protocol.close();
+    }
+
+    @Test
+    public void delayRepliesByLink() throws Exception {
+        Ev3Simulator simulator = new Ev3Simulator(new LinkModel(10, 5, TimeUnit.MILLISECONDS));
+        Ev3Protocol protocol = new Ev3Protocol(simulator);
+        protocol.open();
+        TypedResult result = new TypedResult();
+        simulator.setInputValues(0, 7.0f);
+
+        long start = System.nanoTime();
+        protocol.exec(0, new TypedCommand(CommandType.GET_RANGEFINDER_DIST, 0), result);
+        assertEquals(result.getIntValue(), 7);
+        long elapsed = System.nanoTime() - start;
+        // the delays of the request and the reply
+        assertTrue(elapsed >= TimeUnit.MILLISECONDS.toNanos(20), "elapsed: " + elapsed);
+        protocol.close();
+    }
+
+    @Test(timeOut = 5000)
+    public void readThroughASingleThreadExecutor() throws Exception {
+        Ev3Simulator simulator = new Ev3Simulator();
+        ExecutorService executor = Executors.newFixedThreadPool(1);
+        Ev3Protocol protocol = new Ev3Protocol(new AsyncCommunicatorAdapter(simulator, executor));
+        protocol.open();
+        TypedResult result = new TypedResult();
+        simulator.setInputValues(1, 42.5f);
+
+        protocol.exec(1, new TypedCommand(CommandType.GET_GYRO_ANGLE, 0), result);
+        assertEquals(result.getIntValue(), 42);
+        protocol.exec(0, new TypedCommand(CommandType.SET_MOTOR_SPEED, 50), result);
+        assertEquals(simulator.getMotorPower(0), 50);
+        protocol.exec(1, new TypedCommand(CommandType.GET_GYRO_ANGLE, 0), result);
+        assertEquals(result.getIntValue(), 42);
+        protocol.close();
+        executor.shutdown();
+    }
+
+    @Test(expectedExceptions = RuntimeException.class)
+    public void throwIfNotOpened() throws Exception {
+        Ev3Protocol protocol = new Ev3Protocol(new Ev3Simulator());
+        protocol.exec(0, new TypedCommand(CommandType.SET_MOTOR_SPEED, 50), new TypedResult());
+    }
+}
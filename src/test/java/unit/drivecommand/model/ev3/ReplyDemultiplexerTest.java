@@ -0,0 +1,191 @@
+/**
+ * Copyright (C) 2011-2017 The PILE Developers <pile-dev@googlegroups.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package unit.drivecommand.model.ev3;
+
+import com.pileproject.drivecommand.model.com.AsyncCommunicatorAdapter;
+import com.pileproject.drivecommand.model.com.ICommunicator;
+import com.pileproject.drivecommand.model.ev3.ByteCodeFormatter;
+import com.pileproject.drivecommand.model.ev3.ReplyDemultiplexer;
+
+import org.testng.annotations.Test;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+
+import mockit.Expectations;
+import mockit.Mocked;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotEquals;
+import static org.testng.Assert.assertTrue;
+
+public class ReplyDemultiplexerTest {
+    @Mocked
+    private ICommunicator communicator;
+
+    @Test
+    public void allocateDifferentCounters() throws Exception {
+        ReplyDemultiplexer demultiplexer = new ReplyDemultiplexer(communicator);
+        ReplyDemultiplexer.Reply first = demultiplexer.allocate();
+        ReplyDemultiplexer.Reply second = demultiplexer.allocate();
+
+        assertNotEquals(first.getCounter(), second.getCounter());
+        assertEquals(demultiplexer.getPendingCount(), 2);
+    }
+
+    @Test
+    public void completeRepliesOutOfOrder() throws Exception {
+        final byte[] firstReply = { 0x00, 0x00, 0x02, 0x0A };
+        final byte[] secondReply = { 0x01, 0x00, 0x02, 0x14 };
+        new Expectations() {{
+            // the reply of the second request arrives first
+            communicator.read(2);
+            result = new byte[] { 0x04, 0x00 };
+            communicator.read(4);
+            result = secondReply;
+            communicator.read(2);
+            result = new byte[] { 0x04, 0x00 };
+            communicator.read(4);
+            result = firstReply;
+        }};
+        ReplyDemultiplexer demultiplexer = new ReplyDemultiplexer(communicator);
+        ReplyDemultiplexer.Reply first = demultiplexer.allocate();
+        ReplyDemultiplexer.Reply second = demultiplexer.allocate();
+
+        assertEquals(first.get(), firstReply);
+        assertTrue(second.isDone());
+        assertEquals(second.get(), secondReply);
+        assertEquals(demultiplexer.getPendingCount(), 0);
+    }
+
+    @Test
+    public void dropAnUnknownReply() throws Exception {
+        final byte[] unknownReply = { 0x05, 0x00, 0x02 };
+        final byte[] knownReply = { 0x00, 0x00, 0x02 };
+        new Expectations() {{
+            communicator.read(2);
+            result = new byte[] { 0x03, 0x00 };
+            communicator.read(3);
+            result = unknownReply;
+            communicator.read(2);
+            result = new byte[] { 0x03, 0x00 };
+            communicator.read(3);
+            result = knownReply;
+        }};
+        ReplyDemultiplexer demultiplexer = new ReplyDemultiplexer(communicator);
+        ReplyDemultiplexer.Reply reply = demultiplexer.allocate();
+
+        assertEquals(reply.get(), knownReply);
+    }
+
+    @Test(expectedExceptions = CancellationException.class)
+    public void cancelAndThrowAnException() throws Exception {
+        ReplyDemultiplexer demultiplexer = new ReplyDemultiplexer(communicator);
+        ReplyDemultiplexer.Reply reply = demultiplexer.allocate();
+
+        assertTrue(reply.cancel(false));
+        assertTrue(reply.isCancelled());
+        assertFalse(reply.cancel(false));
+        assertEquals(demultiplexer.getPendingCount(), 0);
+        reply.get();
+    }
+
+    @Test
+    public void completeAReplyAsynchronously() throws Exception {
+        final byte[] reply = { 0x00, 0x00, 0x02, 0x0A };
+        new Expectations() {{
+            communicator.write((byte[]) any);
+            communicator.read(2);
+            result = new byte[] { 0x04, 0x00 };
+            communicator.read(4);
+            result = reply;
+        }};
+        ReplyDemultiplexer demultiplexer = new ReplyDemultiplexer(
+                new AsyncCommunicatorAdapter(communicator, DIRECT_EXECUTOR));
+        // the direct executor writes the request and reads the reply before send() returns
+        ReplyDemultiplexer.Reply first = demultiplexer.send(new ByteCodeFormatter());
+
+        final boolean[] isCalled = { false };
+        first.addListener(new Runnable() {
+            @Override
+            public void run() {
+                isCalled[0] = true;
+            }
+        });
+
+        assertTrue(demultiplexer.isAsynchronous());
+        assertTrue(isCalled[0]);
+        assertEquals(first.get(), reply);
+        assertEquals(demultiplexer.getPendingCount(), 0);
+    }
+
+    @Test(expectedExceptions = ExecutionException.class)
+    public void failAsynchronouslyAndThrowAnException() throws Exception {
+        new Expectations() {{
+            communicator.write((byte[]) any);
+            communicator.read(2);
+            result = new RuntimeException("disconnected");
+        }};
+        ReplyDemultiplexer demultiplexer = new ReplyDemultiplexer(
+                new AsyncCommunicatorAdapter(communicator, DIRECT_EXECUTOR));
+        ReplyDemultiplexer.Reply reply = demultiplexer.send(new ByteCodeFormatter());
+
+        assertTrue(reply.isDone());
+        assertEquals(demultiplexer.getPendingCount(), 0);
+        reply.get();
+    }
+
+    @Test
+    public void readOnlyAfterTheRequestIsWritten() throws Exception {
+        final QueuedExecutor executor = new QueuedExecutor();
+        ReplyDemultiplexer demultiplexer = new ReplyDemultiplexer(
+                new AsyncCommunicatorAdapter(communicator, executor));
+        ReplyDemultiplexer.Reply reply = demultiplexer.send(new ByteCodeFormatter());
+
+        // only the write is queued; a read queued before it could block the only thread forever
+        assertEquals(executor.tasks.size(), 1);
+        new Expectations() {{
+            communicator.write((byte[]) any);
+        }};
+        executor.runNext();
+        assertEquals(executor.tasks.size(), 1);
+        assertFalse(reply.isDone());
+    }
+
+    private static class QueuedExecutor implements Executor {
+        final Queue<Runnable> tasks = new ArrayDeque<>();
+
+        @Override
+        public void execute(Runnable command) {
+            tasks.add(command);
+        }
+
+        void runNext() {
+            tasks.poll().run();
+        }
+    }
+
+    private static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+}
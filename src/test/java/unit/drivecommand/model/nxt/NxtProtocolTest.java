@@ -15,10 +15,12 @@
  */
 package unit.drivecommand.model.nxt;
 
+import com.pileproject.drivecommand.model.CommandType;
 import com.pileproject.drivecommand.model.ProtocolBase;
 import com.pileproject.drivecommand.model.com.ICommunicator;
 import com.pileproject.drivecommand.model.nxt.NxtProtocol;
 
+import org.testng.AssertJUnit;
 import org.testng.annotations.Test;
 
 import mockit.Expectations;
@@ -63,6 +65,13 @@ public class NxtProtocolTest {
         // protocol.apply();
     }
 
+    @Test
+    public void supportCommands() throws Exception {
+        ProtocolBase protocol = new NxtProtocol(communicator);
+        AssertJUnit.assertTrue(protocol.supports(CommandType.GET_TOUCH_TOUCHED));
+        AssertJUnit.assertFalse(protocol.supports(CommandType.GET_GYRO_RATE));
+    }
+
     @Test(expectedExceptions = UnsupportedOperationException.class)
     public void loadAndThrowAnException() throws Exception {
         ProtocolBase protocol = new NxtProtocol(communicator);
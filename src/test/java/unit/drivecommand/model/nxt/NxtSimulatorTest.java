@@ -0,0 +1,104 @@
+/**
+ * Copyright (C) 2011-2017 The PILE Developers <pile-dev@googlegroups.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package unit.drivecommand.model.nxt;
+
+import com.pileproject.drivecommand.command.TypedCommand;
+import com.pileproject.drivecommand.command.TypedResult;
+import com.pileproject.drivecommand.model.CommandType;
+import com.pileproject.drivecommand.model.nxt.NxtConstants;
+import com.pileproject.drivecommand.model.nxt.NxtProtocol;
+import com.pileproject.drivecommand.model.nxt.NxtSimulator;
+
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class NxtSimulatorTest {
+    @Test
+    public void readSensorsThroughProtocol() throws Exception {
+        NxtSimulator simulator = new NxtSimulator();
+        NxtProtocol protocol = new NxtProtocol(simulator);
+        protocol.open();
+        TypedResult result = new TypedResult();
+
+        // 0 in percent (full scale) is the max raw value
+        simulator.setRawValue(0, 0);
+        protocol.exec(0, new TypedCommand(CommandType.GET_LIGHT_VALUE, 0), result);
+        assertEquals(result.getIntValue(), 10);
+        simulator.setRawValue(0, 1023);
+        protocol.exec(0, new TypedCommand(CommandType.GET_LIGHT_VALUE, 0), result);
+        assertEquals(result.getIntValue(), 0);
+
+        // SET_INPUT_MODE and the skipped read only for the first time
+        assertEquals(simulator.getInputModeCount(), 1);
+        assertEquals(simulator.getRequestCount(), 4);
+        protocol.close();
+    }
+
+    @Test
+    public void driveMotorsThroughProtocol() throws Exception {
+        NxtSimulator simulator = new NxtSimulator();
+        NxtProtocol protocol = new NxtProtocol(simulator);
+        protocol.open();
+        TypedResult result = new TypedResult();
+
+        protocol.exec(1, new TypedCommand(CommandType.SET_MOTOR_SPEED, -30), result);
+        assertEquals(simulator.getMotorPower(1), -30);
+        Thread.sleep(20);
+        assertTrue(simulator.getMotorDegrees(1) < 0);
+        assertEquals(simulator.getFailureCount(), 0);
+        protocol.close();
+    }
+
+    @Test
+    public void replyToDirectCommands() throws Exception {
+        NxtSimulator simulator = new NxtSimulator();
+        simulator.open();
+
+        // SET_INPUT_MODE (switch, transition count) and GET_INPUT_VALUES
+        simulator.write(new byte[] { 0x05, 0x00, (byte) 0x80, NxtConstants.SET_INPUT_MODE, 0x02,
+                NxtConstants.SWITCH, NxtConstants.TRANSITIONCNTMODE });
+        simulator.setRawValue(2, 100);
+        simulator.setRawValue(2, 900);
+        simulator.setRawValue(2, 100);
+        simulator.write(new byte[] { 0x03, 0x00, 0x00, NxtConstants.GET_INPUT_VALUES, 0x02 });
+        byte[] reply = simulator.read(66);
+        assertEquals(reply.length, 16);
+        assertEquals(reply[0], NxtConstants.REPLY_COMMAND);
+        assertEquals(reply[1], NxtConstants.GET_INPUT_VALUES);
+        assertEquals(reply[2], 0x00);
+        assertEquals(reply[3], 0x02);
+        assertEquals(reply[4], 0x00); // the first value is invalid
+        assertEquals(reply[6], NxtConstants.SWITCH);
+        assertEquals(reply[8], 100);
+        assertEquals(reply[12], 3);
+
+        // GET_OUTPUT_STATE of a stopped motor
+        simulator.write(new byte[] { 0x03, 0x00, 0x00, NxtConstants.GET_OUTPUT_STATE, 0x00 });
+        reply = simulator.read(66);
+        assertEquals(reply.length, 25);
+        assertEquals(reply[8], NxtConstants.MOTOR_RUN_STATE_IDLE);
+
+        // unknown opcode
+        simulator.write(new byte[] { 0x02, 0x00, 0x00, 0x7F });
+        reply = simulator.read(66);
+        assertEquals(reply.length, 3);
+        assertEquals(reply[2], (byte) 0xBE);
+        assertEquals(simulator.getFailureCount(), 1);
+        simulator.close();
+    }
+}
@@ -78,4 +78,23 @@ public class PilePacketFormatterTest {
         assertEquals(null, badPacket.data());
         assertEquals(null, badPacket.byteArray());
     }
+
+    @Test
+    public void reusePacket() {
+        PilePacketFormatter packet = new PilePacketFormatter(PileConstants.CommandTypes.MOVE);
+        packet.setDataByte((byte) 0x01);
+        packet.setDataByte((byte) 0x0A);
+        packet.calculateChecksum();
+
+        packet.reset(PileConstants.CommandTypes.MOVE);
+        assertEquals(false, packet.isFixed());
+        assertEquals(false, packet.isValid());
+
+        packet.setDataByte((byte) 0x01);
+        packet.setDataByte((byte) 0x0A);
+        packet.calculateChecksum();
+
+        byte[] expected = {0x05, 0x00, 0x01, 0x0A, 0x0E};
+        assertEquals(expected, packet.byteArray());
+    }
 }
@@ -0,0 +1,119 @@
+/**
+ * Copyright (C) 2011-2017 The PILE Developers <pile-dev@googlegroups.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package unit.drivecommand.model.pile;
+
+import com.pileproject.drivecommand.command.TypedCommand;
+import com.pileproject.drivecommand.command.TypedResult;
+import com.pileproject.drivecommand.model.CommandType;
+import com.pileproject.drivecommand.model.pile.PileConstants;
+import com.pileproject.drivecommand.model.pile.PilePacketFormatter;
+import com.pileproject.drivecommand.model.pile.PileProtocol;
+import com.pileproject.drivecommand.model.pile.PileSimulator;
+
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class PileSimulatorTest {
+    @Test
+    public void applyOutputsInTransaction() throws Exception {
+        PileSimulator simulator = new PileSimulator();
+        PileProtocol protocol = new PileProtocol(simulator);
+        protocol.open();
+        TypedResult result = new TypedResult();
+
+        protocol.exec(0, new TypedCommand(CommandType.SET_MOTOR_SPEED, 80), result);
+        assertEquals(result.getIntValue(), 1);
+        protocol.exec(1, new TypedCommand(CommandType.SET_MOTOR_SPEED, -40), result);
+        assertEquals(result.getIntValue(), 1);
+        protocol.exec(0, new TypedCommand(CommandType.SET_LED_ON, 0), result);
+        assertEquals(result.getIntValue(), 1);
+        // nothing is changed until the transaction is applied
+        assertEquals(simulator.getMotorSpeed(0), 0);
+        assertFalse(simulator.isLedOn(0));
+
+        assertTrue(protocol.apply());
+        assertEquals(simulator.getMotorSpeed(0), 80);
+        assertEquals(simulator.getMotorSpeed(1), -40);
+        assertTrue(simulator.isLedOn(0));
+        assertEquals(simulator.getApplyCount(), 1);
+        protocol.close();
+    }
+
+    @Test
+    public void readSensors() throws Exception {
+        PileSimulator simulator = new PileSimulator();
+        PileProtocol protocol = new PileProtocol(simulator);
+        protocol.open();
+        TypedResult result = new TypedResult();
+
+        simulator.setTouched(2, true);
+        simulator.setDistance(0, 0x30);
+        simulator.setBrightness(1, 200);
+        protocol.exec(2, new TypedCommand(CommandType.GET_TOUCH_TOUCHED, 0), result);
+        assertTrue(result.getBooleanValue());
+        protocol.exec(3, new TypedCommand(CommandType.GET_TOUCH_TOUCHED, 0), result);
+        assertFalse(result.getBooleanValue());
+        protocol.exec(0, new TypedCommand(CommandType.GET_RANGEFINDER_DIST, 0), result);
+        assertEquals(result.getIntValue(), 0xFF - 0x30);
+        protocol.exec(1, new TypedCommand(CommandType.GET_LIGHT_VALUE, 0), result);
+        assertEquals(result.getIntValue(), 200);
+        assertEquals(simulator.getRequestCount(), 4);
+        protocol.close();
+    }
+
+    @Test
+    public void storeAndLoadValues() throws Exception {
+        PileSimulator simulator = new PileSimulator();
+        PileProtocol protocol = new PileProtocol(simulator);
+        protocol.open();
+
+        assertTrue(protocol.store(7, new byte[] { 0x0A, 0x0B, 0x0C }));
+        assertEquals(simulator.getStoredValue(7), new byte[] { 0x0A, 0x0B, 0x0C });
+
+        PilePacketFormatter load = new PilePacketFormatter(PileConstants.CommandTypes.LOAD);
+        load.setDataByte((byte) 7);
+        load.calculateChecksum();
+        simulator.write(load.byteArray());
+        byte[] reply = simulator.read(64);
+        assertTrue(PilePacketFormatter.hasValidChecksum(reply, reply.length));
+        // |LENGTH|TYPE|PAYLOAD LENGTH|PAYLOAD|CHECKSUM|
+        assertEquals(reply, new byte[] { 7, 0x60, 3, 0x0A, 0x0B, 0x0C, (byte) (7 ^ 0x60 ^ 3 ^ 0x0A ^ 0x0B ^ 0x0C) });
+
+        // an empty payload removes the value
+        assertTrue(protocol.store(7, new byte[0]));
+        assertNull(simulator.getStoredValue(7));
+        protocol.close();
+    }
+
+    @Test
+    public void rejectInvalidPackets() throws Exception {
+        PileSimulator simulator = new PileSimulator(115200);
+        simulator.open();
+
+        // the checksum should be 0x04 ^ 0x70 ^ 0x00
+        simulator.write(new byte[] { 0x04, 0x70, 0x00, 0x00 });
+        byte[] reply = simulator.read(4);
+        assertEquals(reply[1], 0x70);
+        assertEquals(reply[2] & 0x01, 0);
+        assertEquals(simulator.getFailureCount(), 1);
+        assertEquals(simulator.getApplyCount(), 0);
+        simulator.close();
+    }
+}